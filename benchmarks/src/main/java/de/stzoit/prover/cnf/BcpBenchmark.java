@@ -0,0 +1,70 @@
+package de.stzoit.prover.cnf;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.stzoit.prover.benchmarks.Instances;
+
+/**
+ * BCP throughput: starting from level 0, a fixed sequence of decisions is replayed, each followed by bcp(), 
+ * until a conflict occurs or the sequence is exhausted. The benchmark lives in the solver's package in order 
+ * to drive the protected search primitives directly.
+ * 
+ * @author AK
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=10, time=1)
+@Fork(1)
+public class BcpBenchmark {
+	@Param({ "php-8", "langford-6", "random3-250-4.26" })
+	public String instance;
+	
+	@Param({ "64" })
+	public int decisions;
+	
+	private CNFSolver solver;
+	private int lits[];                     /* decision sequence */
+	
+	@Setup
+	public void setup() throws Exception {
+		solver=new CNFSolver("bcp");
+		Instances.load(Instances.clauses(instance), solver);
+		solver.bcp();
+		
+		Random rnd=new Random(Instances.SEED());
+		lits=new int[decisions];
+		for (int i=0; i<decisions; i++)
+			lits[i]=CNFSolver.var2lit(1+rnd.nextInt(solver.variables.size()-1), rnd.nextBoolean());
+	}
+	
+	/* returns the number of propagated literals (consumed by JMH) */
+	@Benchmark
+	public int replayDecisions() {
+		solver.backtrack(0);
+		for (int i=0; i<lits.length; i++) {
+			if (solver.lit2val(lits[i])!=CNFSolver.Val.UNKNOWN)
+				continue;
+			solver.level++;
+			solver.assign(lits[i], null);
+			if (!solver.bcp())
+				break;
+		}
+		return solver.trail_lim;
+	}
+}
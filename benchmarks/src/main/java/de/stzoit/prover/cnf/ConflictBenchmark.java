@@ -0,0 +1,70 @@
+package de.stzoit.prover.cnf;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.stzoit.prover.benchmarks.Instances;
+
+/**
+ * Conflict analysis: before every invocation, the solver is reset to the formula (pop() removes the clauses 
+ * learnt so far) and decide()/bcp() are performed until a conflict occurs; the benchmark measures 
+ * handleConflict() only. The instances are unsatisfiable or far beyond the threshold, thus every descent 
+ * ends in a conflict.
+ * 
+ * @author AK
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=10, time=1)
+@Fork(1)
+public class ConflictBenchmark {
+	@Param({ "php-8", "langford-6", "random3-250-5.0" })
+	public String instance;
+	
+	private CNFSolver solver;
+	private boolean conflict;
+	
+	@Setup
+	public void setup() throws Exception {
+		solver=new CNFSolver("conflict");
+		Instances.load(Instances.clauses(instance), solver);
+		solver.save();
+	}
+	
+	@Setup(Level.Invocation)
+	public void descend() throws Exception {
+		solver.pop();
+		solver.save();
+		
+		conflict=false;
+		while (true) {
+			if (!solver.bcp()) {
+				conflict=solver.level>0;
+				break;
+			}
+			if (!solver.decide())
+				break;
+		}
+	}
+	
+	@Benchmark
+	public void handleConflict() throws Exception {
+		if (conflict)
+			solver.handleConflict();
+	}
+}
@@ -0,0 +1,77 @@
+package de.stzoit.prover.collections;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.stzoit.prover.benchmarks.Instances;
+import de.stzoit.prover.collections.nativeType.ActivityHeap;
+
+/**
+ * ActivityHeap as used for the solver's variable queue: insertion of all variables, extraction of all 
+ * variables and restoring the heap property after quickInsert() (i.e. after backtracking)
+ * 
+ * @author AK
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=10, time=1)
+@Fork(1)
+public class ActivityHeapBenchmark {
+	@Param({ "1000", "100000" })
+	public int size;
+	
+	private ActivityHeap heap;
+	
+	@Setup
+	public void setup() {
+		Random rnd=new Random(Instances.SEED());
+		
+		heap=new ActivityHeap(size);
+		for (int i=0; i<size; i++)
+			heap.setActivity(i, rnd.nextInt(1<<16));
+	}
+	
+	@Benchmark
+	public int insert() {
+		heap.clear();
+		for (int i=0; i<size; i++)
+			heap.insert(i);
+		return heap.size();
+	}
+	
+	@Benchmark
+	public double insertExtract() {
+		double sum=0;
+		
+		heap.clear();
+		for (int i=0; i<size; i++)
+			heap.insert(i);
+		while (!heap.isEmpty())
+			sum+=heap.activity(heap.heapExtractMax());
+		return sum;
+	}
+	
+	@Benchmark
+	public double quickInsertRestore() {
+		heap.clear();
+		for (int i=0; i<size; i++)
+			heap.quickInsert(i);
+		heap.restoreHeapProperty();
+		return heap.activity(heap.peek());
+	}
+}
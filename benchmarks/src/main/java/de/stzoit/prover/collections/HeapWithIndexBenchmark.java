@@ -0,0 +1,105 @@
+package de.stzoit.prover.collections;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.stzoit.prover.benchmarks.Instances;
+
+/**
+ * HeapWithIndex as formerly used for the solver's variable queue (objects with score and heap index, as
+ * Variable was before ActivityHeap), baseline for ActivityHeapBenchmark: insertion of all variables,
+ * extraction of all variables and restoring the heap property after quickInsert() (i.e. after backtracking)
+ * 
+ * @author AK
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=10, time=1)
+@Fork(1)
+public class HeapWithIndexBenchmark {
+	@Param({ "1000", "100000" })
+	public int size;
+	
+	private Scored vars[];
+	private HeapWithIndex<Scored> heap;
+	
+	/* score and heap index, compared like the former Variable */
+	static class Scored implements ComparableWithIndex<Scored> {
+		private int score;
+		private int hind=-1;
+		
+		Scored(int score) {
+			this.score=score;
+		}
+		
+		int getScore() {
+			return score;
+		}
+		
+		public int compareTo(Scored o) {
+			return score-o.score;
+		}
+		
+		public int index() {
+			return hind;
+		}
+		
+		public void setIndex(int i) {
+			hind=i;
+		}
+	}
+	
+	@Setup
+	public void setup() {
+		Random rnd=new Random(Instances.SEED());
+		
+		vars=new Scored[size];
+		for (int i=0; i<size; i++)
+			vars[i]=new Scored(rnd.nextInt(1<<16));
+		heap=new HeapWithIndex<Scored>();
+	}
+	
+	@Benchmark
+	public int insert() {
+		heap.clear();
+		for (int i=0; i<size; i++)
+			heap.insert(vars[i]);
+		return heap.size();
+	}
+	
+	@Benchmark
+	public int insertExtract() {
+		int sum=0;
+		
+		heap.clear();
+		for (int i=0; i<size; i++)
+			heap.insert(vars[i]);
+		while (!heap.isEmpty())
+			sum+=heap.heapExtractMax().getScore();
+		return sum;
+	}
+	
+	@Benchmark
+	public int quickInsertRestore() {
+		heap.clear();
+		for (int i=0; i<size; i++)
+			heap.quickInsert(vars[i]);
+		heap.restoreHeapProperty();
+		return heap.peek().getScore();
+	}
+}
@@ -0,0 +1,95 @@
+package de.stzoit.prover.collections;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.stzoit.prover.collections.nativeType.IntVec;
+
+/**
+ * push, get and remove of IntVec (trail, binary watchlists) and Vec (clause watchlists)
+ * 
+ * @author AK
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=10, time=1)
+@Fork(1)
+public class VecBenchmark {
+	@Param({ "16", "1024" })
+	public int size;
+	
+	private IntVec ints;
+	private Vec<Integer> objs;
+	private Integer boxed[];
+	
+	@Setup
+	public void setup() {
+		ints=new IntVec();
+		objs=new Vec<Integer>();
+		boxed=new Integer[size];
+		for (int i=0; i<size; i++)
+			boxed[i]=i;
+	}
+	
+	@Benchmark
+	public int intVecPushGet() {
+		int sum=0;
+		
+		ints.clear();
+		for (int i=0; i<size; i++)
+			ints.push(i);
+		for (int i=0; i<size; i++)
+			sum+=ints.get(i);
+		return sum;
+	}
+	
+	/* remove() searches the element and shifts the tail */
+	@Benchmark
+	public int intVecRemove() {
+		ints.clear();
+		for (int i=0; i<size; i++)
+			ints.push(i);
+		for (int i=size-1; i>=0; i-=2)
+			ints.remove(i);
+		return ints.size();
+	}
+	
+	@Benchmark
+	public int vecPushGet() {
+		int sum=0;
+		
+		objs.clear();
+		for (int i=0; i<size; i++)
+			objs.push(boxed[i]);
+		for (int i=0; i<size; i++)
+			sum+=objs.get(i);
+		return sum;
+	}
+	
+	/* delete() moves the last element, remove() shifts the tail */
+	@Benchmark
+	public int vecDeleteRemove() {
+		objs.clear();
+		for (int i=0; i<size; i++)
+			objs.push(boxed[i]);
+		for (int i=0; i<size/2; i++)
+			objs.delete(0);
+		while (!objs.isEmpty())
+			objs.remove(objs.last());
+		return objs.size();
+	}
+}
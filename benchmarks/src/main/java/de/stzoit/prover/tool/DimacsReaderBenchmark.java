@@ -0,0 +1,58 @@
+package de.stzoit.prover.tool;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.stzoit.prover.benchmarks.Instances;
+import de.stzoit.prover.cnf.CNFSolver;
+
+/**
+ * DimacsReader.readSolve(): parsing a DIMACS file and adding its clauses to a fresh solver
+ * 
+ * @author AK
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=10, time=1)
+@Fork(1)
+public class DimacsReaderBenchmark {
+	@Param({ "php-10", "langford-8", "random3-5000-4.26" })
+	public String instance;
+	
+	private File file;
+	
+	@Setup
+	public void setup() throws Exception {
+		file=File.createTempFile("bench-"+instance, ".cnf");
+		Instances.writeDimacs(Instances.clauses(instance), file);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+	
+	@Benchmark
+	public CNFSolver readSolve() throws Exception {
+		CNFSolver solver=new CNFSolver("reader");
+		
+		new DimacsReader().readSolve(file.getPath(), solver);
+		return solver;
+	}
+}
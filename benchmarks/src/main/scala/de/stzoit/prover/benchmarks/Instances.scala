@@ -0,0 +1,78 @@
+package de.stzoit.prover.benchmarks
+
+import java.io.{File, PrintWriter}
+import java.util.Random
+
+import de.stzoit.prover.cnf.{Clause, CNFSolver}
+import org.warthog.generic.formulas.{Not, Formula}
+import org.warthog.pl.formulas.{PLAtom, PL}
+import org.warthog.pl.generators.{LangfordPairingGenerator, PigeonHoleGenerator}
+import org.warthog.pl.io.CNFUtil
+
+/**
+ * Deterministic benchmark instances in DIMACS representation (clauses as arrays of non-zero integers)
+ *
+ * Instance names:
+ *   - php-<n>:                pigeon hole instance for n+1 pigeons, n holes
+ *   - langford-<n>:           Langford pairing instance of order n
+ *   - random<k>-<n>-<ratio>:  uniform random k-SAT with n variables and ratio*n clauses (fixed seed)
+ *
+ * Author: kuebler
+ */
+object Instances {
+  val SEED = 4711L
+
+  def clauses(name: String): Array[Array[Int]] = name.split("-").toList match {
+    case List("php", n)                              => pigeonHole(n.toInt)
+    case List("langford", n)                         => langford(n.toInt)
+    case List(k, n, r) if k.startsWith("random")     => randomKSat(k.substring(6).toInt, n.toInt, r.toDouble, SEED)
+    case _                                           => throw new IllegalArgumentException("Unknown instance: " + name)
+  }
+
+  def pigeonHole(n: Int) = toDimacs(PigeonHoleGenerator.generate(n))
+
+  def langford(n: Int) = toDimacs(LangfordPairingGenerator.generate(n))
+
+  def randomKSat(k: Int, n: Int, ratio: Double, seed: Long): Array[Array[Int]] = {
+    val rnd = new Random(seed)
+    Array.fill((ratio * n).toInt) {
+      var vars = Set[Int]()
+      while (vars.size < k)
+        vars += rnd.nextInt(n) + 1
+      vars.toArray.map(v => if (rnd.nextBoolean()) v else -v)
+    }
+  }
+
+  /**
+   * Add clauses to a solver
+   * @return false if the solver detected a conflict while adding
+   */
+  def load(cls: Array[Array[Int]], solver: CNFSolver): Boolean =
+    cls.forall {
+      c =>
+        val clause = new Clause(solver)
+        c.foreach(l => clause.push(l.toString))
+        solver.pushClause(clause)
+    }
+
+  def writeDimacs(cls: Array[Array[Int]], file: File) {
+    val out = new PrintWriter(file)
+    try {
+      out.println("p cnf " + numVars(cls) + " " + cls.length)
+      cls.foreach(c => out.println(c.mkString(" ") + " 0"))
+    } finally {
+      out.close()
+    }
+  }
+
+  /* highest variable index (the DIMACS header's variable count), generators may skip indices */
+  def numVars(cls: Array[Array[Int]]) = (0 +: cls.flatMap(_.map(math.abs(_)))).max
+
+  /* both generators name their atoms v<i> */
+  private def toDimacs(f: Formula[PL]): Array[Array[Int]] =
+    CNFUtil.toList(f).map(_.map {
+      case PLAtom(name)      => name.substring(1).toInt
+      case Not(PLAtom(name)) => -name.substring(1).toInt
+      case l                 => throw new IllegalArgumentException("Not a literal: " + l)
+    }.toArray).toArray
+}
@@ -0,0 +1,199 @@
+package de.stzoit.prover.cnf;
+
+import de.stzoit.prover.collections.IVec;
+import de.stzoit.prover.collections.Vec;
+import de.stzoit.prover.collections.nativeType.IntVec;
+
+/**
+ * Binary clauses as implication graph: the row of literal l holds all literals implied by l, i.e. clause
+ * (a \/ b) is stored as b in the row of -a and as a in the row of -b
+ *
+ *     - two levels: rows are frozen into a single CSR array (row offsets + targets) by freeze(), clauses
+ *       added afterwards (e.g. learnt binaries) go to small per-literal overflow vectors, which are allocated
+ *       on demand; the next freeze() merges them into the CSR array
+ *     - a row is its frozen part followed by its overflow part, thus insertion order is preserved and rows may
+ *       be cut to stack bounds saved earlier (see CNFSolver.save(), pop())
+ *     - addClause() checks only the overflow rows for duplicates and only if asked to (learnt binaries), the
+ *       input is deduplicated by freeze()
+ *     - literals 0 and 1 are reserved (variable 0), their rows stay empty
+ *
+ * @author AK
+ *
+ */
+public class BinaryImplicationGraph {
+	private int begin[]=new int[0];         /* start of lit's frozen row in targets */
+	private int length[]=new int[0];        /* used length of frozen rows (rows are cut by pop()) */
+	private int targets[]=new int[0];       /* frozen rows */
+	private int frozen=0;                   /* literals 0..frozen-1 have a frozen row */
+	private IVec<IntVec> overflow;          /* Lit->implied literals added after freeze(), null if there are none */
+	private long pending=0;                 /* entries added to overflow rows since the last freeze() */
+	private long entries=0;                 /* total number of entries */
+
+	public BinaryImplicationGraph() {
+		overflow=new Vec<IntVec>();
+	}
+
+	/* number of literals, i.e. 2*#variables */
+	public int numLiterals() {
+		return overflow.size();
+	}
+
+	/* add rows for literals numLiterals(), ..., nlits-1 */
+	public void growTo(int nlits) {
+		while (overflow.size()<nlits)
+			overflow.push(null);
+	}
+
+	/* remove rows of literals nlits, nlits+1, ... */
+	public void shrinkLiteralsTo(int nlits) {
+		for (int lit=nlits; lit<numLiterals(); lit++)
+			entries-=size(lit);
+		overflow.shrinkTo(Math.min(overflow.size(), nlits));
+		frozen=Math.min(frozen, nlits);
+	}
+
+	/* number of literals implied by lit */
+	public int size(int lit) {
+		IntVec ov=overflow.get(lit);
+
+		return (lit<frozen ? length[lit] : 0)+(ov==null ? 0 : ov.size());
+	}
+
+	/* i-th literal implied by lit */
+	public int get(int lit, int i) {
+		int n=(lit<frozen ? length[lit] : 0);
+
+		return i<n ? targets[begin[lit]+i] : overflow.get(lit).get(i-n);
+	}
+
+	public void set(int lit, int i, int implied) {
+		int n=(lit<frozen ? length[lit] : 0);
+
+		if (i<n)
+			targets[begin[lit]+i]=implied;
+		else
+			overflow.get(lit).set(i-n, implied);
+	}
+
+	/* cut row of lit to its first n entries */
+	public void shrinkTo(int lit, int n) {
+		int fn=(lit<frozen ? length[lit] : 0);
+		IntVec ov=overflow.get(lit);
+		
+		entries-=size(lit)-Math.min(size(lit), n);
+
+		if (n<fn) {
+			length[lit]=n;
+			if (ov!=null)
+				ov.clear();
+		} else if (ov!=null)
+			ov.shrinkTo(Math.min(ov.size(), n-fn));
+	}
+
+	public boolean contains(int lit, int implied) {
+		for (int i=begin(lit), end=end(lit); i<end; i++)
+			if (targets[i]==implied)
+				return true;
+
+		IntVec ov=overflow.get(lit);
+		return ov!=null && ov.contains(implied);
+	}
+
+	/* append implied to the row of lit */
+	public void push(int lit, int implied) {
+		if (overflow.get(lit)==null)
+			overflow.set(lit, new IntVec(4));
+		overflow.get(lit).push(implied);
+		pending++;
+		entries++;
+	}
+
+	/* add clause (lit0 \/ lit1): false if check is set and it is already present in the overflow rows */
+	public boolean addClause(int lit0, int lit1, boolean check) {
+		/* -lit == lit^1, search the shorter row */
+		if (check) {
+			IntVec ov0=overflow.get(lit0^1), ov1=overflow.get(lit1^1);
+			
+			if (ov0!=null && ov1!=null && (ov0.size()<=ov1.size() ? ov0.contains(lit1) : ov1.contains(lit0)))
+				return false;
+		}
+
+		push(lit0^1, lit1);
+		push(lit1^1, lit0);
+		return true;
+	}
+
+	/* frozen part of lit's row: targets()[begin(lit)], ..., targets()[end(lit)-1] */
+	public int[] targets() {
+		return targets;
+	}
+
+	public int begin(int lit) {
+		return lit<frozen ? begin[lit] : 0;
+	}
+
+	public int end(int lit) {
+		return lit<frozen ? begin[lit]+length[lit] : 0;
+	}
+
+	/* overflow part of lit's row, null if empty */
+	public IntVec overflow(int lit) {
+		return overflow.get(lit);
+	}
+
+	/* entries added since the last freeze() */
+	public long pending() {
+		return pending;
+	}
+
+	/* total number of entries, i.e. twice the number of binary clauses */
+	public long numEntries() {
+		return entries;
+	}
+
+	/*
+	 * merge all rows into a new CSR array and release the overflow vectors. If dedupe is set, duplicate
+	 * entries of a row are removed, which changes row lengths, thus this must not be done while stack bounds
+	 * of rows are saved.
+	 */
+	public void freeze(boolean dedupe) throws Exception {
+		int nlits=numLiterals();
+		int _begin[]=new int[nlits], _length[]=new int[nlits];
+		int stamp[]=(dedupe ? new int[nlits] : null);
+		long total=numEntries();
+
+		if (total>Integer.MAX_VALUE)
+			throw new Exception("Too many binary clauses: "+total/2);
+
+		int _targets[]=new int[(int)total];
+		int pos=0;
+
+		for (int lit=0; lit<nlits; lit++) {
+			_begin[lit]=pos;
+			for (int i=0, n=size(lit); i<n; i++) {
+				int implied=get(lit, i);
+
+				if (dedupe) {
+					if (stamp[implied]==lit+1)
+						continue;
+					stamp[implied]=lit+1;
+				}
+				_targets[pos++]=implied;
+			}
+			_length[lit]=pos-_begin[lit];
+			overflow.set(lit, null);
+		}
+
+		if (pos<_targets.length) { /* duplicates have been removed */
+			int t[]=new int[pos];
+			System.arraycopy(_targets, 0, t, 0, pos);
+			_targets=t;
+		}
+		begin=_begin;
+		length=_length;
+		targets=_targets;
+		frozen=nlits;
+		pending=0;
+		entries=pos;
+	}
+}
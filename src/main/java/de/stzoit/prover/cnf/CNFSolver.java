@@ -4,17 +4,19 @@ import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
 import de.stzoit.prover.Model;
 import de.stzoit.prover.NotSATException;
 import de.stzoit.prover.Solver;
 import de.stzoit.prover.TimeOutException;
-import de.stzoit.prover.collections.HeapWithIndex;
 import de.stzoit.prover.collections.IVec;
 import de.stzoit.prover.collections.Vec;
+import de.stzoit.prover.collections.nativeType.ActivityHeap;
 import de.stzoit.prover.collections.nativeType.BooleanVec;
 import de.stzoit.prover.collections.nativeType.IntVec;
+import de.stzoit.prover.collections.nativeType.LongLongMap;
 
 
 /**
@@ -24,9 +26,20 @@ import de.stzoit.prover.collections.nativeType.IntVec;
  *         * learnt binary & unit clauses are never removed by clause garbage collection
  *         * binary clauses are represented in terms of adjacency lists of literals for fast propagation
  *         * binary clauses are propagated before longer clauses are propagated
+ *     - native cardinality constraints (at-most-k, at-least-k):
+ *         * counter based propagation, explanation clauses are generated lazily during conflict analysis
+ *         * optionally, groups of pairwise at-most-one binary clauses are detected and replaced by native 
+ *           constraints before solving
+ *     - native XOR constraints:
+ *         * kept in reduced row echelon form by incremental Gauss-Jordan elimination, every row of the matrix
+ *           is propagated by two watched variables, explanation clauses are generated lazily
+ *         * optionally, clause groups encoding XOR constraints are detected and replaced before solving
  *       drawback:
  *         * due to the special representation of binary clauses, we need to copy stack bounds for every binary 
  *           watchlist entry
+ *     - solving under assumptions (sat(int[])): the assumed literals are decided before any other variable,
+ *       thus learnt clauses stay valid for later calls; if an assumption is falsified, the assumptions it
+ *       depends on are collected (MiniSAT's analyzeFinal) and returned by getConflictAssumptions()
  *     - for context saving, there are two options:
  *         1. completely restart (i.e. start over from level 0), when backtracking to a mark known to be 
  *            satisfiable
@@ -77,7 +90,7 @@ public class CNFSolver implements Solver {
 	protected static final String version="0.0.1";             /* version number                                */
 	protected Statistics stats;                                /* statistics                                    */
 	protected IVec<IVec<Clause>> watchlists;        /* watches (positive and negative) for variables */
-	protected IVec<IntVec> binwatchlists;                      /* watches for binary clauses                    */
+	protected BinaryImplicationGraph bingraph;                 /* binary clauses (Lit->implied literals)        */
 	protected IVec<Clause> origclauses;             /* holds original clauses                        */
 	protected IVec<LearntClause> learntclauses;     /* holds learnt clauses                          */
 	protected IVec<Variable> variables;             /* holds variables, implicitly provides Int->Var */
@@ -93,8 +106,11 @@ public class CNFSolver implements Solver {
 	protected boolean bt2zero_after_unit_addition=true;        /* if true always backtrack to 0 uppon addition  
 	                                                            of unit clauses                               */
 	protected boolean phase_saving=true;                       /* perform phase saving uppon backtracking       */
+	protected boolean trail_reuse=true;                        /* keep reusable decision levels on restarts     */
+	protected boolean vivification=false;                      /* shorten learnt clauses on some restarts       */
+	protected int vivify_max_lbd=6;                            /* vivify learnt clauses with LBD <= ... only    */
 	protected HashMap<String,Integer> name2var=null;           /* mapping of variables names to numbers         */
-	protected HeapWithIndex<Variable> varq=null;    /* holds */
+	protected ActivityHeap varq=null;                          /* unassigned variables ordered by activity      */
 	protected State state=State.UNKNOWN;
 	protected char initial_phase=2;                            /* 0 false, 1 true, 2 ~JWH                       */
 	protected int conflict_lit=0;                              /* conflicting literal implied by binary clause  */
@@ -106,11 +122,35 @@ public class CNFSolver implements Solver {
 	protected String name=null;                                /* solver name */
 	protected Val value_enum=null;
 	protected boolean score_saving=false;                      /* save scores/phases on mark(), reset on undo() */
+	protected IVec<IVec<CardinalityConstraint>> cardlists;     /* Lit->cardinality constraints containing lit, 
+	                                                              null if there are none                        */
+	protected IVec<CardinalityConstraint> cardconstraints;     /* holds native cardinality constraints          */
+	protected IntVec cardmarks;                                /* cardinality constraint stack bounds for marks */
+	protected IVec<IVec<XorConstraint>> xorlists;              /* Var->XOR constraints watching var, null if 
+	                                                              there are none */
+	protected IVec<XorConstraint> xorinput;                    /* holds XOR constraints as they have been added */
+	protected IVec<XorConstraint> xorconstraints;              /* XOR constraints propagated by watches         */
+	protected IntVec xormarks;                                 /* XOR constraint stack bounds for marks         */
+	protected GaussJordanMatrix gauss;                         /* XOR constraints in reduced row echelon form   */
+	protected boolean gauss_elimination=true;                  /* propagate by the matrix instead of watches    */
+	protected boolean gauss_dirty=false;                       /* matrix columns assigned since last propagation*/
+	protected SolverMetrics metrics=null;                      /* live metrics, null if disabled                */
+	protected boolean watches_dirty=false;                     /* watchlists contain detached clauses           */
+	protected ProofWriter proof=null;                          /* DRAT/LRAT output, null if disabled            */
+	protected long proof_ids=0;                                /* last clause id assigned for proof output      */
+	protected LongLongMap proof_bin_ids=null;                  /* binary clause (packed lits)->id (LRAT)        */
+	protected long proof_unit_ids[]=null;                      /* Lit->id of unit clause, 0 if none (LRAT)      */
+	protected long proof_hints[]=new long[16];                 /* LRAT hints of the current lemma               */
+	protected int proof_nhints=0;
+	protected boolean proof_empty=false;                       /* empty clause has been written                 */
+	protected IntVec assumptions=null;                         /* literals assumed by the running sat(int[])    */
+	protected IntVec assumption_index=null;                    /* Level->index of the assumption decided there  */
+	protected IntVec conflict_assumptions=null;                /* assumptions refuted by the last sat(int[])    */
 	
 	public CNFSolver() {
 		stats        =new Statistics(25000000); /* max. decisions deliberately set to 25*10^6 */
 		watchlists   =new Vec<IVec<Clause>>();
-		binwatchlists=new Vec<IntVec>();
+		bingraph     =new BinaryImplicationGraph();
 		origclauses  =new Vec<Clause>();
 		learntclauses=new Vec<LearntClause>();
 		variables    =new Vec<Variable>();
@@ -120,13 +160,26 @@ public class CNFSolver implements Solver {
 		perm_diff    =new IntVec();
 		seen         =new BooleanVec();
 		name2var     =new HashMap<String,Integer>();
-		varq         =new HeapWithIndex<Variable>();
+		varq         =new ActivityHeap();
 		marks        =new Vec<Integer[]>();
+		cardlists    =new Vec<IVec<CardinalityConstraint>>();
+		cardconstraints=new Vec<CardinalityConstraint>();
+		cardmarks    =new IntVec();
+		xorlists     =new Vec<IVec<XorConstraint>>();
+		xorinput     =new Vec<XorConstraint>();
+		xorconstraints=new Vec<XorConstraint>();
+		xormarks     =new IntVec();
+		gauss        =new GaussJordanMatrix();
+		assumptions  =new IntVec();
+		assumption_index=new IntVec();
+		conflict_assumptions=new IntVec();
 		
 		/* variables 0 and 1 are reserved */
 		watchlists.push(null); watchlists.push(null);
-		binwatchlists.push(null); binwatchlists.push(null);
+		cardlists.push(null); cardlists.push(null);
+		bingraph.growTo(2);
 		variables.push(null);
+		xorlists.push(null);
 		levels.push(-1);
 		seen.push(false);
 		perm_diff.push(-1);
@@ -143,14 +196,19 @@ public class CNFSolver implements Solver {
 		
 		watchlists.push(new Vec<Clause>());
 		watchlists.push(new Vec<Clause>());
-		binwatchlists.push(new IntVec());
-		binwatchlists.push(new IntVec());
+		bingraph.growTo(2*(vnum+1));
+		cardlists.push(null);
+		cardlists.push(null);
 		variables.push(var);
+		xorlists.push(null);
 		levels.push(-1);
 		perm_diff.push(-1);
 		seen.push(false);
 		name2var.put(var.getName(), vnum);
-		varq.insert(var);
+		if (proof!=null)
+			proof.mapVariable(vnum, dimacsNumber(var.getName()));
+		varq.setActivity(vnum, 0);
+		varq.insert(vnum);
 		
 		return vnum;
 	}
@@ -179,6 +237,10 @@ public class CNFSolver implements Solver {
 		         ? (sign(lit) ? lit2variable(lit).get_value() : Val.neg(lit2variable(lit).get_value())) 
 		         : Val.UNKNOWN;
 	}
+	
+	public Val var2val(int var) {
+		return var<variables.size() && variables.get(var)!=null ? variables.get(var).get_value() : Val.UNKNOWN;
+	}
     
     public static Val litValue(int lit) {
         return sign(lit) ? Val.TRUE : Val.FALSE;
@@ -228,7 +290,7 @@ public class CNFSolver implements Solver {
 				
 				trail.push(lit);
 				levels.set(lit2var(lit), level);
-				varq.delete(var);
+				varq.delete(lit2var(lit));
 				
 				if (reason!=null && reason instanceof LearntClause)
 					((LearntClause)reason).ref(); /* increment reference counter */
@@ -248,12 +310,14 @@ public class CNFSolver implements Solver {
 		if (v!=null) {
 			if (v.reason() instanceof LearntClause)
 				((LearntClause)v.reason()).deref();
+			if (gauss.size()>0)
+				gauss.unassign(lit2var(lit));
 			
 			v.setReason(null);
 			v.setValue(Val.UNKNOWN);
 			if (phase_saving)
 				v.setPhase(sign(lit));
-			varq.quickInsert(v);
+			varq.quickInsert(lit2var(lit));
 			
 			levels.set(lit2var(lit), -1);
 		}
@@ -261,19 +325,104 @@ public class CNFSolver implements Solver {
 	
 	/* returns false if a conflict has been detected */
 	protected boolean bcp() {
+		while (bcpWatches()) {
+			if (!gauss_dirty)
+				return true;
+			if (!propagateGauss())
+				return false;
+		}
+		return false;
+	}
+	
+	/* 
+	 * propagate the Gauss-Jordan matrix after bcpWatches() has reached its fixpoint: rows are repivoted to 
+	 * unassigned columns, rows with a single unassigned variable propagate it and fully assigned rows may 
+	 * conflict. Reasons are XOR constraints over the row at that time (which may change later), explained 
+	 * lazily like watched ones: false if conflicting
+	 */
+	protected boolean propagateGauss() {
+		gauss_dirty=false;
+		gauss.repivot();
+		
+		for (int row=0; row<gauss.size(); row++) {
+			int var=gauss.unassignedVariable(row);
+			
+			if (var==GaussJordanMatrix.SEVERAL)
+				continue;
+			boolean value=gauss.residualParity(row);
+			
+			if (var==GaussJordanMatrix.NONE) {
+				if (!value)
+					continue;
+				
+				/* conflicting row: the conflict literal is the falsified one of the variable assigned last */
+				int vars[]=gauss.getVariables(row);
+				int last=vars[0];
+				for (int i=1; i<vars.length; i++)
+					if (levels.get(vars[i])>levels.get(last))
+						last=vars[i];
+				conflict_lit=var2lit(last, var2val(last)!=Val.TRUE);
+				conflict_reason=new XorConstraint(this, vars, gauss.getParity(row));
+				gauss_dirty=true; /* check again after backtracking */
+				return false;
+			}
+			if (!assign(var2lit(var, value), new XorConstraint(this, gauss.getVariables(row), gauss.getParity(row)))) {
+				gauss_dirty=true;
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/* propagate the trail by watches (clauses, XOR constraints) and counters: false if conflicting */
+	protected boolean bcpWatches() {
 		while (trail_lim<trail.size()) {
 			int lit                   =trail.get(trail_lim++);
-			IntVec bwl         =binwatchlists.get(lit);
 			IVec<Clause> wl=watchlists.get(lit);
+			IVec<CardinalityConstraint> cl=cardlists.get(lit);
+			IVec<XorConstraint> xl=xorlists.get(lit2var(lit));
+			
+			/* count lit for all cardinality constraints before anything else may fail (see backtrack()) */
+			if (cl!=null)
+				for (int i=0; i<cl.size(); i++)
+					cl.get(i).count(lit);
+			if (gauss.size()>0 && gauss.isColumn(lit2var(lit))) {
+				gauss.assign(lit2var(lit), sign(lit));
+				gauss_dirty=true;
+			}
 
-			/* propagate binary clauses first */
-			for (int i=0; i<bwl.size(); i++)
-				if (!assign(bwl.get(i), lit)) {		
+			/* propagate binary clauses first: frozen part of the implication graph, then its overflow */
+			int targets[]=bingraph.targets();
+			for (int i=bingraph.begin(lit), end=bingraph.end(lit); i<end; i++)
+				if (!assign(targets[i], lit))
 					return false;
+			IntVec bwl=bingraph.overflow(lit);
+			for (int i=0; bwl!=null && i<bwl.size(); i++)
+				if (!assign(bwl.get(i), lit))
+					return false;
+			
+			/* propagate cardinality constraints */
+			if (cl!=null)
+				for (int i=0; i<cl.size(); i++)
+					if (!propagateCardinality(cl.get(i)))
+						return false;
+			
+			/* try to move watches for every XOR constraint watching the variable of lit */
+			int i=0;
+			while (xl!=null && i<xl.size()) {
+				switch (xl.get(i).moveWatch(lit2var(lit), i)) {
+					case -1: /* assignment failed */
+						return false;
+					case  0: /* watch not moved */
+						i++;
+						break;
+					case  1: /* watch moved */
+						break;
 				}
+			}
 			
 			/* try to move watches for every clause in the watchlist of lit */
-			int i=0;
+			i=0;
 			while (i<wl.size()) {
 				switch (wl.get(i).moveWatch(oppositeLit(lit), i)) {
 					case -1: /* assignment failed */		
@@ -293,6 +442,10 @@ public class CNFSolver implements Solver {
 	 * add original clause: true if successful, false if conflicting
 	 */
 	public boolean pushClause(Clause cls) throws Exception {
+		/* original clauses are numbered as in the DIMACS file, tautologies included */
+		if (proof!=null && !cls.isLearnt())
+			cls.id=++proof_ids;
+		
 		/* check clause */
 		if (cls.isTautology()) {
 			return true;
@@ -303,6 +456,7 @@ public class CNFSolver implements Solver {
 		
 		if (cls.size()==0) {
 			state=State.UNSAT;
+			conflict_reason=cls;
 		}
 		else if (cls.size()==1) {
 			if (state!=State.UNSAT && level>0) { /* backtrack to a) Level 0, b) Level beneath get_level(cls[0]) */
@@ -312,6 +466,11 @@ public class CNFSolver implements Solver {
 			unitfacts.push(cls.get(0));
 			if (cls.isLearnt())
 				stats.statLearnUnit();
+			if (proof_unit_ids!=null && proofUnitId(cls.get(0))==0L) {
+				if (cls.get(0)>=proof_unit_ids.length)
+					proof_unit_ids=Arrays.copyOf(proof_unit_ids, Math.max(2*proof_unit_ids.length, cls.get(0)+1));
+				proof_unit_ids[cls.get(0)]=cls.getId();
+			}
 			
 			if (state!=State.UNSAT && !assign(cls.get(0), null)) /* do not perform assign if state==UNSAT */ {
 				state=State.UNSAT;
@@ -324,6 +483,7 @@ public class CNFSolver implements Solver {
 				
 				if (packed==0L) { /* all literals failed and assigned at level 0 */
 					state=State.UNSAT;
+					conflict_reason=cls;
 					return false;
 				}
 				else if (cls.unpackHigher(packed)==-1 && cls.unpackLower(packed)==-1) /* >= 2 literals unassigned */
@@ -346,18 +506,18 @@ public class CNFSolver implements Solver {
 				/* 
 				 *      by convention, learnt clauses of length >= 2 include the asserted literal at position 0
 				 *      and a literal assigned at the highest decision level beneath the assertion level at 
-				 *      position 1.
+				 *      position 1. If that literal is unassigned, a restart has backtracked beneath the assertion
+				 *      level and there is nothing to do.
 				 */
-				backtrack(Math.max(0, getLevel(cls.get(1))));
+				if (getLevel(cls.get(1))>=0)
+					backtrack(getLevel(cls.get(1)));
 			}
 			
 			if (cls.size()==2) {
 
-				IntVec bwl0=binwatchlists.get(oppositeLit(cls.get(0)));
-				IntVec bwl1=binwatchlists.get(oppositeLit(cls.get(1)));
-				
-				bwl0.push(cls.get(1));
-				bwl1.push(cls.get(0));
+				bingraph.addClause(cls.get(0), cls.get(1), cls.isLearnt()); /* input duplicates go by freeze() */
+				if (proof_bin_ids!=null && !proof_bin_ids.containsKey(binaryKey(cls.get(0), cls.get(1))))
+					proof_bin_ids.put(binaryKey(cls.get(0), cls.get(1)), cls.getId());
 				
 				if (cls.isLearnt())
 					stats.statLearnBin();
@@ -386,8 +546,390 @@ public class CNFSolver implements Solver {
 		return state!=State.UNSAT;
 	}
 	
+	/* 
+	 * add native at-most-k constraint over lits: true if successful, false if conflicting
+	 */
+	public boolean pushAtMost(int lits[], int k) throws Exception {
+		IntVec _lits=new IntVec(lits.length);
+		
+		/* a literal and its complement always contribute exactly one TRUE literal */
+		for (int i=0; i<lits.length; i++) {
+			if (_lits.contains(lits[i]))
+				throw new Exception("Literal "+toDimacsLit(lits[i])+" occurs more than once in cardinality constraint");
+			if (_lits.contains(oppositeLit(lits[i]))) {
+				_lits.remove(oppositeLit(lits[i]));
+				k--;
+			}
+			else
+				_lits.push(lits[i]);
+		}
+		
+		backtrack(0, true);
+		
+		if (k<0)
+			state=State.UNSAT;
+		if (state==State.UNSAT)
+			return false;
+		if (k>=_lits.size()) /* trivially satisfied */
+			return true;
+		
+		CardinalityConstraint cc=new CardinalityConstraint(this, _lits.toArray(new int[_lits.size()]), k);
+		
+		for (int i=0; i<cc.size(); i++) {
+			int lit=cc.get(i);
+			if (cardlists.get(lit)==null)
+				cardlists.set(lit, new Vec<CardinalityConstraint>());
+			cardlists.get(lit).push(cc);
+		}
+		
+		/* collect literals which have already been processed by bcp(), cc is the last entry of their lists */
+		IntVec processed=new IntVec();
+		for (int i=0; i<trail_lim; i++) {
+			IVec<CardinalityConstraint> cl=cardlists.get(trail.get(i));
+			if (cl!=null && cl.last()==cc)
+				processed.push(trail.get(i));
+		}
+		if (processed.size()>k) { /* violated on level 0 */
+			for (int i=0; i<cc.size(); i++)
+				cardlists.get(cc.get(i)).pop();
+			state=State.UNSAT;
+			return false;
+		}
+		for (int i=0; i<processed.size(); i++)
+			cc.count(processed.get(i));
+		cardconstraints.push(cc);
+		
+		if (!propagateCardinality(cc)) {
+			state=State.UNSAT;
+			return false;
+		}
+		
+		state=State.UNKNOWN;
+		return true;
+	}
+	
+	/* 
+	 * add native at-least-k constraint over lits, i.e. at-most-(n-k) constraint over the negated literals
+	 */
+	public boolean pushAtLeast(int lits[], int k) throws Exception {
+		int neglits[]=new int[lits.length];
+		
+		for (int i=0; i<lits.length; i++)
+			neglits[i]=oppositeLit(lits[i]);
+		
+		return pushAtMost(neglits, lits.length-k);
+	}
+	
+	/* 
+	 * propagate cardinality constraint whose counter has been updated: false if a conflict has been detected
+	 */
+	protected boolean propagateCardinality(CardinalityConstraint cc) {
+		if (cc.isConflicting()) /* literal counted last exceeds bound, i.e. assigning its complement fails */
+			return assign(oppositeLit(cc.lastCounted()), cc);
+		/* 
+		 * TRUE literals are either counted or still waiting on the trail, in the latter case the conflict is 
+		 * detected as soon as they are counted
+		 */
+		if (cc.isPropagating()) 
+			for (int i=0; i<cc.size(); i++) {
+				int lit=cc.get(i);
+				
+				if (lit2val(lit)==Val.UNKNOWN)
+					assign(oppositeLit(lit), cc);
+			}
+		return true;
+	}
+	
+	/* update counters of cardinality constraints containing lit (processed lit is unassigned) */
+	protected void uncountCardinality(int lit) {
+		IVec<CardinalityConstraint> cl=cardlists.get(lit);
+		
+		if (cl!=null)
+			for (int i=0; i<cl.size(); i++)
+				cl.get(i).uncount();
+	}
+	
+	/*
+	 * detect groups of pairwise at-most-one binary clauses (-l_i \/ -l_j for all i<j) and replace them by 
+	 * native at-most-one constraints; cliques are collected greedily in the graph whose edges are the binary 
+	 * clauses. Only performed without marks (the binary clause stack bounds saved by save() would be 
+	 * invalidated), intended to be called after reading the formula. Returns the number of detected constraints.
+	 */
+	public int detectAtMostOne(int minsize) throws Exception {
+		if (marks.size()>0 || state==State.UNSAT)
+			return 0;
+		backtrack(0, true);
+		
+		int stamp[]=new int[bingraph.numLiterals()];
+		int epoch=0;
+		int found=0;
+		IntVec clique=new IntVec();
+		
+		for (int lit=2; lit<bingraph.numLiterals(); lit++) {
+			if (bingraph.size(lit)<minsize-1)
+				continue;
+			
+			/* greedy clique containing lit: neighbours of l are the literals l' with l -> -l' */
+			clique.clear();
+			clique.push(lit);
+			for (int i=0; i<bingraph.size(lit); i++) {
+				int cand=oppositeLit(bingraph.get(lit, i));
+				
+				if (cand==lit || clique.contains(cand) || bingraph.size(cand)<clique.size())
+					continue;
+				
+				/* mark neighbours of cand, cand qualifies if it is adjacent to all literals of the clique */
+				epoch++;
+				for (int j=0; j<bingraph.size(cand); j++)
+					stamp[oppositeLit(bingraph.get(cand, j))]=epoch;
+				boolean adjacent=true;
+				for (int j=0; j<clique.size() && adjacent; j++)
+					adjacent=stamp[clique.get(j)]==epoch;
+				if (adjacent)
+					clique.push(cand);
+			}
+			
+			if (clique.size()<minsize)
+				continue;
+			
+			/* remove pairwise binary clauses of the clique, add native constraint */
+			for (int i=0; i<clique.size(); i++)
+				stamp[clique.get(i)]=-lit;
+			for (int i=0; i<clique.size(); i++) {
+				int cl=clique.get(i), k=0;
+				for (int j=0; j<bingraph.size(cl); j++)
+					if (stamp[oppositeLit(bingraph.get(cl, j))]!=-lit)
+						bingraph.set(cl, k++, bingraph.get(cl, j));
+				bingraph.shrinkTo(cl, k);
+			}
+			if (!pushAtMost(clique.toArray(new int[clique.size()]), 1))
+				return found;
+			found++;
+		}
+		return found;
+	}
+	
+	/* 
+	 * add native XOR constraint lits_0 + ... + lits_{n-1} = rhs (mod 2): true if successful, false if conflicting
+	 */
+	public boolean pushXor(int lits[], boolean rhs) throws Exception {
+		IntVec vars=new IntVec(lits.length);
+		boolean parity=rhs;
+		
+		/* negative literals flip the parity, variables occurring twice cancel out */
+		for (int i=0; i<lits.length; i++) {
+			int var=lit2var(lits[i]);
+			
+			if (!sign(lits[i]))
+				parity=!parity;
+			if (vars.contains(var))
+				vars.remove(var);
+			else
+				vars.push(var);
+		}
+		
+		backtrack(0, true);
+		
+		if (state==State.UNSAT)
+			return false;
+		
+		XorConstraint xc=new XorConstraint(this, vars.toArray(new int[vars.size()]), parity);
+		xorinput.push(xc);
+		
+		if (!addXor(xc.getVariables(), parity)) {
+			state=State.UNSAT;
+			return false;
+		}
+		
+		state=State.UNKNOWN;
+		return true;
+	}
+	
+	/* 
+	 * add equation to the set of propagated XOR constraints (on level 0): false if conflicting. With Gauss-Jordan
+	 * elimination the equation becomes a matrix row, which is propagated by the next bcp()
+	 */
+	protected boolean addXor(int vars[], boolean parity) {
+		if (!gauss_elimination) {
+			XorConstraint xc=new XorConstraint(this, vars, parity);
+			xorconstraints.push(xc);
+			return attachXor(xc);
+		}
+		
+		switch (gauss.addRow(vars, parity)) {
+			case GaussJordanMatrix.INCONSISTENT:
+				return false;
+			case GaussJordanMatrix.REDUNDANT:
+				return true;
+		}
+		
+		/* new columns may have been processed by bcp() already */
+		for (int i=0; i<trail_lim; i++)
+			if (gauss.isColumn(lit2var(trail.get(i))))
+				gauss.assign(lit2var(trail.get(i)), sign(trail.get(i)));
+		gauss_dirty=true;
+		
+		return true;
+	}
+	
+	/* 
+	 * watch two variables of xc and perform propagation on level 0: false if conflicting; units are assigned 
+	 * like unit clauses and not watched at all
+	 */
+	protected boolean attachXor(XorConstraint xc) {
+		if (xc.size()==0)
+			return !xc.getParity();
+		if (xc.size()==1)
+			return assign(var2lit(xc.get(0), xc.getParity()), null);
+		
+		return xc.attach();
+	}
+	
+	/* 
+	 * rebuild propagated XOR constraints from the input constraints (i.e. after removing some of them), assumes 
+	 * an empty trail: false if conflicting
+	 */
+	protected boolean rebuildXors() {
+		boolean rv=true;
+		
+		for (int i=0; i<xorlists.size(); i++)
+			xorlists.set(i, null);
+		xorconstraints.clear();
+		gauss.clear();
+		
+		for (int i=0; i<xorinput.size() && rv; i++)
+			rv=addXor(xorinput.get(i).getVariables(), xorinput.get(i).getParity());
+		return rv;
+	}
+	
+	/*
+	 * detect groups of clauses (of length 3..maxsize) which encode XOR constraints, i.e. all 2^(n-1) clauses 
+	 * over the same n variables that exclude the assignments of one parity, and replace them by native XOR 
+	 * constraints. Only performed without marks (the clause stack bounds saved by save() would be 
+	 * invalidated), intended to be called after reading the formula. Returns the number of detected constraints.
+	 */
+	public int detectXors(int maxsize) throws Exception {
+		if (marks.size()>0 || state==State.UNSAT)
+			return 0;
+		backtrack(0, true);
+		
+		/* more than 2^(maxsize-1) clauses per constraint are not worth it */
+		maxsize=Math.min(maxsize, 16);
+		
+		HashMap<VariableSet,IVec<Clause>> groups=new HashMap<VariableSet,IVec<Clause>>();
+		for (int i=0; i<origclauses.size(); i++) {
+			Clause cls=origclauses.get(i);
+			
+			if (cls==null || cls.size()>maxsize)
+				continue;
+			VariableSet key=new VariableSet(sortedVariables(cls));
+			if (key.vars.length==0)
+				continue;
+			if (groups.get(key)==null)
+				groups.put(key, new Vec<Clause>());
+			groups.get(key).push(cls);
+		}
+		
+		int found=0;
+		HashSet<Clause> removed=new HashSet<Clause>();
+		for (VariableSet key : groups.keySet()) {
+			IVec<Clause> group=groups.get(key);
+			int vars[]=key.vars;
+			int n=vars.length;
+			
+			if (group.size()<(1<<(n-1)))
+				continue;
+			
+			/* excluded assignments by parity, bit j of an assignment is set if vars[j] is TRUE */
+			HashSet<Integer> even=new HashSet<Integer>(), odd=new HashSet<Integer>();
+			for (int i=0; i<group.size(); i++) {
+				int assignment=excludedAssignment(group.get(i), vars);
+				if (assignment>=0)
+					(Integer.bitCount(assignment)%2==0 ? even : odd).add(assignment);
+			}
+			
+			for (int parity=0; parity<2; parity++) {
+				if ((parity==0 ? even : odd).size()<(1<<(n-1)))
+					continue;
+				
+				/* all assignments of this parity are excluded, i.e. the sum of vars has the opposite parity */
+				int lits[]=new int[n];
+				for (int j=0; j<n; j++)
+					lits[j]=var2lit(vars[j], true);
+				for (int i=0; i<group.size(); i++) {
+					int assignment=excludedAssignment(group.get(i), vars);
+					if (assignment>=0 && Integer.bitCount(assignment)%2==parity && removed.add(group.get(i)))
+						detachClauseLazy(group.get(i));
+				}
+				found++;
+				if (!pushXor(lits, parity==0))
+					break;
+			}
+		}
+		
+		/* remove replaced clauses */
+		cleanWatchlists();
+		int j=0;
+		for (int i=0; i<origclauses.size(); i++)
+			if (origclauses.get(i)!=null && !removed.contains(origclauses.get(i)))
+				origclauses.set(j++, origclauses.get(i));
+		origclauses.shrinkTo(j);
+		
+		return found;
+	}
+	
+	/* sorted variables of a clause as hash key, the hash is computed once */
+	private static class VariableSet {
+		final int vars[];
+		final int hash;
+		
+		VariableSet(int vars[]) {
+			this.vars=vars;
+			hash=Arrays.hashCode(vars);
+		}
+		
+		public int hashCode() {
+			return hash;
+		}
+		
+		public boolean equals(Object o) {
+			return o instanceof VariableSet && ((VariableSet)o).hash==hash && Arrays.equals(((VariableSet)o).vars, vars);
+		}
+	}
+	
+	/* variables of cls in ascending order, empty if a variable occurs more than once */
+	private int[] sortedVariables(Clause cls) {
+		int vars[]=new int[cls.size()];
+		
+		for (int i=0; i<cls.size(); i++)
+			vars[i]=lit2var(cls.get(i));
+		Arrays.sort(vars);
+		for (int i=1; i<vars.length; i++)
+			if (vars[i]==vars[i-1])
+				return new int[0];
+		return vars;
+	}
+	
+	/* assignment of vars (bit j set if vars[j] is TRUE) falsifying cls, -1 if cls is not over vars */
+	private int excludedAssignment(Clause cls, int vars[]) {
+		int assignment=0;
+		
+		if (cls.size()!=vars.length)
+			return -1;
+		for (int i=0; i<cls.size(); i++) {
+			int j=Arrays.binarySearch(vars, lit2var(cls.get(i)));
+			if (j<0)
+				return -1;
+			if (!sign(cls.get(i)))
+				assignment|=1<<j;
+		}
+		return assignment;
+	}
+	
 	/* true if clause has been detached, false otherwise */
 	protected boolean detachClause(Clause cls) {
+		if (cls!=null)
+			cls.setDetached();
 		if (cls!=null && cls.size()>2) {
 			/* delete clause from watchlists */
 			IVec<Clause> wl0=watchlists.get(oppositeLit(cls.get(0))),
@@ -401,6 +943,36 @@ public class CNFSolver implements Solver {
 		return false;
 	}
 	
+	/* 
+	 * mark clause as detached, its watches are removed by the next cleanWatchlists() (which has to be called 
+	 * before the next bcp()): true if clause is watched, false otherwise
+	 */
+	protected boolean detachClauseLazy(Clause cls) {
+		if (cls!=null && cls.size()>2) {
+			cls.setDetached();
+			watches_dirty=true;
+			
+			return true;
+		}
+		return false;
+	}
+	
+	/* remove the watches of all clauses detached by detachClauseLazy() in a single sweep */
+	protected void cleanWatchlists() {
+		if (!watches_dirty)
+			return;
+		for (int lit=2; lit<watchlists.size(); lit++) {
+			IVec<Clause> wl=watchlists.get(lit);
+			int j=0;
+			
+			for (int i=0; i<wl.size(); i++)
+				if (!wl.get(i).isDetached())
+					wl.set(j++, wl.get(i));
+			wl.shrinkTo(j);
+		}
+		watches_dirty=false;
+	}
+	
 	/* backtrack to decision level l, if l<0 everything is erased */
 	protected void backtrack(int l) {
 		boolean did_unassign=(level>l && trail.size()>0);
@@ -411,6 +983,8 @@ public class CNFSolver implements Solver {
 				if (v.reason()==null) { /* i.e. decision */
 					level--;
 				}
+				if (trail.size()<=trail_lim) /* literal has been processed by bcp() */
+					uncountCardinality(trail.last());
 				unassign(trail.last());
 			}
 			
@@ -433,6 +1007,8 @@ public class CNFSolver implements Solver {
 				if (v.reason()==null) { /* i.e. decision */
 					level--;
 				}
+				if (trail.size()<=trail_lim) /* literal has been processed by bcp() */
+					uncountCardinality(trail.last());
 				unassign(trail.last());
 			}
 			
@@ -454,10 +1030,8 @@ public class CNFSolver implements Solver {
 	
 	private void decay() {
 		/* start from 1 as 0 is reserved as DIMACS clause terminator */
-		for (int i=1; i<variables.size(); i++) {
-			Variable var=variables.get(i);
-			var.setScore(var.getScore()>>>stats.statGetDecayFactor());
-		}
+		for (int i=1; i<variables.size(); i++)
+			varq.setActivity(i, Math.floor(varq.activity(i)/(1<<stats.statGetDecayFactor())));
 		varq.restoreHeapProperty();
 	}
 	
@@ -468,12 +1042,14 @@ public class CNFSolver implements Solver {
 			level++;
 			stats.maxLevel(level);
 			stats.statDecide();
+			if (metrics!=null && stats.statDeadlineChecked() && metrics.due()) /* conflicts may be rare */
+				sampleMetrics();
 			if (stats.statPerformDecaying())
 				decay();
 			
-			Variable var=varq.heapExtractMax();
+			int var=varq.heapExtractMax();
 			
-			assign(var2lit(getVariable(var.getName()), var.getPhase()), null);
+			assign(var2lit(var, variables.get(var).getPhase()), null);
 			
 			return true;
 		}
@@ -487,9 +1063,12 @@ public class CNFSolver implements Solver {
 		    lit=0;
 		Object reason=conflict_reason;
 		
+		proof_nhints=0;
 		do {
 			if (reason==null) /* decision */
 				break;
+			if (proof_bin_ids!=null) /* LRAT: conflict clause and reasons of resolved literals, reverse trail order */
+				addProofHint(reason, lit==0 ? conflict_lit : lit);
 			if (reason instanceof Integer) {/* binary clause */
 				if (lit==0 && !seen.get(lit2var(conflict_lit))) {
 					seen.set(lit2var(conflict_lit), true);
@@ -508,6 +1087,11 @@ public class CNFSolver implements Solver {
 					}
 				}
 			} else {
+				if (reason instanceof CardinalityConstraint) /* generate explanation lazily */
+					reason=((CardinalityConstraint)reason).explain(lit==0 ? conflict_lit : lit);
+				if (reason instanceof XorConstraint)
+					reason=((XorConstraint)reason).explain(lit==0 ? conflict_lit : lit);
+				
 				Clause cls=(Clause)reason;
 				for (int j=(lit==0 ? 0 : 1); j<cls.size(); j++) {
 					/* 
@@ -553,39 +1137,70 @@ public class CNFSolver implements Solver {
 			
 			if (_level>getLevel(learnt.get(snd_pos)))
 				snd_pos=i;
-			if (glucose_clause_scores && perm_diff.get(_level)!=permdiff_curr) {
+			if ((glucose_clause_scores || metrics!=null || vivification) && perm_diff.get(_level)!=permdiff_curr) {
 				perm_diff.set(_level, permdiff_curr);
 				lbd++;
 			}
 			
 			seen.set(lit2var(__lit), false);
-			lit2variable(__lit).incScore();
+			varq.increaseKey(lit2var(__lit), 1);
 		}
 		if (glucose_clause_scores) /* set glucose-style clause activity */
 			learnt.setActivity(lbd);
+		if (metrics!=null || vivification)
+			learnt.setLbd(lbd);
+		if (metrics!=null)
+			metrics.conflict(lbd);
 		
 		seen.set(lit2var(learnt.get(0)), false);
-		lit2variable(learnt.get(0)).incScore();
+		varq.increaseKey(lit2var(learnt.get(0)), 1);
 		learnt.swap(1, snd_pos);
 		bt_level=(learnt.size()<=1 ? 0 : getLevel(learnt.get(1)));
 		
+		if (proof!=null)
+			proofAdd(learnt, true);
+		
 		/* add clause, backtrack, propagate uip, restart if threshold is met */
 		stats.statConflict();
 		boolean do_restart=stats.statPerformRestart();
 		
-		if (do_restart) { /* backtrack to level 0, reset counter */
-			backtrack(0);
+		if (do_restart) { /* backtrack to level 0 (or the last reusable level), reset counter */
+			backtrack(trail_reuse && !vivifyDue() ? reusableLevel(bt_level) : 0);
+			stats.statReuseTrail(level);
 			stats.statRestart();
 		}
 		
 		/* ATTENTION HERE: might return false (e.g. unit deduced but unit already set => UNSAT) */
 		pushClause(learnt);
-		/* don't assign uip if restart was performed and the asserting level of the learnt clause is >0 */
-		if (learnt.size()>1 && (!do_restart||bt_level==0)) {
+		/* don't assign uip if restart was performed and backtracked beneath the asserting level */
+		if (learnt.size()>1 && (!do_restart||bt_level==level)) {
 			assign(learnt.get(0), (learnt.size()==2 ? oppositeLit(learnt.get(1)) : learnt));
 		}
 	}
 	
+	/*
+	 * trail reuse on restarts: after backjumping to bt_level, the solver would decide on the unassigned variable
+	 * with the highest activity. All decisions (of levels 1..bt_level) on variables with a higher activity would
+	 * be repeated after a complete restart, thus the restart may keep them: returns the level beneath the first
+	 * decision on a variable with lower activity, bt_level if there is none
+	 */
+	protected int reusableLevel(int bt_level) {
+		double next=(varq.isEmpty() ? -1 : varq.activity(varq.peek()));
+		int i;
+		
+		/* variables above bt_level will be unassigned by the backjump */
+		for (i=trail.size()-1; i>=0 && getLevel(trail.get(i))>bt_level; i--)
+			next=Math.max(next, varq.activity(lit2var(trail.get(i))));
+		
+		for (int j=0; j<=i; j++) {
+			int lit=trail.get(j);
+			
+			if (getLevel(lit)>0 && lit2variable(lit).reason()==null && varq.activity(lit2var(lit))<next)
+				return getLevel(lit)-1;
+		}
+		return bt_level;
+	}
+	
 	/* clause management */
 	
 	public void removeFromWatchlist(int lit, int ind) {
@@ -598,6 +1213,19 @@ public class CNFSolver implements Solver {
 			watchlists.get(lit).push(clause);
 	}
 	
+	public void removeFromXorWatchlist(int var, int ind) {
+		if (var<xorlists.size() && xorlists.get(var)!=null && ind<xorlists.get(var).size())
+			xorlists.get(var).delete(ind);
+	}
+	
+	public void addToXorWatchlist(int var, XorConstraint xc) {
+		if (var<xorlists.size()) {
+			if (xorlists.get(var)==null)
+				xorlists.set(var, new Vec<XorConstraint>());
+			xorlists.get(var).push(xc);
+		}
+	}
+	
 	public int getLevel(int lit) {
 		if (lit<watchlists.size())
 			return levels.get(lit2var(lit));
@@ -639,11 +1267,14 @@ public class CNFSolver implements Solver {
 	 * binary:  array of stack bounds for binary clauses (adjacency list lengths)
 	 */
 	public void save() throws Exception {
+		if (proof!=null)
+			throw new Exception("Proof output does not support incremental solving");
+		
 		Integer mark[];
 		if (!score_saving)
-			mark=new Integer[6+binwatchlists.size()];
+			mark=new Integer[6+bingraph.numLiterals()];
 		else
-			mark=new Integer[6+binwatchlists.size()+(variables.size()-1)];
+			mark=new Integer[6+bingraph.numLiterals()+(variables.size()-1)];
 		
 		mark[0]=(state==State.UNSAT ? -1 : (state==State.SAT ? 1 : 0)); /* satisfiability status */
 		mark[1]=origclauses.size();                                     /* #original clauses */
@@ -653,19 +1284,15 @@ public class CNFSolver implements Solver {
 		mark[5]=unitfacts.size();                                       /* #unit clauses */
 		
 		/* save sizes of binary watchlists/adjacency lists */
-		for (int i=0; i<binwatchlists.size(); i++) {
-			if (binwatchlists.get(i)!=null) {
-				mark[i+6]=binwatchlists.get(i).size();
-			}
-			else {
-				mark[i+6]=-1;
-			}
-		}
+		for (int i=0; i<bingraph.numLiterals(); i++)
+			mark[i+6]=bingraph.size(i);
 		if (score_saving)
-			saveScoresAndPhases(mark, 6+binwatchlists.size());
+			saveScoresAndPhases(mark, 6+bingraph.numLiterals());
 		
 		/* push marking on marks stack */
 		marks.push(mark);
+		cardmarks.push(cardconstraints.size());
+		xormarks.push(xorinput.size());
 	}
 	
 	protected void saveScoresAndPhases(Integer mark[], int offset) {
@@ -673,7 +1300,7 @@ public class CNFSolver implements Solver {
 			return;
 		for (int i=1; i<variables.size(); i++) {
 			Variable var = variables.get(i);
-			mark[offset+(i-1)] = ((var.getScore()<<1)|(var.getPhase() ? 0x1 : 0x0));
+			mark[offset+(i-1)] = ((((int)varq.activity(i))<<1)|(var.getPhase() ? 0x1 : 0x0));
 		}
 	}
 	
@@ -686,7 +1313,7 @@ public class CNFSolver implements Solver {
 			
 			Variable var = variables.get(idx);
 			
-			var.setScore((mark[i]>>>1));
+			varq.setActivity(idx, mark[i]>>>1);
 			var.setPhase(((mark[i]&0x1) > 0));
 		}
 		varq.restoreHeapProperty();
@@ -703,6 +1330,9 @@ public class CNFSolver implements Solver {
 		state=State.UNKNOWN;
 		permdiff_curr=0;
 		conflict_reason=null;
+		proof=null;            /* clause ids restart, thus the proof is detached */
+		proof_bin_ids=null;
+		proof_unit_ids=null;
 		
 		/* clear clause structures */
 		learntclauses.clear(); /* clear learnt clauses */
@@ -711,7 +1341,8 @@ public class CNFSolver implements Solver {
 		
 		/* clear watchlists */
 		watchlists.shrinkTo(2);
-		binwatchlists.shrinkTo(2);
+		bingraph.shrinkLiteralsTo(2);
+		watches_dirty=false;
 		
 		variables.shrinkTo(1); /* clear variables */
 		levels.shrinkTo(1);    /* clear levels */
@@ -720,14 +1351,26 @@ public class CNFSolver implements Solver {
 		perm_diff.shrinkTo(1); /* clear perm_diff */
 		name2var.clear();      /* clear name variable mapping */
 		
+		/* clear cardinality constraints */
+		cardconstraints.clear();
+		cardlists.shrinkTo(2);
+		
+		/* clear XOR constraints */
+		xorinput.clear();
+		xorconstraints.clear();
+		xorlists.shrinkTo(1);
+		gauss.clear();
+		
 		/* {in,de}cremental structures */
 		marks.clear();         /* clear marks */
+		cardmarks.clear();     /* clear cardinality constraint marks */
+		xormarks.clear();      /* clear XOR constraint marks */
 		
 		/* suggest GC */
 		System.gc();
 	}
 	
-	protected void weedOutLearnt() {
+	protected void weedOutLearnt() throws Exception {
 		LearntClause[] l=learntclauses.toArray(new LearntClause[0]);
 		Arrays.sort(l, new Comparator<LearntClause>() {
 			public int compare(LearntClause o1,
@@ -748,20 +1391,23 @@ public class CNFSolver implements Solver {
 		if (glucose_clause_scores)
 			for (int i=l.length-1; i>=0 && deleted<=l.length/2; i--) {
 				if (l[i]!=null && !l[i].is_locked()) { /* delete clause */
-					detachClause(l[i]);
-					learntclauses.set(learntclauses.indexOf(l[i]), null);
+					detachClauseLazy(l[i]);
+					if (proof!=null)
+						proof.delete(l[i], l[i].getId());
 					deleted++;
 				}
 			}
 		else
 			for (int i=0; i<l.length && deleted<=l.length/2; i++) {
 				if (l[i]!=null && !l[i].is_locked()) { /* delete clause */
-					detachClause(l[i]);
-					learntclauses.set(learntclauses.indexOf(l[i]), null);
+					detachClauseLazy(l[i]);
+					if (proof!=null)
+						proof.delete(l[i], l[i].getId());
 					deleted++;
 				}
 			}
 		if (deleted>0) {
+			cleanWatchlists();
 			compactify();
 			System.gc(); /* perform garbage collection */
 		}
@@ -776,7 +1422,7 @@ public class CNFSolver implements Solver {
 				mark[4]=j; /* learnts of this marking now j */
 				mark=(marks.size()>k ? marks.get(k++) : null);
 			}
-			if (learntclauses.get(i)!=null) {
+			if (learntclauses.get(i)!=null && !learntclauses.get(i).isDetached()) {
 				/* adjust score... */
 				learntclauses.set(j++, learntclauses.get(i));
 			}
@@ -788,32 +1434,176 @@ public class CNFSolver implements Solver {
 		learntclauses.shrinkTo(j);
 	}
 
+	/*
+	 * learnt clause vivification: for every clause of the kept tiers (LBD<=vivify_max_lbd), the negations of its 
+	 * literals are assigned one at a time, each on a new decision level, and propagated. A literal which has 
+	 * become false is implied by the previous ones and dropped, a literal which has become true or a conflict
+	 * ends the clause early. The clause itself may take part in propagation, as it is implied by the formula.
+	 * 
+	 * Called on level 0 (rounds are scheduled at restarts, see vivifyDue()), newest clauses first, stops as soon
+	 * as the propagation budget of the round is exhausted, even within a clause (whose remaining literals are 
+	 * kept then, unless already assigned). Clauses learnt before the last mark are left alone, as the shortened 
+	 * clause may depend on clauses which are removed by pop(). Replaced clauses are detached lazily, i.e. they 
+	 * may still propagate during the round (they are implied by the formula), thus their proof deletions are 
+	 * written at its end.
+	 */
+	protected void vivifyLearnt() throws Exception {
+		long budget=stats.statGetVivifyBudget();
+		int first=(marks.size()>0 ? marks.last()[4] : 0);
+		boolean removed=false;
+		IntVec lits=new IntVec(),
+		       orig=new IntVec();
+		IVec<Clause> deleted=new Vec<Clause>();
+		
+		for (int i=learntclauses.size()-1; i>=first && budget>0 && state!=State.UNSAT; i--) {
+			LearntClause cls=learntclauses.get(i);
+			
+			if (cls==null || cls.isDetached() || cls.isVivified() || cls.is_locked() || cls.getLbd()<=0 
+			    || cls.getLbd()>vivify_max_lbd)
+				continue;
+			cls.setVivified();
+			if (cls.sat()) { /* satisfied at level 0 */
+				detachClauseLazy(cls);
+				deleted.push(cls);
+				removed=true;
+				continue;
+			}
+			
+			/* propagation may move the clause's own watches, which reorders its literals */
+			int start=trail.size();
+			orig.clear();
+			for (int j=0; j<cls.size(); j++)
+				orig.push(cls.get(j));
+			lits.clear();
+			for (int j=0; j<orig.size(); j++) {
+				int lit=orig.get(j);
+				Val val=lit2val(lit);
+				
+				if (val==Val.FALSE) /* -lit is implied by the literals so far (or lit is false at level 0) */
+					continue;
+				lits.push(lit);
+				if (val==Val.TRUE) /* lit is implied by the negations of the literals so far */
+					break;
+				if (trail.size()-start>=budget) /* budget exhausted, keep the remaining literals unpropagated */
+					continue;
+				level++;
+				assign(oppositeLit(lit), null);
+				if (!bcp()) /* the negations of the literals so far are inconsistent */
+					break;
+			}
+			budget-=trail.size()-start;
+			stats.statPropagate(trail.size()-start);
+			backtrack(0);
+			
+			if (lits.size()==cls.size())
+				continue;
+			
+			/* replace clause by the shortened one, whose literals are unassigned at level 0 */
+			LearntClause vivified=new LearntClause(this);
+			for (int j=0; j<lits.size(); j++)
+				vivified.push(lits.get(j));
+			vivified.setActivity(cls.getActivity());
+			vivified.setLbd(Math.min(cls.getLbd(), lits.size()));
+			vivified.setVivified();
+			stats.statVivified(cls.size()-lits.size());
+			
+			if (proof!=null) /* DRAT only, the checker finds the propagations itself */
+				proofAdd(vivified, false);
+			detachClauseLazy(cls);
+			deleted.push(cls);
+			if (lits.size()>2) {
+				watchlists.get(oppositeLit(vivified.get(0))).push(vivified);
+				watchlists.get(oppositeLit(vivified.get(1))).push(vivified);
+				learntclauses.set(i, vivified);
+			} else {
+				removed=true;
+				/* units are propagated right away, as the next clause is vivified above level 0 */
+				if (!pushClause(vivified) || !bcp())
+					state=State.UNSAT;
+			}
+		}
+		cleanWatchlists();
+		for (int i=0; proof!=null && i<deleted.size(); i++)
+			proof.delete(deleted.get(i), deleted.get(i).getId());
+		if (removed)
+			compactify();
+		stats.statVivify();
+	}
+	
+	/* next restart goes to level 0 for a vivification round (not with LRAT, which would need hints) */
+	protected boolean vivifyDue() {
+		return vivification && stats.statPerformVivify() && proof_bin_ids==null;
+	}
+	
+	/*
+	 * merge binary clauses added since the last call into the CSR part of the implication graph, i.e. all binary
+	 * clauses of the input are frozen on the first call. Later calls only rebuild the graph if the overflow has
+	 * grown beyond a quarter of its size. Duplicates are removed only if no stack bounds are saved.
+	 */
+	protected void freezeBinaries() throws Exception {
+		if (bingraph.pending()>0 && bingraph.pending()*4>=bingraph.numEntries())
+			bingraph.freeze(marks.size()==0);
+	}
+	
 	public boolean sat() throws Exception {
 		/* initialize max. learnt clause db size */
 		stats.statSetMaxLearnt(origclauses.size());
+		freezeBinaries();
+		if (proof!=null && (cardconstraints.size()>0 || xorinput.size()>0))
+			throw new Exception("Proof output does not support native cardinality and XOR constraints");
 		
 		if (state==State.UNSAT) {
+			proofEmptyClause();
 			return false;
 		}
 		else {
 			while (true) {
-				if (!bcp()) {
+				int propagated=trail_lim;
+				boolean consistent=bcp();
+				
+				stats.statPropagate(trail_lim-propagated);
+				if (!consistent) {
 					if (level==0) {
 						state=State.UNSAT;
+						proofEmptyClause();
+						sampleMetrics();
 						return false;
 					}
 					handleConflict();
+					if (metrics!=null && metrics.due())
+						sampleMetrics();
 					
 					if (state==State.UNSAT) ;
 				} else {
+					/* shorten learnt clauses */
+					if (level==0 && vivifyDue()) {
+						vivifyLearnt();
+						if (state==State.UNSAT) {
+							proofEmptyClause();
+							sampleMetrics();
+							return false;
+						}
+					}
 					/* reduce db */
 					if (perform_clause_deletion && learntclauses.size()-trail.size() > stats.statGetMaxLearnt())
 					{
 						weedOutLearnt();
 					}
-					/* perform decision */
-					if (!decide()) {
+					/* perform decision, pending assumptions first */
+					int next=(assumptions.size()>0 ? nextAssumption() : -1);
+					
+					if (next==-2) { /* an assumption is falsified */
+						backtrack(0);
+						sampleMetrics();
+						return false;
+					} else if (next>=0) {
+						level++;
+						stats.maxLevel(level);
+						assumption_index.push(next);
+						assign(assumptions.get(next), null);
+					} else if (!decide()) {
 						state=State.SAT;
+						sampleMetrics();
 						return true;
 					}
 				}
@@ -821,18 +1611,262 @@ public class CNFSolver implements Solver {
 		}
 	}
 	
+	/*
+	 * solve under the assumption that the given literals are true. Assumptions are plain decisions, thus the
+	 * formula is not changed and clauses learnt meanwhile remain valid. If false is returned, either the
+	 * formula is unsatisfiable (getConflictAssumptions() is empty) or it is unsatisfiable under the
+	 * assumptions returned by getConflictAssumptions(), which is a subset of the assumptions.
+	 */
+	public boolean sat(int assumed[]) throws Exception {
+		if (level>0) /* at level 0 backtrack() would drop pending units from propagation */
+			backtrack(0);
+		conflict_assumptions.clear();
+		assumption_index.clear();
+		for (int i=0; i<assumed.length; i++)
+			assumptions.push(assumed[i]);
+		try {
+			return sat();
+		} finally {
+			assumptions.clear();
+		}
+	}
+	
+	/* assumptions (literals) which have been refuted by the last call to sat(int[]) */
+	public int[] getConflictAssumptions() {
+		int rv[]=new int[conflict_assumptions.size()];
+		
+		for (int i=0; i<rv.length; i++)
+			rv[i]=conflict_assumptions.get(i);
+		return rv;
+	}
+	
+	/*
+	 * index of the next assumption to decide, -1 if all of them hold, -2 if one of them is falsified. Assumption
+	 * decisions form a prefix of the decision levels and every assumption before the one decided at some level
+	 * was true beneath that level, thus the scan starts behind the assumption of the current level (or is
+	 * skipped if a free decision has been made already).
+	 */
+	protected int nextAssumption() {
+		assumption_index.shrinkTo(Math.min(assumption_index.size(), level));
+		if (assumption_index.size()<level) /* all assumptions hold below a free decision */
+			return -1;
+		
+		for (int i=(level>0 ? assumption_index.last()+1 : 0); i<assumptions.size(); i++) {
+			int lit=assumptions.get(i);
+			Val v=lit2val(lit);
+			
+			if (v==Val.UNKNOWN)
+				return i;
+			else if (v==Val.FALSE) {
+				analyzeFinal(lit);
+				return -2;
+			}
+		}
+		return -1;
+	}
+	
+	/* collect the assumptions which imply the negation of assumption lit into conflict_assumptions */
+	protected void analyzeFinal(int lit) {
+		conflict_assumptions.clear();
+		conflict_assumptions.push(lit);
+		if (getLevel(lit)<=0)
+			return;
+		
+		seen.set(lit2var(lit), true);
+		for (int i=trail.size()-1; i>=0 && getLevel(trail.get(i))>0; i--) {
+			int _lit=trail.get(i);
+			
+			if (!seen.get(lit2var(_lit)))
+				continue;
+			seen.set(lit2var(_lit), false);
+			
+			Object reason=lit2variable(_lit).reason();
+			if (reason==null) /* decision, i.e. assumption */
+				conflict_assumptions.push(_lit);
+			else if (reason instanceof Integer) {
+				if (getLevel((Integer)reason)>0)
+					seen.set(lit2var((Integer)reason), true);
+			} else {
+				if (reason instanceof CardinalityConstraint)
+					reason=((CardinalityConstraint)reason).explain(_lit);
+				if (reason instanceof XorConstraint)
+					reason=((XorConstraint)reason).explain(_lit);
+				
+				Clause cls=(Clause)reason;
+				for (int j=0; j<cls.size(); j++)
+					if (lit2var(cls.get(j))!=lit2var(_lit) && getLevel(cls.get(j))>0)
+						seen.set(lit2var(cls.get(j)), true);
+			}
+		}
+	}
+	
+	/*
+	 * stream a DRAT/LRAT proof to w while solving (null: disable), which has to be done before the first clause
+	 * is added, as the proof refers to original clauses by their position. The proof is complete once sat() has
+	 * returned false, the writer is not closed by the solver.
+	 */
+	public void setProof(ProofWriter w) throws Exception {
+		if (origclauses.size()>0 || unitfacts.size()>0 || bingraph.numEntries()>0 || state==State.UNSAT)
+			throw new Exception("Proof output has to be enabled before clauses are added");
+		
+		proof=w;
+		for (int i=1; w!=null && i<variables.size(); i++)
+			w.mapVariable(i, dimacsNumber(variables.get(i).getName()));
+		proof_ids=0;
+		proof_empty=false;
+		proof_bin_ids=(w!=null && w.isLrat() ? new LongLongMap() : null);
+		proof_unit_ids=(w!=null && w.isLrat() ? new long[2*variables.size()] : null);
+	}
+	
+	public ProofWriter getProof() {
+		return proof;
+	}
+	
+	/* write lemma cls, with the LRAT hints collected by conflict analysis if hinted is set */
+	protected void proofAdd(Clause cls, boolean hinted) throws Exception {
+		cls.id=++proof_ids;
+		if (hinted) /* hints have been collected in reverse trail order */
+			for (int i=0, j=proof_nhints-1; i<j; i++, j--) {
+				long h=proof_hints[i];
+				proof_hints[i]=proof_hints[j];
+				proof_hints[j]=h;
+			}
+		proof.add(cls, cls.getId(), proof_hints, hinted ? proof_nhints : 0);
+	}
+	
+	/* LRAT: id of the clause which implied lit (the conflict clause for lit==conflict_lit) */
+	protected void addProofHint(Object reason, int lit) {
+		long id=0L;
+		
+		if (reason instanceof Integer) /* binary clause (-reason \/ lit) */
+			id=proof_bin_ids.get(binaryKey(oppositeLit((Integer)reason), lit), 0L);
+		else if (reason instanceof Clause)
+			id=((Clause)reason).getId();
+		else if (reason==null) /* unit */
+			id=proofUnitId(lit);
+		if (id==0L)
+			return;
+		
+		if (proof_nhints==proof_hints.length)
+			proof_hints=Arrays.copyOf(proof_hints, 2*proof_hints.length);
+		proof_hints[proof_nhints++]=id;
+	}
+	
+	/* 
+	 * write the empty clause once UNSAT has been detected at level 0, LRAT hints: the reasons of all literals 
+	 * assigned at level 0 in trail order, followed by the conflicting clause
+	 */
+	protected void proofEmptyClause() throws Exception {
+		if (proof==null || proof_empty)
+			return;
+		
+		proof_nhints=0;
+		if (proof_bin_ids!=null) {
+			for (int i=0; i<trail.size() && getLevel(trail.get(i))==0; i++)
+				addProofHint(lit2variable(trail.get(i)).reason(), trail.get(i));
+			addProofHint(conflict_reason, conflict_lit);
+		}
+		proof.add(new Clause(this), ++proof_ids, proof_hints, proof_nhints);
+		proof.flush();
+		proof_empty=true;
+	}
+	
+	/* variable number of a variable named by a positive integer, 0 otherwise */
+	private static int dimacsNumber(String name) {
+		try {
+			return Math.max(0, Integer.parseInt(name));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+	
+	/* id of the unit clause lit, 0 if there is none */
+	protected long proofUnitId(int lit) {
+		return lit<proof_unit_ids.length ? proof_unit_ids[lit] : 0L;
+	}
+	
+	/* key of binary clause (lit0 \/ lit1) for proof_bin_ids */
+	protected static long binaryKey(int lit0, int lit1) {
+		return lit0<lit1 ? ((long)lit0<<32)|lit1 : ((long)lit1<<32)|lit0;
+	}
+	
+	/* 
+	 * limit the wall clock time available to sat() to ms milliseconds from now on (0: unlimited), sat() throws 
+	 * a TimeOutException when the limit is exceeded or the solver thread has been interrupted
+	 */
+	public void setTimeout(long ms) {
+		stats.statSetDeadline(ms>0 ? System.currentTimeMillis()+ms : 0);
+	}
+	
+	public Statistics getStatistics() {
+		return stats;
+	}
+	
+	/* keep reusable decision levels on restarts (default) or always restart at level 0 */
+	public void setTrailReuse(boolean reuse) {
+		trail_reuse=reuse;
+	}
+	
+	/* propagate XOR constraints by Gauss-Jordan elimination (default) or by watches, set before adding any */
+	public void setGaussElimination(boolean eliminate) {
+		gauss_elimination=eliminate;
+	}
+	
+	/* shorten learnt clauses from time to time (default) */
+	public void setVivification(boolean vivify) {
+		vivification=vivify;
+	}
+	
+	/* enable live metrics (m!=null) or disable them (m==null) */
+	public void setMetrics(SolverMetrics m) {
+		metrics=m;
+	}
+	
+	public SolverMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/* publish a metrics sample, called by the solver thread only */
+	protected void sampleMetrics() {
+		if (metrics==null)
+			return;
+		
+		/* learnt clause tiers by LBD */
+		int core=0, tier2=0, local=0;
+		for (int i=0; i<learntclauses.size(); i++) {
+			LearntClause cls=learntclauses.get(i);
+			
+			if (cls==null)
+				continue;
+			if (cls.getLbd()>0 && cls.getLbd()<=2)
+				core++;
+			else if (cls.getLbd()>0 && cls.getLbd()<=6)
+				tier2++;
+			else
+				local++;
+		}
+		
+		/* average length of (binary and n-ary) watchlists */
+		long watches=0;
+		for (int i=2; i<watchlists.size(); i++)
+			watches+=watchlists.get(i).size()+bingraph.size(i);
+		
+		metrics.sample(stats.statGetNumPropagations(), stats.statGetNumConflicts(), stats.statGetNumDecisions(), 
+		               stats.statGetNumRestarts(), core, tier2, local, stats.statGetNumLearntBin(), 
+		               stats.statGetNumLearntUnit(), watchlists.size()>2 ? (double)watches/(watchlists.size()-2) : 0,
+		               trail.size());
+	}
+	
 	private int numBinClauses() {
 		int rv=0;
-		for (int i=0; i<binwatchlists.size(); i++) {
-			IntVec bwl=binwatchlists.get(i);
-			if (bwl!=null)
-				for (int j=0; j<bwl.size(); j++)
-					if (oppositeLit(i)<bwl.get(j))
-						rv++;
-		}
+		for (int i=2; i<bingraph.numLiterals(); i++)
+			for (int j=0; j<bingraph.size(i); j++)
+				if (oppositeLit(i)<bingraph.get(i, j))
+					rv++;
 		return rv;
 	}
 	
+	/* native cardinality and XOR constraints have no DIMACS representation and are omitted */
 	public void printDimacs(PrintStream out) {
 		int num_vars=variables.size()-1,
 		    num_clss=unitfacts.size()+numBinClauses()+origclauses.size();
@@ -845,16 +1879,13 @@ public class CNFSolver implements Solver {
 			out.println(lit2String(unitfacts.get(i))+" 0");
 		
 		/* binary clauses */
-		for (int i=0; i<binwatchlists.size(); i++) {
-			IntVec bwl=binwatchlists.get(i);
+		for (int i=2; i<bingraph.numLiterals(); i++) {
 			int lit0=oppositeLit(i);
 			
-			if (bwl!=null) {
-				for (int j=0; j<bwl.size(); j++) {
-					int lit1=bwl.get(j);
-					if (lit0<lit1)
-						out.println(lit2String(lit0)+" "+lit2String(lit1)+" 0");
-				}
+			for (int j=0; j<bingraph.size(i); j++) {
+				int lit1=bingraph.get(i, j);
+				if (lit0<lit1)
+					out.println(lit2String(lit0)+" "+lit2String(lit1)+" 0");
 			}
 		}
 		
@@ -877,15 +1908,12 @@ public class CNFSolver implements Solver {
 		}
 		
 		/* check binary clauses */
-		for (int i=0; i<binwatchlists.size(); i++) {
-			IntVec bwl=binwatchlists.get(i);
+		for (int i=2; i<bingraph.numLiterals(); i++) {
 			int lit0=oppositeLit(i);
 			
-			if (bwl!=null)
-				for (int j=0; j<bwl.size(); j++) {
-					if (!(lit2val(lit0)==Val.TRUE || lit2val(bwl.get(j))==Val.TRUE))
-						return false;
-				}
+			for (int j=0; j<bingraph.size(i); j++)
+				if (!(lit2val(lit0)==Val.TRUE || lit2val(bingraph.get(i, j))==Val.TRUE))
+					return false;
 		}
 		
 		/* check clauses c with |c|>2 */
@@ -895,6 +1923,16 @@ public class CNFSolver implements Solver {
 			if (cls!=null && !cls.sat())
 				return false;
 		}
+		
+		/* check cardinality constraints */
+		for (int i=0; i<cardconstraints.size(); i++)
+			if (!cardconstraints.get(i).sat())
+				return false;
+		
+		/* check XOR constraints */
+		for (int i=0; i<xorinput.size(); i++)
+			if (!xorinput.get(i).sat())
+				return false;
 		return true;
 	}
 
@@ -929,19 +1967,28 @@ public class CNFSolver implements Solver {
 			marks.pop();
 			backtrack(-1); /* must be performed here, otherwise GC might have erased clauses before deref'ing */
 			
+			/* shrink cardinality constraints */
+			shrinkCardinalityConstraints(cardmarks.last());
+			cardmarks.pop();
+			
+			/* shrink XOR constraints, the matrix has to be rebuilt if any of them has been removed */
+			boolean xors_removed=xorinput.size()>xormarks.last();
+			xorinput.shrinkTo(Math.min(xorinput.size(), xormarks.last()));
+			xormarks.pop();
+			
 			/* restore solver state */
 			state=(mark[0]<0 ? State.UNSAT : State.UNKNOWN);
 			
 			/* shrink clauses */
 			shrinkTo=Math.max(0, Math.min(origclauses.size(), mark[1]));
 			for (int i=origclauses.size()-1; i>=shrinkTo; i--)
-				detachClause(origclauses.get(i));
+				detachClauseLazy(origclauses.get(i));
 			origclauses.shrinkTo(shrinkTo);
 			
 			/* shrink learnts */
 			shrinkTo=Math.max(0, Math.min(learntclauses.size(), mark[4]));
 			for (int i=learntclauses.size()-1; i>=shrinkTo; i--)
-				detachClause(learntclauses.get(i));
+				detachClauseLazy(learntclauses.get(i));
 			learntclauses.shrinkTo(shrinkTo);
 			
 			/* shrink variables */
@@ -951,32 +1998,33 @@ public class CNFSolver implements Solver {
 				if (variables.get(i).getName()!=null) {
 					name2var.remove(variables.get(i).getName());
 				}
-				if (variables.get(i).index()<0)
-					/* System.out.println("*** variable to be removed has index < 0 => no removed from varq!!!") */;
-				else
-					;
-				varq.delete(variables.get(i));
+				varq.delete(i);
 			}
 			variables.shrinkTo(shrinkTo);
+			xorlists.shrinkTo(Math.min(xorlists.size(), shrinkTo));
 			
 			/* shrink watchlists */
 			watchlists.shrinkTo(Math.min(watchlists.size(), mark[3]));
+			cardlists.shrinkTo(Math.min(cardlists.size(), mark[3]));
+			cleanWatchlists(); /* drop watches of clauses above the mark */
 			
 			/* shrink units */
 			unitfacts.shrinkTo(Math.min(unitfacts.size(), mark[5]));
 			
 			/* shrink binary watchlists */
-			binwatchlists.shrinkTo(Math.min(binwatchlists.size(), binlength));
+			bingraph.shrinkLiteralsTo(binlength);
 			
 			for (int i=6; i<mark.length; i++) {
-				if (i-6 >= binwatchlists.size())
+				if (i-6 >= bingraph.numLiterals())
 					break;
-				
-				IntVec bwl=binwatchlists.get(i-6);
-				if (bwl!=null && mark[i]>=0)
-					bwl.shrinkTo(Math.min(bwl.size(), mark[i]));
+				if (mark[i]>=0)
+					bingraph.shrinkTo(i-6, Math.min(bingraph.size(i-6), mark[i]));
 			}
 			
+			if (xors_removed && !rebuildXors())
+				state=State.UNSAT;
+			gauss_dirty=gauss.size()>0; /* matrix rows propagate again after backtrack(-1) */
+			
 			if (state!=State.UNSAT) { /* assign unitfacts */
 				for (int i=0; i<unitfacts.size(); i++)
 					if (!assign(unitfacts.get(i), null)) {
@@ -984,11 +2032,33 @@ public class CNFSolver implements Solver {
 						return;
 					}
 			}
+			if (state!=State.UNSAT) { /* native constraints which propagate without any assignment */
+				for (int i=0; i<cardconstraints.size(); i++)
+					if (cardconstraints.get(i).isPropagating() && !propagateCardinality(cardconstraints.get(i))) {
+						state=State.UNSAT;
+						return;
+					}
+				for (int i=0; !xors_removed && i<xorconstraints.size(); i++)
+					if (xorconstraints.get(i).size()==1 && !attachXor(xorconstraints.get(i))) {
+						state=State.UNSAT;
+						return;
+					}
+			}
 			if (score_saving)
 				resetScoresAndPhases(mark, 6+binlength);
 		}
 	}
 	
+	/* remove cardinality constraints above stack bound (they are the last entries of their literals' lists) */
+	protected void shrinkCardinalityConstraints(int bound) {
+		for (int i=cardconstraints.size()-1; i>=bound; i--) {
+			CardinalityConstraint cc=cardconstraints.get(i);
+			for (int j=0; j<cc.size(); j++)
+				cardlists.get(cc.get(j)).pop();
+		}
+		cardconstraints.shrinkTo(Math.min(cardconstraints.size(), bound));
+	}
+	
 	public void stats(PrintStream out) {
 		stats.statPrint(out);
 	}
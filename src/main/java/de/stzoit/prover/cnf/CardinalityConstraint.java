@@ -0,0 +1,104 @@
+package de.stzoit.prover.cnf;
+
+/**
+ * Native at-most-k constraint over solver literals (at-least-k constraints are
+ * represented as at-most-(n-k) constraints over the negated literals)
+ *
+ *     - propagation is counter based: whenever BCP processes a literal of the constraint which has been assigned
+ *       TRUE, the literal is pushed on the constraint's counter stack; as soon as the counter reaches the bound,
+ *       all remaining unassigned literals are propagated FALSE
+ *     - backtracking pops the counter stack in reverse trail order, thus the first bound entries of the stack are
+ *       exactly the literals that forced the propagation
+ *     - explanations are built lazily, i.e. only if conflict analysis actually resolves on a literal propagated
+ *       by the constraint
+ *
+ * @author AK
+ *
+ */
+public class CardinalityConstraint {
+	private CNFSolver solver;               /* solver that holds the constraint */
+	private int lits[];                     /* literals of the constraint */
+	private int bound;                      /* at most bound literals may be assigned TRUE */
+	private int counted[];                  /* TRUE literals processed by BCP (stack, invariant: size<=bound+1) */
+	private int count=0;                    /* top of counter stack */
+
+	public CardinalityConstraint(CNFSolver sol, int lits[], int bound) {
+		solver=sol;
+		this.lits=lits;
+		this.bound=bound;
+		counted=new int[bound+1];
+	}
+
+	public int size() {
+		return lits.length;
+	}
+
+	public int get(int i) {
+		return lits[i];
+	}
+
+	public int getBound() {
+		return bound;
+	}
+
+	/* number of literals which have been processed by BCP and are assigned TRUE */
+	public int getCount() {
+		return count;
+	}
+
+	public int lastCounted() {
+		return counted[count-1];
+	}
+	
+	/* lit (TRUE) has been processed by BCP */
+	void count(int lit) {
+		counted[count++]=lit;
+	}
+
+	/* counted literal has been unassigned during backtracking */
+	void uncount() {
+		count--;
+	}
+
+	public boolean isConflicting() {
+		return count>bound;
+	}
+
+	public boolean isPropagating() {
+		return count==bound;
+	}
+
+	/*
+	 * explanation clause for lit, which has been assigned FALSE by (or conflicts with) this constraint:
+	 * (lit \/ -c_0 \/ ... \/ -c_{bound-1}), c_i counted literals; lit is at position 0 (by convention the
+	 * propagated literal)
+	 */
+	public Clause explain(int lit) {
+		Clause reason=new Clause(solver);
+
+		reason.push(lit);
+		for (int i=0; i<bound; i++)
+			reason.push(solver.oppositeLit(counted[i]));
+
+		return reason;
+	}
+
+	/* true if at most bound literals are assigned TRUE */
+	public boolean sat() {
+		int n=0;
+		for (int i=0; i<lits.length; i++)
+			if (solver.lit2val(lits[i])==CNFSolver.Val.TRUE)
+				n++;
+		return n<=bound;
+	}
+
+	public String toString() {
+		StringBuffer sb=new StringBuffer();
+
+		for (int i=0; i<lits.length; i++)
+			sb.append(CNFSolver.toDimacsLit(lits[i])+" ");
+		sb.append("<= "+bound);
+
+		return sb.toString();
+	}
+}
@@ -13,6 +13,7 @@ public class Clause {
 	protected long id;                      /* clause id, negative for deduced clauses, positive for 
 	                                           original clauses */
 	private String clauseName=null;         /* clause name */
+	private boolean detached=false;         /* removed from the solver, watches are dropped lazily */
 
 	public Clause(CNFSolver sol) {
 		solver=sol;
@@ -77,6 +78,14 @@ public class Clause {
 		return tautology;
 	}
 	
+	public boolean isDetached() {
+		return detached;
+	}
+	
+	void setDetached() {
+		detached=true;
+	}
+	
 	public int size() {
 		return lits.size();
 	}
@@ -0,0 +1,177 @@
+package de.stzoit.prover.cnf;
+
+import java.util.BitSet;
+
+import de.stzoit.prover.collections.IVec;
+import de.stzoit.prover.collections.Vec;
+import de.stzoit.prover.collections.nativeType.BooleanVec;
+import de.stzoit.prover.collections.nativeType.IntVec;
+
+/**
+ * Incremental Gauss-Jordan elimination over GF(2) for XOR constraints
+ *
+ *     - every row is a set of variables (columns) together with its parity, the matrix is kept in reduced row
+ *       echelon form: each row has a pivot variable that does not occur in any other row
+ *     - a new row is reduced by the existing pivots first, the remaining row is either empty (redundant or
+ *       inconsistent) or provides a new pivot, which is then eliminated from all other rows
+ *     - during search the matrix knows the assigned columns (as processed by the solver's bcp()): repivot()
+ *       moves the pivot of each row to an unassigned column if the row has one, eliminating it from the other
+ *       rows, afterwards a row without unassigned columns is either satisfied or conflicting and a row with a
+ *       single unassigned column propagates it
+ *     - row operations do not change the row space, i.e. every row is implied by the input rows under any
+ *       assignment, thus (as with watches) rows do not have to be restored while backtracking
+ *
+ * @author AK
+ *
+ */
+public class GaussJordanMatrix {
+	public static final int INCONSISTENT=-1; /* row reduced to 0=1 */
+	public static final int REDUNDANT   =0;  /* row reduced to 0=0 */
+	public static final int ADDED       =1;  /* row added, possibly modifying other rows */
+	public static final int NONE        =-1; /* row has no unassigned variable */
+	public static final int SEVERAL     =-2; /* row has more than one unassigned variable */
+
+	private IVec<BitSet> rows;              /* rows, i.e. variables of the equations */
+	private BooleanVec parities;            /* right hand sides of the equations */
+	private IntVec pivots;                  /* pivot variable of each row */
+	private BitSet columns;                 /* variables of all rows ever added */
+	private BitSet assigned;                /* assigned columns */
+	private BitSet values;                  /* assigned columns which are TRUE */
+	private BitSet scratch;                 /* temporary row */
+
+	public GaussJordanMatrix() {
+		rows=new Vec<BitSet>();
+		parities=new BooleanVec();
+		pivots=new IntVec();
+		columns=new BitSet();
+		assigned=new BitSet();
+		values=new BitSet();
+		scratch=new BitSet();
+	}
+
+	public int size() {
+		return rows.size();
+	}
+
+	public boolean getParity(int row) {
+		return parities.get(row);
+	}
+
+	public int getPivot(int row) {
+		return pivots.get(row);
+	}
+
+	/* variables of row */
+	public int[] getVariables(int row) {
+		BitSet r=rows.get(row);
+		int vars[]=new int[r.cardinality()];
+
+		for (int v=r.nextSetBit(0), i=0; v>=0; v=r.nextSetBit(v+1))
+			vars[i++]=v;
+		return vars;
+	}
+
+	/* add equation vars[0] + ... + vars[n-1] = parity (mod 2), returns INCONSISTENT, REDUNDANT or ADDED */
+	public int addRow(int vars[], boolean parity) {
+		BitSet row=new BitSet();
+
+		for (int i=0; i<vars.length; i++)
+			row.flip(vars[i]);
+		columns.or(row);
+
+		/* forward reduction by existing pivots */
+		for (int i=0; i<rows.size(); i++)
+			if (row.get(pivots.get(i))) {
+				row.xor(rows.get(i));
+				parity^=parities.get(i);
+			}
+
+		if (row.isEmpty())
+			return parity ? INCONSISTENT : REDUNDANT;
+
+		/* backward elimination of the new pivot, preferably an unassigned one */
+		scratch.clear();
+		scratch.or(row);
+		scratch.andNot(assigned);
+		int pivot=(scratch.isEmpty() ? row.nextSetBit(0) : scratch.nextSetBit(0));
+		eliminate(row, parity, pivot, -1);
+
+		rows.push(row);
+		parities.push(parity);
+		pivots.push(pivot);
+
+		return ADDED;
+	}
+
+	/* xor row (with parity) onto all rows other than skip containing pivot */
+	private void eliminate(BitSet row, boolean parity, int pivot, int skip) {
+		for (int i=0; i<rows.size(); i++)
+			if (i!=skip && rows.get(i).get(pivot)) {
+				rows.get(i).xor(row);
+				parities.set(i, parities.get(i)^parity);
+			}
+	}
+
+	public boolean isColumn(int var) {
+		return columns.get(var);
+	}
+
+	public void assign(int var, boolean value) {
+		assigned.set(var);
+		values.set(var, value);
+	}
+
+	public void unassign(int var) {
+		assigned.clear(var);
+		values.clear(var);
+	}
+
+	/* move the pivot of every row with an assigned pivot to an unassigned variable of the row, if there is one */
+	public void repivot() {
+		for (int i=0; i<rows.size(); i++) {
+			if (!assigned.get(pivots.get(i)))
+				continue;
+
+			BitSet row=rows.get(i);
+			scratch.clear();
+			scratch.or(row);
+			scratch.andNot(assigned);
+			int pivot=scratch.nextSetBit(0);
+			if (pivot<0)
+				continue;
+
+			eliminate(row, parities.get(i), pivot, i);
+			pivots.set(i, pivot);
+		}
+	}
+
+	/* the only unassigned variable of row, NONE or SEVERAL */
+	public int unassignedVariable(int row) {
+		scratch.clear();
+		scratch.or(rows.get(row));
+		scratch.andNot(assigned);
+
+		int var=scratch.nextSetBit(0);
+		if (var<0)
+			return NONE;
+		return scratch.nextSetBit(var+1)<0 ? var : SEVERAL;
+	}
+
+	/* parity of row minus the sum of its assigned variables, i.e. the value of the unassigned rest */
+	public boolean residualParity(int row) {
+		scratch.clear();
+		scratch.or(rows.get(row));
+		scratch.and(values);
+
+		return parities.get(row)^(scratch.cardinality()%2==1);
+	}
+
+	public void clear() {
+		rows.clear();
+		parities.clear();
+		pivots.clear();
+		columns.clear();
+		assigned.clear();
+		values.clear();
+	}
+}
@@ -3,6 +3,8 @@ package de.stzoit.prover.cnf;
 public class LearntClause extends Clause {
 	private int activity=0;
 	private int references=0;
+	private int lbd=0;          /* literal block distance at derivation, 0 if not measured */
+	private boolean vivified=false; /* already visited by vivification */
 	
 	public LearntClause(CNFSolver sol) {
 		super(sol);
@@ -50,4 +52,20 @@ public class LearntClause extends Clause {
 	public int getActivity() {
 		return activity;
 	}
+	
+	public void setLbd(int l) {
+		lbd=l;
+	}
+	
+	public int getLbd() {
+		return lbd;
+	}
+	
+	public void setVivified() {
+		vivified=true;
+	}
+	
+	public boolean isVivified() {
+		return vivified;
+	}
 }
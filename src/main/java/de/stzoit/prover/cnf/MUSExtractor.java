@@ -0,0 +1,303 @@
+package de.stzoit.prover.cnf;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import de.stzoit.prover.collections.IVec;
+import de.stzoit.prover.collections.Vec;
+import de.stzoit.prover.collections.nativeType.IntVec;
+
+/**
+ * Deletion-based extraction of a minimal unsatisfiable subset (MUS) of named clause groups
+ *
+ *     - every group g is guarded by a selector variable s_g, i.e. clause c of g is added as (c \/ -s_g), hard
+ *       clauses (which belong to every subset) are added as they are; all subsets are tested on one solver by
+ *       solving under the assumptions s_g, thus learnt clauses are kept from call to call
+ *     - deletion: a group g of the current core is dropped (assumption -s_g); if the rest is unsatisfiable, the
+ *       core shrinks to the groups whose selectors have been refuted (core refinement), else g is necessary
+ *     - model rotation: a model of core\{g} falsifies clauses of g only; if flipping a variable of such a clause
+ *       yields an assignment which falsifies clauses of exactly one other group g', then g' is necessary as
+ *       well (without calling the solver) and rotation continues from there
+ *     - the result contains group names only, as getCoreTags() of ProofTracing does
+ *
+ * @author AK
+ *
+ */
+public class MUSExtractor {
+	private CNFSolver solver;
+	private IVec<String> names;                 /* Group->name                                      */
+	private IntVec selectors;                   /* Group->selector variable                         */
+	private HashMap<String,Integer> groups;     /* name->Group                                      */
+	private IVec<int[]> clauses;                /* clauses without selector literal                 */
+	private IntVec owner;                       /* Clause->Group, -1 for hard clauses               */
+	private IVec<IntVec> occurrences=null;      /* Lit->clauses containing lit (built by extract()) */
+	private boolean inconsistent=false;         /* hard clauses are unsatisfiable                   */
+	private int calls=0, rotated=0;
+
+	public MUSExtractor() {
+		this(new CNFSolver("MUSExtractor"));
+	}
+
+	/* solver has to be empty, it is used for this extractor only */
+	public MUSExtractor(CNFSolver solver) {
+		this.solver=solver;
+		names=new Vec<String>();
+		selectors=new IntVec();
+		groups=new HashMap<String,Integer>();
+		clauses=new Vec<int[]>();
+		owner=new IntVec();
+	}
+
+	/* solver the clauses have to be created for */
+	public CNFSolver getSolver() {
+		return solver;
+	}
+
+	/* add clause to group (created on first use) */
+	public void addClause(String group, Clause clause) throws Exception {
+		if (clause.isTautology())
+			return;
+
+		Integer g=groups.get(group);
+
+		if (g==null) {
+			g=names.size();
+			groups.put(group, g);
+			names.push(group);
+			selectors.push(solver.newVariable(null));
+		}
+		clauses.push(literals(clause));
+		owner.push(g);
+		clause.push(CNFSolver.var2lit(selectors.get(g), false));
+		solver.pushClause(clause);
+	}
+
+	/* add clause which belongs to every subset */
+	public void addHardClause(Clause clause) throws Exception {
+		if (clause.isTautology())
+			return;
+
+		clauses.push(literals(clause));
+		owner.push(-1);
+		if (!solver.pushClause(clause))
+			inconsistent=true;
+	}
+
+	/* number of solver calls made by extract() */
+	public int getNumCalls() {
+		return calls;
+	}
+
+	/* number of groups found to be necessary by model rotation */
+	public int getNumRotated() {
+		return rotated;
+	}
+
+	/* names of the groups of a MUS (empty if the hard clauses are unsatisfiable), null if all groups are SAT */
+	public Set<String> extract() throws Exception {
+		int ngroups=names.size();
+		boolean critical[]=new boolean[ngroups], incore[]=new boolean[ngroups];
+		IntVec core=new IntVec();
+
+		calls=rotated=0;
+		buildOccurrences();
+		for (int g=0; g<ngroups; g++)
+			core.push(g);
+
+		if (inconsistent)
+			core.clear();
+		else if (solve(core, -1))
+			return null;
+		else
+			refine(core);
+		for (int i=0; i<core.size(); i++)
+			incore[core.get(i)]=true;
+
+		for (int g=nextCandidate(core, critical); g>=0; g=nextCandidate(core, critical)) {
+			if (solve(core, g)) { /* g is necessary */
+				critical[g]=true;
+				rotate(g, model(), incore, critical);
+			} else {
+				for (int i=0; i<core.size(); i++)
+					incore[core.get(i)]=false;
+				refine(core);
+				for (int i=0; i<core.size(); i++)
+					incore[core.get(i)]=true;
+			}
+		}
+
+		Set<String> mus=new LinkedHashSet<String>();
+		for (int i=0; i<core.size(); i++)
+			mus.add(names.get(core.get(i)));
+		return mus;
+	}
+
+	/* first group of core not known to be necessary, -1 if there is none */
+	private int nextCandidate(IntVec core, boolean critical[]) {
+		for (int i=0; i<core.size(); i++)
+			if (!critical[core.get(i)])
+				return core.get(i);
+		return -1;
+	}
+
+	/* solve under the groups of core except drop (-1: none) */
+	private boolean solve(IntVec core, int drop) throws Exception {
+		int assumed[]=new int[core.size()];
+
+		for (int i=0; i<core.size(); i++) {
+			int g=core.get(i);
+
+			assumed[i]=CNFSolver.var2lit(selectors.get(g), g!=drop);
+		}
+		calls++;
+		return solver.sat(assumed);
+	}
+
+	/* keep the groups of core whose selectors are among the refuted assumptions of the last call */
+	private void refine(IntVec core) {
+		int conflict[]=solver.getConflictAssumptions();
+		boolean refuted[]=new boolean[names.size()];
+		int j=0;
+
+		for (int i=0; i<conflict.length; i++)
+			if (CNFSolver.sign(conflict[i])) {
+				int g=groupOf(CNFSolver.lit2var(conflict[i]));
+
+				if (g>=0)
+					refuted[g]=true;
+			}
+		for (int i=0; i<core.size(); i++)
+			if (refuted[core.get(i)])
+				core.set(j++, core.get(i));
+		core.shrinkTo(j);
+	}
+
+	private int groupOf(int selector) {
+		/* selectors are created in group order, thus they are ascending */
+		int lo=0, hi=selectors.size()-1;
+
+		while (lo<=hi) {
+			int mid=(lo+hi)>>>1;
+
+			if (selectors.get(mid)<selector)
+				lo=mid+1;
+			else if (selectors.get(mid)>selector)
+				hi=mid-1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	/* assignment found by the last call, Var->value */
+	private boolean[] model() {
+		boolean m[]=new boolean[solver.variables.size()];
+
+		for (int v=1; v<m.length; v++)
+			m[v]=(solver.var2val(v)==CNFSolver.Val.TRUE);
+		return m;
+	}
+
+	/*
+	 * recursive model rotation: m satisfies the clauses of all groups of the core but g and all hard clauses.
+	 * Flipping a variable of a falsified clause falsifies clauses which contain its formerly true literal only,
+	 * if all of them belong to one group, which is not known to be necessary, that group is necessary.
+	 */
+	private void rotate(int g, boolean m[], boolean incore[], boolean critical[]) {
+		IVec<boolean[]> models=new Vec<boolean[]>();
+		IVec<IntVec> falsifieds=new Vec<IntVec>();
+		IntVec falsified=new IntVec();
+
+		for (int c=0; c<clauses.size(); c++)
+			if (owner.get(c)==g && isFalsified(clauses.get(c), m, 0))
+				falsified.push(c);
+		models.push(m);
+		falsifieds.push(falsified);
+
+		while (models.size()>0) {
+			m=models.last();
+			falsified=falsifieds.last();
+			models.pop();
+			falsifieds.pop();
+
+			for (int i=0; i<falsified.size(); i++) {
+				int cls[]=clauses.get(falsified.get(i));
+
+				for (int j=0; j<cls.length; j++) {
+					int lit=cls[j],                  /* false under m, true after flipping */
+					    neg=lit^1;
+					IntVec next=new IntVec();
+					int g2=-1;
+					boolean unique=true;
+
+					/* falsified clauses which are not satisfied by the flip */
+					for (int k=0; k<falsified.size(); k++)
+						if (!contains(clauses.get(falsified.get(k)), lit))
+							next.push(falsified.get(k));
+					/* clauses falsified by the flip */
+					IntVec occ=(neg<occurrences.size() ? occurrences.get(neg) : null);
+					for (int k=0; occ!=null && k<occ.size(); k++) {
+						int c=occ.get(k),
+						    o=owner.get(c);
+
+						if ((o<0 || incore[o]) && isFalsified(clauses.get(c), m, neg))
+							next.push(c);
+					}
+
+					for (int k=0; k<next.size() && unique; k++) {
+						int o=owner.get(next.get(k));
+
+						if (o<0 || (g2>=0 && o!=g2))
+							unique=false;
+						g2=o;
+					}
+					if (next.size()>0 && unique && !critical[g2]) {
+						boolean m2[]=m.clone();
+
+						m2[CNFSolver.lit2var(lit)]=CNFSolver.sign(lit);
+						critical[g2]=true;
+						rotated++;
+						models.push(m2);
+						falsifieds.push(next);
+					}
+				}
+			}
+		}
+	}
+
+	/* all literals of cls but except are false under m */
+	private static boolean isFalsified(int cls[], boolean m[], int except) {
+		for (int i=0; i<cls.length; i++)
+			if (cls[i]!=except && m[CNFSolver.lit2var(cls[i])]==CNFSolver.sign(cls[i]))
+				return false;
+		return true;
+	}
+
+	private static boolean contains(int cls[], int lit) {
+		for (int i=0; i<cls.length; i++)
+			if (cls[i]==lit)
+				return true;
+		return false;
+	}
+
+	private static int[] literals(Clause clause) {
+		int lits[]=new int[clause.size()];
+
+		for (int i=0; i<lits.length; i++)
+			lits[i]=clause.get(i);
+		return lits;
+	}
+
+	private void buildOccurrences() {
+		occurrences=new Vec<IntVec>();
+		for (int i=0; i<2*solver.variables.size(); i++)
+			occurrences.push(new IntVec(2));
+		for (int c=0; c<clauses.size(); c++) {
+			int cls[]=clauses.get(c);
+
+			for (int j=0; j<cls.length; j++)
+				occurrences.get(cls[j]).push(c);
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package de.stzoit.prover.cnf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import de.stzoit.prover.collections.nativeType.IntVec;
+
+/**
+ * Streaming clausal proof output (DRAT or LRAT, text or binary), written by CNFSolver while solving
+ *
+ *     - lemmas and deletions are encoded directly into a direct byte buffer, which is handed to the file
+ *       channel whenever it is full, thus no strings are created per clause
+ *     - literals are solver literals (2*var+sign), they are written as DIMACS literals over the variable numbers
+ *       given by mapVariable() (the solver maps variables named by positive integers, as DimacsReader does)
+ *     - DRAT: "l_1 ... l_n 0" and "d l_1 ... l_n 0", binary: 'a'/'d' followed by the literals as variable
+ *       length integers (2*var+(negative ? 1 : 0)) and 0
+ *     - LRAT: "id l_1 ... l_n 0 h_1 ... h_m 0" and "id d id_1 ... id_k 0", where h_1, ..., h_m are the clauses
+ *       (in unit propagation order) the lemma is derived from; binary: 'a' id l_1 ... l_n 0 h_1 ... h_m 0 and
+ *       'd' id_1 ... id_k 0, ids as variable length integers 2*id, hints 2*|h|+(h<0 ? 1 : 0)
+ *     - clause ids are assigned by the solver: original clauses are numbered 1, 2, ... in the order in which
+ *       they have been added (as in the DIMACS file), lemmas continue from there
+ *
+ * @author AK
+ *
+ */
+public class ProofWriter {
+	public enum Format { DRAT, DRAT_BINARY, LRAT, LRAT_BINARY };
+
+	private static final int BUFFER_SIZE=1<<16;
+
+	private Format format;
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private ByteBuffer buf;
+	private long last_id=0;                 /* id of the last lemma (LRAT deletions refer to it) */
+	private long lemmas=0, deletions=0;
+	private IntVec numbers;                 /* Var->DIMACS variable number, 0 if unmapped (var is written) */
+
+	public ProofWriter(File f, Format format) throws IOException {
+		this.format=format;
+		file=new RandomAccessFile(f, "rw");
+		file.setLength(0);
+		channel=file.getChannel();
+		buf=ByteBuffer.allocateDirect(BUFFER_SIZE);
+		numbers=new IntVec();
+	}
+
+	public ProofWriter(String path, Format format) throws IOException {
+		this(new File(path), format);
+	}
+
+	public Format getFormat() {
+		return format;
+	}
+
+	/* write solver variable var as DIMACS variable number */
+	public void mapVariable(int var, int number) {
+		if (numbers.size()<=var)
+			numbers.growTo(var+1, 0);
+		numbers.set(var, number);
+	}
+
+	/* true if lemmas need ids and hints */
+	public boolean isLrat() {
+		return format==Format.LRAT || format==Format.LRAT_BINARY;
+	}
+
+	public boolean isBinary() {
+		return format==Format.DRAT_BINARY || format==Format.LRAT_BINARY;
+	}
+
+	/* add lemma cls (DRAT) */
+	public void add(Clause cls) throws IOException {
+		add(cls, 0, null, 0);
+	}
+
+	/* add lemma cls with the given id, derived from the clauses hints[0], ..., hints[n-1] (LRAT) */
+	public void add(Clause cls, long id, long hints[], int n) throws IOException {
+		lemmas++;
+		if (isLrat()) {
+			last_id=id;
+			if (isBinary()) {
+				put('a');
+				putVarint(2*id);
+			} else
+				putText(id);
+		} else if (isBinary())
+			put('a');
+		putLits(cls);
+		for (int i=0; isLrat() && i<n; i++)
+			putHint(hints[i]);
+		putEnd();
+	}
+
+	/* delete clause cls with the given id (the id is needed for LRAT only) */
+	public void delete(Clause cls, long id) throws IOException {
+		deletions++;
+		if (!isLrat()) {
+			if (isBinary())
+				put('d');
+			else
+				putAscii("d ");
+			putLits(cls);
+		} else {
+			if (isBinary()) {
+				put('d');
+				putVarint(2*id);
+			} else {
+				putText(last_id);
+				putAscii("d ");
+				putText(id);
+			}
+		}
+		putEnd();
+	}
+
+	public long getNumLemmas() {
+		return lemmas;
+	}
+
+	public long getNumDeletions() {
+		return deletions;
+	}
+
+	public void flush() throws IOException {
+		buf.flip();
+		while (buf.hasRemaining())
+			channel.write(buf);
+		buf.clear();
+	}
+
+	public void close() throws IOException {
+		if (channel==null)
+			return;
+		flush();
+		channel.force(false);
+		channel.close();
+		file.close();
+		channel=null;
+	}
+
+	private void putLits(Clause cls) throws IOException {
+		for (int i=0; i<cls.size(); i++) {
+			int lit=cls.get(i),
+			    var=CNFSolver.lit2var(lit);
+
+			if (var<numbers.size() && numbers.get(var)>0)
+				var=numbers.get(var);
+			if (isBinary())
+				putVarint(2*(long)var+(CNFSolver.sign(lit) ? 0 : 1));
+			else
+				putText(CNFSolver.sign(lit) ? var : -var);
+		}
+		if (isLrat()) {
+			if (isBinary())
+				put(0);
+			else
+				putAscii("0 ");
+		}
+	}
+
+	private void putHint(long id) throws IOException {
+		if (isBinary())
+			putVarint(id<0 ? 2*(-id)+1 : 2*id);
+		else
+			putText(id);
+	}
+
+	private void putEnd() throws IOException {
+		if (isBinary())
+			put(0);
+		else
+			putAscii("0\n");
+	}
+
+	private void put(int b) throws IOException {
+		if (!buf.hasRemaining())
+			flush();
+		buf.put((byte)b);
+	}
+
+	private void putAscii(String s) throws IOException {
+		for (int i=0; i<s.length(); i++)
+			put(s.charAt(i));
+	}
+
+	/* v followed by a blank */
+	private void putText(long v) throws IOException {
+		if (buf.remaining()<21)
+			flush();
+		if (v<0) {
+			buf.put((byte)'-');
+			v=-v;
+		}
+
+		int start=buf.position();
+		do {
+			buf.put((byte)('0'+(v%10)));
+			v/=10;
+		} while (v>0);
+		/* digits have been written in reverse order */
+		for (int i=start, j=buf.position()-1; i<j; i++, j--) {
+			byte b=buf.get(i);
+			buf.put(i, buf.get(j));
+			buf.put(j, b);
+		}
+		buf.put((byte)' ');
+	}
+
+	/* unsigned LEB128 */
+	private void putVarint(long v) throws IOException {
+		while ((v&~0x7fL)!=0) {
+			put((int)((v&0x7f)|0x80));
+			v>>>=7;
+		}
+		put((int)v);
+	}
+}
@@ -0,0 +1,192 @@
+package de.stzoit.prover.cnf;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Live solver metrics
+ *
+ *     - fed by the solver thread only: conflicts update the LBD histogram, everything else is sampled by the
+ *       solver (see CNFSolver.sampleMetrics()) as soon as the sample interval has elapsed, which is checked
+ *       after every conflict and on the decision path along with the deadline (every 256 decisions)
+ *     - every sample is published as an immutable snapshot, thus the MXBean may be queried from any thread
+ *     - optionally, every sample is printed as a "c " progress line
+ *     - the solver holds no metrics object by default, in this case nothing is counted or sampled
+ *
+ * @author AK
+ *
+ */
+public class SolverMetrics implements SolverMetricsMXBean {
+	public static final int MAX_LBD=32;     /* LBDs >= MAX_LBD share the last histogram bucket */
+
+	private volatile long interval;         /* sample interval (ms) */
+	private PrintStream progress;           /* progress lines are printed here, null if disabled */
+	private long start;                     /* creation time (ns) */
+	private long next;                      /* time of next sample (ns) */
+	private long lbds[];                    /* LBD histogram, updated by the solver thread */
+	private volatile Snapshot last;         /* last published sample */
+	private ObjectName registered=null;     /* MXBean name, if registered */
+
+	/* values of a single sample */
+	private static class Snapshot {
+		long time=0, propagations=0, conflicts=0, decisions=0, restarts=0;
+		double props_per_sec=0, confl_per_sec=0, dec_per_sec=0;
+		int core=0, tier2=0, local=0, bin=0, unit=0, trail=0;
+		double avg_watch=0;
+		long lbds[]=new long[MAX_LBD+1];
+	}
+
+	public SolverMetrics(long interval_ms, PrintStream progress) {
+		this.interval=interval_ms;
+		this.progress=progress;
+		start=System.nanoTime();
+		next=start+interval*1000000L;
+		lbds=new long[MAX_LBD+1];
+		last=new Snapshot();
+	}
+
+	/* learnt clause with the given LBD has been derived */
+	public void conflict(int lbd) {
+		lbds[Math.min(Math.max(lbd, 0), MAX_LBD)]++;
+	}
+
+	/* true if the sample interval has elapsed */
+	public boolean due() {
+		return System.nanoTime()-next>=0;
+	}
+
+	/* publish a new sample */
+	public void sample(long propagations, long conflicts, long decisions, long restarts, int core, int tier2,
+			int local, int bin, int unit, double avg_watch, int trail) {
+		long now=System.nanoTime();
+		Snapshot prev=last,
+		         s=new Snapshot();
+		double dt=(now-start-prev.time)/1e9;
+
+		s.time=now-start;
+		s.propagations=propagations;
+		s.conflicts=conflicts;
+		s.decisions=decisions;
+		s.restarts=restarts;
+		if (dt>0) {
+			/* counters are reset by the solver on pop() */
+			s.props_per_sec=Math.max(0, propagations-prev.propagations)/dt;
+			s.confl_per_sec=Math.max(0, conflicts-prev.conflicts)/dt;
+			s.dec_per_sec=Math.max(0, decisions-prev.decisions)/dt;
+		}
+		s.core=core;
+		s.tier2=tier2;
+		s.local=local;
+		s.bin=bin;
+		s.unit=unit;
+		s.avg_watch=avg_watch;
+		s.trail=trail;
+		System.arraycopy(lbds, 0, s.lbds, 0, lbds.length);
+
+		last=s;
+		next=now+interval*1000000L;
+
+		if (progress!=null)
+			printProgress(progress, s);
+	}
+
+	protected void printProgress(PrintStream out, Snapshot s) {
+		out.println(String.format("c [%8.1fs] props/s %10.0f confl/s %8.0f dec/s %8.0f restarts %6d "
+		                         +"learnts %d/%d/%d (bin %d, unit %d) avg.wl %.1f trail %d",
+		                          s.time/1e9, s.props_per_sec, s.confl_per_sec, s.dec_per_sec, s.restarts,
+		                          s.core, s.tier2, s.local, s.bin, s.unit, s.avg_watch, s.trail));
+		out.flush();
+	}
+
+	/* register as platform MXBean "de.stzoit.prover:type=SolverMetrics,name=<name>" */
+	public void register(String name) throws Exception {
+		MBeanServer server=ManagementFactory.getPlatformMBeanServer();
+		ObjectName oname=new ObjectName("de.stzoit.prover:type=SolverMetrics,name="+ObjectName.quote(name));
+
+		if (server.isRegistered(oname))
+			server.unregisterMBean(oname);
+		server.registerMBean(this, oname);
+		registered=oname;
+	}
+
+	public void unregister() throws Exception {
+		if (registered!=null && ManagementFactory.getPlatformMBeanServer().isRegistered(registered))
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+		registered=null;
+	}
+
+	public long getElapsedMillis() {
+		return (System.nanoTime()-start)/1000000L;
+	}
+
+	public long getSampleIntervalMillis() {
+		return interval;
+	}
+
+	public void setSampleIntervalMillis(long ms) {
+		interval=ms;
+	}
+
+	public long getPropagations() {
+		return last.propagations;
+	}
+
+	public long getConflicts() {
+		return last.conflicts;
+	}
+
+	public long getDecisions() {
+		return last.decisions;
+	}
+
+	public long getRestarts() {
+		return last.restarts;
+	}
+
+	public double getPropagationsPerSecond() {
+		return last.props_per_sec;
+	}
+
+	public double getConflictsPerSecond() {
+		return last.confl_per_sec;
+	}
+
+	public double getDecisionsPerSecond() {
+		return last.dec_per_sec;
+	}
+
+	public int getLearntCore() {
+		return last.core;
+	}
+
+	public int getLearntTier2() {
+		return last.tier2;
+	}
+
+	public int getLearntLocal() {
+		return last.local;
+	}
+
+	public int getLearntBinary() {
+		return last.bin;
+	}
+
+	public int getLearntUnit() {
+		return last.unit;
+	}
+
+	public long[] getLbdHistogram() {
+		return last.lbds.clone();
+	}
+
+	public double getAverageWatchlistLength() {
+		return last.avg_watch;
+	}
+
+	public int getTrailSize() {
+		return last.trail;
+	}
+}
@@ -0,0 +1,48 @@
+package de.stzoit.prover.cnf;
+
+/**
+ * Management interface of SolverMetrics, all values refer to the last sample taken by the solver
+ *
+ * @author AK
+ *
+ */
+public interface SolverMetricsMXBean {
+	public long getElapsedMillis();
+
+	public long getSampleIntervalMillis();
+
+	public void setSampleIntervalMillis(long ms);
+
+	public long getPropagations();
+
+	public long getConflicts();
+
+	public long getDecisions();
+
+	public long getRestarts();
+
+	/* rates since the previous sample */
+	public double getPropagationsPerSecond();
+
+	public double getConflictsPerSecond();
+
+	public double getDecisionsPerSecond();
+
+	/* learnt clause database by tier: core (LBD<=2), tier2 (LBD<=6), local (remaining clauses > 2) */
+	public int getLearntCore();
+
+	public int getLearntTier2();
+
+	public int getLearntLocal();
+
+	public int getLearntBinary();
+
+	public int getLearntUnit();
+
+	/* number of learnt clauses by LBD, the last entry accumulates all larger LBDs */
+	public long[] getLbdHistogram();
+
+	public double getAverageWatchlistLength();
+
+	public int getTrailSize();
+}
@@ -6,6 +6,7 @@ import de.stzoit.prover.TimeOutException;
 
 public class Statistics {
 	private int num_restarts               =0;       /* relevant to luby-sequence generation */
+	private long num_reused_levels         =0;       /* decision levels kept on restarts (trail reuse) */
 	private int num_conflicts              =0;       /* number of conflicts */
 	private int conflicts_till_restart_mul =100;     /* some usefull value */
 	private int conflicts_left_till_restart=0;       /* initially equal to multiplyer*/
@@ -26,11 +27,26 @@ public class Statistics {
 	private int init_confl_till_enlarge    =100;     /* */
 	private int confl_till_enlarge_cnt     =0;       /* */
 	private int confl_till_enlarge         =0;
+	private long num_propagations          =0;       /* number of literals processed by BCP */
+	private long start_time                =0;       /* time of creation/last reset (ms) */
+	private long deadline                  =0;       /* wall clock time limit (ms), 0 if unlimited */
+	private int deadline_check_rate        =256;     /* check deadline/interruption every ... decisions */
+	private int init_confl_till_vivify     =2000;    /* conflicts before the first vivification round */
+	private int confl_till_vivify          =0;       /* conflicts between two vivification rounds, grows by 10% */
+	private int confl_till_vivify_cnt      =0;       /* conflicts left till the next vivification round */
+	private int vivify_budget_div          =10;      /* a round may use 1/div of the propagations since the last */
+	private int vivify_min_budget          =10000;   /* ... but at least this many propagations */
+	private long props_at_last_vivify      =0;       /* number of propagations at the end of the last round */
+	private int num_vivified               =0;       /* learnt clauses shortened by vivification */
+	private long num_vivified_lits         =0;       /* literals removed by vivification */
 	
 	public Statistics() {
 		conflicts_left_till_restart=luby(1)*conflicts_till_restart_mul;
 		confl_till_enlarge=init_confl_till_enlarge;
 		confl_till_enlarge_cnt=confl_till_enlarge;
+		confl_till_vivify=init_confl_till_vivify;
+		confl_till_vivify_cnt=confl_till_vivify;
+		start_time=System.currentTimeMillis();
 	}
 	
 	public Statistics(int max_dec) {
@@ -40,6 +56,7 @@ public class Statistics {
 	
 	public void statReset() {
 		num_restarts=0;
+		num_reused_levels=0;
 		num_conflicts=0;
 		conflicts_left_till_restart=luby(1)*conflicts_till_restart_mul;
 		confl_till_enlarge=init_confl_till_enlarge;
@@ -50,6 +67,13 @@ public class Statistics {
 		num_learnt_bin=0;
 		num_learnt_unit=0;
 		max_learnt=0;
+		num_propagations=0;
+		confl_till_vivify=init_confl_till_vivify;
+		confl_till_vivify_cnt=confl_till_vivify;
+		props_at_last_vivify=0;
+		num_vivified=0;
+		num_vivified_lits=0;
+		start_time=System.currentTimeMillis();
 	}
 	
 	/* return luby sequent at pos i (serves as multiplier for restart intervall) */
@@ -70,14 +94,42 @@ public class Statistics {
 		conflicts_left_till_restart=luby(num_restarts)*conflicts_till_restart_mul;
 	}
 	
+	public void statReuseTrail(int levels) {
+		num_reused_levels+=levels;
+	}
+	
 	public void statDecide() throws TimeOutException {
 		if (max_decisions<=num_decisions) {
 			//System.out.println("Max. decisions reached, timeout");
 			throw new TimeOutException("Max. decisions ("+max_decisions+") reached, timeout");
 		}
+		if ((num_decisions%deadline_check_rate)==0) {
+			if (deadline>0 && System.currentTimeMillis()>=deadline)
+				throw new TimeOutException("Time limit reached, timeout");
+			if (Thread.currentThread().isInterrupted())
+				throw new TimeOutException("Solver thread interrupted, timeout");
+		}
 		num_decisions++;
 	}
 	
+	/* true if the last call to statDecide() has checked the deadline, i.e. every deadline_check_rate decisions */
+	public boolean statDeadlineChecked() {
+		return num_decisions>0 && ((num_decisions-1)%deadline_check_rate)==0;
+	}
+	
+	public void statPropagate(int n) {
+		num_propagations+=n;
+	}
+	
+	/* deadline survives statReset(), as it is a limit rather than a statistic */
+	public void statSetDeadline(long time) {
+		deadline=time;
+	}
+	
+	public long statGetDeadline() {
+		return deadline;
+	}
+	
 	public void stat_reset_decisions() {
 		num_decisions=0;
 	}
@@ -86,6 +138,7 @@ public class Statistics {
 		num_conflicts++;
 		conflicts_left_till_restart--;
 		confl_till_enlarge_cnt--;
+		confl_till_vivify_cnt--;
 		
 		if (statDoEnlarge())
 			statEnlarge();
@@ -119,6 +172,35 @@ public class Statistics {
 		return num_decisions;
 	}
 	
+	public int statGetNumConflicts() {
+		return num_conflicts;
+	}
+	
+	public int statGetNumRestarts() {
+		return num_restarts;
+	}
+	
+	public long statGetNumReusedLevels() {
+		return num_reused_levels;
+	}
+	
+	public long statGetNumPropagations() {
+		return num_propagations;
+	}
+	
+	public int statGetNumLearntBin() {
+		return num_learnt_bin;
+	}
+	
+	public int statGetNumLearntUnit() {
+		return num_learnt_unit;
+	}
+	
+	/* milliseconds since creation/last reset */
+	public long statGetElapsedTime() {
+		return System.currentTimeMillis()-start_time;
+	}
+	
 	public boolean statPerformDecaying() {
 		return (num_decisions%var_decay_rate)==0;
 	}
@@ -160,6 +242,32 @@ public class Statistics {
 		return confl_till_enlarge_cnt<=0;
 	}
 	
+	public boolean statPerformVivify() {
+		return confl_till_vivify_cnt<=0;
+	}
+	
+	/* propagations available to the next vivification round */
+	public long statGetVivifyBudget() {
+		return Math.max(vivify_min_budget, (num_propagations-props_at_last_vivify)/vivify_budget_div);
+	}
+	
+	/* vivification round finished, schedule the next one */
+	public void statVivify() {
+		props_at_last_vivify=num_propagations;
+		confl_till_vivify=(confl_till_vivify*11)/10;
+		confl_till_vivify_cnt=confl_till_vivify;
+	}
+	
+	/* learnt clause has been shortened by n literals */
+	public void statVivified(int n) {
+		num_vivified++;
+		num_vivified_lits+=n;
+	}
+	
+	public int statGetNumVivified() {
+		return num_vivified;
+	}
+	
 	public void maxLevel(int level) {
 		max_level=(max_level<level ? level : max_level);
 	}
@@ -174,9 +282,17 @@ public class Statistics {
 		out.println("c #Decisions:           "+num_decisions);
 		out.println("c #Conflicts:           "+num_conflicts);
 		out.println("c #Restarts:            "+num_restarts);
+		out.println("c #Reused levels:       "+num_reused_levels);
 		out.println("c #Learnt Clauses:      "+num_learnt);
 		out.println("c #Learnt bin. Clauses: "+num_learnt_bin);
 		out.println("c #Learnt unit Clauses: "+num_learnt_unit);
+		out.println("c #Vivified Clauses:    "+num_vivified+" ("+num_vivified_lits+" literals removed)");
 		out.println("c Max. Level: "+max_level);
+		
+		long ms=Math.max(1, statGetElapsedTime());
+		out.println("c #Propagations:        "+num_propagations);
+		out.println("c Time:                 "+(ms/1000)+"s "+(ms%1000)+"ms");
+		out.println("c Propagations/s:       "+(num_propagations*1000/ms));
+		out.println("c Conflicts/s:          "+((long)num_conflicts*1000/ms));
 	}
 }
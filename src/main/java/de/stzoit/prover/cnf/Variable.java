@@ -1,15 +1,11 @@
 package de.stzoit.prover.cnf;
 
-import de.stzoit.prover.collections.ComparableWithIndex;
-
-public class Variable implements ComparableWithIndex<Variable> {
+public class Variable {
 	private CNFSolver.Val value=CNFSolver.Val.UNKNOWN;
 	private String name=null;
 	private Object reason=null;
-	private int score=0;
 	private boolean phase=false;
 	private long jwh=0;
-	private int hind=-1;
 	
 	public Variable(String vn) {
 		name=vn;
@@ -35,14 +31,6 @@ public class Variable implements ComparableWithIndex<Variable> {
 		reason=r;
 	}
 	
-	public int getScore() {
-		return score;
-	}
-	
-	public void setScore(int s) {
-		score=s;
-	}
-	
 	public boolean getPhase() {
 		return phase;
 	}
@@ -59,23 +47,7 @@ public class Variable implements ComparableWithIndex<Variable> {
 		jwh=j;
 	}
 
-	public int compareTo(Variable o) {
-		return score-o.getScore();
-	}
-	
 	public String toString() {
 		return name;
 	}
-	
-	public void incScore() {
-		score++;
-	}
-
-	public int index() {
-		return hind;
-	}
-	
-	public void setIndex(int i) {
-		hind=i;
-	}
 }
@@ -0,0 +1,139 @@
+package de.stzoit.prover.cnf;
+
+/**
+ * Native XOR constraint x_0 + ... + x_{n-1} = parity (mod 2) over solver variables
+ *
+ *     - propagation uses two watched variables: as long as at least two variables are unassigned nothing can be
+ *       deduced; if a watched variable gets assigned, the watch is moved to another unassigned variable or the
+ *       remaining watched variable is propagated
+ *     - as with clauses, watches do not have to be restored while backtracking
+ *     - explanations are built lazily, i.e. only if conflict analysis actually resolves on a variable propagated
+ *       by the constraint
+ *     - with Gauss-Jordan elimination (see GaussJordanMatrix) input constraints are not watched, instead copies
+ *       of matrix rows serve as reasons of the matrix' propagations and conflicts
+ *
+ * @author AK
+ *
+ */
+public class XorConstraint {
+	private CNFSolver solver;               /* solver that holds the constraint */
+	private int vars[];                     /* variables, invariant: vars[0], vars[1] are watched */
+	private boolean parity;                 /* sum of variables (mod 2) */
+
+	public XorConstraint(CNFSolver sol, int vars[], boolean parity) {
+		solver=sol;
+		this.vars=vars;
+		this.parity=parity;
+	}
+
+	public int size() {
+		return vars.length;
+	}
+
+	public int get(int i) {
+		return vars[i];
+	}
+
+	public boolean getParity() {
+		return parity;
+	}
+
+	/* copy of the variables */
+	public int[] getVariables() {
+		return vars.clone();
+	}
+
+	/*
+	 * watch two variables (preferably unassigned ones) and propagate if less than two variables are unassigned:
+	 * false if a conflict has been detected, requires size()>=2
+	 */
+	boolean attach() {
+		int unassigned=0;
+
+		for (int i=0; i<vars.length && unassigned<2; i++)
+			if (solver.var2val(vars[i])==CNFSolver.Val.UNKNOWN)
+				swap(unassigned++, i);
+		solver.addToXorWatchlist(vars[0], this);
+		solver.addToXorWatchlist(vars[1], this);
+
+		if (unassigned>=2)
+			return true;
+		return solver.assign(CNFSolver.var2lit(vars[0], impliedValue()), this);
+	}
+
+	/*
+	 * var (watched) has been assigned: -1 if propagation failed, 0 if watch has not been moved, 1 if it has been
+	 * moved to another variable (the constraint is removed from var's watchlist at position wl_ind)
+	 */
+	public int moveWatch(int var, int wl_ind) {
+		if (vars[0]!=var)
+			swap(0, 1);
+
+		for (int i=2; i<vars.length; i++) {
+			if (solver.var2val(vars[i])==CNFSolver.Val.UNKNOWN) {
+				solver.removeFromXorWatchlist(var, wl_ind);
+				swap(0, i);
+				solver.addToXorWatchlist(vars[0], this);
+
+				return 1;
+			}
+		}
+		/* all but the other watch are assigned, the propagated variable is always at position 0 */
+		swap(0, 1);
+		return solver.assign(CNFSolver.var2lit(vars[0], impliedValue()), this) ? 0 : -1;
+	}
+
+	/* value of vars[0] implied by the values of the remaining variables */
+	private boolean impliedValue() {
+		boolean val=parity;
+
+		for (int i=1; i<vars.length; i++)
+			val^=solver.var2val(vars[i])==CNFSolver.Val.TRUE;
+		return val;
+	}
+
+	/*
+	 * explanation clause for lit, which has been assigned TRUE by (or conflicts with) this constraint: all other
+	 * variables are assigned, the clause consists of lit (at position 0) and their FALSE literals
+	 */
+	public Clause explain(int lit) {
+		Clause reason=new Clause(solver);
+		int var=CNFSolver.lit2var(lit);
+
+		reason.push(lit);
+		for (int i=0; i<vars.length; i++)
+			if (vars[i]!=var)
+				reason.push(CNFSolver.var2lit(vars[i], solver.var2val(vars[i])!=CNFSolver.Val.TRUE));
+
+		return reason;
+	}
+
+	/* true if all variables are assigned and their sum equals the parity */
+	public boolean sat() {
+		boolean val=false;
+
+		for (int i=0; i<vars.length; i++) {
+			CNFSolver.Val v=solver.var2val(vars[i]);
+			if (v==CNFSolver.Val.UNKNOWN)
+				return false;
+			val^=v==CNFSolver.Val.TRUE;
+		}
+		return val==parity;
+	}
+
+	private void swap(int i, int j) {
+		int tmp=vars[i];
+		vars[i]=vars[j];
+		vars[j]=tmp;
+	}
+
+	public String toString() {
+		StringBuffer sb=new StringBuffer();
+
+		for (int i=0; i<vars.length; i++)
+			sb.append((i>0 ? "+ " : "")+vars[i]+" ");
+		sb.append("= "+(parity ? 1 : 0));
+
+		return sb.toString();
+	}
+}
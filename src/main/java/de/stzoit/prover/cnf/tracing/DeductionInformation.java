@@ -1,24 +1,29 @@
 package de.stzoit.prover.cnf.tracing;
 
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.Stack;
 
 import de.stzoit.prover.collections.ComparableWithIndex;
-import de.stzoit.prover.collections.nativeType.LongVec;
 
+/*
+ * Parents are kept in the solver's ParentStore: they are appended contiguously while the derivation is built,
+ * thus only one derivation may be under construction at a time. The solver is passed to every method which
+ * needs the parents or other derivations.
+ */
 public class DeductionInformation implements ComparableWithIndex<DeductionInformation> {
 	private long id;
 	protected long refCounter=0L;
-	private LongVec parents;
-	private ProofTracing solver;
+	private long start;               /* offset of the first parent in the parent store */
+	private int count=0;              /* number of parents */
 	private boolean dirty=false;
 	private int hind=-1;
+	private Set<String> clause=null;  /* resolvent, computed on demand by toClause() */
 	
 	public DeductionInformation(ProofTracing solver, long id) {
 		this.id=id;
-		this.solver=solver;
-		parents=new LongVec();
+		start=solver.getParentStore().size();
 	}
 	
 	public long getId() {
@@ -45,8 +50,9 @@ public class DeductionInformation implements ComparableWithIndex<DeductionInform
 	}
 	
 	/* add parent */
-	public void addParent(long id) {
-		parents.push(id);
+	public void addParent(ProofTracing solver, long id) throws IOException {
+		solver.getParentStore().append(id);
+		count++;
 		
 		/* increment reference counter of newly added parent clause */
 		if (solver.isDeduced(id))
@@ -71,11 +77,18 @@ public class DeductionInformation implements ComparableWithIndex<DeductionInform
 		return refCounter<=0L;
 	}
 	
-	public void delete() {
+	/* parents in the order in which they have been added */
+	public long[] getParents(ProofTracing solver) {
+		return solver.getParentStore().read(start, count);
+	}
+	
+	public void delete(ProofTracing solver) {
 		if (isDeletable()) {
+			long parents[]=getParents(solver);
+			
 			/* decrease reference counters of parents */
-			for (int i=0; i<parents.size(); i++) {
-				long parent=parents.get(i);
+			for (int i=0; i<parents.length; i++) {
+				long parent=parents[i];
 				if (solver.isDeduced(parent))
 					solver.getDeductionInformation(parent).deref();
 			}
@@ -92,14 +105,16 @@ public class DeductionInformation implements ComparableWithIndex<DeductionInform
 	 * parents of the empty clause, this should generate a unsatisfiable core 
 	 * for the formula under consideration 
 	 */
-	public Set<Long> getOriginalClauses() {
+	public Set<Long> getOriginalClauses(ProofTracing solver) {
 		Stack<Long> todo=new Stack<Long>();
 		Set<Long> result=new HashSet<Long>();
+		Set<Long> visited=new HashSet<Long>(); /* deduced clauses are shared, visit each once */
 		
-		fillStackOriginal(todo, result);
+		fillStackOriginal(solver, todo, result);
 		while (!todo.isEmpty()) {
-			DeductionInformation parentClause=solver.getDeductionInformation(todo.pop());
-			parentClause.fillStackOriginal(todo, result);
+			long parent=todo.pop();
+			if (visited.add(parent))
+				solver.getDeductionInformation(parent).fillStackOriginal(solver, todo, result);
 		}
 		
 		return result;
@@ -109,9 +124,11 @@ public class DeductionInformation implements ComparableWithIndex<DeductionInform
 	 * Side effect: Fill worker stack with parents which are deduced, add original
 	 *              clauses to result 
 	 */
-	protected void fillStackOriginal(Stack<Long> todo, Set<Long> result) {
-		for (int i=0; i<parents.size(); i++) {
-			long clauseId=parents.get(i);
+	protected void fillStackOriginal(ProofTracing solver, Stack<Long> todo, Set<Long> result) {
+		long parents[]=getParents(solver);
+		
+		for (int i=0; i<parents.length; i++) {
+			long clauseId=parents[i];
 			
 			if (solver.isDeduced(clauseId)) /* -> parent is deduced clause */
 				todo.add(clauseId);
@@ -124,14 +141,14 @@ public class DeductionInformation implements ComparableWithIndex<DeductionInform
 	 * Get IDs of DeductionInformation which took part in the deduction of this 
 	 * clause/DeductionInformation
 	 */
-	public Set<Long> getDerivationalClauses() {
+	public Set<Long> getDerivationalClauses(ProofTracing solver) {
 		Stack<Long> todo=new Stack<Long>();
 		Set<Long> result=new HashSet<Long>();
 		
-		fillStackDeduced(todo, result);
+		fillStackDeduced(solver, todo, result);
 		while (!todo.isEmpty()) {
 			DeductionInformation parentClause=solver.getDeductionInformation(todo.pop());
-			parentClause.fillStackDeduced(todo, result);
+			parentClause.fillStackDeduced(solver, todo, result);
 		}
 		
 		return result;
@@ -141,14 +158,14 @@ public class DeductionInformation implements ComparableWithIndex<DeductionInform
 	 * Side effect: Fill worker stack with parents which are deduced, add deduced
 	 *              clauses to result
 	 */
-	protected void fillStackDeduced(Stack<Long> todo, Set<Long> result) {
-		for (int i=0; i<parents.size(); i++) {
-			long clauseId=parents.get(i);
+	protected void fillStackDeduced(ProofTracing solver, Stack<Long> todo, Set<Long> result) {
+		long parents[]=getParents(solver);
+		
+		for (int i=0; i<parents.length; i++) {
+			long clauseId=parents[i];
 			
-			if (solver.isDeduced(clauseId)) {/* -> parent is deduced clause */
+			if (solver.isDeduced(clauseId) && result.add(clauseId)) /* -> parent is deduced clause, not yet visited */
 				todo.add(clauseId);
-				result.add(clauseId);
-			}
 		}
 	}
 
@@ -168,17 +185,18 @@ public class DeductionInformation implements ComparableWithIndex<DeductionInform
 	}
 	
 	/* return string representation of clause ancestry */
-	public String toString() {
+	public String toString(ProofTracing solver) {
 		StringBuilder sb=new StringBuilder(id+": ");
+		long parents[]=getParents(solver);
 		
-		for (int i=0; i<parents.size(); i++)
-			sb.append(" "+parents.get(i));
+		for (int i=0; i<parents.length; i++)
+			sb.append(" "+parents[i]);
 		
 		return sb.toString();
 	}
 	
-	public Set<String> getClause(long id) {
-		return solver.isDeduced(id) ? solver.getDeductionInformation(id).toClause() 
+	public Set<String> getClause(ProofTracing solver, long id) {
+		return solver.isDeduced(id) ? solver.getDeductionInformation(id).toClause(solver) 
 		                            : solver.id2original.get(id).toClause();
 	}
 	
@@ -206,13 +224,18 @@ public class DeductionInformation implements ComparableWithIndex<DeductionInform
 		}
 	}
 	
-	public Set<String> toClause() {
-		Set<String> clause = new HashSet<String>();
-		
-		for (int i=0; i<parents.size(); i++)
-			clause = resolve(clause, getClause(parents.get(i)));
+	/* resolvents are cached, otherwise shared ancestors are resolved again for every descendant */
+	public Set<String> toClause(ProofTracing solver) {
+		if (clause==null) {
+			Set<String> res = new HashSet<String>();
+			long parents[] = getParents(solver);
+			
+			for (int i=0; i<parents.length; i++)
+				res = resolve(res, getClause(solver, parents[i]));
+			clause = res;
+		}
 		
-		return clause;
+		return new HashSet<String>(clause);
 	}
 	
 	public static long toTraceCheckId(ProofTracing solver, long id) {
@@ -222,8 +245,9 @@ public class DeductionInformation implements ComparableWithIndex<DeductionInform
 			return solver.isDeduced(id) ? (-id)*2 : id*2+1;
 	}
 	
-	public String toTraceCheckEntry() {
-		Set<String> clause = toClause();
+	public String toTraceCheckEntry(ProofTracing solver) {
+		Set<String> clause = toClause(solver);
+		long parents[] = getParents(solver);
 		
 		StringBuilder sb = new StringBuilder();
 		
@@ -232,8 +256,8 @@ public class DeductionInformation implements ComparableWithIndex<DeductionInform
 			sb.append(lit+" ");
 		
 		sb.append("0 ");
-		for (int i=0; i<parents.size(); i++)
-			sb.append(toTraceCheckId(solver, parents.get(i))+" ");
+		for (int i=0; i<parents.length; i++)
+			sb.append(toTraceCheckId(solver, parents[i])+" ");
 		
 		sb.append("0");
 		
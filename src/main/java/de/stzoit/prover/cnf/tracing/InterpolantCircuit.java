@@ -0,0 +1,138 @@
+package de.stzoit.prover.cnf.tracing;
+
+import de.stzoit.prover.cnf.CNFSolver;
+import de.stzoit.prover.collections.nativeType.IntVec;
+import de.stzoit.prover.collections.nativeType.LongLongMap;
+
+/**
+ * Shared and/or circuit over solver literals, as built by Interpolator
+ *
+ *     - nodes are numbered in creation order, children always have smaller numbers than their parent, thus a
+ *       single pass over 0..root evaluates or translates the circuit bottom up
+ *     - nodes 0 and 1 are the constants false and true, negation is only applied to variables (literal nodes),
+ *       i.e. the circuit is in negation normal form
+ *     - and()/or() fold constants and equal arguments and are hash-consed, thus each literal and each gate
+ *       exists only once
+ *
+ * @author AK
+ *
+ */
+public class InterpolantCircuit {
+	public static final int FALSE=0;
+	public static final int TRUE=1;
+
+	public static final int CONST=0;
+	public static final int LIT=1;
+	public static final int AND=2;
+	public static final int OR=3;
+
+	private IntVec kinds;                   /* Node->kind                                  */
+	private IntVec left;                    /* Node->first argument (literal of LIT nodes) */
+	private IntVec right;                   /* Node->second argument                       */
+	private LongLongMap lits;               /* literal->node                               */
+	private LongLongMap ands;               /* packed arguments->and node                  */
+	private LongLongMap ors;                /* packed arguments->or node                   */
+
+	public InterpolantCircuit() {
+		kinds=new IntVec();
+		left=new IntVec();
+		right=new IntVec();
+		lits=new LongLongMap();
+		ands=new LongLongMap();
+		ors=new LongLongMap();
+
+		node(CONST, 0, 0);
+		node(CONST, 1, 0);
+	}
+
+	/* number of nodes */
+	public int size() {
+		return kinds.size();
+	}
+
+	public int kind(int node) {
+		return kinds.get(node);
+	}
+
+	/* solver literal of a LIT node */
+	public int literal(int node) {
+		return left.get(node);
+	}
+
+	public int left(int node) {
+		return left.get(node);
+	}
+
+	public int right(int node) {
+		return right.get(node);
+	}
+
+	public int literalNode(int lit) {
+		int n=(int)lits.get(lit, -1L);
+
+		if (n<0) {
+			n=node(LIT, lit, 0);
+			lits.put(lit, n);
+		}
+		return n;
+	}
+
+	public int and(int a, int b) {
+		if (a==FALSE || b==FALSE)
+			return FALSE;
+		else if (a==TRUE || a==b)
+			return b;
+		else if (b==TRUE)
+			return a;
+		return gate(ands, AND, a, b);
+	}
+
+	public int or(int a, int b) {
+		if (a==TRUE || b==TRUE)
+			return TRUE;
+		else if (a==FALSE || a==b)
+			return b;
+		else if (b==FALSE)
+			return a;
+		return gate(ors, OR, a, b);
+	}
+
+	/* value of root under model (Var->value) */
+	public boolean evaluate(int root, boolean model[]) {
+		boolean val[]=new boolean[root+1];
+
+		for (int n=0; n<=root; n++)
+			switch (kinds.get(n)) {
+				case CONST:
+					val[n]=(n==TRUE);
+					break;
+				case LIT:
+					val[n]=(model[CNFSolver.lit2var(left.get(n))]==CNFSolver.sign(left.get(n)));
+					break;
+				case AND:
+					val[n]=val[left.get(n)] && val[right.get(n)];
+					break;
+				default:
+					val[n]=val[left.get(n)] || val[right.get(n)];
+			}
+		return val[root];
+	}
+
+	private int gate(LongLongMap table, int kind, int a, int b) {
+		long key=(a<b ? ((long)a<<32)|b : ((long)b<<32)|a); /* commutative */
+		int n=(int)table.get(key, -1L);
+
+		if (n<0) {
+			n=node(kind, Math.min(a, b), Math.max(a, b));
+			table.put(key, n);
+		}
+		return n;
+	}
+
+	private int node(int kind, int a, int b) {
+		kinds.push(kind);
+		left.push(a);
+		right.push(b);
+		return kinds.size()-1;
+	}
+}
@@ -0,0 +1,222 @@
+package de.stzoit.prover.cnf.tracing;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import de.stzoit.prover.cnf.CNFSolver;
+import de.stzoit.prover.collections.nativeType.IntVec;
+import de.stzoit.prover.collections.nativeType.LongLongMap;
+import de.stzoit.prover.collections.nativeType.LongObjectMap;
+import de.stzoit.prover.collections.nativeType.LongVec;
+
+/**
+ * Craig interpolants from the refutation recorded by ProofTracing
+ *
+ *     - the original clauses are split into A (clauses whose name is in the given set) and B (all others), the
+ *       interpolant I satisfies A |= I, I /\ B is unsatisfiable and contains only variables of both A and B
+ *     - every derivation is a resolution chain (parents in the order they were resolved), pivots are found by
+ *       replaying the chain, thus each clause of the refutation is visited once and the cost is linear in the
+ *       size of the proof
+ *     - partial interpolants (cf. D'Silva et al.: "Interpolant Strength", VMCAI 2010):
+ *
+ *           clause of A:            McMillan: shared literals of the clause, Pudlak: false
+ *           clause of B:            true
+ *           pivot x local to A:     I1 \/ I2
+ *           pivot x local to B:     I1 /\ I2
+ *           pivot x shared:         McMillan: I1 /\ I2, Pudlak: (x \/ I1) /\ (-x \/ I2)
+ *
+ *       where the clause belonging to I1 contains x and the one belonging to I2 contains -x
+ *     - partial interpolants are nodes of an InterpolantCircuit, thus subproofs shared by several derivations
+ *       yield shared subcircuits
+ *
+ * @author AK
+ *
+ */
+public class Interpolator {
+	public enum InterpolationSystem {
+		MCMILLAN, PUDLAK
+	}
+
+	private static final byte IN_A=1;
+	private static final byte IN_B=2;
+	private static final byte SHARED=IN_A|IN_B;
+
+	private ProofTracing solver;
+	private Set<String> partitionA;              /* names of the clauses of A                    */
+	private InterpolantCircuit circuit=null;
+	private LongLongMap partial=null;            /* clause ID->partial interpolant               */
+	private LongObjectMap<int[]> resolvents=null;/* deduced clause ID->literals                  */
+	private byte occurs[]=null;                  /* Var->partitions the variable occurs in       */
+	private boolean marks[]=null;                /* Lit->literal is in the current resolvent     */
+
+	/* solver has to be in state UNSAT, clauses named by one of a belong to A */
+	public Interpolator(ProofTracing solver, Set<String> a) {
+		this.solver=solver;
+		this.partitionA=a;
+	}
+
+	/* circuit holding the nodes returned by interpolate() */
+	public InterpolantCircuit getCircuit() {
+		return circuit;
+	}
+
+	/* build the interpolant of the refutation, returns its root node in getCircuit() */
+	public int interpolate(InterpolationSystem system) throws Exception {
+		DeductionInformation empty=solver.getEmptyClause();
+
+		if (empty==null)
+			throw new Exception("No empty clause found, didn't call sat() or input UNSAT?");
+		if (empty.getParents(solver).length==0)
+			throw new Exception("Empty input clause belongs to neither partition");
+
+		LongVec originals=new LongVec(), deduced=new LongVec();
+
+		collect(empty, originals, deduced);
+		circuit=new InterpolantCircuit();
+		partial=new LongLongMap();
+		resolvents=new LongObjectMap<int[]>();
+		occurs=new byte[solver.numVariables()];
+		marks=new boolean[2*solver.numVariables()];
+
+		for (int i=0; i<originals.size(); i++) {
+			ProofTracing.ClausePointer cls=solver.getOriginal(originals.get(i));
+			int lits[]=cls.literals();
+			byte partition=(isA(cls) ? IN_A : IN_B);
+
+			for (int j=0; j<lits.length; j++)
+				occurs[CNFSolver.lit2var(lits[j])]|=partition;
+		}
+
+		/* deduced IDs decrease in creation order, thus parents are processed before their children */
+		long order[]=new long[deduced.size()];
+		deduced.copyTo(order);
+		Arrays.sort(order);
+		for (int i=order.length-1; i>=0; i--)
+			partial.put(order[i], chain(solver.getDeductionInformation(order[i]), system));
+
+		int root=chain(empty, system);
+		resolvents=null;
+		partial=null;
+		return root;
+	}
+
+	/* clauses (by kind) the refutation depends on, each once */
+	private void collect(DeductionInformation empty, LongVec originals, LongVec deduced) {
+		LongLongMap visited=new LongLongMap();
+		LongVec todo=new LongVec();
+		long parents[]=empty.getParents(solver);
+
+		for (int i=0; i<parents.length; i++)
+			todo.push(parents[i]);
+		while (todo.size()>0) {
+			long id=todo.last();
+
+			todo.pop();
+			if (visited.containsKey(id))
+				continue;
+			visited.put(id, 1L);
+			if (!solver.isDeduced(id))
+				originals.push(id);
+			else {
+				deduced.push(id);
+				parents=solver.getDeductionInformation(id).getParents(solver);
+				for (int i=0; i<parents.length; i++)
+					if (!visited.containsKey(parents[i]))
+						todo.push(parents[i]);
+			}
+		}
+	}
+
+	/* replay the resolution chain of derivation, record its resolvent and return its partial interpolant */
+	private int chain(DeductionInformation derivation, InterpolationSystem system) throws Exception {
+		long parents[]=derivation.getParents(solver);
+		IntVec resolvent=new IntVec();
+		int node=leaf(parents[0], system);
+
+		add(resolvent, literals(parents[0]), -1);
+		for (int i=1; i<parents.length; i++) {
+			int lits[]=literals(parents[i]),
+			    pivot=-1;
+
+			for (int j=0; j<lits.length && pivot<0; j++)
+				if (marks[lits[j]^1])
+					pivot=lits[j];
+			if (pivot<0)
+				throw new Exception("Derivation "+derivation.getId()+" is no resolution chain");
+
+			marks[pivot^1]=false;
+			add(resolvent, lits, pivot);
+
+			int next=leaf(parents[i], system);
+			switch (occurs[CNFSolver.lit2var(pivot)]) {
+				case IN_A:
+					node=circuit.or(node, next);
+					break;
+				case SHARED:
+					if (system==InterpolationSystem.PUDLAK)
+						node=circuit.and(circuit.or(circuit.literalNode(pivot^1), node),
+						                 circuit.or(circuit.literalNode(pivot), next));
+					else  /* McMillan: shared pivots are treated as local to B */
+						node=circuit.and(node, next);
+					break;
+				default:
+					node=circuit.and(node, next);
+			}
+		}
+
+		/* collect the resolvent, the empty clause has to be empty */
+		int j=0;
+		for (int i=0; i<resolvent.size(); i++)
+			if (marks[resolvent.get(i)]) {
+				marks[resolvent.get(i)]=false;
+				resolvent.set(j++, resolvent.get(i));
+			}
+		resolvent.shrinkTo(j);
+		if (derivation.getId()==0L && j>0)
+			throw new Exception("Refutation derives "+resolvent+" instead of the empty clause");
+		int lits[]=new int[j];
+		resolvent.copyTo(lits);
+		resolvents.put(derivation.getId(), lits);
+		return node;
+	}
+
+	/* add the literals of lits but except to the resolvent */
+	private void add(IntVec resolvent, int lits[], int except) {
+		for (int i=0; i<lits.length; i++)
+			if (lits[i]!=except && !marks[lits[i]]) {
+				marks[lits[i]]=true;
+				resolvent.push(lits[i]);
+			}
+	}
+
+	private int[] literals(long id) {
+		return solver.isDeduced(id) ? resolvents.get(id) : solver.getOriginal(id).literals();
+	}
+
+	/* partial interpolant of a clause, original ones are labelled on first use */
+	private int leaf(long id, InterpolationSystem system) {
+		int node=(int)partial.get(id, -1L);
+
+		if (node>=0)
+			return node;
+
+		ProofTracing.ClausePointer cls=solver.getOriginal(id);
+		node=InterpolantCircuit.TRUE;
+		if (isA(cls)) {
+			node=InterpolantCircuit.FALSE;
+			if (system==InterpolationSystem.MCMILLAN) {
+				int lits[]=cls.literals();
+
+				for (int i=0; i<lits.length; i++)
+					if (occurs[CNFSolver.lit2var(lits[i])]==SHARED)
+						node=circuit.or(node, circuit.literalNode(lits[i]));
+			}
+		}
+		partial.put(id, node);
+		return node;
+	}
+
+	private boolean isA(ProofTracing.ClausePointer cls) {
+		return partitionA.contains(cls.getName());
+	}
+}
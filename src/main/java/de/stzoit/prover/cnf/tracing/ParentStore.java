@@ -0,0 +1,141 @@
+package de.stzoit.prover.cnf.tracing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import de.stzoit.prover.collections.IVec;
+import de.stzoit.prover.collections.Vec;
+
+/**
+ * Append-only store for the antecedent ids of all derivations recorded by ProofTracing
+ *
+ *     - a derivation appends its parents contiguously and keeps only the offset of the first one and their
+ *       number, thus no per-derivation vector is allocated
+ *     - ids are written as zigzag encoded variable length integers (original ids are positive, deduced ones
+ *       negative), i.e. the size of an antecedent depends on the magnitude of its id: one byte per 7 bits of
+ *       2*|id|, at most three bytes for ids below 2^20
+ *     - the store lives in byte array chunks on the heap or, if a file is given, in memory-mapped segments of
+ *       that file, which moves the proof graph of long runs out of the Java heap
+ *     - space of deleted derivations is not reclaimed, but the store may be cut back to a size saved earlier
+ *       (see ProofTracing.save(), pop())
+ *
+ * @author AK
+ *
+ */
+public class ParentStore {
+	private static final int CHUNK_BITS=20;                 /* 1MB heap chunks                           */
+	private static final int SEGMENT_BITS=26;               /* 64MB mapped segments                      */
+
+	private int bits, mask;
+	private IVec<byte[]> chunks=null;                       /* heap storage                              */
+	private IVec<MappedByteBuffer> segments=null;           /* file storage                              */
+	private RandomAccessFile file=null;
+	private FileChannel channel=null;
+	private long size=0;                                    /* bytes in use                              */
+
+	/* store on the heap */
+	public ParentStore() {
+		bits=CHUNK_BITS;
+		mask=(1<<bits)-1;
+		chunks=new Vec<byte[]>();
+	}
+
+	/* store in file f, which is created or truncated */
+	public ParentStore(File f) throws IOException {
+		bits=SEGMENT_BITS;
+		mask=(1<<bits)-1;
+		segments=new Vec<MappedByteBuffer>();
+		file=new RandomAccessFile(f, "rw");
+		file.setLength(0);
+		channel=file.getChannel();
+	}
+
+	public boolean isMapped() {
+		return channel!=null;
+	}
+
+	/* number of bytes in use, i.e. the offset of the next id */
+	public long size() {
+		return size;
+	}
+
+	/* append id, returns its offset */
+	public long append(long id) throws IOException {
+		long pos=size,
+		     v=(id<<1)^(id>>63);
+
+		while ((v&~0x7fL)!=0) {
+			put((int)((v&0x7f)|0x80));
+			v>>>=7;
+		}
+		put((int)v);
+		return pos;
+	}
+
+	/* decode the count ids starting at offset start */
+	public long[] read(long start, int count) {
+		long ids[]=new long[count];
+		long pos=start;
+
+		for (int i=0; i<count; i++) {
+			long v=0;
+			int shift=0, b;
+
+			do {
+				b=get(pos++);
+				v|=(long)(b&0x7f)<<shift;
+				shift+=7;
+			} while ((b&0x80)!=0);
+			ids[i]=(v>>>1)^-(v&1);
+		}
+		return ids;
+	}
+
+	/* forget everything beyond the first n bytes */
+	public void truncate(long n) {
+		size=Math.min(size, n);
+	}
+
+	public void clear() {
+		size=0;
+	}
+
+	/* unmap and close the file (a heap store is just emptied) */
+	public void close() throws IOException {
+		size=0;
+		if (chunks!=null)
+			chunks.clear();
+		if (channel!=null) {
+			segments.clear();
+			channel.close();
+			file.close();
+			channel=null;
+		}
+	}
+
+	private void put(int b) throws IOException {
+		int n=(int)(size>>>bits);
+
+		if (chunks!=null) {
+			if (n>=chunks.size())
+				chunks.push(new byte[1<<bits]);
+			chunks.get(n)[(int)(size&mask)]=(byte)b;
+		} else {
+			if (n>=segments.size())
+				segments.push(channel.map(FileChannel.MapMode.READ_WRITE, (long)n<<bits, 1<<bits));
+			segments.get(n).put((int)(size&mask), (byte)b);
+		}
+		size++;
+	}
+
+	private int get(long pos) {
+		int n=(int)(pos>>>bits);
+
+		if (chunks!=null)
+			return chunks.get(n)[(int)(pos&mask)];
+		return segments.get(n).get((int)(pos&mask));
+	}
+}
@@ -1,20 +1,24 @@
 package de.stzoit.prover.cnf.tracing;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 
 import de.stzoit.prover.cnf.CNFSolver;
 import de.stzoit.prover.cnf.Clause;
 import de.stzoit.prover.cnf.LearntClause;
+import de.stzoit.prover.cnf.ProofWriter;
 import de.stzoit.prover.cnf.Variable;
 import de.stzoit.prover.collections.HeapWithIndex;
 import de.stzoit.prover.collections.IVec;
 import de.stzoit.prover.collections.Vec;
 import de.stzoit.prover.collections.nativeType.IntVec;
+import de.stzoit.prover.collections.nativeType.LongLongMap;
+import de.stzoit.prover.collections.nativeType.LongObjectMap;
 
 
 /*
@@ -30,10 +34,11 @@ import de.stzoit.prover.collections.nativeType.IntVec;
  *      propagated L is L/-R
  */
 public class ProofTracing extends CNFSolver {
-	private HashMap<String,Long> unaryBinaryId=null;         /* Mapping {unit,binary} clause -> clauseID      */
-	private HashMap<Long,DeductionInformation> deduced=null; /* Mapping clause IDs -> deduction information   */
-	private HashMap<Long,String> unaryBinaryName=null;       /* Names for unit and binary clauses             */
-	protected HashMap<Long,ClausePointer> id2original=null;  /* Mapping clause IDs to clause (1-, 2-, n-ary)  */
+	private LongLongMap unaryBinaryId=null;                  /* Mapping {unit,binary} clause key -> clauseID  */
+	private LongObjectMap<DeductionInformation> deduced=null;/* Mapping clause IDs -> deduction information   */
+	private LongObjectMap<String> unaryBinaryName=null;      /* Names for unit and binary clauses             */
+	protected LongObjectMap<ClausePointer> id2original=null; /* Mapping clause IDs to clause (1-, 2-, n-ary)  */
+	private ParentStore parents=null;                        /* antecedent ids of all derivations             */
 	private long originalid=1L;                              /* top-most original clause id                   */
 	private long deducedid=-1L;                              /* top-most deduced clause id                    */
 	private DeductionInformation emptyClause=null;           /* empty clause derivation (if solver is in 
@@ -49,7 +54,8 @@ public class ProofTracing extends CNFSolver {
 	private static final int MARK_UNIT_LIST_LENGTH=5;        /* length of unit clause list at marking level   */
 	private static final int MARK_MAX_ORIG_CLAUSE_ID=6;      /* max. original clause id (next orig. ID)       */
 	private static final int MARK_MIN_LEARNT_CLAUSE_ID=7;    /* min. learnt clause id (next learnt ID)        */
-	private static final int MARK_BINARY_CLAUSE_START=8;     /* start of bounds list for binary watchlists    */
+	private static final int MARK_PARENT_STORE_SIZE=8;       /* size of parent store at marking level         */
+	private static final int MARK_BINARY_CLAUSE_START=9;     /* start of bounds list for binary watchlists    */
 	protected IVec<Long[]> marks;                            /* marks for {in,de}cremental SAT solving        */
 	
 	private enum ClauseType {
@@ -66,7 +72,7 @@ public class ProofTracing extends CNFSolver {
 		public ClausePointer(int lit) {
 			lit0=lit;
 			type=ClauseType.UNIT;
-			id=unaryBinaryId.get(genId(lit));
+			id=getClauseId(lit);
 			name=unaryBinaryName.get(id);
 		}
 		
@@ -74,7 +80,7 @@ public class ProofTracing extends CNFSolver {
 			this.lit0=lit0;
 			this.lit1=lit1;
 			type=ClauseType.BINARY;
-			id=unaryBinaryId.get(genId(lit0, lit1));
+			id=getClauseId(lit0, lit1);
 			name=unaryBinaryName.get(id);
 		}
 		
@@ -120,6 +126,26 @@ public class ProofTracing extends CNFSolver {
 			return clause;
 		}
 		
+		/* literals of the clause */
+		int[] literals() {
+			switch (type) {
+				case UNIT:
+					return new int[] { lit0 };
+				case BINARY:
+					return new int[] { lit0, lit1 };
+				default:
+					int lits[]=new int[nary.size()];
+					
+					for (int i=0; i<lits.length; i++)
+						lits[i]=nary.get(i);
+					return lits;
+			}
+		}
+		
+		String getName() {
+			return name;
+		}
+		
 		public String toTraceCheckEntry(ProofTracing solver) {
 			switch (type) {
 				case UNIT:
@@ -138,12 +164,13 @@ public class ProofTracing extends CNFSolver {
 	
 	public ProofTracing(String name) {
 		super(name);
-		unaryBinaryId  =new HashMap<String,Long>();
-		deduced        =new HashMap<Long,DeductionInformation>();
-		unaryBinaryName=new HashMap<Long,String>();
+		unaryBinaryId  =new LongLongMap();
+		deduced        =new LongObjectMap<DeductionInformation>();
+		unaryBinaryName=new LongObjectMap<String>();
 		marks          =new Vec<Long[]>();
-		id2original    =new HashMap<Long,ClausePointer>();
+		id2original    =new LongObjectMap<ClausePointer>();
 		dustBin        =new HeapWithIndex<DeductionInformation>();
+		parents        =new ParentStore();
 		
 		/* 
 		 * conservative choice: don't perform clause deletion when proof 
@@ -164,11 +191,8 @@ public class ProofTracing extends CNFSolver {
 		return id<0L;
 	}
 	
-	private long getClauseId(String id) {
-		Long rv=unaryBinaryId.get(id);
-		if (rv==null)
-			return 0L;
-		return rv;
+	private long getClauseId(long key) {
+		return unaryBinaryId.get(key, 0L);
 	}
 	
 	/* retrieve ID for a unit clause */
@@ -181,17 +205,17 @@ public class ProofTracing extends CNFSolver {
 		return getClauseId(genId(lit0, lit1));
 	}
 	
-	/* generate a unique ID for a unit clause */
-	private String genId(int lit) {
-		return "U"+lit;
+	/* generate a unique key for a unit clause: the literal itself (<2^32) */
+	private static long genId(int lit) {
+		return lit;
 	}
 	
-	/* generate a unique ID for a binary clause */
-	private String genId(int lit0, int lit1) {
+	/* generate a unique key for a binary clause: both literals (>=2) packed smaller first, i.e. >=2^33 */
+	private static long genId(int lit0, int lit1) {
 		if (lit0<lit1)
-			return "B"+lit0+","+lit1;
+			return ((long)lit0<<32)|lit1;
 		else
-			return "B"+lit1+","+lit0;
+			return ((long)lit1<<32)|lit0;
 	}
 	
 	/* return a new unique ID for a deduced clause */
@@ -234,11 +258,41 @@ public class ProofTracing extends CNFSolver {
 		unaryBinaryName.put(id, clauseName);
 	}
 	
+	/* store holding the parents of all derivations */
+	ParentStore getParentStore() {
+		return parents;
+	}
+	
+	/*
+	 * keep the parents of derivations in memory-mapped file f instead of the heap; must be called before 
+	 * clauses are added (f is created or truncated, null switches back to the heap)
+	 */
+	public void setParentStore(File f) throws Exception {
+		if (deduced.size()>0 || emptyClause!=null || marks.size()>0)
+			throw new Exception("Parent store can only be changed before solving");
+		parents.close();
+		parents=(f==null ? new ParentStore() : new ParentStore(f));
+	}
+	
 	/* get deduction information for deduced clause with ID id or null */
 	DeductionInformation getDeductionInformation(long id) {
 		return deduced.get(id);
 	}
 	
+	/* original clause with ID id or null */
+	ClausePointer getOriginal(long id) {
+		return id2original.get(id);
+	}
+	
+	/* derivation of the empty clause, null if no refutation has been found */
+	DeductionInformation getEmptyClause() {
+		return emptyClause;
+	}
+	
+	int numVariables() {
+		return variables.size();
+	}
+	
 	/* enqueue a clause in the dirty queue */
 	void enqueueDirty(DeductionInformation clause) {
 		if (isDeduced(clause.getId()))
@@ -249,7 +303,7 @@ public class ProofTracing extends CNFSolver {
 	void weedOutDirty() {
 		while (!dustBin.isEmpty() && dustBin.peek().isDeletable()) {
 			DeductionInformation clause=dustBin.heapExtractMax();
-			clause.delete();
+			clause.delete(this);
 		}
 	}
 	
@@ -305,6 +359,11 @@ public class ProofTracing extends CNFSolver {
 				long packed=clause.bothLargestDecisionLevels();
 				
 				if (packed==0L) { /* all literals failed and assigned at level 0 */
+					/* the clause is the conflict of the refutation, thus it has to be known by its ID */
+					clause.setClauseName(clauseName);
+					id2original.put(clause.getId(), new ClausePointer(clause));
+					conflict_reason=clause;
+					collectEmptyClauseDerivation();
 					state=State.UNSAT;
 					return false;
 				}
@@ -331,20 +390,18 @@ public class ProofTracing extends CNFSolver {
 				/* 
 				 *      by convention, learnt clauses of length >= 2 include the asserted literal at position 0
 				 *      and a literal assigned at the highest decision level beneath the assertion level at 
-				 *      position 1.
+				 *      position 1. If that literal is unassigned, a restart has backtracked beneath the assertion
+				 *      level and there is nothing to do.
 				 */
-				backtrack(Math.max(0, getLevel(clause.get(1))));
+				if (getLevel(clause.get(1))>=0)
+					backtrack(getLevel(clause.get(1)));
 			}
 			
 			if (clause.size()==2 && getClauseId(clause.get(0), clause.get(1))==0L) { /* new binary clauses */
 				addBinaryId(clause.get(0), clause.get(1), clause.getId());
 				addBinaryName(clause.getId(), clauseName);
 				
-				IntVec bwl0=binwatchlists.get(oppositeLit(clause.get(0)));
-				IntVec bwl1=binwatchlists.get(oppositeLit(clause.get(1)));
-				
-				bwl0.push(clause.get(1));
-				bwl1.push(clause.get(0));
+				bingraph.addClause(clause.get(0), clause.get(1), false); /* duplicates are excluded by ID */
 				
 				if (clause.isLearnt())
 					stats.statLearnBin();
@@ -379,6 +436,28 @@ public class ProofTracing extends CNFSolver {
 		return state!=State.UNSAT;
 	}
 
+	/* native cardinality constraints have no clause IDs, thus they can't take part in derivations */
+	public boolean pushAtMost(int lits[], int k) throws Exception {
+		throw new Exception("Native cardinality constraints are not supported by proof tracing");
+	}
+	
+	public int detectAtMostOne(int minsize) throws Exception {
+		throw new Exception("Native cardinality constraints are not supported by proof tracing");
+	}
+	
+	/* the same holds for native XOR constraints */
+	public boolean pushXor(int lits[], boolean rhs) throws Exception {
+		throw new Exception("Native XOR constraints are not supported by proof tracing");
+	}
+	
+	public int detectXors(int maxsize) throws Exception {
+		throw new Exception("Native XOR constraints are not supported by proof tracing");
+	}
+	
+	public boolean sat(int assumed[]) throws Exception {
+		throw new Exception("Assumptions are not supported by proof tracing");
+	}
+	
 	public void handleConflict() throws Exception {
 		/*
 		 * adjust handle_conflict() to record a derivation for each 
@@ -413,7 +492,7 @@ public class ProofTracing extends CNFSolver {
 				}
 				
 				/* record participation in derivation */
-				derivation.addParent(getClauseId(lit==0 ? conflict_lit : lit, oppositeLit((Integer) reason)));
+				derivation.addParent(this, getClauseId(lit==0 ? conflict_lit : lit, oppositeLit((Integer) reason)));
 			} else {
 				Clause cls=(Clause)reason;
 				for (int j=(lit==0 ? 0 : 1); j<cls.size(); j++) {
@@ -436,7 +515,7 @@ public class ProofTracing extends CNFSolver {
 				}
 				
 				/* record participation in derivation */
-				derivation.addParent(cls.getId());
+				derivation.addParent(this, cls.getId());
 			}
 			/* 
 			 * jump to last assigned literal on trail which contributes to conflict 
@@ -463,19 +542,23 @@ public class ProofTracing extends CNFSolver {
 			
 			if (_level>getLevel(learnt.get(snd_pos)))
 				snd_pos=i;
-			if (glucose_clause_scores && perm_diff.get(_level)!=permdiff_curr) {
+			if ((glucose_clause_scores || metrics!=null) && perm_diff.get(_level)!=permdiff_curr) {
 				perm_diff.set(_level, permdiff_curr);
 				lbd++;
 			}
 			
 			seen.set(lit2var(__lit), false);
-			lit2variable(__lit).incScore();
+			varq.increaseKey(lit2var(__lit), 1);
 		}
 		if (glucose_clause_scores) /* set glucose-style clause activity */
 			learnt.setActivity(lbd);
+		if (metrics!=null) {
+			learnt.setLbd(lbd);
+			metrics.conflict(lbd);
+		}
 		
 		seen.set(lit2var(learnt.get(0)), false);
-		lit2variable(learnt.get(0)).incScore();
+		varq.increaseKey(lit2var(learnt.get(0)), 1);
 		learnt.swap(1, snd_pos);
 		bt_level=(learnt.size()<=1 ? 0 : getLevel(learnt.get(1)));
 		
@@ -483,8 +566,9 @@ public class ProofTracing extends CNFSolver {
 		stats.statConflict();
 		boolean do_restart=stats.statPerformRestart();
 		
-		if (do_restart) { /* backtrack to level 0, reset counter */
-			backtrack(0);
+		if (do_restart) { /* backtrack to level 0 (or the last reusable level), reset counter */
+			backtrack(trail_reuse ? reusableLevel(bt_level) : 0);
+			stats.statReuseTrail(level);
 			stats.statRestart();
 		}
 		
@@ -493,8 +577,8 @@ public class ProofTracing extends CNFSolver {
 		
 		/* ATTENTION HERE: might return false (e.g. unit deduced but unit already set => UNSAT) */
 		pushClause(learnt);
-		/* don't assign uip if restart was performed and the asserting level of the learnt clause is >0 */
-		if (learnt.size()>1 && (!do_restart||bt_level==0)) {
+		/* don't assign uip if restart was performed and backtracked beneath the asserting level */
+		if (learnt.size()>1 && (!do_restart||bt_level==level)) {
 			assign(learnt.get(0), (learnt.size()==2 ? oppositeLit(learnt.get(1)) : learnt));
 		}
 	}
@@ -506,20 +590,28 @@ public class ProofTracing extends CNFSolver {
 		 */
 		/* initialize max. learnt clause db size */
 		stats.statSetMaxLearnt(origclauses.size());
+		freezeBinaries();
 
 		if (state==State.UNSAT) {
 			return false;
 		}
 		else {
 			while (true) {
-				if (!bcp()) {
+				int propagated=trail_lim;
+				boolean consistent=bcp();
+				
+				stats.statPropagate(trail_lim-propagated);
+				if (!consistent) {
 					if (level==0) {
 						/* compute empty clause derivation */
 						collectEmptyClauseDerivation();
 						state=State.UNSAT;
+						sampleMetrics();
 						return false;
 					}
 					handleConflict();
+					if (metrics!=null && metrics.due())
+						sampleMetrics();
 
 					if (state==State.UNSAT) 
 						;
@@ -531,6 +623,7 @@ public class ProofTracing extends CNFSolver {
 					/* perform decision */
 					if (!decide()) {
 						state=State.SAT;
+						sampleMetrics();
 						return true;
 					}
 				}
@@ -538,6 +631,12 @@ public class ProofTracing extends CNFSolver {
 		}
 	}
 	
+	/* derivations are recorded in memory and written in TraceCheck format, see printTraceCheckDerivation() */
+	public void setProof(ProofWriter w) throws Exception {
+		if (w!=null)
+			throw new Exception("ProofTracing does not stream DRAT/LRAT proofs, use printTraceCheckDerivation()");
+	}
+	
 	public void weedOutLearnt() {
 		/*
 		 * adjusted learnt clause deletion to try to delete clauses if 
@@ -567,10 +666,9 @@ public class ProofTracing extends CNFSolver {
 			for (int i=l.length-1; i>=0 && deleted<=l.length/2; i--) {
 				if (l[i]!=null && !l[i].is_locked()) { /* delete clause */
 					/* try to delete deduction information for learnt clause */
-					getDeductionInformation(l[i].getId()).delete();
+					getDeductionInformation(l[i].getId()).delete(this);
 					
-					detachClause(l[i]);
-					learntclauses.set(learntclauses.indexOf(l[i]), null);
+					detachClauseLazy(l[i]);
 					deleted++;
 				}
 			}
@@ -578,10 +676,9 @@ public class ProofTracing extends CNFSolver {
 			for (int i=0; i<l.length && deleted<=l.length/2; i++) {
 				if (l[i]!=null && !l[i].is_locked()) { /* delete clause */
 					/* try to delete deduction information for learnt clause */
-					getDeductionInformation(l[i].getId()).delete();
+					getDeductionInformation(l[i].getId()).delete(this);
 					
-					detachClause(l[i]);
-					learntclauses.set(learntclauses.indexOf(l[i]), null);
+					detachClauseLazy(l[i]);
 					deleted++;
 				}
 			}
@@ -589,6 +686,7 @@ public class ProofTracing extends CNFSolver {
 			/* try to reduce dirty deduction information */
 			weedOutDirty();
 			
+			cleanWatchlists();
 			compactify();
 			System.gc(); /* perform garbage collection */
 		}
@@ -597,9 +695,9 @@ public class ProofTracing extends CNFSolver {
 	/*
 	 * Marking information:
 	 * 
-	 * +--------+------+------+---------+---------+-------+--------------+----------------+-----------+
-	 * | status | orig | vars | w-lists | learnts | units | max. orig ID | min. learnt ID | binary... |
-	 * +--------+------+------+---------+---------+-------+--------------+----------------+-----------+
+	 * +--------+------+------+---------+---------+-------+--------------+----------------+---------+-----------+
+	 * | status | orig | vars | w-lists | learnts | units | max. orig ID | min. learnt ID | parents | binary... |
+	 * +--------+------+------+---------+---------+-------+--------------+----------------+---------+-----------+
 	 * 
 	 * status:         satisfiability status (-1: UNSAT, 0: UNKNOWN, 1: SAT)
 	 * orig:           clauses of length >2 at time of marking (stack bound)
@@ -609,6 +707,7 @@ public class ProofTracing extends CNFSolver {
 	 * units:          unit clauses at time of marking (stack bound)
 	 * max. orig ID:   maximum ID for original clauses (i.e. next ID assigned to a new original clause)
 	 * min. learnt ID: maximum ID for learnt clauses (i.e., next ID assigned to a new learnt clause)
+	 * parents:        size of the parent store (stack bound)
 	 * binary:         array of stack bounds for binary clauses (adjacency list lengths)
 	 */
 	public void pop() throws Exception {
@@ -641,7 +740,7 @@ public class ProofTracing extends CNFSolver {
 				Clause clause=origclauses.get(i);
 				
 				id2original.remove(clause.getId());
-				detachClause(clause);
+				detachClauseLazy(clause);
 			}
 			origclauses.shrinkTo(shrinkTo);
 			
@@ -652,9 +751,9 @@ public class ProofTracing extends CNFSolver {
 			shrinkTo=(int)Math.max(0, Math.min(learntclauses.size(), mark[MARK_LEARNT_CLAUSE_COUNT]));
 			for (int i=learntclauses.size()-1; i>=shrinkTo; i--) {
 				/* try to delete deduction information associated with learnt clause */
-				getDeductionInformation(learntclauses.get(i).getId()).delete();
+				getDeductionInformation(learntclauses.get(i).getId()).delete(this);
 				
-				detachClause(learntclauses.get(i));
+				detachClauseLazy(learntclauses.get(i));
 			}
 			learntclauses.shrinkTo(shrinkTo);
 			
@@ -664,16 +763,15 @@ public class ProofTracing extends CNFSolver {
 				if (variables.get(i).getName()!=null) {
 					name2var.remove(variables.get(i).getName());
 				}
-				if (variables.get(i).index()<0)
-					;
-				else
-					;
-				varq.delete(variables.get(i));
+				varq.delete(i);
 			}
 			variables.shrinkTo(shrinkTo);
+			xorlists.shrinkTo(Math.min(xorlists.size(), shrinkTo));
 			
 			/* shrink watchlists */
 			watchlists.shrinkTo((int)Math.min(watchlists.size(), mark[MARK_WATCHLIST_LENGTH]));
+			cardlists.shrinkTo((int)Math.min(cardlists.size(), mark[MARK_WATCHLIST_LENGTH]));
+			cleanWatchlists(); /* drop watches of clauses above the mark */
 			
 			/* shrink units */
 			int unitShrink=(int)Math.min(unitfacts.size(), mark[MARK_UNIT_LIST_LENGTH]);
@@ -683,7 +781,7 @@ public class ProofTracing extends CNFSolver {
 				long unitId=getClauseId(lit);
 				
 				if (isDeduced(unitId))
-					getDeductionInformation(unitId).delete();
+					getDeductionInformation(unitId).delete(this);
 				else
 					id2original.remove(unitId);
 				
@@ -693,23 +791,24 @@ public class ProofTracing extends CNFSolver {
 			unitfacts.shrinkTo(unitShrink);
 			
 			/* shrink binary watchlists */
-			binwatchlists.shrinkTo(Math.min(binwatchlists.size(), binlength));
+			bingraph.shrinkLiteralsTo(binlength);
 			
 			for (int i=MARK_BINARY_CLAUSE_START; i<mark.length; i++) {
-				if (i-MARK_BINARY_CLAUSE_START >= binwatchlists.size())
+				int lit=i-MARK_BINARY_CLAUSE_START;
+				
+				if (lit >= bingraph.numLiterals())
 					break;
 				
-				IntVec bwl=binwatchlists.get(i-MARK_BINARY_CLAUSE_START);
-				if (bwl!=null && mark[i]>=0) {
-					int binaryShrink=(int)Math.min(bwl.size(), mark[i]);
-					for (int j=bwl.size(); j>binaryShrink; j--) {
+				if (mark[i]>=0) {
+					int binaryShrink=(int)Math.min(bingraph.size(lit), mark[i]);
+					for (int j=bingraph.size(lit)-1; j>=binaryShrink; j--) {
 						/* delete binary clause entries in unaryBinaryID and unaryBinaryName */
-						int lit0=bwl.get(j), 
-							lit1=oppositeLit(i-MARK_BINARY_CLAUSE_START);
+						int lit0=bingraph.get(lit, j), 
+							lit1=oppositeLit(lit);
 						long binaryId=getClauseId(lit0, lit1);
 						
 						if (isDeduced(binaryId))
-							getDeductionInformation(binaryId).delete();
+							getDeductionInformation(binaryId).delete(this);
 						else
 							id2original.remove(binaryId);
 						
@@ -718,7 +817,7 @@ public class ProofTracing extends CNFSolver {
 							unaryBinaryName.remove(binaryId);
 						}
 					}
-					bwl.shrinkTo(binaryShrink);
+					bingraph.shrinkTo(lit, binaryShrink);
 				}
 			}
 			
@@ -730,6 +829,11 @@ public class ProofTracing extends CNFSolver {
 			weedOutDirty();
 			assertDeductionInformationDeleted(mark[MARK_MIN_LEARNT_CLAUSE_ID]);
 			
+			/* derivations recorded since the mark are gone, drop their parents (and a refutation found since) */
+			parents.truncate(mark[MARK_PARENT_STORE_SIZE]);
+			if (state!=State.UNSAT)
+				emptyClause=null;
+			
 			if (state!=State.UNSAT) { /* assign unitfacts */
 				for (int i=0; i<unitfacts.size(); i++)
 					if (!assign(unitfacts.get(i), null)) {
@@ -770,12 +874,16 @@ public class ProofTracing extends CNFSolver {
 		id2original.clear();     /* clear clause id -> output information mapping */
 		emptyClause=null;        /* clear empty clause */
 		dustBin.clear();         /* clear dirty deduction information queue */
+		parents.clear();         /* clear parents of derivations */
 		originalid=1L;           /* reset original clause ids */
 		deducedid=-1L;           /* reset deduced clause ids */
 		
 		/* clear watchlists */
 		watchlists.shrinkTo(2);
-		binwatchlists.shrinkTo(2);
+		bingraph.shrinkLiteralsTo(2);
+		watches_dirty=false;
+		cardlists.shrinkTo(2);
+		xorlists.shrinkTo(1);
 		
 		variables.shrinkTo(1);   /* clear variables */
 		levels.shrinkTo(1);      /* clear levels */
@@ -796,9 +904,9 @@ public class ProofTracing extends CNFSolver {
 	/*
 	 * Marking information:
 	 * 
-	 * +--------+------+------+---------+---------+-------+--------------+----------------+-----------+
-	 * | status | orig | vars | w-lists | learnts | units | max. orig ID | min. learnt ID | binary... |
-	 * +--------+------+------+---------+---------+-------+--------------+----------------+-----------+
+	 * +--------+------+------+---------+---------+-------+--------------+----------------+---------+-----------+
+	 * | status | orig | vars | w-lists | learnts | units | max. orig ID | min. learnt ID | parents | binary... |
+	 * +--------+------+------+---------+---------+-------+--------------+----------------+---------+-----------+
 	 * 
 	 * status:         satisfiability status (-1: UNSAT, 0: UNKNOWN, 1: SAT)
 	 * orig:           clauses of length >2 at time of marking (stack bound)
@@ -808,14 +916,15 @@ public class ProofTracing extends CNFSolver {
 	 * units:          unit clauses at time of marking (stack bound)
 	 * max. orig ID:   maximum ID for original clauses (i.e. next ID assigned to a new original clause)
 	 * min. learnt ID: maximum ID for learnt clauses (i.e., next ID assigned to a new learnt clause)
+	 * parents:        size of the parent store (stack bound)
 	 * binary:         array of stack bounds for binary clauses (adjacency list lengths)
 	 */
 	public void save() {
 		Long mark[];
 		if (!score_saving)
-			mark=new Long[MARK_BINARY_CLAUSE_START+binwatchlists.size()];
+			mark=new Long[MARK_BINARY_CLAUSE_START+bingraph.numLiterals()];
 		else
-			mark=new Long[MARK_BINARY_CLAUSE_START+binwatchlists.size()+(variables.size()-1)];
+			mark=new Long[MARK_BINARY_CLAUSE_START+bingraph.numLiterals()+(variables.size()-1)];
 		
 		mark[MARK_SAT_STATUS]=(state==State.UNSAT ? -1L : (state==State.SAT ? 1L : 0L)); /* status */
 		mark[MARK_ORIG_CLAUSE_COUNT]=(long) origclauses.size();
@@ -825,17 +934,12 @@ public class ProofTracing extends CNFSolver {
 		mark[MARK_UNIT_LIST_LENGTH]=(long) unitfacts.size();
 		mark[MARK_MAX_ORIG_CLAUSE_ID]=originalid;
 		mark[MARK_MIN_LEARNT_CLAUSE_ID]=deducedid;
+		mark[MARK_PARENT_STORE_SIZE]=parents.size();
 		
-		for (int i=0; i<binwatchlists.size(); i++) {
-			if (binwatchlists.get(i)!=null) {
-				mark[i+MARK_BINARY_CLAUSE_START]=(long) binwatchlists.get(i).size();
-			}
-			else {
-				mark[i+MARK_BINARY_CLAUSE_START]=-1L;
-			}
-		}
+		for (int i=0; i<bingraph.numLiterals(); i++)
+			mark[i+MARK_BINARY_CLAUSE_START]=(long) bingraph.size(i);
 		if (score_saving)
-			saveScoresAndPhases(mark, MARK_BINARY_CLAUSE_START+binwatchlists.size());
+			saveScoresAndPhases(mark, MARK_BINARY_CLAUSE_START+bingraph.numLiterals());
 		
 		/* push marking on marks stack */
 		marks.push(mark);
@@ -846,7 +950,7 @@ public class ProofTracing extends CNFSolver {
 			return;
 		for (int i=1; i<variables.size(); i++) {
 			Variable var = variables.get(i);
-			mark[offset+(i-1)] = (long) ((var.getScore()<<1)|(var.getPhase() ? 0x1 : 0x0));
+			mark[offset+(i-1)] = (long) ((((int)varq.activity(i))<<1)|(var.getPhase() ? 0x1 : 0x0));
 		}
 	}
 	
@@ -859,7 +963,7 @@ public class ProofTracing extends CNFSolver {
 			
 			Variable var = variables.get(idx);
 			
-			var.setScore((int) (mark[i]>>>1));
+			varq.setActivity(idx, (int) (mark[i]>>>1));
 			var.setPhase(((mark[i]&0x1) > 0));
 		}
 		varq.restoreHeapProperty();
@@ -884,7 +988,7 @@ public class ProofTracing extends CNFSolver {
 				long id=getClauseId(lit);
 				exceptionalCondition(id==0L, "No decisions allowed at level <= 0!");
 				
-				derivation.addParent(id);
+				derivation.addParent(this, id);
 				seen.set(lit2var(lit), true);
 			} else if (reason instanceof Integer) { /* binary clause */
 				long id=getClauseId(lit, oppositeLit((Integer)reason));
@@ -892,13 +996,13 @@ public class ProofTracing extends CNFSolver {
 						"Binary clause ["+(sign(lit) ? "" : "-")+lit2variable(lit)+", "+
 						(sign((Integer)reason) ? "-" : "")+lit2variable((Integer)reason)+"] unknown!");
 				
-				derivation.addParent(id);
+				derivation.addParent(this, id);
 				seen.set(lit2var(lit), true);
 				seen.set(lit2var((Integer)reason), true);
 			} else { /* reason is clause with |clause|>2 */
 				Clause clause=(Clause)reason;
 				
-				derivation.addParent(clause.getId());
+				derivation.addParent(this, clause.getId());
 				for (int i=0; i<clause.size(); i++)
 					seen.set(lit2var(clause.get(i)), true);
 			}
@@ -947,8 +1051,8 @@ public class ProofTracing extends CNFSolver {
 	
 	public void printDerivation(PrintStream out) {
 		if (emptyClause!=null) {
-			Set<Long> originals=emptyClause.getOriginalClauses();
-			Set<Long> learnts=emptyClause.getDerivationalClauses();
+			Set<Long> originals=emptyClause.getOriginalClauses(this);
+			Set<Long> learnts=emptyClause.getDerivationalClauses(this);
 			
 			/* output original clauses that participate in the derivation*/
 			for (long clause : originals) {
@@ -956,11 +1060,11 @@ public class ProofTracing extends CNFSolver {
 			}
 			
 			/* output empty clause derivation */
-			out.println(emptyClause);
+			out.println(emptyClause.toString(this));
 			
 			/* output derivations of learnt clauses which took part in the refutation */
 			for (long clause : learnts) {
-				out.println(getDeductionInformation(clause));
+				out.println(getDeductionInformation(clause).toString(this));
 			}
 		}
 	}
@@ -973,7 +1077,7 @@ public class ProofTracing extends CNFSolver {
 		if (emptyClause!=null) {
 			Set<String> tags=new HashSet<String>();
 			
-			for (long clause : emptyClause.getOriginalClauses())
+			for (long clause : emptyClause.getOriginalClauses(this))
 				tags.add(id2original.get(clause).name);
 			
 			return tags;
@@ -987,16 +1091,16 @@ public class ProofTracing extends CNFSolver {
 	 */
 	public void printTraceCheckDerivation(PrintStream out) {
 		if (emptyClause!=null) {
-			Set<Long> originals = emptyClause.getOriginalClauses();
-			Set<Long> learnts = emptyClause.getDerivationalClauses();
+			Set<Long> originals = emptyClause.getOriginalClauses(this);
+			Set<Long> learnts = emptyClause.getDerivationalClauses(this);
 			
 			for (long clause : originals)
 				out.println(id2original.get(clause).toTraceCheckEntry(this));
 			
-			out.println(emptyClause.toTraceCheckEntry());
+			out.println(emptyClause.toTraceCheckEntry(this));
 			
 			for (long clause : learnts)
-				out.println(getDeductionInformation(clause).toTraceCheckEntry());
+				out.println(getDeductionInformation(clause).toTraceCheckEntry(this));
 		}
 	}
 }
@@ -0,0 +1,440 @@
+package de.stzoit.prover.cnf.tracing;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.stzoit.prover.cnf.CNFSolver;
+import de.stzoit.prover.collections.IVec;
+import de.stzoit.prover.collections.Vec;
+import de.stzoit.prover.collections.nativeType.IntVec;
+import de.stzoit.prover.collections.nativeType.LongLongMap;
+import de.stzoit.prover.collections.nativeType.LongVec;
+
+/**
+ * Checker for resolution proofs in TraceCheck format ("<id> <literals> 0 <antecedents> 0", no antecedents for
+ * original clauses), as written by ProofTracing.printTraceCheckDerivation()
+ *
+ *     - a derived clause is accepted if the resolution chain of its antecedents (in the given order) yields a
+ *       subset of it, else if it is RUP with respect to its antecedents, i.e. unit propagation of its negation
+ *       over the antecedents yields a conflict
+ *     - as every derived clause states its literals, the clauses can be checked independently of each other,
+ *       which is done on a fork/join pool; the proof has to be acyclic and contain the empty clause
+ *     - literals and antecedents are kept in ParentStores, i.e. in memory-mapped files for proofs which do not
+ *       fit into the heap; traces are read as a stream
+ *     - original clauses are trusted, omitted literals ('*') are not supported
+ *
+ * @author AK
+ *
+ */
+public class TraceChecker {
+	private static final int GRAIN=256;                /* derived clauses checked by one task            */
+
+	private ParentStore literals;                      /* DIMACS literals of all clauses                 */
+	private ParentStore antecedents;                   /* trace IDs of the antecedents of all clauses    */
+	private LongVec ids;                               /* Clause->trace ID                               */
+	private LongVec litStart, antStart;                /* Clause->offset of literals, antecedents        */
+	private IntVec litCount, antCount;                 /* Clause->number of literals, antecedents        */
+	private LongLongMap index;                         /* trace ID->Clause                               */
+	private int maxVar=0;
+	private int parallelism;
+	private AtomicLong failed=new AtomicLong(0L);      /* trace ID of a clause which could not be checked */
+	private ThreadLocal<Scratch> scratch;              /* per worker thread, sized for the last check()  */
+
+	/* keep the proof on the heap */
+	public TraceChecker() throws IOException {
+		this(null);
+	}
+
+	/* keep the proof in memory-mapped files in directory dir (null: on the heap) */
+	public TraceChecker(File dir) throws IOException {
+		if (dir==null) {
+			literals=new ParentStore();
+			antecedents=new ParentStore();
+		} else {
+			literals=new ParentStore(spillFile(dir, "literals"));
+			antecedents=new ParentStore(spillFile(dir, "antecedents"));
+		}
+		ids=new LongVec();
+		litStart=new LongVec();
+		antStart=new LongVec();
+		litCount=new IntVec();
+		antCount=new IntVec();
+		index=new LongLongMap();
+		parallelism=Runtime.getRuntime().availableProcessors();
+	}
+
+	/* number of threads used by check() */
+	public void setParallelism(int n) {
+		parallelism=Math.max(1, n);
+	}
+
+	/* number of clauses read */
+	public int size() {
+		return ids.size();
+	}
+
+	/* trace ID of a clause which failed the last check (0 if none did, -1 if the proof is incomplete) */
+	public long getFailedClause() {
+		return failed.get();
+	}
+
+	/* read a trace from file f */
+	public void read(File f) throws Exception {
+		InputStream in=new BufferedInputStream(new FileInputStream(f), 1<<16);
+
+		try {
+			read(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/* read a trace from in (which is not closed) */
+	public void read(InputStream in) throws Exception {
+		IntVec lits=new IntVec();
+		LongVec ants=new LongVec();
+		long token[]=new long[1];
+
+		while (nextNumber(in, token)) {
+			long id=token[0];
+
+			lits.clear();
+			ants.clear();
+			while (true) {
+				if (!nextNumber(in, token))
+					throw new Exception("Unexpected end of trace in clause "+id);
+				if (token[0]==0L)
+					break;
+				lits.push((int)token[0]);
+			}
+			while (true) {
+				if (!nextNumber(in, token))
+					throw new Exception("Unexpected end of trace in clause "+id);
+				if (token[0]==0L)
+					break;
+				ants.push(token[0]);
+			}
+			add(id, lits, ants);
+		}
+	}
+
+	/* take the refutation recorded by solver, learnt clauses are obtained by replaying their derivations */
+	public void load(ProofTracing solver) throws Exception {
+		DeductionInformation empty=solver.getEmptyClause();
+
+		if (empty==null)
+			throw new Exception("No empty clause found, didn't call sat() or input UNSAT?");
+
+		boolean marks[]=new boolean[2*solver.numVariables()];
+		IntVec lits=new IntVec();
+		LongVec ants=new LongVec();
+
+		/* learnt IDs decrease in creation order, thus parents are loaded before their children */
+		Long learnts[]=empty.getDerivationalClauses(solver).toArray(new Long[0]);
+		Arrays.sort(learnts);
+		for (long id : empty.getOriginalClauses(solver)) {
+			int cls[]=solver.getOriginal(id).literals();
+
+			lits.clear();
+			for (int i=0; i<cls.length; i++)
+				lits.push(toDimacs(cls[i]));
+			add(DeductionInformation.toTraceCheckId(solver, id), lits, ants);
+		}
+		for (int i=learnts.length-1; i>=0; i--)
+			loadDerivation(solver, solver.getDeductionInformation(learnts[i]), marks);
+		loadDerivation(solver, empty, marks);
+	}
+
+	/*
+	 * check all derived clauses, true if all of them are sound, the proof is acyclic and contains the empty
+	 * clause
+	 */
+	public boolean check() throws Exception {
+		failed.set(0L);
+		if (!hasEmptyClause() || !isAcyclic()) {
+			failed.compareAndSet(0L, -1L);
+			return false;
+		}
+
+		final int vars=maxVar;
+		scratch=new ThreadLocal<Scratch>() {
+			protected Scratch initialValue() {
+				return new Scratch(vars);
+			}
+		};
+
+		ForkJoinPool pool=new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new CheckTask(0, ids.size()));
+		} finally {
+			pool.shutdown();
+			scratch=null;
+		}
+		return failed.get()==0L;
+	}
+
+	/* release the stores (and their files) */
+	public void close() throws IOException {
+		literals.close();
+		antecedents.close();
+	}
+
+	private static File spillFile(File dir, String name) throws IOException {
+		File f=File.createTempFile("trace-"+name+"-", ".bin", dir);
+
+		f.deleteOnExit();
+		return f;
+	}
+
+	private static int toDimacs(int lit) {
+		return CNFSolver.sign(lit) ? CNFSolver.lit2var(lit) : -CNFSolver.lit2var(lit);
+	}
+
+	private void add(long id, IntVec lits, LongVec ants) throws Exception {
+		if (index.containsKey(id))
+			throw new Exception("Clause "+id+" is defined twice");
+		index.put(id, ids.size());
+		ids.push(id);
+		litStart.push(literals.size());
+		litCount.push(lits.size());
+		antStart.push(antecedents.size());
+		antCount.push(ants.size());
+		for (int i=0; i<lits.size(); i++) {
+			literals.append(lits.get(i));
+			maxVar=Math.max(maxVar, Math.abs(lits.get(i)));
+		}
+		for (int i=0; i<ants.size(); i++)
+			antecedents.append(ants.get(i));
+	}
+
+	/* replay (without checking) the resolution chain of derivation and add the resolvent */
+	private void loadDerivation(ProofTracing solver, DeductionInformation derivation, boolean marks[]) 
+			throws Exception {
+		long parents[]=derivation.getParents(solver);
+		IntVec resolvent=new IntVec(), lits=new IntVec();
+		LongVec ants=new LongVec();
+
+		for (int i=0; i<parents.length; i++) {
+			long id=DeductionInformation.toTraceCheckId(solver, parents[i]);
+			int p=(int)index.get(id, -1L);
+			long cls[]=literals.read(litStart.get(p), litCount.get(p));
+
+			ants.push(id);
+			for (int j=0; j<cls.length; j++) {
+				int lit=CNFSolver.var2lit((int)Math.abs(cls[j]), cls[j]>0);
+
+				if (i>0 && marks[lit^1])
+					marks[lit^1]=false;
+				else if (!marks[lit]) {
+					marks[lit]=true;
+					resolvent.push(lit);
+				}
+			}
+		}
+		for (int i=0; i<resolvent.size(); i++)
+			if (marks[resolvent.get(i)]) {
+				marks[resolvent.get(i)]=false;
+				lits.push(toDimacs(resolvent.get(i)));
+			}
+		add(DeductionInformation.toTraceCheckId(solver, derivation.getId()), lits, ants);
+	}
+
+	/* read the next (possibly signed) decimal number, false at the end of the stream */
+	private static boolean nextNumber(InputStream in, long token[]) throws Exception {
+		int c=in.read();
+
+		while (c==' ' || c=='\t' || c=='\n' || c=='\r')
+			c=in.read();
+		if (c<0)
+			return false;
+		if (c=='*')
+			throw new Exception("Omitted literals are not supported");
+
+		boolean negative=(c=='-');
+		long v=0;
+
+		if (negative)
+			c=in.read();
+		if (c<'0' || c>'9')
+			throw new Exception("Unexpected character '"+(char)c+"' in trace");
+		while (c>='0' && c<='9') {
+			v=10*v+(c-'0');
+			c=in.read();
+		}
+		token[0]=(negative ? -v : v);
+		return true;
+	}
+
+	private boolean hasEmptyClause() {
+		for (int i=0; i<ids.size(); i++)
+			if (litCount.get(i)==0)
+				return true;
+		return false;
+	}
+
+	/* antecedents exist and form no cycle (iterative DFS, colors: 0 new, 1 on stack, 2 done) */
+	private boolean isAcyclic() {
+		byte color[]=new byte[ids.size()];
+		IntVec stack=new IntVec(), next=new IntVec();
+		IVec<long[]> ants=new Vec<long[]>();
+
+		for (int root=0; root<ids.size(); root++) {
+			if (color[root]!=0)
+				continue;
+			color[root]=1;
+			stack.push(root);
+			next.push(0);
+			ants.push(antecedents.read(antStart.get(root), antCount.get(root)));
+			while (stack.size()>0) {
+				int k=next.last();
+
+				if (k<ants.last().length) {
+					int a=(int)index.get(ants.last()[k], -1L);
+
+					next.set(next.size()-1, k+1);
+					if (a<0 || color[a]==1)
+						return false;
+					if (color[a]==0) {
+						color[a]=1;
+						stack.push(a);
+						next.push(0);
+						ants.push(antecedents.read(antStart.get(a), antCount.get(a)));
+					}
+				} else {
+					color[stack.last()]=2;
+					stack.pop();
+					next.pop();
+					ants.pop();
+				}
+			}
+		}
+		return true;
+	}
+
+	/* check the derived clauses first..last-1, split into halves above GRAIN clauses */
+	private class CheckTask extends RecursiveAction {
+		private static final long serialVersionUID=1L;
+		private int first, last;
+
+		CheckTask(int first, int last) {
+			this.first=first;
+			this.last=last;
+		}
+
+		protected void compute() {
+			if (last-first>GRAIN) {
+				int mid=(first+last)>>>1;
+
+				invokeAll(new CheckTask(first, mid), new CheckTask(mid, last));
+				return;
+			}
+
+			Scratch s=scratch.get();
+			for (int i=first; i<last && failed.get()==0L; i++)
+				if (antCount.get(i)>0 && !s.check(i))
+					failed.compareAndSet(0L, ids.get(i));
+		}
+	}
+
+	/* per thread stamps, i.e. marks are cleared by incrementing the stamp */
+	private class Scratch {
+		private int mark[];                     /* Lit->stamp: in resolvent         */
+		private int stated[];                   /* Lit->stamp: in the derived clause */
+		private int stamp=0;
+
+		Scratch(int maxVar) {
+			mark=new int[2*maxVar+2];
+			stated=new int[2*maxVar+2];
+		}
+
+		private int lit(long dimacs) {
+			return dimacs>0 ? 2*(int)dimacs+1 : 2*(int)-dimacs;
+		}
+
+		boolean check(int c) {
+			long ants[]=antecedents.read(antStart.get(c), antCount.get(c));
+			long clauses[][]=new long[ants.length][];
+
+			for (int i=0; i<ants.length; i++) {
+				int a=(int)index.get(ants[i], -1L);
+				clauses[i]=literals.read(litStart.get(a), litCount.get(a));
+			}
+			stamp++;
+			long cls[]=literals.read(litStart.get(c), litCount.get(c));
+			for (int i=0; i<cls.length; i++)
+				stated[lit(cls[i])]=stamp;
+
+			return chain(clauses) || rup(cls, clauses);
+		}
+
+		/* resolution chain in the given order yields a subset of the stated clause */
+		private boolean chain(long clauses[][]) {
+			IntVec resolvent=new IntVec();
+
+			for (int i=0; i<clauses.length; i++) {
+				boolean clash=(i==0);
+
+				for (int j=0; j<clauses[i].length; j++) {
+					int l=lit(clauses[i][j]);
+
+					if (i>0 && !clash && mark[l^1]==stamp) {
+						mark[l^1]=0;
+						clash=true;
+					} else if (mark[l]!=stamp) {
+						mark[l]=stamp;
+						resolvent.push(l);
+					}
+				}
+				if (!clash)
+					return false;
+			}
+			for (int i=0; i<resolvent.size(); i++)
+				if (mark[resolvent.get(i)]==stamp && stated[resolvent.get(i)]!=stamp)
+					return false;
+			return true;
+		}
+
+		/* unit propagation of the negated clause over the antecedents yields a conflict */
+		private boolean rup(long cls[], long clauses[][]) {
+			stamp++; /* mark: literal is true */
+			for (int i=0; i<cls.length; i++)
+				mark[lit(cls[i])^1]=stamp;
+
+			boolean changed=true;
+			while (changed) {
+				changed=false;
+				for (int i=0; i<clauses.length; i++) {
+					int unit=-1, open=0;
+					boolean satisfied=false;
+
+					for (int j=0; j<clauses[i].length && !satisfied; j++) {
+						int l=lit(clauses[i][j]);
+
+						if (mark[l]==stamp)
+							satisfied=true;
+						else if (mark[l^1]!=stamp) {
+							open++;
+							unit=l;
+						}
+					}
+					if (satisfied)
+						continue;
+					if (open==0)
+						return true;
+					if (open==1) {
+						mark[unit]=stamp;
+						changed=true;
+					}
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package de.stzoit.prover.collections.nativeType;
+
+import java.util.Arrays;
+
+/**
+ * Binary max-heap over int keys (variable indices) ordered by a parallel
+ * activity array, replaces HeapWithIndex<Variable> as decision queue
+ *
+ *     - heap[i]: key at heap position i, pos[k]: heap position of key k
+ *       (-1 if k is not in the heap), activity[k]: activity of key k
+ *     - no objects are touched while comparing, and except for growing the
+ *       arrays to the largest key, no operation allocates memory
+ *     - as with HeapWithIndex, quickInsert() may destroy the heap property,
+ *       which is restored lazily by the next heapExtractMax() or peek(); until
+ *       then insert(), delete() and increaseKey() do not reposition keys
+ *
+ * @author AK
+ */
+public class ActivityHeap {
+	private int heap[];
+	private int pos[];
+	private double activity[];
+	private int heapsize=0;
+	private boolean maybe_inconsistent=false;
+
+	public ActivityHeap() {
+		this(16);
+	}
+
+	public ActivityHeap(int capacity) {
+		heap=new int[Math.max(capacity, 2)];
+		pos=new int[Math.max(capacity, 2)];
+		activity=new double[Math.max(capacity, 2)];
+		Arrays.fill(pos, -1);
+	}
+
+	/* make keys 0, ..., n-1 available */
+	public void ensure(int n) {
+		if (n<=pos.length)
+			return;
+
+		int cap=pos.length;
+		while (cap<n)
+			cap*=2;
+
+		int _heap[]=new int[cap], _pos[]=new int[cap];
+		double _activity[]=new double[cap];
+		System.arraycopy(heap, 0, _heap, 0, heapsize);
+		System.arraycopy(pos, 0, _pos, 0, pos.length);
+		System.arraycopy(activity, 0, _activity, 0, activity.length);
+		Arrays.fill(_pos, pos.length, cap, -1);
+		heap=_heap;
+		pos=_pos;
+		activity=_activity;
+	}
+
+	public int size() {
+		return heapsize;
+	}
+
+	public boolean isEmpty() {
+		return heapsize<=0;
+	}
+
+	public boolean contains(int k) {
+		return k>=0 && k<pos.length && pos[k]>=0;
+	}
+
+	public double activity(int k) {
+		return activity[k];
+	}
+
+	/* set activity without repositioning k, call restoreHeapProperty() afterwards */
+	public void setActivity(int k, double a) {
+		ensure(k+1);
+		activity[k]=a;
+	}
+
+	/* increase activity of k by inc (inc>=0), k is moved up if it is in the heap */
+	public void increaseKey(int k, double inc) {
+		ensure(k+1);
+		activity[k]+=inc;
+		if (pos[k]>=0 && !maybe_inconsistent)
+			heapIncreaseKey(pos[k]);
+	}
+
+	public void clear() {
+		for (int i=0; i<heapsize; i++)
+			pos[heap[i]]=-1;
+		heapsize=0;
+	}
+
+	public void insert(int k) {
+		if (maybe_inconsistent)
+			quickInsert(k);
+		else if (!contains(k)) {
+			ensure(k+1);
+			heap[heapsize]=k;
+			pos[k]=heapsize++;
+			heapIncreaseKey(heapsize-1);
+		}
+	}
+
+	/* might destroy heap property */
+	public void quickInsert(int k) {
+		if (contains(k))
+			return;
+		ensure(k+1);
+		maybe_inconsistent=true;
+		heap[heapsize]=k;
+		pos[k]=heapsize++;
+	}
+
+	public void delete(int k) {
+		if (!contains(k))
+			return;
+
+		int index=pos[k];
+
+		pos[k]=-1;
+		heapsize--;
+		if (index==heapsize)
+			return;
+
+		heap[index]=heap[heapsize];
+		pos[heap[index]]=index;
+		if (maybe_inconsistent)
+			return;
+		if (activity[heap[index]]>activity[k])
+			heapIncreaseKey(index);
+		else
+			maxHeapify(index);
+	}
+
+	/* key with maximal activity, -1 if heap is empty */
+	public int heapExtractMax() {
+		if (heapsize<1)
+			return -1;
+		if (maybe_inconsistent)
+			restoreHeapProperty();
+
+		int max=heap[0];
+
+		pos[max]=-1;
+		heapsize--;
+		if (heapsize>0) {
+			heap[0]=heap[heapsize];
+			pos[heap[0]]=0;
+			maxHeapify(0);
+		}
+		return max;
+	}
+
+	/* key with maximal activity without removing it, -1 if heap is empty */
+	public int peek() {
+		if (heapsize<1)
+			return -1;
+		if (maybe_inconsistent)
+			restoreHeapProperty();
+		return heap[0];
+	}
+
+	public void restoreHeapProperty() {
+		for (int i=parentInd(heapsize-1); i>=0; i--)
+			maxHeapify(i);
+		maybe_inconsistent=false;
+	}
+
+	public boolean consistent() {
+		for (int i=1; i<heapsize; i++)
+			if (activity[heap[i]]>activity[heap[parentInd(i)]] || pos[heap[i]]!=i)
+				return false;
+		return true;
+	}
+
+	private void heapIncreaseKey(int index) {
+		int k=heap[index];
+		double a=activity[k];
+
+		while (index>0 && activity[heap[parentInd(index)]]<a) {
+			heap[index]=heap[parentInd(index)];
+			pos[heap[index]]=index;
+			index=parentInd(index);
+		}
+		heap[index]=k;
+		pos[k]=index;
+	}
+
+	private void maxHeapify(int index) {
+		int k=heap[index];
+		double a=activity[k];
+
+		for (;;) {
+			int left=leftInd(index), right=left+1, largest=index;
+			double max=a;
+
+			if (left<heapsize && activity[heap[left]]>max) {
+				largest=left;
+				max=activity[heap[left]];
+			}
+			if (right<heapsize && activity[heap[right]]>max)
+				largest=right;
+			if (largest==index)
+				break;
+
+			heap[index]=heap[largest];
+			pos[heap[index]]=index;
+			index=largest;
+		}
+		heap[index]=k;
+		pos[k]=index;
+	}
+
+	/* e.g. left(0)=1, left(1)=3, left(2)=5, ... */
+	private static int leftInd(int index) {
+		return ((index+1)<<1)-1;
+	}
+
+	/* e.g. parent(0)=-1, parent(1)=0, parent(2)=0, parent(3)=1, ... */
+	private static int parentInd(int index) {
+		return ((index+1)>>>1)-1;
+	}
+
+	public String toString() {
+		StringBuilder sb=new StringBuilder();
+
+		for (int i=0; i<heapsize; i++)
+			sb.append((i>0 ? " " : "")+heap[i]+":"+activity[heap[i]]);
+		return sb.toString();
+	}
+}
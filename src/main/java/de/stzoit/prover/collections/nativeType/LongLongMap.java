@@ -0,0 +1,132 @@
+package de.stzoit.prover.collections.nativeType;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from long to long without boxing, replaces HashMap<Long,Long>
+ *
+ *     - open addressing with linear probing in parallel key/value arrays,
+ *       the capacity is a power of two and the table is doubled when it is
+ *       more than half full
+ *     - remove() shifts the following entries of the probe sequence back,
+ *       thus there are no tombstones and lookups never degrade
+ *     - every key (including 0) may be used, absent keys are reported by the
+ *       default value passed to get()
+ *
+ * @author AK
+ */
+public class LongLongMap {
+	private long keys[];
+	private long values[];
+	private boolean used[];
+	private int size=0;
+	private int mask;
+
+	public LongLongMap() {
+		this(16);
+	}
+
+	public LongLongMap(int capacity) {
+		int cap=2;
+		while (cap<2*capacity)
+			cap<<=1;
+		alloc(cap);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size==0;
+	}
+
+	public boolean containsKey(long key) {
+		return used[find(key)];
+	}
+
+	/* value of key, dflt if key is absent */
+	public long get(long key, long dflt) {
+		int i=find(key);
+
+		return used[i] ? values[i] : dflt;
+	}
+
+	public void put(long key, long value) {
+		int i=find(key);
+
+		if (!used[i]) {
+			if (2*(size+1)>keys.length) {
+				rehash(2*keys.length);
+				i=find(key);
+			}
+			used[i]=true;
+			keys[i]=key;
+			size++;
+		}
+		values[i]=value;
+	}
+
+	/* remove key, true if it was present */
+	public boolean remove(long key) {
+		int i=find(key);
+
+		if (!used[i])
+			return false;
+
+		/* backward shift: move entries whose home slot is not in ]i, j] into the gap */
+		for (int j=(i+1)&mask; used[j]; j=(j+1)&mask) {
+			int home=slot(keys[j]);
+
+			if (((j-home)&mask)>=((j-i)&mask)) {
+				keys[i]=keys[j];
+				values[i]=values[j];
+				i=j;
+			}
+		}
+		used[i]=false;
+		size--;
+		return true;
+	}
+
+	public void clear() {
+		if (size>0)
+			Arrays.fill(used, false);
+		size=0;
+	}
+
+	/* slot holding key or the free slot where it would be inserted */
+	private int find(long key) {
+		int i=slot(key);
+
+		while (used[i] && keys[i]!=key)
+			i=(i+1)&mask;
+		return i;
+	}
+
+	private int slot(long key) {
+		return LongObjectMap.mix(key)&mask;
+	}
+
+	private void alloc(int cap) {
+		keys=new long[cap];
+		values=new long[cap];
+		used=new boolean[cap];
+		mask=cap-1;
+	}
+
+	private void rehash(int cap) {
+		long _keys[]=keys, _values[]=values;
+		boolean _used[]=used;
+
+		alloc(cap);
+		for (int j=0; j<_keys.length; j++)
+			if (_used[j]) {
+				int i=find(_keys[j]);
+
+				used[i]=true;
+				keys[i]=_keys[j];
+				values[i]=_values[j];
+			}
+	}
+}
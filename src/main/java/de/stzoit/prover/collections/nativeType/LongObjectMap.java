@@ -0,0 +1,134 @@
+package de.stzoit.prover.collections.nativeType;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from long to objects without boxing the keys, replaces
+ * HashMap<Long,V>
+ *
+ *     - open addressing with linear probing and backward shift deletion as in
+ *       LongLongMap
+ *     - null values are not stored: get() returns null for absent keys and
+ *       put(key, null) removes key
+ *
+ * @author AK
+ */
+public class LongObjectMap<V> {
+	private long keys[];
+	private Object values[];
+	private int size=0;
+	private int mask;
+
+	public LongObjectMap() {
+		this(16);
+	}
+
+	public LongObjectMap(int capacity) {
+		int cap=2;
+		while (cap<2*capacity)
+			cap<<=1;
+		alloc(cap);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size==0;
+	}
+
+	public boolean containsKey(long key) {
+		return values[find(key)]!=null;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		return (V)values[find(key)];
+	}
+
+	public void put(long key, V value) {
+		if (value==null) {
+			remove(key);
+			return;
+		}
+
+		int i=find(key);
+
+		if (values[i]==null) {
+			if (2*(size+1)>keys.length) {
+				rehash(2*keys.length);
+				i=find(key);
+			}
+			keys[i]=key;
+			size++;
+		}
+		values[i]=value;
+	}
+
+	/* remove key, returns the value it was mapped to or null */
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		int i=find(key);
+		V old=(V)values[i];
+
+		if (old==null)
+			return null;
+
+		/* backward shift: move entries whose home slot is not in ]i, j] into the gap */
+		for (int j=(i+1)&mask; values[j]!=null; j=(j+1)&mask) {
+			int home=mix(keys[j])&mask;
+
+			if (((j-home)&mask)>=((j-i)&mask)) {
+				keys[i]=keys[j];
+				values[i]=values[j];
+				i=j;
+			}
+		}
+		values[i]=null;
+		size--;
+		return old;
+	}
+
+	public void clear() {
+		if (size>0)
+			Arrays.fill(values, null);
+		size=0;
+	}
+
+	/* slot holding key or the free slot where it would be inserted */
+	private int find(long key) {
+		int i=mix(key)&mask;
+
+		while (values[i]!=null && keys[i]!=key)
+			i=(i+1)&mask;
+		return i;
+	}
+
+	/* spread consecutive ids and packed literal pairs over the table (Fibonacci hashing) */
+	static int mix(long key) {
+		long h=key*0x9E3779B97F4A7C15L;
+
+		return (int)(h^(h>>>32));
+	}
+
+	private void alloc(int cap) {
+		keys=new long[cap];
+		values=new Object[cap];
+		mask=cap-1;
+	}
+
+	private void rehash(int cap) {
+		long _keys[]=keys;
+		Object _values[]=values;
+
+		alloc(cap);
+		for (int j=0; j<_keys.length; j++)
+			if (_values[j]!=null) {
+				int i=find(_keys[j]);
+
+				keys[i]=_keys[j];
+				values[i]=_values[j];
+			}
+	}
+}
@@ -0,0 +1,242 @@
+package de.stzoit.prover.dnnf;
+
+import java.util.Arrays;
+
+/**
+ * de.stzoit.prover.dnnf.ComponentCache
+ *
+ * Cache of compilation results keyed by 128 bit Zobrist signatures
+ *
+ *     - a signature is the XOR of the (two independent 64 bit) Zobrist codes of its elements, e.g. the
+ *       unsubsumed clauses and the instantiated variables of a component; use add() to accumulate it element by
+ *       element, codes are derived from the element by a mixing function, thus no tables are needed
+ *     - the cache is bounded by a byte budget, each entry is charged ENTRY_BYTES plus the cost given to put(),
+ *       entries are evicted in least recently used order once the budget is exceeded
+ *     - entries live in parallel arrays, buckets are chained by index, the LRU order is a doubly linked list
+ *       over the same indices, thus probes do not allocate
+ *
+ * @author AK
+ *
+ */
+public class ComponentCache<V> {
+	/* estimated size of an entry without its value */
+	public static final long ENTRY_BYTES=64;
+
+	private long budget;            /* maximal number of bytes charged           */
+	private long bytes=0;           /* bytes currently charged                   */
+
+	private int buckets[];          /* hash->first entry+1, 0 if empty           */
+	private long hi[];              /* Entry->high part of signature             */
+	private long lo[];              /* Entry->low part of signature              */
+	private Object values[];        /* Entry->value, null if the entry is free   */
+	private long costs[];           /* Entry->bytes charged                      */
+	private int chain[];            /* Entry->next entry+1 in bucket (free list) */
+	private int prev[];             /* Entry->more recently used entry, -1       */
+	private int next[];             /* Entry->less recently used entry, -1       */
+	private int head=-1;            /* most recently used entry                  */
+	private int tail=-1;            /* least recently used entry                 */
+	private int free=0;             /* first free entry+1                        */
+	private int used=0;             /* entries in use                            */
+	private int top=0;              /* entries ever allocated                    */
+
+	private long hits=0;
+	private long misses=0;
+	private long evictions=0;
+
+	public ComponentCache(long budget) {
+		this.budget=budget;
+
+		buckets=new int[1024];
+		hi=new long[1024];
+		lo=new long[1024];
+		values=new Object[1024];
+		costs=new long[1024];
+		chain=new int[1024];
+		prev=new int[1024];
+		next=new int[1024];
+	}
+
+	/* high part of the signature sig extended by element */
+	public static long addHi(long sig, int element) {
+		return sig^mix(element*0x9E3779B97F4A7C15L+0x632BE59BD9B4E019L);
+	}
+
+	/* low part of the signature sig extended by element */
+	public static long addLo(long sig, int element) {
+		return sig^mix(element*0xC2B2AE3D27D4EB4FL+0x165667B19E3779F9L);
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(long sigHi, long sigLo) {
+		int e=find(sigHi, sigLo);
+
+		if (e<0) {
+			misses++;
+			return null;
+		}
+		hits++;
+		unlink(e);
+		linkFirst(e);
+		return (V)values[e];
+	}
+
+	/* store value (not null) for the signature, cost is the estimated size of the value in bytes */
+	public void put(long sigHi, long sigLo, V value, long cost) {
+		int e=find(sigHi, sigLo);
+
+		if (e>=0) {
+			bytes+=cost-costs[e];
+			values[e]=value;
+			costs[e]=cost;
+			unlink(e);
+			linkFirst(e);
+		} else {
+			e=allocate();
+			hi[e]=sigHi;
+			lo[e]=sigLo;
+			values[e]=value;
+			costs[e]=cost;
+			bytes+=ENTRY_BYTES+cost;
+
+			int b=bucket(sigHi);
+			chain[e]=buckets[b];
+			buckets[b]=e+1;
+			linkFirst(e);
+			used++;
+			if (2*used>buckets.length)
+				rehash();
+		}
+		while (bytes>budget && tail>=0 && tail!=e) {
+			remove(tail);
+			evictions++;
+		}
+	}
+
+	public void clear() {
+		Arrays.fill(buckets, 0);
+		Arrays.fill(values, 0, top, null);
+		head=tail=-1;
+		free=used=top=0;
+		bytes=0;
+	}
+
+	/* number of entries */
+	public int size() {
+		return used;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public String toString() {
+		return "cache: "+used+" entries, "+bytes+"/"+budget+" bytes, "+hits+" hits, "+misses+" misses, "+
+		       evictions+" evictions";
+	}
+
+	private int find(long sigHi, long sigLo) {
+		for (int e=buckets[bucket(sigHi)]-1; e>=0; e=chain[e]-1)
+			if (hi[e]==sigHi && lo[e]==sigLo)
+				return e;
+		return -1;
+	}
+
+	private void remove(int e) {
+		int b=bucket(hi[e]);
+
+		if (buckets[b]==e+1)
+			buckets[b]=chain[e];
+		else {
+			int p=buckets[b]-1;
+
+			while (chain[p]!=e+1)
+				p=chain[p]-1;
+			chain[p]=chain[e];
+		}
+		unlink(e);
+		bytes-=ENTRY_BYTES+costs[e];
+		values[e]=null;
+		chain[e]=free;
+		free=e+1;
+		used--;
+	}
+
+	private int allocate() {
+		if (free>0) {
+			int e=free-1;
+
+			free=chain[e];
+			return e;
+		}
+		if (top==hi.length) {
+			int n=2*top;
+
+			hi=Arrays.copyOf(hi, n);
+			lo=Arrays.copyOf(lo, n);
+			values=Arrays.copyOf(values, n);
+			costs=Arrays.copyOf(costs, n);
+			chain=Arrays.copyOf(chain, n);
+			prev=Arrays.copyOf(prev, n);
+			next=Arrays.copyOf(next, n);
+		}
+		return top++;
+	}
+
+	private void rehash() {
+		buckets=new int[2*buckets.length];
+		for (int e=0; e<top; e++)
+			if (values[e]!=null) {
+				int b=bucket(hi[e]);
+
+				chain[e]=buckets[b];
+				buckets[b]=e+1;
+			}
+	}
+
+	private void linkFirst(int e) {
+		prev[e]=-1;
+		next[e]=head;
+		if (head>=0)
+			prev[head]=e;
+		head=e;
+		if (tail<0)
+			tail=e;
+	}
+
+	private void unlink(int e) {
+		if (prev[e]>=0)
+			next[prev[e]]=next[e];
+		else
+			head=next[e];
+		if (next[e]>=0)
+			prev[next[e]]=prev[e];
+		else
+			tail=prev[e];
+	}
+
+	private int bucket(long sigHi) {
+		return (int)(sigHi^(sigHi>>>32))&(buckets.length-1);
+	}
+
+	private static long mix(long z) {
+		z=(z^(z>>>30))*0xBF58476D1CE4E5B9L;
+		z=(z^(z>>>27))*0x94D049BB133111EBL;
+		return z^(z>>>31);
+	}
+}
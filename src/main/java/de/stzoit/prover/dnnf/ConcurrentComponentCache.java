@@ -0,0 +1,133 @@
+package de.stzoit.prover.dnnf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * de.stzoit.prover.dnnf.ConcurrentComponentCache
+ *
+ * ComponentCache which may be shared by the threads of a parallel compilation
+ *
+ *     - the entries are striped over a power of two of segments by the low bits of the signature, each segment is
+ *       a ComponentCache with an equal share of the byte budget and is locked on its own, thus threads probing
+ *       different components rarely contend
+ *     - LRU order and eviction are per segment
+ *     - with a single segment this is a synchronized ComponentCache
+ *
+ * @author AK
+ *
+ */
+public class ConcurrentComponentCache<V> {
+	private List<ComponentCache<V>> segments;
+	private int mask;
+
+	public ConcurrentComponentCache(long budget) {
+		this(budget, 1);
+	}
+
+	/* segments is rounded up to a power of two */
+	public ConcurrentComponentCache(long budget, int segments) {
+		int n=1;
+
+		while (n<segments)
+			n<<=1;
+		this.segments=new ArrayList<ComponentCache<V>>(n);
+		for (int i=0; i<n; i++)
+			this.segments.add(new ComponentCache<V>(budget/n));
+		mask=n-1;
+	}
+
+	public V get(long sigHi, long sigLo) {
+		ComponentCache<V> segment=segment(sigLo);
+
+		synchronized (segment) {
+			return segment.get(sigHi, sigLo);
+		}
+	}
+
+	public void put(long sigHi, long sigLo, V value, long cost) {
+		ComponentCache<V> segment=segment(sigLo);
+
+		synchronized (segment) {
+			segment.put(sigHi, sigLo, value, cost);
+		}
+	}
+
+	public void clear() {
+		for (ComponentCache<V> segment: segments)
+			synchronized (segment) {
+				segment.clear();
+			}
+	}
+
+	public int numSegments() {
+		return segments.size();
+	}
+
+	public int size() {
+		int size=0;
+
+		for (ComponentCache<V> segment: segments)
+			synchronized (segment) {
+				size+=segment.size();
+			}
+		return size;
+	}
+
+	public long getBytes() {
+		long bytes=0;
+
+		for (ComponentCache<V> segment: segments)
+			synchronized (segment) {
+				bytes+=segment.getBytes();
+			}
+		return bytes;
+	}
+
+	public long getBudget() {
+		long budget=0;
+
+		for (ComponentCache<V> segment: segments)
+			budget+=segment.getBudget();
+		return budget;
+	}
+
+	public long getHits() {
+		long hits=0;
+
+		for (ComponentCache<V> segment: segments)
+			synchronized (segment) {
+				hits+=segment.getHits();
+			}
+		return hits;
+	}
+
+	public long getMisses() {
+		long misses=0;
+
+		for (ComponentCache<V> segment: segments)
+			synchronized (segment) {
+				misses+=segment.getMisses();
+			}
+		return misses;
+	}
+
+	public long getEvictions() {
+		long evictions=0;
+
+		for (ComponentCache<V> segment: segments)
+			synchronized (segment) {
+				evictions+=segment.getEvictions();
+			}
+		return evictions;
+	}
+
+	public String toString() {
+		return "cache: "+size()+" entries, "+getBytes()+"/"+getBudget()+" bytes, "+getHits()+" hits, "+getMisses()+
+		       " misses, "+getEvictions()+" evictions"+(segments.size()>1 ? ", "+segments.size()+" segments" : "");
+	}
+
+	private ComponentCache<V> segment(long sigLo) {
+		return segments.get((int)(sigLo^(sigLo>>>32))&mask);
+	}
+}
@@ -0,0 +1,443 @@
+package de.stzoit.prover.dnnf;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import de.stzoit.prover.cnf.CNFSolver;
+import de.stzoit.prover.collections.nativeType.IntVec;
+
+/**
+ * de.stzoit.prover.dnnf.DNNFCounter
+ *
+ * Weighted model counting and literal marginals on a d-DNNF (deterministic and decomposable) in a DNNFManager,
+ * cf. A. Darwiche: "A Differential Approach to Inference in Bayesian Networks", 2003
+ *
+ *     - smoothing is implicit: for each edge of an or-node the variables of the or-node missing in the child (the
+ *       gap) are computed once, while evaluating the edge is multiplied with w(v)+w(-v) for each gap variable v;
+ *       the variables 1..numVariables missing in the root are the gap of the root
+ *     - weights are given per variable for both phases (pos[v]=w(v), neg[v]=w(-v)), count() is the sum over all
+ *       models (over the variables 1..numVariables) of the product of the weights of their literals
+ *     - one upward pass computes the count, one downward pass the partial derivatives of the count with respect to
+ *       every node and literal weight; the marginal of literal l (sum over the models containing l) is
+ *       w(l)*dCount/dw(l), results are indexed by literal (CNFSolver encoding)
+ *     - modes: double, log-space (weights and results are natural logarithms, for counts beyond the range of
+ *       double) and exact (BigDecimal, countModels() as BigInteger)
+ *     - the passes run over the reachable nodes in ID order (children before parents) without recursion, the
+ *       gaps and buffers are set up once by the constructor, thus repeated queries with changing weights (e.g.
+ *       after each user decision) cost two linear passes (the exact mode allocates its BigDecimals per query)
+ *
+ * @author AK
+ *
+ */
+public class DNNFCounter {
+	private DNNFManager manager;
+	private int root;
+	private int numVariables;
+
+	private int nodes[];              /* reachable nodes in ascending order                   */
+	private int slot[];               /* Or-node->index of the gap of its first edge          */
+	private int gapStart[];           /* Gap->offset in gapVars, gapStart[g+1] is its end     */
+	private int gapVars[];            /* variables of all gaps                                */
+	private int rootGap[];            /* variables not occurring in the root                  */
+
+	private double val[];             /* Node->value (double and log mode)                    */
+	private double der[];             /* Node->derivative of the count                        */
+	private double sum[];             /* Var->w(v)+w(-v)                                      */
+	private double factor[];          /* Gap->product of sum over its variables               */
+	private double litDer[];          /* Lit->derivative of the count w.r.t. literal nodes    */
+	private double varDer[];          /* Var->derivative of the count w.r.t. gap factors      */
+	private double prefix[];          /* scratch for products without one factor              */
+	private boolean log;              /* current mode is log-space                            */
+
+	/* numVariables>=all variables of the DNNF */
+	public DNNFCounter(DNNFManager manager, int root, int numVariables) {
+		this.manager=manager;
+		this.root=root;
+		this.numVariables=numVariables;
+
+		boolean reach[]=manager.reachable(root);
+		IntVec order=new IntVec();
+		int parents[]=new int[root+1];
+		int fanIn=1;
+		for (int n=0; n<=root; n++)
+			if (reach[n]) {
+				order.push(n);
+				for (int i=0; i<manager.numChildren(n); i++)
+					parents[manager.child(n, i)]++;
+				fanIn=Math.max(fanIn, manager.numChildren(n));
+			}
+		nodes=new int[order.size()];
+		order.copyTo(nodes);
+
+		/* variable sets bottom up, released as soon as all parents are processed */
+		int vars[][]=new int[root+1][];
+		int stamp[]=new int[numVariables+1];
+		IntVec gaps=new IntVec(), starts=new IntVec(), collect=new IntVec();
+		slot=new int[root+1];
+		for (int k=0; k<nodes.length; k++) {
+			int n=nodes[k];
+
+			switch (manager.kind(n)) {
+			case DNNFManager.CONST:
+				vars[n]=new int[0];
+				break;
+			case DNNFManager.LIT:
+				vars[n]=new int[] { CNFSolver.lit2var(manager.literal(n)) };
+				break;
+			default:
+				collect.clear();
+				for (int i=0; i<manager.numChildren(n); i++)
+					for (int v: vars[manager.child(n, i)])
+						if (stamp[v]!=n+1) {
+							stamp[v]=n+1;
+							collect.push(v);
+						}
+				vars[n]=new int[collect.size()];
+				collect.copyTo(vars[n]);
+				Arrays.sort(vars[n]);
+
+				if (manager.kind(n)==DNNFManager.OR) {
+					slot[n]=starts.size();
+					for (int i=0; i<manager.numChildren(n); i++) {
+						starts.push(gaps.size());
+						difference(vars[n], vars[manager.child(n, i)], gaps);
+					}
+				}
+				for (int i=0; i<manager.numChildren(n); i++)
+					if (--parents[manager.child(n, i)]==0)
+						vars[manager.child(n, i)]=null;
+			}
+		}
+		starts.push(gaps.size());
+		gapStart=new int[starts.size()];
+		starts.copyTo(gapStart);
+		gapVars=new int[gaps.size()];
+		gaps.copyTo(gapVars);
+
+		int all[]=new int[numVariables];
+		for (int v=1; v<=numVariables; v++)
+			all[v-1]=v;
+		collect.clear();
+		difference(all, vars[root], collect);
+		rootGap=new int[collect.size()];
+		collect.copyTo(rootGap);
+
+		val=new double[root+1];
+		der=new double[root+1];
+		sum=new double[numVariables+1];
+		factor=new double[gapStart.length];
+		litDer=new double[2*(numVariables+1)];
+		varDer=new double[numVariables+1];
+		prefix=new double[Math.max(fanIn, numVariables)+1];
+	}
+
+	public int getNumVariables() {
+		return numVariables;
+	}
+
+	/* weighted model count */
+	public double count(double pos[], double neg[]) {
+		log=false;
+		return up(pos, neg);
+	}
+
+	/* logarithm of the weighted model count, weights are given as logarithms */
+	public double logCount(double logPos[], double logNeg[]) {
+		log=true;
+		return up(logPos, logNeg);
+	}
+
+	/* Lit->weighted model count of the models containing lit */
+	public double[] marginals(double pos[], double neg[]) {
+		log=false;
+		up(pos, neg);
+		return down(pos, neg);
+	}
+
+	/* Lit->logarithm of the weighted model count of the models containing lit, weights are given as logarithms */
+	public double[] logMarginals(double logPos[], double logNeg[]) {
+		log=true;
+		up(logPos, logNeg);
+		return down(logPos, logNeg);
+	}
+
+	/* number of models over the variables 1..numVariables */
+	public BigInteger countModels() {
+		BigDecimal one[]=new BigDecimal[numVariables+1];
+
+		Arrays.fill(one, BigDecimal.ONE);
+		return count(one, one).toBigIntegerExact();
+	}
+
+	/* exact weighted model count */
+	public BigDecimal count(BigDecimal pos[], BigDecimal neg[]) {
+		BigDecimal sums[]=new BigDecimal[numVariables+1];
+
+		return exactUp(pos, neg, sums, new BigDecimal[root+1]);
+	}
+
+	/* exact marginals, Lit->weighted model count of the models containing lit */
+	public BigDecimal[] marginals(BigDecimal pos[], BigDecimal neg[]) {
+		BigDecimal sums[]=new BigDecimal[numVariables+1],
+		           values[]=new BigDecimal[root+1],
+		           d[]=new BigDecimal[root+1],
+		           lits[]=new BigDecimal[2*(numVariables+1)],
+		           gapDer[]=new BigDecimal[numVariables+1],
+		           pre[]=new BigDecimal[prefix.length];
+
+		exactUp(pos, neg, sums, values);
+		Arrays.fill(d, BigDecimal.ZERO);
+		Arrays.fill(lits, BigDecimal.ZERO);
+		Arrays.fill(gapDer, BigDecimal.ZERO);
+
+		d[root]=exactGapProduct(rootGap, 0, rootGap.length, sums);
+		exactGapDerivatives(rootGap, 0, rootGap.length, BigDecimal.ONE, values[root], sums, gapDer, pre);
+		for (int k=nodes.length-1; k>=0; k--) {
+			int n=nodes[k];
+
+			if (d[n].signum()==0)
+				continue;
+			switch (manager.kind(n)) {
+			case DNNFManager.LIT:
+				lits[manager.literal(n)]=lits[manager.literal(n)].add(d[n]);
+				break;
+			case DNNFManager.AND: {
+				int m=manager.numChildren(n);
+
+				pre[0]=BigDecimal.ONE;
+				for (int i=0; i<m; i++)
+					pre[i+1]=pre[i].multiply(values[manager.child(n, i)]);
+				BigDecimal suffix=d[n];
+				for (int i=m-1; i>=0; i--) {
+					int c=manager.child(n, i);
+
+					d[c]=d[c].add(suffix.multiply(pre[i]));
+					suffix=suffix.multiply(values[c]);
+				}
+				break;
+			}
+			case DNNFManager.OR:
+				for (int i=0; i<manager.numChildren(n); i++) {
+					int c=manager.child(n, i), g=slot[n]+i;
+
+					d[c]=d[c].add(d[n].multiply(exactGapProduct(gapVars, gapStart[g], gapStart[g+1], sums)));
+					exactGapDerivatives(gapVars, gapStart[g], gapStart[g+1], d[n], values[c], sums, gapDer, pre);
+				}
+				break;
+			}
+		}
+
+		BigDecimal result[]=new BigDecimal[2*(numVariables+1)];
+		Arrays.fill(result, BigDecimal.ZERO);
+		for (int v=1; v<=numVariables; v++) {
+			result[CNFSolver.var2lit(v, true)]=pos[v].multiply(lits[CNFSolver.var2lit(v, true)].add(gapDer[v]));
+			result[CNFSolver.var2lit(v, false)]=neg[v].multiply(lits[CNFSolver.var2lit(v, false)].add(gapDer[v]));
+		}
+		return result;
+	}
+
+	/* upward pass in double or log mode */
+	private double up(double pos[], double neg[]) {
+		for (int v=1; v<=numVariables; v++)
+			sum[v]=add(pos[v], neg[v]);
+		for (int g=0; g+1<gapStart.length; g++)
+			factor[g]=gapProduct(gapVars, gapStart[g], gapStart[g+1]);
+		for (int n: nodes)
+			switch (manager.kind(n)) {
+			case DNNFManager.CONST:
+				val[n]=(n==DNNFManager.TRUE ? one() : zero());
+				break;
+			case DNNFManager.LIT: {
+				int lit=manager.literal(n);
+
+				val[n]=(CNFSolver.sign(lit) ? pos : neg)[CNFSolver.lit2var(lit)];
+				break;
+			}
+			case DNNFManager.AND: {
+				double p=one();
+
+				for (int i=0; i<manager.numChildren(n); i++)
+					p=mul(p, val[manager.child(n, i)]);
+				val[n]=p;
+				break;
+			}
+			default: {
+				double s=zero();
+
+				for (int i=0; i<manager.numChildren(n); i++)
+					s=add(s, mul(val[manager.child(n, i)], factor[slot[n]+i]));
+				val[n]=s;
+			}
+			}
+		return mul(val[root], gapProduct(rootGap, 0, rootGap.length));
+	}
+
+	/* downward pass in double or log mode, after up() */
+	private double[] down(double pos[], double neg[]) {
+		for (int n: nodes)
+			der[n]=zero();
+		Arrays.fill(litDer, zero());
+		Arrays.fill(varDer, zero());
+
+		der[root]=gapProduct(rootGap, 0, rootGap.length);
+		gapDerivatives(rootGap, 0, rootGap.length, one(), val[root]);
+		for (int k=nodes.length-1; k>=0; k--) {
+			int n=nodes[k];
+
+			if (der[n]==zero())
+				continue;
+			switch (manager.kind(n)) {
+			case DNNFManager.LIT:
+				litDer[manager.literal(n)]=add(litDer[manager.literal(n)], der[n]);
+				break;
+			case DNNFManager.AND: {
+				int m=manager.numChildren(n);
+
+				/* derivative w.r.t. a child is the product of the other children (prefix*suffix, no division) */
+				prefix[0]=one();
+				for (int i=0; i<m; i++)
+					prefix[i+1]=mul(prefix[i], val[manager.child(n, i)]);
+				double suffix=der[n];
+				for (int i=m-1; i>=0; i--) {
+					int c=manager.child(n, i);
+
+					der[c]=add(der[c], mul(suffix, prefix[i]));
+					suffix=mul(suffix, val[c]);
+				}
+				break;
+			}
+			case DNNFManager.OR:
+				for (int i=0; i<manager.numChildren(n); i++) {
+					int c=manager.child(n, i), g=slot[n]+i;
+
+					der[c]=add(der[c], mul(der[n], factor[g]));
+					gapDerivatives(gapVars, gapStart[g], gapStart[g+1], der[n], val[c]);
+				}
+				break;
+			}
+		}
+
+		double result[]=new double[2*(numVariables+1)];
+		Arrays.fill(result, zero());
+		for (int v=1; v<=numVariables; v++) {
+			result[CNFSolver.var2lit(v, true)]=mul(pos[v], add(litDer[CNFSolver.var2lit(v, true)], varDer[v]));
+			result[CNFSolver.var2lit(v, false)]=mul(neg[v], add(litDer[CNFSolver.var2lit(v, false)], varDer[v]));
+		}
+		return result;
+	}
+
+	private double gapProduct(int gap[], int from, int to) {
+		double p=one();
+
+		for (int i=from; i<to; i++)
+			p=mul(p, sum[gap[i]]);
+		return p;
+	}
+
+	/* the edge d*value*prod(sum[v]), add its derivative w.r.t. the weights of each gap variable */
+	private void gapDerivatives(int gap[], int from, int to, double d, double value) {
+		if (from==to)
+			return;
+		prefix[0]=mul(d, value);
+		for (int i=from; i<to; i++)
+			prefix[i-from+1]=mul(prefix[i-from], sum[gap[i]]);
+		double suffix=one();
+		for (int i=to-1; i>=from; i--) {
+			varDer[gap[i]]=add(varDer[gap[i]], mul(prefix[i-from], suffix));
+			suffix=mul(suffix, sum[gap[i]]);
+		}
+	}
+
+	private double zero() {
+		return log ? Double.NEGATIVE_INFINITY : 0.0;
+	}
+
+	private double one() {
+		return log ? 0.0 : 1.0;
+	}
+
+	private double mul(double a, double b) {
+		return log ? a+b : a*b;
+	}
+
+	private double add(double a, double b) {
+		if (!log)
+			return a+b;
+		if (a==Double.NEGATIVE_INFINITY)
+			return b;
+		if (b==Double.NEGATIVE_INFINITY)
+			return a;
+		return a>b ? a+Math.log1p(Math.exp(b-a)) : b+Math.log1p(Math.exp(a-b));
+	}
+
+	private BigDecimal exactUp(BigDecimal pos[], BigDecimal neg[], BigDecimal sums[], BigDecimal values[]) {
+		for (int v=1; v<=numVariables; v++)
+			sums[v]=pos[v].add(neg[v]);
+		for (int n: nodes)
+			switch (manager.kind(n)) {
+			case DNNFManager.CONST:
+				values[n]=(n==DNNFManager.TRUE ? BigDecimal.ONE : BigDecimal.ZERO);
+				break;
+			case DNNFManager.LIT: {
+				int lit=manager.literal(n);
+
+				values[n]=(CNFSolver.sign(lit) ? pos : neg)[CNFSolver.lit2var(lit)];
+				break;
+			}
+			case DNNFManager.AND: {
+				BigDecimal p=BigDecimal.ONE;
+
+				for (int i=0; i<manager.numChildren(n); i++)
+					p=p.multiply(values[manager.child(n, i)]);
+				values[n]=p;
+				break;
+			}
+			default: {
+				BigDecimal s=BigDecimal.ZERO;
+
+				for (int i=0; i<manager.numChildren(n); i++) {
+					int g=slot[n]+i;
+
+					s=s.add(values[manager.child(n, i)].multiply(exactGapProduct(gapVars, gapStart[g], gapStart[g+1], sums)));
+				}
+				values[n]=s;
+			}
+			}
+		return values[root].multiply(exactGapProduct(rootGap, 0, rootGap.length, sums));
+	}
+
+	private static BigDecimal exactGapProduct(int gap[], int from, int to, BigDecimal sums[]) {
+		BigDecimal p=BigDecimal.ONE;
+
+		for (int i=from; i<to; i++)
+			p=p.multiply(sums[gap[i]]);
+		return p;
+	}
+
+	private static void exactGapDerivatives(int gap[], int from, int to, BigDecimal d, BigDecimal value,
+	                                        BigDecimal sums[], BigDecimal gapDer[], BigDecimal pre[]) {
+		if (from==to)
+			return;
+		pre[0]=d.multiply(value);
+		for (int i=from; i<to; i++)
+			pre[i-from+1]=pre[i-from].multiply(sums[gap[i]]);
+		BigDecimal suffix=BigDecimal.ONE;
+		for (int i=to-1; i>=from; i--) {
+			gapDer[gap[i]]=gapDer[gap[i]].add(pre[i-from].multiply(suffix));
+			suffix=suffix.multiply(sums[gap[i]]);
+		}
+	}
+
+	/* elements of sorted a not in sorted b, appended to out */
+	private static void difference(int a[], int b[], IntVec out) {
+		int j=0;
+
+		for (int i=0; i<a.length; i++) {
+			while (j<b.length && b[j]<a[i])
+				j++;
+			if (j==b.length || b[j]!=a[i])
+				out.push(a[i]);
+		}
+	}
+}
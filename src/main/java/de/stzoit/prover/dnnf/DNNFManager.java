@@ -0,0 +1,390 @@
+package de.stzoit.prover.dnnf;
+
+import java.util.Arrays;
+
+import de.stzoit.prover.cnf.CNFSolver;
+import de.stzoit.prover.collections.nativeType.IntVec;
+
+/**
+ * de.stzoit.prover.dnnf.DNNFManager
+ *
+ * Array-backed store for DNNF nodes, nodes are referred to by int IDs
+ *
+ *     - per node: kind, offset of its children in one edge array and their number; literal nodes keep their
+ *       literal (CNFSolver encoding, i.e. 2*var+sign) in the offset field
+ *     - nodes 0 and 1 are the constants false and true
+ *     - and()/or() fold constants, sort and de-duplicate their children and look the result up in an open
+ *       addressing unique table, thus structurally equal nodes exist once
+ *     - children are created before their parents, i.e. child IDs are smaller than the parent's ID and a single
+ *       pass over 0..n evaluates a DNNF bottom up without recursion
+ *
+ * @author AK
+ *
+ */
+public class DNNFManager {
+	public static final int FALSE=0;
+	public static final int TRUE=1;
+
+	public static final byte CONST=0;
+	public static final byte LIT=1;
+	public static final byte AND=2;
+	public static final byte OR=3;
+
+	private byte kinds[]=new byte[1024];    /* Node->kind                                     */
+	private int starts[]=new int[1024];     /* Node->offset of first child (LIT: literal)     */
+	private int counts[]=new int[1024];     /* Node->number of children                       */
+	private int size=0;                     /* number of nodes                                */
+	private IntVec edges;                   /* children of all nodes                          */
+	private int table[];                    /* unique table: node+1, 0 if empty               */
+	private IntVec scratch;                 /* children of the node under construction        */
+
+	public DNNFManager() {
+		edges=new IntVec(1024);
+		table=new int[1024];
+		scratch=new IntVec();
+
+		node(CONST, 0, 0);
+		node(CONST, 1, 0);
+	}
+
+	/* number of nodes */
+	public int size() {
+		return size;
+	}
+
+	/* number of edges */
+	public int numEdges() {
+		return edges.size();
+	}
+
+	public byte kind(int node) {
+		return kinds[node];
+	}
+
+	/* literal of a LIT node */
+	public int literal(int node) {
+		return starts[node];
+	}
+
+	public int numChildren(int node) {
+		return kinds[node]==LIT ? 0 : counts[node];
+	}
+
+	public int child(int node, int i) {
+		return edges.get(starts[node]+i);
+	}
+
+	public int literalNode(int var, boolean sign) {
+		return literalNode(CNFSolver.var2lit(var, sign));
+	}
+
+	/* node of literal lit (CNFSolver encoding) */
+	public int literalNode(int lit) {
+		scratch.clear();
+		return lookup(LIT, lit);
+	}
+
+	public int and(int... children) {
+		return gate(AND, children, children.length);
+	}
+
+	public int or(int... children) {
+		return gate(OR, children, children.length);
+	}
+
+	/* the first n elements of children */
+	public int and(int children[], int n) {
+		return gate(AND, children, n);
+	}
+
+	public int or(int children[], int n) {
+		return gate(OR, children, n);
+	}
+
+	/* number of nodes reachable from root (each counted once) */
+	public int nodeCount(int root) {
+		boolean reach[]=reachable(root);
+		int n=0;
+
+		for (int i=0; i<=root; i++)
+			if (reach[i])
+				n++;
+		return n;
+	}
+
+	/* number of edges reachable from root */
+	public long edgeCount(int root) {
+		boolean reach[]=reachable(root);
+		long n=0;
+
+		for (int i=0; i<=root; i++)
+			if (reach[i])
+				n+=numChildren(i);
+		return n;
+	}
+
+	/* Node->reachable from root, for nodes 0..root */
+	public boolean[] reachable(int root) {
+		boolean reach[]=new boolean[root+1];
+
+		reach[root]=true;
+		for (int n=root; n>=0; n--)
+			if (reach[n])
+				for (int i=0; i<numChildren(n); i++)
+					reach[child(n, i)]=true;
+		return reach;
+	}
+
+	/*
+	 * the queries and transformations below visit each node reachable from root once, bottom up in ID order
+	 * (no recursion), results of transformations are nodes of this manager, i.e. they share the unchanged
+	 * subgraphs with root
+	 */
+
+	/* root conditioned on the literals lits (CNFSolver encoding), literals of lits become true, their negations false */
+	public int condition(int root, int... lits) {
+		byte val[]=new byte[2*maxVariable(root)+2];
+
+		for (int lit: lits)
+			if (lit<val.length) {
+				val[lit]=1;
+				val[lit^1]=-1;
+			}
+
+		boolean reach[]=reachable(root);
+		int map[]=new int[root+1];
+		for (int n=0; n<=root; n++)
+			if (reach[n]) {
+				if (kinds[n]==LIT)
+					map[n]=(val[starts[n]]==0 ? n : (val[starts[n]]>0 ? TRUE : FALSE));
+				else if (kinds[n]!=CONST)
+					map[n]=rebuild(n, map);
+				else
+					map[n]=n;
+			}
+		return map[root];
+	}
+
+	/* root projected on the variables var with keep[var] (existential quantification of the others) */
+	public int project(int root, boolean keep[]) {
+		boolean reach[]=reachable(root);
+		int map[]=new int[root+1];
+
+		for (int n=0; n<=root; n++)
+			if (reach[n]) {
+				if (kinds[n]==LIT) {
+					int var=CNFSolver.lit2var(starts[n]);
+
+					map[n]=(var<keep.length && keep[var] ? n : TRUE);
+				} else if (kinds[n]!=CONST)
+					map[n]=rebuild(n, map);
+				else
+					map[n]=n;
+			}
+		return map[root];
+	}
+
+	/* root is satisfiable (root has to be decomposable) */
+	public boolean isSatisfiable(int root) {
+		return minCardinality(root)>=0;
+	}
+
+	/*
+	 * minimum number of negative literals of the models of root, -1 if root is unsatisfiable (root has to be
+	 * decomposable)
+	 */
+	public long minCardinality(int root) {
+		boolean reach[]=reachable(root);
+		long card[]=new long[root+1];
+
+		for (int n=0; n<=root; n++)
+			if (reach[n])
+				switch (kinds[n]) {
+				case CONST:
+					card[n]=(n==TRUE ? 0 : -1);
+					break;
+				case LIT:
+					card[n]=(CNFSolver.sign(starts[n]) ? 0 : 1);
+					break;
+				case AND:
+					card[n]=0;
+					for (int i=0; i<counts[n] && card[n]>=0; i++) {
+						long c=card[edges.get(starts[n]+i)];
+
+						card[n]=(c<0 ? -1 : card[n]+c);
+					}
+					break;
+				default:
+					card[n]=-1;
+					for (int i=0; i<counts[n]; i++) {
+						long c=card[edges.get(starts[n]+i)];
+
+						if (c>=0 && (card[n]<0 || c<card[n]))
+							card[n]=c;
+					}
+				}
+		return card[root];
+	}
+
+	/* largest variable of a literal reachable from root */
+	public int maxVariable(int root) {
+		boolean reach[]=reachable(root);
+		int max=0;
+
+		for (int n=0; n<=root; n++)
+			if (reach[n] && kinds[n]==LIT)
+				max=Math.max(max, CNFSolver.lit2var(starts[n]));
+		return max;
+	}
+
+	/* inner node n with its children replaced by map, n itself if none changed */
+	private int rebuild(int n, int map[]) {
+		int children[]=new int[counts[n]];
+		boolean changed=false;
+
+		for (int i=0; i<children.length; i++) {
+			int c=edges.get(starts[n]+i);
+
+			children[i]=map[c];
+			changed|=(map[c]!=c);
+		}
+		if (!changed)
+			return n;
+		return gate(kinds[n], children, children.length);
+	}
+
+	/* drop all nodes but the constants */
+	public void clear() {
+		size=2;
+		edges.clear();
+		Arrays.fill(table, 0);
+	}
+
+	private int gate(byte kind, int children[], int n) {
+		int absorbing=(kind==AND ? FALSE : TRUE),
+		    neutral=(kind==AND ? TRUE : FALSE);
+
+		scratch.clear();
+		for (int i=0; i<n; i++) {
+			if (children[i]==absorbing)
+				return absorbing;
+			if (children[i]!=neutral)
+				scratch.push(children[i]);
+		}
+		if (scratch.size()==0)
+			return neutral;
+
+		/* sort (insertion sort for the usual few children) and remove duplicates */
+		if (scratch.size()<=16) {
+			for (int i=1; i<scratch.size(); i++) {
+				int c=scratch.get(i), j=i-1;
+
+				for (; j>=0 && scratch.get(j)>c; j--)
+					scratch.set(j+1, scratch.get(j));
+				scratch.set(j+1, c);
+			}
+		} else {
+			int sorted[]=new int[scratch.size()];
+
+			scratch.copyTo(sorted);
+			Arrays.sort(sorted);
+			for (int i=0; i<sorted.length; i++)
+				scratch.set(i, sorted[i]);
+		}
+		int m=1;
+		for (int i=1; i<scratch.size(); i++)
+			if (scratch.get(i)!=scratch.get(m-1))
+				scratch.set(m++, scratch.get(i));
+		scratch.shrinkTo(m);
+		if (m==1)
+			return scratch.get(0);
+		return lookup(kind, 0);
+	}
+
+	/* look up the node of kind with children scratch (LIT: literal lit), create it if absent */
+	private int lookup(byte kind, int lit) {
+		int h=hash(kind, lit),
+		    mask=table.length-1;
+
+		for (int i=h&mask; ; i=(i+1)&mask) {
+			int n=table[i]-1;
+
+			if (n<0) {
+				if (kind==LIT)
+					n=node(LIT, lit, 0);
+				else {
+					n=node(kind, edges.size(), scratch.size());
+					for (int j=0; j<scratch.size(); j++)
+						edges.push(scratch.get(j));
+				}
+				table[i]=n+1;
+				if (2*size>table.length)
+					rehash();
+				return n;
+			}
+			if (equal(n, kind, lit))
+				return n;
+		}
+	}
+
+	private boolean equal(int n, byte kind, int lit) {
+		if (kinds[n]!=kind)
+			return false;
+		if (kind==LIT)
+			return starts[n]==lit;
+		if (counts[n]!=scratch.size())
+			return false;
+		for (int i=0; i<counts[n]; i++)
+			if (edges.get(starts[n]+i)!=scratch.get(i))
+				return false;
+		return true;
+	}
+
+	private int hash(byte kind, int lit) {
+		int h=kind*0x9E3779B9+(kind==LIT ? lit : 0);
+
+		for (int i=0; kind!=LIT && i<scratch.size(); i++)
+			h=31*h+scratch.get(i);
+		return mix(h);
+	}
+
+	private int hashOf(int n) {
+		int h=kinds[n]*0x9E3779B9+(kinds[n]==LIT ? starts[n] : 0);
+
+		for (int i=0; kinds[n]!=LIT && i<counts[n]; i++)
+			h=31*h+edges.get(starts[n]+i);
+		return mix(h);
+	}
+
+	private static int mix(int h) {
+		h^=(h>>>16);
+		h*=0x85EBCA6B;
+		h^=(h>>>13);
+		return h;
+	}
+
+	private void rehash() {
+		table=new int[2*table.length];
+
+		int mask=table.length-1;
+		for (int n=2; n<size; n++) {
+			int i=hashOf(n)&mask;
+
+			while (table[i]!=0)
+				i=(i+1)&mask;
+			table[i]=n+1;
+		}
+	}
+
+	private int node(byte kind, int start, int count) {
+		if (size==kinds.length) {
+			kinds=Arrays.copyOf(kinds, 2*size);
+			starts=Arrays.copyOf(starts, 2*size);
+			counts=Arrays.copyOf(counts, 2*size);
+		}
+		kinds[size]=kind;
+		starts[size]=start;
+		counts[size]=count;
+		return size++;
+	}
+}
@@ -1,8 +1,10 @@
 package de.stzoit.prover.dnnf;
 
 import de.stzoit.prover.cnf.CNFSolver;
+import de.stzoit.prover.cnf.CardinalityConstraint;
 import de.stzoit.prover.cnf.Clause;
 import de.stzoit.prover.cnf.LearntClause;
+import de.stzoit.prover.cnf.XorConstraint;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -52,6 +54,11 @@ public class DNNFOperations extends CNFSolver {
                     }
                 }
             } else {
+                if (reason instanceof CardinalityConstraint) /* generate explanation lazily */
+                    reason=((CardinalityConstraint)reason).explain(lit==0 ? conflict_lit : lit);
+                if (reason instanceof XorConstraint)
+                    reason=((XorConstraint)reason).explain(lit==0 ? conflict_lit : lit);
+
                 Clause cls=(Clause)reason;
                 for (int j=(lit==0 ? 0 : 1); j<cls.size(); j++) {
                     /* 
@@ -104,13 +111,13 @@ public class DNNFOperations extends CNFSolver {
             }
 
             seen.set(lit2var(__lit), false);
-            lit2variable(__lit).incScore();
+            varq.increaseKey(lit2var(__lit), 1);
         }
         if (glucose_clause_scores) /* set glucose-style clause activity */
             learnt.setActivity(lbd);
 
         seen.set(lit2var(learnt.get(0)), false);
-        lit2variable(learnt.get(0)).incScore();
+        varq.increaseKey(lit2var(learnt.get(0)), 1);
         learnt.swap(1, snd_pos);
 
         assertionLevel=(learnt.size()<=1 ? 0 : getLevel(learnt.get(1)));
@@ -229,4 +236,109 @@ public class DNNFOperations extends CNFSolver {
         newlyImpliedDirty = true;
         return super.bcp();
     }
+
+    /* number of literals on the trail, literals of the current level start at the last decision */
+    public int trailSize() {
+        return trail.size();
+    }
+
+    public int trailLit(int i) {
+        return trail.get(i);
+    }
+
+    /* activity of var, increased for the variables of each conflict-driven clause */
+    public double activity(int var) {
+        return varq.activity(var);
+    }
+
+    /*
+     * unsubsumed occurrences: for the tracked clauses, the number of true literals of each clause and the
+     * number of unsubsumed clauses each variable occurs in are updated whenever a literal is assigned or
+     * unassigned, thus the occurrence count of a variable is available in constant time
+     * the satisfied tracked clauses are kept as a bitset (clause i is bit i), i.e. the unsubsumed clauses of
+     * a set of clause ids may be derived by word operations
+     */
+    private int occClauses[][] = null;    /* tracked clauses                      */
+    private int occLit[][] = null;        /* Lit->tracked clauses containing lit  */
+    private int trueLits[] = null;        /* Clause->number of true literals      */
+    private int unsubsumed[] = null;      /* Var->number of unsubsumed clauses    */
+    private long satisfied[] = null;      /* satisfied tracked clauses            */
+
+    /* track the unsubsumed occurrences of the variables in clauses (not including learnt clauses) */
+    public void trackOccurrences(int clauses[][]) {
+        int n = variables.size();
+        int count[] = new int[2*n];
+
+        for (int i=0; i<clauses.length; i++)
+            for (int j=0; j<clauses[i].length; j++)
+                count[clauses[i][j]]++;
+        occLit = new int[2*n][];
+        for (int lit=0; lit<2*n; lit++)
+            occLit[lit] = new int[count[lit]];
+        java.util.Arrays.fill(count, 0);
+        for (int i=0; i<clauses.length; i++)
+            for (int j=0; j<clauses[i].length; j++)
+                occLit[clauses[i][j]][count[clauses[i][j]]++] = i;
+
+        occClauses = clauses;
+        trueLits = new int[clauses.length];
+        unsubsumed = new int[n];
+        satisfied = new long[(clauses.length+63)>>>6];
+        for (int i=0; i<clauses.length; i++) {
+            for (int j=0; j<clauses[i].length; j++)
+                if (lit2val(clauses[i][j]) == Val.TRUE)
+                    trueLits[i]++;
+            if (trueLits[i] == 0)
+                for (int j=0; j<clauses[i].length; j++)
+                    unsubsumed[lit2var(clauses[i][j])]++;
+            else
+                satisfied[i>>>6] |= 1L<<i;
+        }
+    }
+
+    /* tracked clauses containing lit */
+    public int[] occurrences(int lit) {
+        return occLit[lit];
+    }
+
+    /* tracked clause cls has a true literal */
+    public boolean isSatisfied(int cls) {
+        return (satisfied[cls>>>6] & (1L<<cls)) != 0;
+    }
+
+    /* satisfied tracked clauses, clause i is bit i%64 of word i/64 (not a copy, do not modify) */
+    public long[] satisfiedClauses() {
+        return satisfied;
+    }
+
+    /* number of tracked clauses which contain var and are not satisfied */
+    public int unsubsumedOccurrences(int var) {
+        return unsubsumed[var];
+    }
+
+    public boolean assign(int lit, Object reason) {
+        boolean unknown = occLit != null && lit2val(lit) == Val.UNKNOWN;
+
+        if (!super.assign(lit, reason))
+            return false;
+        if (unknown)
+            for (int c: occLit[lit])
+                if (trueLits[c]++ == 0) {
+                    satisfied[c>>>6] |= 1L<<c;
+                    for (int l: occClauses[c])
+                        unsubsumed[lit2var(l)]--;
+                }
+        return true;
+    }
+
+    protected void unassign(int lit) {
+        if (occLit != null && lit2val(lit) == Val.TRUE)
+            for (int c: occLit[lit])
+                if (--trueLits[c] == 0) {
+                    satisfied[c>>>6] &= ~(1L<<c);
+                    for (int l: occClauses[c])
+                        unsubsumed[lit2var(l)]++;
+                }
+        super.unassign(lit);
+    }
 }
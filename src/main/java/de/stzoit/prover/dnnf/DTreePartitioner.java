@@ -0,0 +1,913 @@
+package de.stzoit.prover.dnnf;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import de.stzoit.prover.cnf.CNFSolver;
+import de.stzoit.prover.collections.nativeType.IntVec;
+
+/**
+ * de.stzoit.prover.dnnf.DTreePartitioner
+ *
+ * Builds dtrees by recursive hypergraph bisection (cf. A. Darwiche, J. Hopkins: "Using Recursive Decomposition
+ * to Construct Elimination Orders, Jointrees, and Dtrees", ECSQARU 2001; c2d uses hMETIS for the same purpose)
+ *
+ *     - clauses are the vertices, variables the nets of the hypergraph, the cut of a bisection is the separator of
+ *       the dtree node it creates; coarsening merges nets with equal pins into weighted nets
+ *     - each bisection is multilevel: vertices are merged along heavy connections until the hypergraph is small,
+ *       the smallest one is partitioned by greedy growing, the partition is projected back level by level and
+ *       refined by Fiduccia-Mattheyses passes at each level
+ *     - if the instance has at most getMinFillLimit() variables, a second dtree is built from a min-fill
+ *       elimination order and kept if its width (or, at equal width, the sum of its cutset sizes) is smaller
+ *     - nodes are numbered children first, the root is the last node; leaves refer to the index of their clause
+ *
+ * @author AK
+ *
+ */
+public class DTreePartitioner {
+	private static final int COARSEST=64;   /* stop coarsening below this number of vertices        */
+	private static final int MATCH_NET=64;  /* ignore larger nets when looking for matching partners */
+	private static final int TRIES=8;       /* maximal initial partitions tried on the coarsest one  */
+	private static final int PASSES=8;      /* maximal FM passes per level                           */
+
+	private int clauses[][];                /* Clause->variables (sorted, distinct)                  */
+	private int occurs[][];                 /* Var->clauses                                          */
+	private int numVars;
+	private Random random;
+	private int runs=2;                     /* multilevel bisections per node, the best is kept      */
+	private double balance=0.4;             /* minimal fraction of the clauses of either side        */
+	private int minFillLimit=2000;
+
+	private IntVec lefts;                   /* Node->left child, -(clause+1) for leaves              */
+	private IntVec rights;                  /* Node->right child, -1 for leaves                      */
+	private int width=-1;
+	private long separators=-1;
+	private long cutsets=-1;
+
+	private int local[];                    /* Clause->vertex of the current level 0 hypergraph      */
+	private int stamp[];                    /* Var->last stamp                                       */
+	private int count[];                    /* Var->occurrences in the current clause subset         */
+	private int now=0;
+
+	/* clauses in CNFSolver literal encoding */
+	public DTreePartitioner(int lits[][]) {
+		clauses=new int[lits.length][];
+		random=new Random(0);
+		lefts=new IntVec();
+		rights=new IntVec();
+
+		numVars=0;
+		for (int i=0; i<lits.length; i++) {
+			int vars[]=new int[lits[i].length];
+
+			for (int j=0; j<vars.length; j++)
+				vars[j]=CNFSolver.lit2var(lits[i][j]);
+			Arrays.sort(vars);
+
+			int n=0;
+			for (int j=0; j<vars.length; j++)
+				if (n==0 || vars[n-1]!=vars[j])
+					vars[n++]=vars[j];
+			clauses[i]=Arrays.copyOf(vars, n);
+			if (n>0)
+				numVars=Math.max(numVars, vars[n-1]+1);
+		}
+
+		int occ[]=new int[numVars];
+		for (int i=0; i<clauses.length; i++)
+			for (int j=0; j<clauses[i].length; j++)
+				occ[clauses[i][j]]++;
+		occurs=new int[numVars][];
+		for (int v=0; v<numVars; v++)
+			occurs[v]=new int[occ[v]];
+		Arrays.fill(occ, 0);
+		for (int i=0; i<clauses.length; i++)
+			for (int j=0; j<clauses[i].length; j++) {
+				int v=clauses[i][j];
+
+				occurs[v][occ[v]++]=i;
+			}
+
+		local=new int[clauses.length];
+		stamp=new int[numVars];
+		count=new int[numVars];
+	}
+
+	public void setSeed(long seed) {
+		random=new Random(seed);
+	}
+
+	public void setRuns(int runs) {
+		this.runs=Math.max(1, runs);
+	}
+
+	/* each side of a bisection gets at least fraction balance (0<balance<=0.5) of the clauses */
+	public void setBalance(double balance) {
+		this.balance=balance;
+	}
+
+	public int getMinFillLimit() {
+		return minFillLimit;
+	}
+
+	public void setMinFillLimit(int limit) {
+		minFillLimit=limit;
+	}
+
+	/* build the dtree, returns its root (-1 if there are no clauses) */
+	public int build() {
+		if (clauses.length==0)
+			return -1;
+
+		lefts.clear();
+		rights.clear();
+		int all[]=new int[clauses.length];
+		for (int i=0; i<all.length; i++)
+			all[i]=i;
+		partition(all);
+		measure();
+
+		if (numVars<=minFillLimit) {
+			IntVec l=lefts, r=rights;
+			int w=width;
+			long c=cutsets;
+
+			lefts=new IntVec();
+			rights=new IntVec();
+			minFill();
+			measure();
+			if (w<width || w==width && c<=cutsets) {
+				lefts=l;
+				rights=r;
+				width=w;
+				cutsets=c;
+			}
+		}
+		return lefts.size()-1;
+	}
+
+	/* number of nodes */
+	public int size() {
+		return lefts.size();
+	}
+
+	public boolean isLeaf(int node) {
+		return lefts.get(node)<0;
+	}
+
+	/* index of the clause of a leaf */
+	public int clause(int node) {
+		return -lefts.get(node)-1;
+	}
+
+	public int left(int node) {
+		return lefts.get(node);
+	}
+
+	public int right(int node) {
+		return rights.get(node);
+	}
+
+	/* width of the dtree, i.e. size of its largest cluster - 1 */
+	public int getWidth() {
+		return width;
+	}
+
+	/*
+	 * sum of the separator sizes of all inner nodes (cf. DTree.separatorCardinality), this depends on the clauses
+	 * only: each variable is in the separators of occurrences-1 nodes, whatever the shape of the tree
+	 */
+	public long getSeparatorCardinality() {
+		return separators;
+	}
+
+	/* sum of the cutset sizes of all inner nodes, i.e. of the variables a compiler branches on */
+	public long getCutsetCardinality() {
+		return cutsets;
+	}
+
+	private int leaf(int clause) {
+		lefts.push(-clause-1);
+		rights.push(-1);
+		return lefts.size()-1;
+	}
+
+	private int node(int left, int right) {
+		lefts.push(left);
+		rights.push(right);
+		return lefts.size()-1;
+	}
+
+	/* balanced dtree over the subtrees roots[from..to) */
+	private int compose(int roots[], int from, int to) {
+		if (to-from==1)
+			return roots[from];
+
+		int mid=(from+to)>>>1, l=compose(roots, from, mid);
+		return node(l, compose(roots, mid, to));
+	}
+
+	/*
+	 * -----------------------------------------------------------------------------------------------------------
+	 * recursive bisection
+	 * -----------------------------------------------------------------------------------------------------------
+	 */
+
+	private int partition(int cls[]) {
+		if (cls.length==1)
+			return leaf(cls[0]);
+		if (cls.length==2) {
+			int l=leaf(cls[0]);
+			return node(l, leaf(cls[1]));
+		}
+
+		int part[]=bisect(cls), n0=0;
+		for (int i=0; i<part.length; i++)
+			if (part[i]==0)
+				n0++;
+		if (n0==0 || n0==cls.length) { /* may only happen for tiny subsets */
+			for (int i=0; i<part.length; i++)
+				part[i]=(2*i<part.length ? 0 : 1);
+			n0=(part.length+1)/2;
+		}
+
+		int a[]=new int[n0], b[]=new int[cls.length-n0];
+		for (int i=0, j=0, k=0; i<cls.length; i++)
+			if (part[i]==0)
+				a[j++]=cls[i];
+			else
+				b[k++]=cls[i];
+		int l=partition(a);
+		return node(l, partition(b));
+	}
+
+	/* Vertex->side of the best bisection of cls found */
+	private int[] bisect(int cls[]) {
+		Hypergraph h=hypergraph(cls);
+		int best[]=null, bestCut=Integer.MAX_VALUE;
+
+		/* small subsets are not coarsened, further runs would only repeat initial() */
+		for (int run=0; run<(cls.length>COARSEST ? runs : 1); run++) {
+			Hypergraph levels[]=new Hypergraph[64];
+			int n=0;
+
+			levels[n++]=h;
+			while (levels[n-1].n>COARSEST && n<levels.length) {
+				Hypergraph c=coarsen(levels[n-1]);
+
+				if (c==null)
+					break;
+				levels[n++]=c;
+			}
+
+			int part[]=initial(levels[n-1]);
+			for (int i=n-2; i>=0; i--) {
+				int fine[]=new int[levels[i].n];
+
+				for (int u=0; u<fine.length; u++)
+					fine[u]=part[levels[i].map[u]];
+				part=fine;
+				refine(levels[i], part);
+			}
+
+			int cut=cut(h, part);
+			if (cut<bestCut) {
+				bestCut=cut;
+				best=part;
+			}
+		}
+		return best;
+	}
+
+	/* level 0 hypergraph of cls, only variables occurring in at least two clauses of cls are nets */
+	private Hypergraph hypergraph(int cls[]) {
+		now++;
+		for (int i=0; i<cls.length; i++) {
+			local[cls[i]]=i;
+			for (int j=0; j<clauses[cls[i]].length; j++) {
+				int v=clauses[cls[i]][j];
+
+				if (stamp[v]!=now) {
+					stamp[v]=now;
+					count[v]=0;
+				}
+				count[v]++;
+			}
+		}
+
+		IntVec starts=new IntVec(), pins=new IntVec();
+		now++;
+		for (int i=0; i<cls.length; i++)
+			for (int j=0; j<clauses[cls[i]].length; j++) {
+				int v=clauses[cls[i]][j];
+
+				if (stamp[v]==now || count[v]<2)
+					continue;
+				stamp[v]=now;
+				starts.push(pins.size());
+				for (int k=0; k<occurs[v].length; k++) {
+					int c=occurs[v][k];
+
+					if (local[c]<cls.length && cls[local[c]]==c) /* c is in the subset */
+						pins.push(local[c]);
+				}
+			}
+
+		int weights[]=new int[cls.length];
+		Arrays.fill(weights, 1);
+		return new Hypergraph(weights, starts, pins);
+	}
+
+	/* hypergraph with matched vertices merged, null if it would not shrink noticeably */
+	private Hypergraph coarsen(Hypergraph h) {
+		int match[]=new int[h.n], order[]=permutation(h.n), map[]=new int[h.n];
+		double score[]=new double[h.n];
+		IntVec touched=new IntVec();
+		int total=0, n=0;
+
+		for (int u=0; u<h.n; u++)
+			total+=h.weight[u];
+		int maxWeight=Math.max(2, total/20);
+
+		Arrays.fill(match, -1);
+		for (int i=0; i<h.n; i++) {
+			int u=order[i], best=-1;
+
+			if (match[u]>=0)
+				continue;
+			for (int j=h.vtxStart[u]; j<h.vtxStart[u+1]; j++) {
+				int e=h.nets[j], size=h.netStart[e+1]-h.netStart[e];
+
+				if (size>MATCH_NET)
+					continue;
+				for (int k=h.netStart[e]; k<h.netStart[e+1]; k++) {
+					int v=h.pins[k];
+
+					if (v==u || match[v]>=0 || h.weight[u]+h.weight[v]>maxWeight)
+						continue;
+					if (score[v]==0)
+						touched.push(v);
+					score[v]+=1.0/(size-1);
+				}
+			}
+			for (int j=0; j<touched.size(); j++) {
+				int v=touched.get(j);
+
+				if (best<0 || score[v]>score[best])
+					best=v;
+				score[v]=0;
+			}
+			touched.clear();
+
+			match[u]=u;
+			map[u]=n;
+			if (best>=0) {
+				match[best]=u;
+				map[best]=n;
+			}
+			n++;
+		}
+		if (n>0.9*h.n)
+			return null;
+
+		int weights[]=new int[n];
+		for (int u=0; u<h.n; u++)
+			weights[map[u]]+=h.weight[u];
+
+		/* nets with equal pins are merged, their weights add up */
+		IntVec starts=new IntVec(), pins=new IntVec(), netWeights=new IntVec();
+		int mark[]=new int[n], table[]=new int[4*Integer.highestOneBit(Math.max(1, h.numNets))];
+		for (int e=0; e<h.numNets; e++) {
+			int start=pins.size();
+
+			for (int k=h.netStart[e]; k<h.netStart[e+1]; k++) {
+				int c=map[h.pins[k]];
+
+				if (mark[c]!=e+1) {
+					mark[c]=e+1;
+					pins.push(c);
+				}
+			}
+
+			int size=pins.size()-start;
+			if (size<2) {
+				pins.shrinkTo(start);
+				continue;
+			}
+
+			int sorted[]=new int[size], hash=size;
+			for (int k=0; k<size; k++)
+				sorted[k]=pins.get(start+k);
+			Arrays.sort(sorted);
+			for (int k=0; k<size; k++) {
+				pins.set(start+k, sorted[k]);
+				hash=31*hash+sorted[k];
+			}
+
+			int i=(hash^(hash>>>16))&(table.length-1), f;
+			for (; (f=table[i]-1)>=0; i=(i+1)&(table.length-1)) {
+				int fs=starts.get(f), fe=(f+1<starts.size() ? starts.get(f+1) : start), k=0;
+
+				if (fe-fs==size)
+					while (k<size && pins.get(fs+k)==sorted[k])
+						k++;
+				if (k==size && fe-fs==size)
+					break;
+			}
+			if (f>=0) {
+				netWeights.set(f, netWeights.get(f)+h.netWeight[e]);
+				pins.shrinkTo(start);
+			} else {
+				table[i]=starts.size()+1;
+				starts.push(start);
+				netWeights.push(h.netWeight[e]);
+			}
+		}
+
+		Hypergraph c=new Hypergraph(weights, starts, pins);
+		netWeights.copyTo(c.netWeight);
+		h.map=map;
+		return c;
+	}
+
+	/* best of several greedily grown and refined partitions */
+	private int[] initial(Hypergraph h) {
+		int best[]=null, bestCut=Integer.MAX_VALUE, total=0;
+
+		for (int u=0; u<h.n; u++)
+			total+=h.weight[u];
+		for (int t=0; t<Math.min(TRIES, 2+h.n/8); t++) {
+			int part[]=new int[h.n], queue[]=new int[h.n], head=0, tail=0, w0=0;
+			boolean queued[]=new boolean[h.n];
+			int order[]=permutation(h.n), next=0;
+
+			Arrays.fill(part, 1);
+			while (2*w0<total) {
+				if (head==tail) { /* start (again) from a random vertex */
+					while (queued[order[next]])
+						next++;
+					queued[order[next]]=true;
+					queue[tail++]=order[next];
+				}
+
+				int u=queue[head++];
+				part[u]=0;
+				w0+=h.weight[u];
+				for (int j=h.vtxStart[u]; j<h.vtxStart[u+1]; j++) {
+					int e=h.nets[j];
+
+					for (int k=h.netStart[e]; k<h.netStart[e+1]; k++)
+						if (!queued[h.pins[k]]) {
+							queued[h.pins[k]]=true;
+							queue[tail++]=h.pins[k];
+						}
+				}
+			}
+			refine(h, part);
+
+			int cut=cut(h, part);
+			if (cut<bestCut) {
+				bestCut=cut;
+				best=part;
+			}
+		}
+		return best;
+	}
+
+	/* Fiduccia-Mattheyses passes on part, each pass is rolled back to its best prefix */
+	private void refine(Hypergraph h, int part[]) {
+		int pc[]=new int[2*h.numNets], gain[]=new int[h.n], weights[]=new int[2], total=0;
+		boolean locked[]=new boolean[h.n];
+		LongHeap heaps[]={new LongHeap(), new LongHeap()};
+		IntVec moves=new IntVec();
+
+		for (int u=0; u<h.n; u++)
+			total+=h.weight[u];
+		int lo=Math.max(1, (int)(balance*total)), hi=total-lo;
+
+		for (int pass=0; pass<PASSES; pass++) {
+			Arrays.fill(pc, 0);
+			weights[0]=weights[1]=0;
+			for (int u=0; u<h.n; u++) {
+				weights[part[u]]+=h.weight[u];
+				for (int j=h.vtxStart[u]; j<h.vtxStart[u+1]; j++)
+					pc[2*h.nets[j]+part[u]]++;
+			}
+			heaps[0].clear();
+			heaps[1].clear();
+			for (int u=0; u<h.n; u++) {
+				int g=0;
+
+				for (int j=h.vtxStart[u]; j<h.vtxStart[u+1]; j++) {
+					int e=h.nets[j];
+
+					g+=h.netWeight[e]*contribution(pc[2*e+part[u]], pc[2*e+1-part[u]]);
+				}
+				gain[u]=g;
+				locked[u]=false;
+				heaps[part[u]].push(g, u);
+			}
+
+			int cut=cut(h, part), start=cut, best=cut, bestMoves=0;
+			moves.clear();
+			while (moves.size()-bestMoves<Math.max(32, h.n/50)) {
+				int u=-1;
+
+				for (int s=0; s<2; s++) {
+					while (heaps[s].size()>0) {
+						int v=heaps[s].topVertex();
+
+						if (locked[v] || part[v]!=s || gain[v]!=heaps[s].topGain())
+							heaps[s].pop();
+						else
+							break;
+					}
+					if (heaps[s].size()==0)
+						continue;
+
+					int v=heaps[s].topVertex();
+					if (weights[s]-h.weight[v]<lo || weights[1-s]+h.weight[v]>hi)
+						continue;
+					if (u<0 || gain[v]>gain[u])
+						u=v;
+				}
+				if (u<0)
+					break;
+
+				int s=part[u], t=1-s;
+				locked[u]=true;
+				cut-=gain[u];
+				part[u]=t;
+				weights[s]-=h.weight[u];
+				weights[t]+=h.weight[u];
+				moves.push(u);
+
+				for (int j=h.vtxStart[u]; j<h.vtxStart[u+1]; j++) {
+					int e=h.nets[j],
+					    s0=pc[2*e+s], t0=pc[2*e+t];
+
+					pc[2*e+s]--;
+					pc[2*e+t]++;
+					if (s0>2 && t0>1)  /* no contribution changes */
+						continue;
+					for (int k=h.netStart[e]; k<h.netStart[e+1]; k++) {
+						int v=h.pins[k];
+
+						if (locked[v])
+							continue;
+
+						int a=part[v],
+						    before=(a==s ? contribution(s0, t0) : contribution(t0, s0)),
+						    after=contribution(pc[2*e+a], pc[2*e+1-a]);
+						if (before!=after) {
+							gain[v]+=h.netWeight[e]*(after-before);
+							heaps[a].push(gain[v], v);
+						}
+					}
+				}
+				if (cut<best) {
+					best=cut;
+					bestMoves=moves.size();
+				}
+			}
+			for (int i=moves.size()-1; i>=bestMoves; i--)
+				part[moves.get(i)]^=1;
+			if (best>=start)
+				break;
+		}
+	}
+
+	/* gain contribution of a net to a pin on a side with own pins of the net there and other on the other side */
+	private static int contribution(int own, int other) {
+		if (own==1 && other>0)
+			return 1;
+		if (own>1 && other==0)
+			return -1;
+		return 0;
+	}
+
+	private static int cut(Hypergraph h, int part[]) {
+		int cut=0;
+
+		for (int e=0; e<h.numNets; e++)
+			for (int k=h.netStart[e]+1; k<h.netStart[e+1]; k++)
+				if (part[h.pins[k]]!=part[h.pins[h.netStart[e]]]) {
+					cut+=h.netWeight[e];
+					break;
+				}
+		return cut;
+	}
+
+	private int[] permutation(int n) {
+		int perm[]=new int[n];
+
+		for (int i=0; i<n; i++)
+			perm[i]=i;
+		for (int i=n-1; i>0; i--) {
+			int j=random.nextInt(i+1), t=perm[i];
+
+			perm[i]=perm[j];
+			perm[j]=t;
+		}
+		return perm;
+	}
+
+	/*
+	 * -----------------------------------------------------------------------------------------------------------
+	 * min-fill elimination order
+	 * -----------------------------------------------------------------------------------------------------------
+	 */
+
+	/* eliminate the variables in min-fill order, the clauses mentioning a variable are composed when it goes */
+	private void minFill() {
+		BitSet adjacent[]=new BitSet[numVars];
+		boolean eliminated[]=new boolean[numVars];
+		int fill[]=new int[numVars];
+		LongHeap heap=new LongHeap();
+
+		for (int v=0; v<numVars; v++)
+			adjacent[v]=new BitSet(numVars);
+		for (int i=0; i<clauses.length; i++)
+			for (int j=0; j<clauses[i].length; j++)
+				for (int k=j+1; k<clauses[i].length; k++) {
+					adjacent[clauses[i][j]].set(clauses[i][k]);
+					adjacent[clauses[i][k]].set(clauses[i][j]);
+				}
+		for (int v=0; v<numVars; v++) {
+			fill[v]=fill(adjacent, v);
+			heap.push(-fill[v], v);
+		}
+
+		/* union-find over clauses, each class is one subtree */
+		int parent[]=new int[clauses.length], tree[]=new int[clauses.length];
+		for (int i=0; i<clauses.length; i++) {
+			parent[i]=i;
+			tree[i]=leaf(i);
+		}
+
+		int roots[]=new int[clauses.length], reps[]=new int[clauses.length];
+		while (heap.size()>0) {
+			int v=heap.topVertex();
+
+			if (eliminated[v] || -heap.topGain()!=fill[v]) {
+				heap.pop();
+				continue;
+			}
+			heap.pop();
+			eliminated[v]=true;
+
+			int n=0;
+			for (int i=0; i<occurs[v].length; i++) {
+				int r=find(parent, occurs[v][i]);
+
+				if (tree[r]>=0) {
+					reps[n]=r;
+					roots[n++]=tree[r];
+					tree[r]=-1;
+				}
+			}
+			if (n>0) {
+				int root=compose(roots, 0, n);
+
+				for (int i=1; i<n; i++)
+					parent[reps[i]]=reps[0];
+				tree[reps[0]]=root;
+			}
+
+			/* connect the neighbours, update their fill */
+			BitSet nb=adjacent[v];
+			for (int a=nb.nextSetBit(0); a>=0; a=nb.nextSetBit(a+1)) {
+				adjacent[a].or(nb);
+				adjacent[a].clear(a);
+				adjacent[a].clear(v);
+			}
+			for (int a=nb.nextSetBit(0); a>=0; a=nb.nextSetBit(a+1)) {
+				fill[a]=fill(adjacent, a);
+				heap.push(-fill[a], a);
+			}
+			adjacent[v]=null;
+		}
+
+		int n=0;
+		for (int i=0; i<clauses.length; i++)
+			if (parent[i]==i && tree[i]>=0)
+				roots[n++]=tree[i];
+		compose(roots, 0, n);
+	}
+
+	/* number of missing edges between neighbours of v */
+	private static int fill(BitSet adjacent[], int v) {
+		BitSet nb=adjacent[v];
+		int missing=0, degree=nb.cardinality();
+
+		for (int a=nb.nextSetBit(0); a>=0; a=nb.nextSetBit(a+1)) {
+			BitSet common=(BitSet)nb.clone();
+
+			common.and(adjacent[a]);
+			missing+=degree-1-common.cardinality();
+		}
+		return missing/2;
+	}
+
+	private static int find(int parent[], int i) {
+		while (parent[i]!=i) {
+			parent[i]=parent[parent[i]];
+			i=parent[i];
+		}
+		return i;
+	}
+
+	/*
+	 * -----------------------------------------------------------------------------------------------------------
+	 * metrics
+	 * -----------------------------------------------------------------------------------------------------------
+	 */
+
+	/*
+	 * width and separator cardinality of the current dtree (cf. Darwiche: "Recursive Conditioning"):
+	 * cutset(t)=vars(l)/\vars(r)-acutset(t), context(t)=vars(t)/\acutset(t), cluster(t)=cutset(t)\/context(t) for
+	 * inner nodes and vars(t) for leaves, acutset(t) is the union of the cutsets of t's ancestors
+	 */
+	private void measure() {
+		int size=lefts.size(), root=size-1;
+		int vars[][]=new int[size][], seps[][]=new int[size][];
+
+		separators=cutsets=0;
+		for (int t=0; t<size; t++)
+			if (isLeaf(t))
+				vars[t]=clauses[clause(t)];
+			else {
+				vars[t]=merge(vars[left(t)], vars[right(t)], false);
+				seps[t]=merge(vars[left(t)], vars[right(t)], true);
+				separators+=seps[t].length;
+			}
+
+		/* depth first, entries >=0 enter a node, entries <0 leave it */
+		boolean acutset[]=new boolean[numVars];
+		IntVec stack=new IntVec(), added=new IntVec(), marks=new IntVec();
+		width=0;
+
+		stack.push(root);
+		while (stack.size()>0) {
+			int t=stack.last();
+
+			stack.pop();
+			if (t<0) {
+				int m=marks.last();
+
+				marks.pop();
+				while (added.size()>m) {
+					acutset[added.last()]=false;
+					added.pop();
+				}
+				continue;
+			}
+
+			int cluster=0;
+			if (isLeaf(t))
+				cluster=vars[t].length;
+			else {
+				for (int i=0; i<vars[t].length; i++)
+					if (acutset[vars[t][i]])
+						cluster++;      /* context */
+				marks.push(added.size());
+				for (int i=0; i<seps[t].length; i++)
+					if (!acutset[seps[t][i]]) {
+						cluster++;      /* cutset */
+						cutsets++;
+						acutset[seps[t][i]]=true;
+						added.push(seps[t][i]);
+					}
+				stack.push(-1);
+				stack.push(right(t));
+				stack.push(left(t));
+			}
+			width=Math.max(width, cluster-1);
+		}
+	}
+
+	/* union (intersection) of two sorted arrays */
+	private static int[] merge(int a[], int b[], boolean intersect) {
+		int r[]=new int[intersect ? Math.min(a.length, b.length) : a.length+b.length];
+		int i=0, j=0, n=0;
+
+		while (i<a.length && j<b.length)
+			if (a[i]==b[j]) {
+				r[n++]=a[i++];
+				j++;
+			} else if (a[i]<b[j]) {
+				if (!intersect)
+					r[n++]=a[i];
+				i++;
+			} else {
+				if (!intersect)
+					r[n++]=b[j];
+				j++;
+			}
+		if (!intersect) {
+			while (i<a.length)
+				r[n++]=a[i++];
+			while (j<b.length)
+				r[n++]=b[j++];
+		}
+		return n==r.length ? r : Arrays.copyOf(r, n);
+	}
+
+	/*
+	 * -----------------------------------------------------------------------------------------------------------
+	 * helpers
+	 * -----------------------------------------------------------------------------------------------------------
+	 */
+
+	/* hypergraph in compressed adjacency form */
+	private static class Hypergraph {
+		int n;                  /* number of vertices                          */
+		int numNets;
+		int netWeight[];        /* Net->weight (number of merged nets)         */
+		int weight[];           /* Vertex->weight                              */
+		int netStart[];         /* Net->offset of its pins, numNets+1 entries  */
+		int pins[];
+		int vtxStart[];         /* Vertex->offset of its nets, n+1 entries     */
+		int nets[];
+		int map[];              /* Vertex->vertex of the next coarser level    */
+
+		Hypergraph(int weight[], IntVec starts, IntVec pinVec) {
+			this.n=weight.length;
+			this.weight=weight;
+			numNets=starts.size();
+			netWeight=new int[numNets];
+			Arrays.fill(netWeight, 1);
+			netStart=new int[numNets+1];
+			starts.copyTo(netStart);
+			netStart[numNets]=pinVec.size();
+			pins=new int[pinVec.size()];
+			pinVec.copyTo(pins);
+
+			vtxStart=new int[n+1];
+			for (int k=0; k<pins.length; k++)
+				vtxStart[pins[k]+1]++;
+			for (int u=0; u<n; u++)
+				vtxStart[u+1]+=vtxStart[u];
+			nets=new int[pins.length];
+
+			int fill[]=Arrays.copyOf(vtxStart, n);
+			for (int e=0; e<numNets; e++)
+				for (int k=netStart[e]; k<netStart[e+1]; k++)
+					nets[fill[pins[k]]++]=e;
+		}
+	}
+
+	/* binary max heap of (gain, vertex) pairs */
+	private static class LongHeap {
+		private long heap[]=new long[64];
+		private int size=0;
+
+		void clear() {
+			size=0;
+		}
+
+		int size() {
+			return size;
+		}
+
+		void push(int gain, int vertex) {
+			long key=((long)gain<<32)|(vertex&0xFFFFFFFFL);
+
+			if (size==heap.length)
+				heap=Arrays.copyOf(heap, 2*size);
+
+			int i=size++;
+			while (i>0 && heap[(i-1)>>1]<key) {
+				heap[i]=heap[(i-1)>>1];
+				i=(i-1)>>1;
+			}
+			heap[i]=key;
+		}
+
+		int topGain() {
+			return (int)(heap[0]>>32);
+		}
+
+		int topVertex() {
+			return (int)heap[0];
+		}
+
+		void pop() {
+			long key=heap[--size];
+			int i=0;
+
+			while (2*i+1<size) {
+				int c=2*i+1;
+
+				if (c+1<size && heap[c+1]>heap[c])
+					c++;
+				if (heap[c]<=key)
+					break;
+				heap[i]=heap[c];
+				i=c;
+			}
+			heap[i]=key;
+		}
+	}
+}
@@ -0,0 +1,273 @@
+package de.stzoit.prover.dnnf;
+
+import de.stzoit.prover.cnf.CNFSolver;
+import de.stzoit.prover.cnf.Clause;
+import de.stzoit.prover.collections.nativeType.IntVec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * de.stzoit.prover.dnnf.DecisionDNNFCompiler
+ *
+ * Compiles a CNF into a decision-DNNF by dynamic decomposition (cf. C. Muise et al.: "Dsharp: Fast d-DNNF
+ * Compilation with sharpSAT", 2012; J.-M. Lagniez, P. Marquis: "An Improved Decision-DNNF Compiler", IJCAI 2017)
+ *
+ *     - no dtree: after each decision the residual clauses (unsatisfied, restricted to unassigned variables) of
+ *       the current component are split into connected components, which are compiled independently and conjoined
+ *     - a component is identified by its clauses and its variables, results are cached by the Zobrist signature
+ *       of both (see ComponentCache)
+ *     - branching variables are chosen by VSADS: activity*activityWeight+occurrences*occurrenceWeight, where
+ *       occurrences counts the residual clauses of the component containing the variable
+ *     - conflicts are handled as in AdvancedDNNFCompiler: the conflict-driven clause is asserted at the assertion
+ *       level and the components of that level are computed again
+ *     - the result is a node of getManager(), literals are solver literals, the variables are those of the input
+ *       (variable i of the clauses is solver variable i)
+ *
+ * @author AK
+ *
+ */
+public class DecisionDNNFCompiler {
+	/* result of compile(), the asserted literal requires to split the components of the current level again */
+	private static final int RETRY=-1;
+
+	private DNNFOperations solver;
+	private DNNFManager manager;
+	private ComponentCache<Integer> cache;
+	private int clauses[][];              /* Clause->literals                                  */
+	private int occurs[][];               /* Var->clauses                                      */
+	private boolean unsat=false;          /* the input is unsatisfiable at level 0             */
+
+	private double activityWeight=1.0;
+	private double occurrenceWeight=0.5;
+
+	private int clauseStamp[];            /* Clause->stamp of the last component search        */
+	private int varStamp[];               /* Var->stamp of the last component search           */
+	private int occurrences[];            /* Var->residual clauses of its component            */
+	private int stamp=0;
+
+	private long decisions=0;
+	private long conflicts=0;
+
+	/* clauses in CNFSolver literal encoding over the variables 1..numVariables */
+	public DecisionDNNFCompiler(int numVariables, int cls[][]) throws Exception {
+		this(numVariables, cls, 256L*1024*1024);
+	}
+
+	public DecisionDNNFCompiler(int numVariables, int cls[][], long cacheBudget) throws Exception {
+		solver=new DNNFOperations();
+		manager=new DNNFManager();
+		cache=new ComponentCache<Integer>(cacheBudget);
+		clauses=cls;
+
+		for (int i=1; i<=numVariables; i++)
+			solver.newVariable(Integer.toString(i));
+
+		int occ[]=new int[numVariables+1];
+		for (int i=0; i<cls.length; i++)
+			for (int j=0; j<cls[i].length; j++)
+				occ[CNFSolver.lit2var(cls[i][j])]++;
+		occurs=new int[numVariables+1][];
+		for (int v=0; v<=numVariables; v++)
+			occurs[v]=new int[occ[v]];
+		java.util.Arrays.fill(occ, 0);
+		for (int i=0; i<cls.length; i++)
+			for (int j=0; j<cls[i].length; j++) {
+				int v=CNFSolver.lit2var(cls[i][j]);
+
+				occurs[v][occ[v]++]=i;
+			}
+
+		clauseStamp=new int[cls.length];
+		varStamp=new int[numVariables+1];
+		occurrences=new int[numVariables+1];
+
+		for (int i=0; i<cls.length && !unsat; i++) {
+			Clause clause=new Clause(solver);
+
+			for (int j=0; j<cls[i].length; j++)
+				clause.push((CNFSolver.sign(cls[i][j]) ? "" : "-")+CNFSolver.lit2var(cls[i][j]));
+			unsat=!solver.pushClause(clause);
+		}
+		unsat=unsat || !solver.bcp();
+	}
+
+	public DNNFManager getManager() {
+		return manager;
+	}
+
+	public ComponentCache<Integer> getCache() {
+		return cache;
+	}
+
+	public void setHeuristicWeights(double activityWeight, double occurrenceWeight) {
+		this.activityWeight=activityWeight;
+		this.occurrenceWeight=occurrenceWeight;
+	}
+
+	public long getDecisions() {
+		return decisions;
+	}
+
+	public long getConflicts() {
+		return conflicts;
+	}
+
+	/* compile the clauses, returns the root node in getManager() */
+	public int compile() throws Exception {
+		if (unsat)
+			return DNNFManager.FALSE;
+
+		int all[]=new int[clauses.length];
+		for (int i=0; i<all.length; i++)
+			all[i]=i;
+		return branch(all, 0);
+	}
+
+	/*
+	 * conjunction of the literals assigned since trail position mark (restricted to the variables of clauses) and
+	 * the compiled components of the residual of clauses
+	 */
+	private int branch(int cls[], int mark) throws Exception {
+		for (;;) {
+			IntVec children=new IntVec();
+
+			stamp++;
+			for (int i=0; i<cls.length; i++)
+				for (int j=0; j<clauses[cls[i]].length; j++)
+					varStamp[CNFSolver.lit2var(clauses[cls[i]][j])]=stamp;
+			for (int i=mark; i<solver.trailSize(); i++)
+				if (varStamp[CNFSolver.lit2var(solver.trailLit(i))]==stamp)
+					children.push(manager.literalNode(solver.trailLit(i)));
+
+			/* split the residual into components before compiling them, recursion reuses the stamps */
+			List<int[]> compClauses=new ArrayList<int[]>(), compVars=new ArrayList<int[]>();
+			IntVec c=new IntVec(), v=new IntVec();
+			stamp++;
+			for (int i=0; i<cls.length; i++) {
+				if (clauseStamp[cls[i]]==stamp || satisfied(cls[i]))
+					continue;
+
+				component(cls[i], c, v);
+				compClauses.add(toArray(c));
+				compVars.add(toArray(v));
+			}
+
+			boolean retry=false;
+			for (int i=0; i<compClauses.size() && !retry; i++) {
+				int node=compile(compClauses.get(i), compVars.get(i));
+
+				if (node==RETRY)
+					retry=true;
+				else if (node==DNNFManager.FALSE)
+					return DNNFManager.FALSE;
+				else
+					children.push(node);
+			}
+			if (!retry)
+				return manager.and(toArray(children));
+		}
+	}
+
+	/* compile the component with clauses cls over the (unassigned) variables vars */
+	private int compile(int cls[], int vars[]) throws Exception {
+		long hi=0, lo=0;
+
+		for (int i=0; i<cls.length; i++) {
+			hi=ComponentCache.addHi(hi, cls[i]);
+			lo=ComponentCache.addLo(lo, cls[i]);
+		}
+		for (int i=0; i<vars.length; i++) {
+			hi=ComponentCache.addHi(hi, -vars[i]-1);
+			lo=ComponentCache.addLo(lo, -vars[i]-1);
+		}
+		Integer cached=cache.get(hi, lo);
+		if (cached!=null)
+			return cached;
+
+		/* VSADS, occurrences were counted by component() */
+		int v=vars[0];
+		double best=-1;
+		for (int i=0; i<vars.length; i++) {
+			double score=activityWeight*solver.activity(vars[i])+occurrenceWeight*occurrences[vars[i]];
+
+			if (score>best) {
+				best=score;
+				v=vars[i];
+			}
+		}
+
+		int branches[]=new int[2];
+		for (int phase=0; phase<2; phase++) {
+			int lit=CNFSolver.var2lit(v, phase==0),
+			    mark=solver.trailSize(),
+			    node=DNNFManager.FALSE;
+
+			decisions++;
+			if (solver.decide(lit))
+				node=branch(cls, mark);
+			else
+				conflicts++;
+			solver.undoDecide(v);
+			if (node==DNNFManager.FALSE) {
+				if (solver.atAssertionLevel() && solver.assertCdLiteral())
+					return RETRY;  /* try again */
+				else
+					return DNNFManager.FALSE; /* backtracking */
+			}
+			branches[phase]=node;
+		}
+
+		int node=manager.or(branches[0], branches[1]);
+		cache.put(hi, lo, node, 0L);
+		return node;
+	}
+
+	/* collect the residual component containing clause start, counts the occurrences of its variables */
+	private void component(int start, IntVec cls, IntVec vars) {
+		cls.clear();
+		vars.clear();
+		clauseStamp[start]=stamp;
+		cls.push(start);
+		for (int i=0; i<cls.size(); i++) {
+			int lits[]=clauses[cls.get(i)];
+
+			for (int j=0; j<lits.length; j++) {
+				int v=CNFSolver.lit2var(lits[j]);
+
+				if (solver.var2val(v)!=CNFSolver.Val.UNKNOWN)
+					continue;
+				if (varStamp[v]!=stamp) {
+					varStamp[v]=stamp;
+					occurrences[v]=0;
+					vars.push(v);
+					for (int k=0; k<occurs[v].length; k++) {
+						int c=occurs[v][k];
+
+						if (clauseStamp[c]!=stamp && !satisfied(c)) {
+							clauseStamp[c]=stamp;
+							cls.push(c);
+						}
+					}
+				}
+				occurrences[v]++;
+			}
+		}
+	}
+
+	private static int[] toArray(IntVec vec) {
+		int a[]=new int[vec.size()];
+
+		vec.copyTo(a);
+		return a;
+	}
+
+	private boolean satisfied(int cls) {
+		int lits[]=clauses[cls];
+
+		for (int i=0; i<lits.length; i++)
+			if (solver.lit2val(lits[i])==CNFSolver.Val.TRUE)
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,391 @@
+package de.stzoit.prover.dnnf;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import de.stzoit.prover.cnf.CNFSolver;
+
+/**
+ * de.stzoit.prover.dnnf.NNFFormat
+ *
+ * Reads and writes the nodes of a DNNFManager in the c2d .nnf format and in a compact binary variant
+ *
+ *     - text (c2d, d4): header "nnf v e n" (nodes, edges, variables), then one node per line, children refer to
+ *       earlier lines (0-based): "L l" (DIMACS literal), "A c i1 .. ic", "O j c i1 .. ic" (j: decision variable
+ *       or 0), true is "A 0" and false is "O 0 0", the last node is the root
+ *     - binary: magic "NNFB", then varints (7 bits per byte, low bits first): version, v, e, n and per node
+ *       count*4+kind followed by the literal (CNFSolver encoding) for LIT and by the distances
+ *       node-child of the children for AND/OR, i.e. mostly single bytes
+ *     - reading parses bytes directly (no lines or strings) into the manager, thus equal nodes of the file are
+ *       merged and constants are folded; files are memory mapped in windows of 1GB, streams are buffered
+ *     - writing emits the nodes reachable from root in ID order (children precede their parents)
+ *
+ * @author AK
+ *
+ */
+public class NNFFormat {
+	private static final int MAGIC=('N'<<24)|('N'<<16)|('F'<<8)|'B';
+	private static final int VERSION=1;
+	private static final long WINDOW=1L<<30;
+
+	/* read a text or binary file (detected by its first bytes), returns the root node in manager */
+	public static int read(File file, DNNFManager manager) throws IOException {
+		RandomAccessFile raf=new RandomAccessFile(file, "r");
+
+		try {
+			return read(new Input(raf.getChannel()), manager);
+		} finally {
+			raf.close();
+		}
+	}
+
+	public static int read(String file, DNNFManager manager) throws IOException {
+		return read(new File(file), manager);
+	}
+
+	/* read a text or binary stream, returns the root node in manager */
+	public static int read(InputStream in, DNNFManager manager) throws IOException {
+		return read(new Input(in), manager);
+	}
+
+	/* write the nodes reachable from root in the text format */
+	public static void write(DNNFManager manager, int root, File file) throws IOException {
+		OutputStream out=new FileOutputStream(file);
+
+		try {
+			write(manager, root, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	public static void write(DNNFManager manager, int root, OutputStream stream) throws IOException {
+		Output out=new Output(stream);
+		boolean reach[]=manager.reachable(root);
+		int ids[]=new int[root+1], n=0;
+
+		out.ascii("nnf ").number(manager.nodeCount(root)).ascii(" ").number(manager.edgeCount(root)).ascii(" ")
+		   .number(manager.maxVariable(root)).ascii("\n");
+		for (int node=0; node<=root; node++) {
+			if (!reach[node])
+				continue;
+
+			switch (manager.kind(node)) {
+			case DNNFManager.CONST:
+				out.ascii(node==DNNFManager.TRUE ? "A 0" : "O 0 0");
+				break;
+			case DNNFManager.LIT:
+				int lit=manager.literal(node);
+
+				out.ascii("L ").number(CNFSolver.sign(lit) ? CNFSolver.lit2var(lit) : -CNFSolver.lit2var(lit));
+				break;
+			default:
+				out.ascii(manager.kind(node)==DNNFManager.AND ? "A " : "O 0 ").number(manager.numChildren(node));
+				for (int i=0; i<manager.numChildren(node); i++)
+					out.ascii(" ").number(ids[manager.child(node, i)]);
+			}
+			out.ascii("\n");
+			ids[node]=n++;
+		}
+		out.flush();
+	}
+
+	/* write the nodes reachable from root in the binary format */
+	public static void writeBinary(DNNFManager manager, int root, File file) throws IOException {
+		OutputStream out=new FileOutputStream(file);
+
+		try {
+			writeBinary(manager, root, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	public static void writeBinary(DNNFManager manager, int root, OutputStream stream) throws IOException {
+		Output out=new Output(stream);
+		boolean reach[]=manager.reachable(root);
+		int ids[]=new int[root+1], n=0;
+
+		out.int32(MAGIC).varint(VERSION).varint(manager.nodeCount(root)).varint(manager.edgeCount(root))
+		   .varint(manager.maxVariable(root));
+		for (int node=0; node<=root; node++) {
+			if (!reach[node])
+				continue;
+
+			byte kind=manager.kind(node);
+			out.varint(4L*manager.numChildren(node)+kind);
+			if (kind==DNNFManager.CONST)
+				out.varint(node);
+			else if (kind==DNNFManager.LIT)
+				out.varint(manager.literal(node));
+			else
+				for (int i=0; i<manager.numChildren(node); i++)
+					out.varint(n-ids[manager.child(node, i)]);
+			ids[node]=n++;
+		}
+		out.flush();
+	}
+
+	private static int read(Input in, DNNFManager manager) throws IOException {
+		if (in.peek()=='N')
+			return readBinary(in, manager);
+
+		int nodes[]=null, children[]=new int[16], n=0;
+
+		for (int c=in.skipSpace(); c>=0; c=in.skipSpace()) {
+			switch (c) {
+			case 'c':
+				in.skipLine();
+				continue;
+			case 'n':
+				in.word();
+				nodes=new int[(int)in.number()];
+				in.skipLine();
+				continue;
+			}
+
+			if (nodes==null)
+				throw new IOException("nnf header expected");
+			if (n==nodes.length)
+				throw new IOException("more nodes than declared in the header ("+nodes.length+")");
+			in.next();
+			if (c=='L') {
+				long lit=in.number();
+
+				nodes[n]=manager.literalNode((int)Math.abs(lit), lit>0);
+			} else if (c=='A' || c=='O') {
+				if (c=='O')
+					in.number();  /* decision variable */
+
+				int count=(int)in.number();
+				if (count>children.length)
+					children=new int[Math.max(count, 2*children.length)];
+				for (int i=0; i<count; i++) {
+					long child=in.number();
+
+					if (child<0 || child>=n)
+						throw new IOException("node "+n+": child "+child+" is not a preceding node");
+					children[i]=nodes[(int)child];
+				}
+				nodes[n]=(c=='A' ? manager.and(children, count) : manager.or(children, count));
+			} else
+				throw new IOException("node "+n+": unknown node type '"+(char)c+"'");
+			in.skipLine();
+			n++;
+		}
+		if (nodes==null || n==0)
+			throw new IOException("empty nnf");
+		return nodes[n-1];
+	}
+
+	private static int readBinary(Input in, DNNFManager manager) throws IOException {
+		for (int i=0; i<4; i++)
+			if (in.next()!=((MAGIC>>>(24-8*i))&0xFF))
+				throw new IOException("not an nnf file");
+		if (in.varint()!=VERSION)
+			throw new IOException("unsupported binary nnf version");
+
+		int nodes[]=new int[(int)in.varint()], children[]=new int[16];
+		in.varint();
+		in.varint();
+		for (int n=0; n<nodes.length; n++) {
+			long head=in.varint();
+			int kind=(int)(head&3), count=(int)(head>>>2);
+
+			if (kind==DNNFManager.CONST)
+				nodes[n]=(in.varint()==DNNFManager.TRUE ? DNNFManager.TRUE : DNNFManager.FALSE);
+			else if (kind==DNNFManager.LIT)
+				nodes[n]=manager.literalNode((int)in.varint());
+			else {
+				if (count>children.length)
+					children=new int[Math.max(count, 2*children.length)];
+				for (int i=0; i<count; i++) {
+					long distance=in.varint();
+
+					if (distance<=0 || distance>n)
+						throw new IOException("node "+n+": child is not a preceding node");
+					children[i]=nodes[n-(int)distance];
+				}
+				nodes[n]=(kind==DNNFManager.AND ? manager.and(children, count) : manager.or(children, count));
+			}
+		}
+		if (nodes.length==0)
+			throw new IOException("empty nnf");
+		return nodes[nodes.length-1];
+	}
+
+	/* bytes of a file (mapped window by window) or of a stream */
+	private static class Input {
+		private FileChannel channel;
+		private InputStream stream;
+		private ByteBuffer buffer;
+		private long position=0;
+
+		Input(FileChannel channel) throws IOException {
+			this.channel=channel;
+			buffer=ByteBuffer.allocate(0);
+		}
+
+		Input(InputStream stream) {
+			this.stream=stream;
+			buffer=ByteBuffer.allocate(1<<16);
+			buffer.limit(0);
+		}
+
+		/* next byte without consuming it, -1 at the end */
+		int peek() throws IOException {
+			if (!buffer.hasRemaining() && !fill())
+				return -1;
+			return buffer.get(buffer.position())&0xFF;
+		}
+
+		int next() throws IOException {
+			if (!buffer.hasRemaining() && !fill())
+				return -1;
+			return buffer.get()&0xFF;
+		}
+
+		/* skip blanks and line breaks, returns the next byte (not consumed) */
+		int skipSpace() throws IOException {
+			int c;
+
+			while ((c=peek())==' ' || c=='\t' || c=='\r' || c=='\n')
+				next();
+			return c;
+		}
+
+		void skipLine() throws IOException {
+			int c;
+
+			while ((c=next())>=0 && c!='\n')
+				;
+		}
+
+		void word() throws IOException {
+			int c;
+
+			while ((c=peek())>=0 && c!=' ' && c!='\t' && c!='\r' && c!='\n')
+				next();
+		}
+
+		/* a (signed) decimal number on the current line */
+		long number() throws IOException {
+			int c;
+
+			while ((c=peek())==' ' || c=='\t')
+				next();
+
+			boolean negative=(c=='-');
+			if (negative)
+				next();
+			if ((c=peek())<'0' || c>'9')
+				throw new IOException("number expected at byte "+(position+buffer.position()));
+
+			long value=0;
+			while ((c=peek())>='0' && c<='9') {
+				value=10*value+(c-'0');
+				next();
+			}
+			return negative ? -value : value;
+		}
+
+		long varint() throws IOException {
+			long value=0;
+
+			for (int shift=0; ; shift+=7) {
+				int b=next();
+
+				if (b<0)
+					throw new EOFException("unexpected end of binary nnf");
+				value|=(long)(b&0x7F)<<shift;
+				if (b<0x80)
+					return value;
+			}
+		}
+
+		private boolean fill() throws IOException {
+			if (channel!=null) {
+				position+=buffer.limit();
+				if (position>=channel.size())
+					return false;
+				buffer=channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, channel.size()-position));
+				return true;
+			}
+
+			int n;
+			position+=buffer.limit();
+			buffer.clear();
+			while ((n=stream.read(buffer.array(), 0, buffer.capacity()))==0)
+				;
+			buffer.limit(Math.max(n, 0));
+			return n>0;
+		}
+	}
+
+	/* buffered output of ascii text, decimal and variable length numbers */
+	private static class Output {
+		private OutputStream out;
+		private byte buffer[]=new byte[1<<16];
+		private int size=0;
+
+		Output(OutputStream out) {
+			this.out=out;
+		}
+
+		Output ascii(String s) throws IOException {
+			for (int i=0; i<s.length(); i++)
+				put(s.charAt(i));
+			return this;
+		}
+
+		Output number(long value) throws IOException {
+			if (value<0) {
+				put('-');
+				value=-value;
+			}
+
+			long div=1;
+			while (div<=value/10)
+				div*=10;
+			for (; div>0; div/=10)
+				put((int)('0'+(value/div)%10));
+			return this;
+		}
+
+		Output varint(long value) throws IOException {
+			while (value>=0x80) {
+				put((int)(value&0x7F)|0x80);
+				value>>>=7;
+			}
+			put((int)value);
+			return this;
+		}
+
+		Output int32(int value) throws IOException {
+			for (int shift=24; shift>=0; shift-=8)
+				put((value>>>shift)&0xFF);
+			return this;
+		}
+
+		void flush() throws IOException {
+			out.write(buffer, 0, size);
+			size=0;
+			out.flush();
+		}
+
+		private void put(int b) throws IOException {
+			if (size==buffer.length) {
+				out.write(buffer, 0, size);
+				size=0;
+			}
+			buffer[size++]=(byte)b;
+		}
+	}
+}
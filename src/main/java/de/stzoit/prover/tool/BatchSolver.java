@@ -0,0 +1,419 @@
+package de.stzoit.prover.tool;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import de.stzoit.prover.TimeOutException;
+import de.stzoit.prover.cnf.CNFSolver;
+import de.stzoit.prover.cnf.Statistics;
+import de.stzoit.prover.cnf.tracing.ProofTracing;
+
+/**
+ * Competition-style batch runner: solves a set of DIMACS files on a thread pool within a single JVM
+ *
+ *     - per-instance wall clock limit, enforced by the solver (see CNFSolver.setTimeout()) and by a watchdog
+ *       that interrupts overdue solver threads
+ *     - per-instance memory limit: as all instances share one heap, the watchdog compares the heap usage after
+ *       the last garbage collection with limit*(running instances) and aborts the longest running instance
+ *       when it is exceeded; an OutOfMemoryError aborts the failing instance only
+ *     - models are checked by verify(), refutations are optionally checked by an external TraceCheck
+ *       compatible checker (the exit code 0 means the proof has been accepted); as the solver does not trace,
+ *       the proof stems from a second, untimed ProofTracing run on the same file, i.e. "verified" certifies that
+ *       the instance is unsatisfiable rather than the scored run itself
+ *     - results are written as CSV and/or JSON, including PAR-2 scores (unsolved instances, instances beyond the
+ *       time limit, wrong models and refutations whose proof check failed score twice the time limit) and cactus
+ *       plot data (instances solved within the limit sorted by time)
+ *
+ * @author AK
+ *
+ */
+public class BatchSolver {
+	public enum Status { SAT, UNSAT, TIMEOUT, MEMOUT, ERROR };
+
+	protected static final long GRACE=2000;  /* ms granted beyond the time limit before interrupting */
+
+	/* settings */
+	protected int threads=Runtime.getRuntime().availableProcessors();
+	protected long timeout=60000;            /* ms */
+	protected long memlimit=0;               /* bytes per instance, 0: unlimited */
+	protected int warmup=0;                  /* number of instances solved (and discarded) before measuring */
+	protected boolean amo=false;             /* detect at-most-one constraints */
+	protected boolean xor=false;             /* detect XOR constraints */
+	protected String checker=null;           /* external proof checker command */
+
+	/* instances currently being solved */
+	private ConcurrentHashMap<Result,Thread> running=new ConcurrentHashMap<Result,Thread>();
+
+	/* result of a single instance */
+	public static class Result {
+		public String file;
+		public Status status=Status.ERROR;
+		public long time=0;                  /* ms */
+		public Boolean verified=null;        /* model/proof check, null if not checked */
+		public long decisions=0, conflicts=0, propagations=0;
+		public String message=null;
+
+		volatile long start=0;
+		volatile Status abort=null;         /* set by the watchdog before interrupting */
+
+		public Result(String file) {
+			this.file=file;
+		}
+
+		public boolean solved() {
+			return status==Status.SAT || status==Status.UNSAT;
+		}
+
+		/* solved within timeout (ms) and not refuted by the model or proof check */
+		public boolean solvedWithin(long timeout) {
+			return solved() && time<=timeout && !Boolean.FALSE.equals(verified);
+		}
+
+		public double par2(long timeout) {
+			return solvedWithin(timeout) ? time/1000.0 : 2*timeout/1000.0;
+		}
+	}
+
+	/* solve all files, results in the order of files */
+	public List<Result> run(List<String> files) throws Exception {
+		ScheduledExecutorService watchdog=Executors.newSingleThreadScheduledExecutor();
+		ExecutorService pool=Executors.newFixedThreadPool(threads);
+		List<Result> results=new ArrayList<Result>();
+
+		watchdog.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				checkLimits();
+			}
+		}, 100, 100, TimeUnit.MILLISECONDS);
+
+		try {
+			/* warm up the JVM, results are discarded */
+			for (int i=0; i<Math.min(warmup, files.size()); i++)
+				solve(new Result(files.get(i)));
+
+			List<Future<Result>> futures=new ArrayList<Future<Result>>();
+			for (final String file : files)
+				futures.add(pool.submit(new java.util.concurrent.Callable<Result>() {
+					public Result call() {
+						return solve(new Result(file));
+					}
+				}));
+			for (Future<Result> f : futures)
+				results.add(f.get());
+		} finally {
+			pool.shutdownNow();
+			watchdog.shutdownNow();
+		}
+		return results;
+	}
+
+	protected Result solve(Result r) {
+		r.start=System.currentTimeMillis();
+		running.put(r, Thread.currentThread());
+
+		CNFSolver solver=new CNFSolver(r.file);
+		try {
+			solver.setTimeout(timeout);
+			new DimacsReader().readSolve(r.file, solver);
+			if (amo)
+				solver.detectAtMostOne(3);
+			if (xor)
+				solver.detectXors(6);
+
+			boolean sat=solver.sat();
+			r.time=System.currentTimeMillis()-r.start;
+			r.status=sat ? Status.SAT : Status.UNSAT;
+
+			if (sat)
+				r.verified=solver.verify();
+		} catch (TimeOutException e) {
+			r.status=(r.abort!=null ? r.abort : Status.TIMEOUT);
+		} catch (OutOfMemoryError e) {
+			solver=null;
+			r.status=Status.MEMOUT;
+		} catch (Exception e) {
+			r.status=(r.abort!=null ? r.abort : Status.ERROR);
+			r.message=e.toString();
+		} finally {
+			running.remove(r);
+			Thread.interrupted(); /* clear a late interrupt by the watchdog */
+		}
+
+		if (!r.solved())
+			r.time=System.currentTimeMillis()-r.start;
+		/* the proof check is not part of the measured time, the tracing solver is limited separately */
+		if (r.status==Status.UNSAT && checker!=null && !amo && !xor) { /* native constraints can't be traced */
+			try {
+				r.verified=checkProof(r);
+			} catch (Exception e) {
+				r.verified=false;
+				r.message="proof check failed: "+e;
+			} catch (OutOfMemoryError e) {
+				r.verified=false;
+				r.message="proof check failed: out of memory";
+			}
+		}
+		if (solver!=null) {
+			Statistics stats=solver.getStatistics();
+			r.decisions=stats.statGetNumDecisions();
+			r.conflicts=stats.statGetNumConflicts();
+			r.propagations=stats.statGetNumPropagations();
+		}
+		return r;
+	}
+
+	/*
+	 * re-solve with proof tracing and run the external checker on the TraceCheck derivation, the checker is
+	 * killed after the time limit (the proof is not accepted then)
+	 */
+	protected boolean checkProof(Result r) throws Exception {
+		File trace=File.createTempFile("batch", ".trace"),
+		     log=File.createTempFile("batch", ".log");
+		try {
+			ProofTracing tracer=new ProofTracing(r.file);
+			tracer.setTimeout(timeout);
+			new DimacsReader().readTrace(r.file, tracer);
+			if (tracer.sat())
+				return false;
+
+			PrintStream out=new PrintStream(trace);
+			tracer.printTraceCheckDerivation(out);
+			out.close();
+
+			List<String> cmd=new ArrayList<String>(Arrays.asList(checker.split(" ")));
+			cmd.add(trace.getPath());
+			/* the checker's output is discarded, a file does not block the checker when nobody reads it */
+			Process p=new ProcessBuilder(cmd).redirectErrorStream(true).redirectOutput(log).start();
+			if (!p.waitFor(timeout, TimeUnit.MILLISECONDS)) {
+				p.destroyForcibly();
+				r.message="proof check timed out";
+				return false;
+			}
+			return p.exitValue()==0;
+		} finally {
+			trace.delete();
+			log.delete();
+		}
+	}
+
+	/* watchdog: interrupt overdue instances, abort the longest running instance if memory is exhausted */
+	protected void checkLimits() {
+		long now=System.currentTimeMillis();
+		Result oldest=null;
+
+		for (Result r : running.keySet()) {
+			if (now-r.start>timeout+GRACE && r.abort==null) {
+				r.abort=Status.TIMEOUT;
+				Thread t=running.get(r);
+				if (t!=null) /* the instance may have finished meanwhile */
+					t.interrupt();
+			}
+			if (r.abort==null && (oldest==null || r.start<oldest.start))
+				oldest=r;
+		}
+
+		if (memlimit>0 && oldest!=null && liveHeap()>memlimit*running.size()) {
+			oldest.abort=Status.MEMOUT;
+			Thread t=running.get(oldest);
+			if (t!=null)
+				t.interrupt();
+		}
+	}
+
+	/* heap usage after the last garbage collection */
+	protected long liveHeap() {
+		long used=0;
+
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			MemoryUsage u=pool.getCollectionUsage();
+			if (pool.getType()==MemoryType.HEAP && u!=null)
+				used+=u.getUsed();
+		}
+		return used;
+	}
+
+	public void writeCSV(List<Result> results, PrintWriter out) {
+		out.println("file,status,time_ms,par2_s,verified,decisions,conflicts,propagations");
+		for (Result r : results)
+			out.println(csvField(r.file)+","+r.status+","+r.time+","+r.par2(timeout)+","+(r.verified==null ? "" : r.verified)
+			           +","+r.decisions+","+r.conflicts+","+r.propagations);
+	}
+
+	/* RFC 4180: fields containing separators, quotes or line breaks are quoted, quotes are doubled */
+	protected static String csvField(String s) {
+		if (s.indexOf(',')<0 && s.indexOf('"')<0 && s.indexOf('\n')<0 && s.indexOf('\r')<0)
+			return s;
+		return "\""+s.replace("\"", "\"\"")+"\"";
+	}
+
+	/* cactus plot data: rank, time (s) of the instances solved within the limit in ascending order of time */
+	public void writeCactus(List<Result> results, PrintWriter out) {
+		List<Long> times=new ArrayList<Long>();
+
+		for (Result r : results)
+			if (r.solvedWithin(timeout))
+				times.add(r.time);
+		Collections.sort(times);
+
+		out.println("solved,time_s");
+		for (int i=0; i<times.size(); i++)
+			out.println((i+1)+","+times.get(i)/1000.0);
+	}
+
+	public void writeJSON(List<Result> results, PrintWriter out) {
+		int solved=0, sat=0, unsat=0;
+		double par2=0;
+
+		for (Result r : results) {
+			solved+=r.solved() ? 1 : 0;
+			sat+=r.status==Status.SAT ? 1 : 0;
+			unsat+=r.status==Status.UNSAT ? 1 : 0;
+			par2+=r.par2(timeout);
+		}
+
+		out.println("{");
+		out.println("  \"timeout_s\": "+timeout/1000.0+",");
+		out.println("  \"instances\": "+results.size()+",");
+		out.println("  \"solved\": "+solved+", \"sat\": "+sat+", \"unsat\": "+unsat+",");
+		out.println("  \"par2_total\": "+par2+",");
+		out.println("  \"par2_avg\": "+(results.isEmpty() ? 0 : par2/results.size())+",");
+		out.println("  \"results\": [");
+		for (int i=0; i<results.size(); i++) {
+			Result r=results.get(i);
+			out.println("    { \"file\": "+quote(r.file)+", \"status\": \""+r.status+"\", \"time_ms\": "+r.time
+			           +", \"par2_s\": "+r.par2(timeout)+", \"verified\": "+r.verified
+			           +", \"decisions\": "+r.decisions+", \"conflicts\": "+r.conflicts
+			           +", \"propagations\": "+r.propagations
+			           +(r.message!=null ? ", \"message\": "+quote(r.message) : "")
+			           +" }"+(i<results.size()-1 ? "," : ""));
+		}
+		out.println("  ]");
+		out.println("}");
+	}
+
+	protected static String quote(String s) {
+		StringBuffer sb=new StringBuffer("\"");
+
+		for (char c : s.toCharArray()) {
+			if (c=='"' || c=='\\')
+				sb.append('\\').append(c);
+			else if (c<0x20)
+				sb.append(String.format("\\u%04x", (int)c));
+			else
+				sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
+	/* DIMACS files of a directory (recursively), a list file (@file) or a single file */
+	protected static void collect(String arg, List<String> files) throws Exception {
+		if (arg.startsWith("@")) {
+			BufferedReader br=new BufferedReader(new FileReader(arg.substring(1)));
+			String line;
+			while ((line=br.readLine())!=null)
+				if (line.trim().length()>0 && !line.startsWith("#"))
+					collect(line.trim(), files);
+			br.close();
+			return;
+		}
+
+		File f=new File(arg);
+		if (f.isDirectory()) {
+			File entries[]=f.listFiles();
+			Arrays.sort(entries);
+			for (File e : entries)
+				if (e.isDirectory() || e.getName().endsWith(".cnf") || e.getName().endsWith(".dimacs"))
+					collect(e.getPath(), files);
+		} else
+			files.add(f.getPath());
+	}
+
+	protected static void usage() {
+		System.err.println("Usage: BatchSolver [-threads <n>] [-timeout <s>] [-mem <MB>] [-warmup <n>] [-amo] [-xor]\n"
+		                  +"                   [-checker <cmd>] [-csv <file>] [-json <file>] [-cactus <file>]\n"
+		                  +"                   <directory|file|@listfile>...\n");
+		System.exit(1);
+	}
+
+	public static void main(String[] args) throws Exception {
+		BatchSolver batch=new BatchSolver();
+		List<String> files=new ArrayList<String>();
+		String csv=null, json=null, cactus=null;
+
+		try {
+			for (int i=0; i<args.length; i++) {
+				if (args[i].equals("-threads"))
+					batch.threads=Integer.parseInt(args[++i]);
+				else if (args[i].equals("-timeout"))
+					batch.timeout=Long.parseLong(args[++i])*1000;
+				else if (args[i].equals("-mem"))
+					batch.memlimit=Long.parseLong(args[++i])*1024*1024;
+				else if (args[i].equals("-warmup"))
+					batch.warmup=Integer.parseInt(args[++i]);
+				else if (args[i].equals("-amo"))
+					batch.amo=true;
+				else if (args[i].equals("-xor"))
+					batch.xor=true;
+				else if (args[i].equals("-checker"))
+					batch.checker=args[++i];
+				else if (args[i].equals("-csv"))
+					csv=args[++i];
+				else if (args[i].equals("-json"))
+					json=args[++i];
+				else if (args[i].equals("-cactus"))
+					cactus=args[++i];
+				else if (args[i].startsWith("-"))
+					usage();
+				else
+					collect(args[i], files);
+			}
+		} catch (RuntimeException e) { /* missing or malformed option argument */
+			usage();
+		}
+		if (files.isEmpty())
+			usage();
+
+		List<Result> results=batch.run(files);
+
+		for (Result r : results)
+			System.out.println("c "+r.status+" "+r.time+"ms "+(r.verified==null ? "" : "verified="+r.verified+" ")
+			                  +r.file);
+		PrintWriter out=new PrintWriter(System.out);
+		batch.writeJSON(results, out);
+		out.flush();
+
+		if (csv!=null) {
+			out=new PrintWriter(new FileWriter(csv));
+			batch.writeCSV(results, out);
+			out.close();
+		}
+		if (json!=null) {
+			out=new PrintWriter(new FileWriter(json));
+			batch.writeJSON(results, out);
+			out.close();
+		}
+		if (cactus!=null) {
+			out=new PrintWriter(new FileWriter(cactus));
+			batch.writeCactus(results, out);
+			out.close();
+		}
+	}
+}
@@ -1,7 +1,12 @@
 package de.stzoit.prover.tool;
 
+import java.io.File;
+
 import de.stzoit.prover.cnf.CNFSolver;
+import de.stzoit.prover.cnf.ProofWriter;
+import de.stzoit.prover.cnf.SolverMetrics;
 import de.stzoit.prover.cnf.tracing.ProofTracing;
+import de.stzoit.prover.cnf.tracing.TraceChecker;
 
 /**
  * 2010/07/19
@@ -12,34 +17,83 @@ import de.stzoit.prover.cnf.tracing.ProofTracing;
  *
  */
 public class CmdLineSolver {
+	protected static final long PROGRESS_INTERVAL=5000; /* ms */
 
 	/**
 	 * @param args 
 	 * @throws Exception 
 	 */
 	public static void main(String[] args) throws Exception {
-		if (args.length!=3)
+		boolean amo=false, xor=false, progress=false, jmx=false, reuse=true, vivify=false, binary=false, verify=false;
+		String drat=null, lrat=null, spill=null;
+		for (int i=3; i<args.length; i++) {
+			if (args[i].equals("-amo"))
+				amo=true;
+			else if (args[i].equals("-xor"))
+				xor=true;
+			else if (args[i].equals("-progress"))
+				progress=true;
+			else if (args[i].equals("-metrics"))
+				jmx=true;
+			else if (args[i].equals("-noreuse"))
+				reuse=false;
+			else if (args[i].equals("-vivify"))
+				vivify=true;
+			else if (args[i].equals("-drat") && i+1<args.length)
+				drat=args[++i];
+			else if (args[i].equals("-lrat") && i+1<args.length)
+				lrat=args[++i];
+			else if (args[i].equals("-binary"))
+				binary=true;
+			else if (args[i].equals("-verify"))
+				verify=true;
+			else if (args[i].equals("-spill") && i+1<args.length)
+				spill=args[++i];
+			else
+				usage();
+		}
+		
+		if (args.length<3)
 			usage();
 		else {
 			
-			if (!args[1].equals("-dimacs")) {
+			if (!args[1].equals(args[0].equals("-check") ? "-tracecheck" : "-dimacs")) {
 				System.err.println("Unknown format: "+args[1]);
 				usage();
 			}
 			
 			if (args[0].equals("-solve")) {
 				CNFSolver solver=new CNFSolver("cmdlineSolver");
+				
+				solver.setTrailReuse(reuse);
+				solver.setVivification(vivify);
+				if (progress || jmx)
+					solver.setMetrics(createMetrics(progress, jmx));
+				if (drat!=null)
+					solver.setProof(new ProofWriter(drat, binary ? ProofWriter.Format.DRAT_BINARY : ProofWriter.Format.DRAT));
+				else if (lrat!=null)
+					solver.setProof(new ProofWriter(lrat, binary ? ProofWriter.Format.LRAT_BINARY : ProofWriter.Format.LRAT));
 
 				readAndAddDimacsSolve(args[2], solver);
+				if (amo) /* replace pairwise at-most-one groups by native constraints */
+					System.out.println("c Detected at-most-one constraints: "+solver.detectAtMostOne(3));
+				if (xor) /* replace clause groups encoding XOR constraints by native constraints */
+					System.out.println("c Detected XOR constraints: "+solver.detectXors(6));
 				
 				long start=System.currentTimeMillis();
 				boolean rv=solver.sat();
 				long end=System.currentTimeMillis();
 				
+				if (solver.getProof()!=null)
+					solver.getProof().close();
 				printTimingAndState(start, end, rv);
 
 			} else if (args[0].equals("-trace")) {
 				ProofTracing solver = new ProofTracing("cmdlineTracer");
+				
+				solver.setTrailReuse(reuse);
+				if (progress || jmx)
+					solver.setMetrics(createMetrics(progress, jmx));
 
 				readAndAddDimacsTrace(args[2], solver);
 				
@@ -49,8 +103,19 @@ public class CmdLineSolver {
 				
 				if (rv)
 					printTimingAndState(start, end, rv);
-				else
+				else if (verify) { /* check the refutation in memory instead of printing it */
+					TraceChecker checker=new TraceChecker(spill==null ? null : new File(spill));
+					
+					checker.load(solver);
+					printTimingAndState(start, end, rv);
+					printCheck(checker);
+				} else
 					solver.printTraceCheckDerivation(System.out);
+			} else if (args[0].equals("-check")) {
+				TraceChecker checker=new TraceChecker(spill==null ? null : new File(spill));
+				
+				checker.read(new File(args[2]));
+				printCheck(checker);
 			} else {
 				System.err.println("Unknown solving mode "+args[0]);
 				usage();
@@ -58,6 +123,15 @@ public class CmdLineSolver {
 		}
 	}
 	
+	/* progress lines every PROGRESS_INTERVAL ms, MXBean registered as "cmdlineSolver" */
+	protected static SolverMetrics createMetrics(boolean progress, boolean jmx) throws Exception {
+		SolverMetrics metrics=new SolverMetrics(PROGRESS_INTERVAL, progress ? System.out : null);
+		
+		if (jmx)
+			metrics.register("cmdlineSolver");
+		return metrics;
+	}
+	
 	protected static void printTimingAndState(long start, long end, boolean sat) {
 		long s=(end-start)/1000;
 		long ms=(end-start)%1000;
@@ -66,8 +140,26 @@ public class CmdLineSolver {
 		System.out.println("s "+(sat ? "SATISFIABLE" : "UNSATISFIABLE"));
 	}
 	
+	protected static void printCheck(TraceChecker checker) throws Exception {
+		long start=System.currentTimeMillis();
+		boolean ok=checker.check();
+		long end=System.currentTimeMillis();
+		
+		System.out.println("c Checking "+checker.size()+" clauses took "+(end-start)/1000+"s "+(end-start)%1000+"ms");
+		if (ok)
+			System.out.println("c Proof verified");
+		else if (checker.getFailedClause()<0)
+			System.out.println("c Proof check FAILED: no empty clause, cyclic or missing antecedents");
+		else
+			System.out.println("c Proof check FAILED at clause "+checker.getFailedClause());
+		checker.close();
+	}
+	
 	protected static void usage() {
-		System.err.println("Usage: CmdLineSolver [-solve|-trace] -dimacs <file>\n");
+		System.err.println("Usage: CmdLineSolver [-solve|-trace] -dimacs <file> [-amo] [-xor] [-progress] [-metrics]\n"
+		                  +"                     [-noreuse] [-vivify] [-drat <proof>|-lrat <proof>] [-binary]\n"
+		                  +"                     [-verify] [-spill <dir>]\n"
+		                  +"       CmdLineSolver -check -tracecheck <trace> [-spill <dir>]\n");
 		System.exit(1);
 	}
 	
@@ -25,8 +25,13 @@
 
 package org.warthog.pl.algorithms
 
+import java.util.Collections
+
+import de.stzoit.prover.cnf.{CNFSolver, Clause}
+import de.stzoit.prover.cnf.tracing.{InterpolantCircuit, Interpolator, ProofTracing}
 import org.warthog.pl.formulas.{PL, PLAtom}
-import org.warthog.generic.formulas.{Formula, Verum, Falsum}
+import org.warthog.pl.io.CNFUtil
+import org.warthog.generic.formulas.{Formula, Verum, Falsum, And, Or, Not}
 
 /**
  * Propositional Craig Interpolation
@@ -42,4 +47,55 @@ object CraigInterpolation {
       case _ => pinterpolate(p.substitute(setminus.head, Falsum()).removeBooleanConstants || p.substitute(setminus.head, Verum()).removeBooleanConstants, q).removeBooleanConstants
     }
   }
+
+  /**
+   * Interpolant of p and q read off a resolution refutation of p /\ q, i.e. linear in the size of the
+   * refutation instead of exponential in the number of variables local to p
+   * @param p the formula A
+   * @param q the formula B, p /\ q has to be unsatisfiable
+   * @param pudlak use Pudlak's symmetric system instead of McMillan's
+   * @return an interpolant of p and q
+   */
+  def interpolate(p: Formula[PL], q: Formula[PL], pudlak: Boolean = false): Formula[PL] = {
+    val pcls = CNFUtil.toList(p)
+    val qcls = CNFUtil.toList(q)
+
+    if (pcls.contains(Nil))
+      Falsum[PL]()
+    else if (qcls.contains(Nil))
+      Verum[PL]()
+    else {
+      val solver = new ProofTracing()
+
+      /* clauses of p form partition A, those of q partition B */
+      for ((clss, name) <- List((pcls, "A"), (qcls, "B")); c <- clss) {
+        val cls = new Clause(solver, solver.getNewOriginalId())
+        c.foreach {
+          case Not(PLAtom(n)) => cls.push("-" + n)
+          case PLAtom(n)      => cls.push(n)
+        }
+        solver.pushClause(cls, name)
+      }
+      require(!solver.sat(), "interpolate(): p /\\ q is satisfiable")
+
+      val interpolator = new Interpolator(solver, Collections.singleton("A"))
+      val root = interpolator.interpolate(
+        if (pudlak) Interpolator.InterpolationSystem.PUDLAK else Interpolator.InterpolationSystem.MCMILLAN)
+      val circuit = interpolator.getCircuit()
+
+      /* children precede their parents, thus shared subcircuits are translated once */
+      val fms = new Array[Formula[PL]](root + 1)
+      for (n <- 0 to root)
+        fms(n) = circuit.kind(n) match {
+          case InterpolantCircuit.CONST => if (n == InterpolantCircuit.TRUE) Verum[PL]() else Falsum[PL]()
+          case InterpolantCircuit.LIT   => {
+            val atom = PLAtom(solver.lit2variable(circuit.literal(n)).getName())
+            if (CNFSolver.sign(circuit.literal(n))) atom else -atom
+          }
+          case InterpolantCircuit.AND   => And(fms(circuit.left(n)), fms(circuit.right(n)))
+          case _                        => Or(fms(circuit.left(n)), fms(circuit.right(n)))
+        }
+      fms(root)
+    }
+  }
 }
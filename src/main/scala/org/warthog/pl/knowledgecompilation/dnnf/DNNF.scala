@@ -4,6 +4,8 @@ import org.warthog.generic.formulas._
 import org.warthog.pl.formulas.{PLAtom, PL}
 import java.util.IdentityHashMap
 import collection.JavaConversions
+import de.stzoit.prover.cnf.CNFSolver
+import de.stzoit.prover.dnnf.{DNNFCounter, DNNFManager, NNFFormat}
 
 /**
  * Representation of a DNNF
@@ -156,18 +158,17 @@ object DNNF {
    * @return The node count
    */
   def nodeCount(dnnf: DNNF): Long = {
-    val seen = collection.mutable.Set[Int]()
+    /* identityHashCode is not unique, thus compare references */
+    val seen = java.util.Collections.newSetFromMap(new IdentityHashMap[DNNF, java.lang.Boolean])
     def cnt(dnnf: DNNF): Long =
-      if (seen.contains(System.identityHashCode(dnnf))) // node already visited
+      if (!seen.add(dnnf)) // node already visited
         0
-      else {
-        seen.add(System.identityHashCode(dnnf))
+      else
         dnnf match {
           case And(args@_*) => args.foldLeft(1L)(_ + cnt(_))
           case Or(args@_*)  => args.foldLeft(1L)(_ + cnt(_))
           case _            => 1
         }
-      }
     cnt(dnnf)
   }
 
@@ -184,6 +185,97 @@ object DNNF {
   }
 
 
+  /**
+   * Stores a dnnf in a DNNFManager, shared subgraphs are visited once and
+   * structurally equal nodes are merged
+   * Will throw an exception if the dnnf contains a StringLit
+   * @param dnnf The dnnf
+   * @param manager The manager to store the nodes in
+   * @return The ID of the root node in the manager
+   */
+  def toManager(dnnf: DNNF, manager: DNNFManager): Int =
+    store(dnnf, manager, {
+      case Lit(v, phase)   => manager.literalNode(v, phase)
+      case _               => throw new Exception("StringLit found!")
+    })
+
+  /**
+   * Stores a dnnf in a DNNFManager like toManager, but numbers the variables
+   * (of Lits and StringLits, by name) consecutively from 1 in the order of their first occurrence
+   * @param dnnf The dnnf
+   * @param manager The manager to store the nodes in
+   * @param ids The variable numbers, new variables are added
+   * @return The ID of the root node in the manager
+   */
+  def toManager(dnnf: DNNF, manager: DNNFManager, ids: collection.mutable.Map[String, Int]): Int = {
+    def id(name: String) = ids.getOrElseUpdate(name, ids.size + 1)
+    store(dnnf, manager, {
+      case Lit(v, phase)       => manager.literalNode(id(v.toString), phase)
+      case StringLit(v, phase) => manager.literalNode(id(v), phase)
+    })
+  }
+
+  private def store(dnnf: DNNF, manager: DNNFManager, literal: DNNF => Int): Int = {
+    val seen = JavaConversions.mapAsScalaMap[DNNF, Int](new IdentityHashMap[DNNF, Int])
+    def st(dnnf: DNNF): Int = seen.getOrElseUpdate(dnnf, dnnf match {
+      case True              => DNNFManager.TRUE
+      case False             => DNNFManager.FALSE
+      case And(args@_*)      => manager.and(args.map(st): _*)
+      case Or(args@_*)       => manager.or(args.map(st): _*)
+      case lit               => literal(lit)
+    })
+    st(dnnf)
+  }
+
+  /**
+   * Rebuilds the dnnf of a node of a DNNFManager, each reachable node of the
+   * manager yields one object, thus sharing is preserved
+   * @param manager The manager
+   * @param root The ID of the root node
+   * @return The dnnf
+   */
+  def fromManager(manager: DNNFManager, root: Int): DNNF = {
+    val nodes = new Array[DNNF](root + 1)
+    val reachable = manager.reachable(root)
+    for (n <- 0 to root if reachable(n))
+      nodes(n) = manager.kind(n) match {
+        case DNNFManager.CONST => if (n == DNNFManager.TRUE) True else False
+        case DNNFManager.LIT   =>
+          Lit(CNFSolver.lit2var(manager.literal(n)), CNFSolver.sign(manager.literal(n)))
+        case DNNFManager.AND   => And((0 until manager.numChildren(n)).map(i => nodes(manager.child(n, i))): _*)
+        case _                 => Or((0 until manager.numChildren(n)).map(i => nodes(manager.child(n, i))): _*)
+      }
+    nodes(root)
+  }
+
+  /**
+   * Writes a dnnf to a file in the c2d .nnf format (or its binary variant, see NNFFormat),
+   * shared subgraphs are written once
+   * Will throw an exception if the dnnf contains a StringLit
+   * @param dnnf The dnnf
+   * @param file The file to write
+   * @param binary Write the compact binary variant
+   */
+  def writeNNF(dnnf: DNNF, file: String, binary: Boolean = false) {
+    val manager = new DNNFManager
+    val root = toManager(dnnf, manager)
+    if (binary)
+      NNFFormat.writeBinary(manager, root, new java.io.File(file))
+    else
+      NNFFormat.write(manager, root, new java.io.File(file))
+  }
+
+  /**
+   * Reads a dnnf from a .nnf file (c2d format or its binary variant),
+   * the file is memory mapped and the nodes are shared as in the file
+   * @param file The file to read
+   * @return The dnnf, variables are Lits
+   */
+  def readNNF(file: String): DNNF = {
+    val manager = new DNNFManager
+    fromManager(manager, NNFFormat.read(file, manager))
+  }
+
   /**
    * Simplifies a dnnf:
    *   1) Removes boolean constants
@@ -198,41 +290,75 @@ object DNNF {
     val seen = JavaConversions.mapAsScalaMap[DNNF, DNNF](new IdentityHashMap[DNNF, DNNF])
 
     def simp(dnnf: DNNF): DNNF = seen.getOrElseUpdate(dnnf, dnnf match {
-      case And(args@_*) =>
-        val simplifiedArgs = args.map(simp(_)).map(arg => arg match {
-          case And(as@_*) => as
-          case True => List()
-          case _ => List(arg)
-        }).flatten
-        if (simplifiedArgs.contains(False))
-          False
-        else
-          simplifiedArgs.size match {
-            case 0 => True
-            case 1 => simplifiedArgs.head
-            case _ => And(simplifiedArgs:_*)
-          }
-      case Or(args@_*) =>
-        val simplifiedArgs = args.map(simp(_)).map(arg => arg match {
-          case Or(as@_*) => as
-          case False => List()
-          case _ => List(arg)
-        }).flatten
-
-        if (simplifiedArgs.contains(True))
-          True
-        else
-          simplifiedArgs.size match {
-            case 0 => False
-            case 1 => simplifiedArgs.head
-            case _ => Or(simplifiedArgs:_*)
-          }
+      case And(args@_*) => simplifiedAnd(args.map(simp(_)))
+      case Or(args@_*) => simplifiedOr(args.map(simp(_)))
       case _ => dnnf
     })
 
     simp(dnnf)
   }
 
+  /**
+   * Conjunction of simplified dnnfs, simplified as by simplify (i.e. only the top level is simplified)
+   * @param args The simplified operands
+   * @return A simplified dnnf equivalent to And(args)
+   */
+  private def simplifiedAnd(args: Seq[DNNF]): DNNF = {
+    val simplifiedArgs = args.map(arg => arg match {
+      case And(as@_*) => as
+      case True => List()
+      case _ => List(arg)
+    }).flatten
+    if (simplifiedArgs.contains(False))
+      False
+    else
+      simplifiedArgs.size match {
+        case 0 => True
+        case 1 => simplifiedArgs.head
+        case _ => And(simplifiedArgs:_*)
+      }
+  }
+
+  /**
+   * Disjunction of simplified dnnfs, simplified as by simplify (i.e. only the top level is simplified)
+   * @param args The simplified operands
+   * @return A simplified dnnf equivalent to Or(args)
+   */
+  private def simplifiedOr(args: Seq[DNNF]): DNNF = {
+    val simplifiedArgs = args.map(arg => arg match {
+      case Or(as@_*) => as
+      case False => List()
+      case _ => List(arg)
+    }).flatten
+    if (simplifiedArgs.contains(True))
+      True
+    else
+      simplifiedArgs.size match {
+        case 0 => False
+        case 1 => simplifiedArgs.head
+        case _ => Or(simplifiedArgs:_*)
+      }
+  }
+
+  /**
+   * Rebuilds a dnnf bottom up, each node is visited once (nodes are identified by reference),
+   * thus shared subgraphs stay shared in the result
+   * Inner nodes are simplified as by simplify, i.e. the result is simplify of the transformed dnnf,
+   * without a second pass
+   * @param dnnf The dnnf
+   * @param leaf The replacement of a leaf (literal or constant)
+   * @return The transformed dnnf
+   */
+  private def transform(dnnf: DNNF, leaf: DNNF => DNNF): DNNF = {
+    val seen = JavaConversions.mapAsScalaMap[DNNF, DNNF](new IdentityHashMap[DNNF, DNNF])
+    def trans(dnnf: DNNF): DNNF = seen.getOrElseUpdate(dnnf, dnnf match {
+      case And(args@_*) => simplifiedAnd(args.map(trans))
+      case Or(args@_*) => simplifiedOr(args.map(trans))
+      case _ => leaf(dnnf)
+    })
+    trans(dnnf)
+  }
+
 
 
   /*
@@ -245,50 +371,52 @@ object DNNF {
    * @param dnnf The dnnf
    * @return True, if the dnnf is satisfiable
    */
-  def sat(dnnf: DNNF): Boolean = dnnf match {
-    case True => true
-    case False => false
-    case Lit(_, _) => true
-    case StringLit(_, _) => true
-    case And(args@_*) => args.forall(sat(_))
-    case Or(args@_*) => args.exists(sat(_))
+  def sat(dnnf: DNNF): Boolean = {
+    val seen = JavaConversions.mapAsScalaMap[DNNF, Boolean](new IdentityHashMap[DNNF, Boolean])
+    def s(dnnf: DNNF): Boolean = seen.getOrElseUpdate(dnnf, dnnf match {
+      case True => true
+      case False => false
+      case Lit(_, _) => true
+      case StringLit(_, _) => true
+      case And(args@_*) => args.forall(s(_))
+      case Or(args@_*) => args.exists(s(_))
+    })
+    s(dnnf)
   }
 
   /**
    * Restricts a dnnf with the given literals (StringLits)
+   * Each node is visited once, the result is simplified and shares its subgraphs like the dnnf
    * @param dnnf A dnnf
    * @param omega A set of literals
    * @return The dnnf restricted to the literals of omega
    */
-  def restrict(dnnf: DNNF, omega: Set[StringLit]): DNNF = dnnf match {
-    case dnnf: StringLit =>
-      if (omega.contains(dnnf))
+  def restrict(dnnf: DNNF, omega: Set[StringLit]): DNNF = transform(dnnf, {
+    case lit: StringLit =>
+      if (omega.contains(lit))
         True
-      else if (omega.contains(neg(dnnf)))
+      else if (omega.contains(neg(lit)))
         False
       else
-        dnnf
-    case And(args@_*) => simplify(And(args.map(restrict(_, omega)): _*))
-    case Or(args@_*) => simplify(Or(args.map(restrict(_, omega)): _*))
-    case _ => dnnf
-  }
+        lit
+    case other => other
+  })
 
   /**
    * Projects a dnnf to the given literals
+   * Each node is visited once, the result is simplified and shares its subgraphs like the dnnf
    * @param dnnf A dnnf
    * @param omega A set of literals
    * @return The dnnf projected to the literals of omega
    */
-  def project(dnnf: DNNF, omega: Set[StringLit]): DNNF = dnnf match {
-    case dnnf: StringLit =>
-      if (!(omega.contains(dnnf) || omega.contains(neg(dnnf))))
+  def project(dnnf: DNNF, omega: Set[StringLit]): DNNF = transform(dnnf, {
+    case lit: StringLit =>
+      if (!(omega.contains(lit) || omega.contains(neg(lit))))
         True
       else
-        dnnf
-    case And(args@_*) => simplify(And(args.map(project(_, omega)): _*))
-    case Or(args@_*) => simplify(Or(args.map(project(_, omega)): _*))
-    case _ => dnnf
-  }
+        lit
+    case other => other
+  })
 
 
   /**
@@ -297,22 +425,26 @@ object DNNF {
    * @param dnnf The dnnf
    * @return The Minimum Cardinality of the dnnf
    */
-  def minCardinality(dnnf: DNNF): Option[Long] = dnnf match {
-    case True => Some(0)
-    case False => None
-    case Lit(_, phase) => if (phase) Some(0) else Some(1)
-    case StringLit(_, phase) => if (phase) Some(0) else Some(1)
-    case And(args@_*) => args.foldLeft[Option[Long]](Some(0))((n, arg) =>
-      (n, minCardinality(arg)) match {
-        case (Some(i), Some(j)) => Some(i + j)
-        case _ => None
-      })
-    case Or(args@_*) => args.map(minCardinality(_)).foldLeft[Option[Long]](None)((n, m) =>
-      (n, m) match {
-        case (Some(i), Some(j)) => Some(scala.math.min(i, j))
-        case (Some(i), _) => Some(i)
-        case (_, j) => j
-      })
+  def minCardinality(dnnf: DNNF): Option[Long] = {
+    val seen = JavaConversions.mapAsScalaMap[DNNF, Option[Long]](new IdentityHashMap[DNNF, Option[Long]])
+    def card(dnnf: DNNF): Option[Long] = seen.getOrElseUpdate(dnnf, dnnf match {
+      case True => Some(0)
+      case False => None
+      case Lit(_, phase) => if (phase) Some(0) else Some(1)
+      case StringLit(_, phase) => if (phase) Some(0) else Some(1)
+      case And(args@_*) => args.foldLeft[Option[Long]](Some(0))((n, arg) =>
+        (n, card(arg)) match {
+          case (Some(i), Some(j)) => Some(i + j)
+          case _ => None
+        })
+      case Or(args@_*) => args.map(card(_)).foldLeft[Option[Long]](None)((n, m) =>
+        (n, m) match {
+          case (Some(i), Some(j)) => Some(scala.math.min(i, j))
+          case (Some(i), _) => Some(i)
+          case (_, j) => j
+        })
+    })
+    card(dnnf)
   }
 
 
@@ -349,24 +481,48 @@ object DNNF {
    * A method for model counting
    * According to Adnan Darwitche: "On the Tractable Counting of Theory Models and its Application to Truth Maintenance and Belief Revision"
    * each or-node in a sd-DNNF corresponds to a + and each and-node corresponds to a *
+   * The dnnf is not smoothed, DNNFCounter corrects for the variables missing in the children of or-nodes
+   * during the (linear) pass
+   * The dnnf is copied into a DNNFManager first, results of compileToManager are counted by ManagedDNNF.countModels
    * @param dnnf The d-DNNF whose model should be counted
    * @param vars The number of variables of the dnnf (better: of the original formula!)
    * @return The number of models of the specified d-DNNF
    */
   def countModels(dnnf: DNNF, vars: Int): BigInt = {
-    val seen = JavaConversions.mapAsScalaMap[DNNF, BigInt](new IdentityHashMap[DNNF, BigInt])
-    def count(dnnf: DNNF): BigInt = seen.getOrElseUpdate(dnnf, dnnf match {
-      case Or(args@_*)    => args.foldLeft(BigInt(0))(_ + count(_))
-      case And(args@_*)   => if(args.isEmpty) BigInt(0) else args.foldLeft(BigInt(1))(_ * count(_))
-      case StringLit(_,_) => BigInt(1)
-      case Lit(_,_)       => BigInt(1)
-      case _              => throw new Exception("DNNF still contains boolean constants, please simplify before counting models!")
-    })
-    val smoothed = smooth(dnnf)
-    //if (!isSmooth(smoothed)) println("Not smooth!!")  /* Debugging */
-    count(smoothed) * BigInt(2).pow(vars - DNNF.varSet(smoothed).size)
+    val c = counter(dnnf)
+    BigInt(c.counter.countModels) * BigInt(2).pow(vars - c.ids.size)
   }
 
+  /**
+   * Weighted model counting: the sum over all models (over the variables of the dnnf)
+   * of the product of the weights of their literals
+   * Stores the dnnf for this query only, use counter for repeated queries
+   * @param dnnf The d-DNNF
+   * @param weight The weight of a literal given by variable name and phase
+   * @return The weighted model count
+   */
+  def weightedModelCount(dnnf: DNNF, weight: (String, Boolean) => Double): Double =
+    counter(dnnf).weightedModelCount(weight)
+
+  /**
+   * Computes the weighted model count of the models containing each literal
+   * (divided by weightedModelCount, the probability of the literal)
+   * Stores the dnnf for this query only, use counter for repeated queries
+   * @param dnnf The d-DNNF
+   * @param weight The weight of a literal given by variable name and phase
+   * @return Literal (variable name and phase) -> weighted model count of the models containing it
+   */
+  def marginals(dnnf: DNNF, weight: (String, Boolean) => Double): Map[(String, Boolean), Double] =
+    counter(dnnf).marginals(weight)
+
+  /**
+   * Stores a d-DNNF once for repeated (weighted) counting queries,
+   * each query is linear in the size of the dnnf and does not rebuild it
+   * @param dnnf The d-DNNF
+   * @return The counter
+   */
+  def counter(dnnf: DNNF): WeightedCounter = new WeightedCounter(dnnf)
+
   /* Temporary test method */
   def isDecomposable(dnnf: DNNF): Boolean = {
     val seen = JavaConversions.mapAsScalaMap[DNNF, Boolean](new IdentityHashMap[DNNF, Boolean])
@@ -384,4 +540,69 @@ object DNNF {
     })
     isDec(dnnf)
   }
-}
\ No newline at end of file
+}
+
+/**
+ * A DNNF as built by a compiler in a DNNFManager, i.e. without case class nodes
+ * Literals are CNFSolver literals over the variables of the compiled clauses
+ *
+ * @param manager The manager holding the nodes
+ * @param root The ID of the root node
+ */
+case class ManagedDNNF(manager: DNNFManager, root: Int) {
+  /** The case class DNNF of root (simplified), each reachable node is rebuilt once */
+  def toDNNF: DNNF = DNNF.simplify(DNNF.fromManager(manager, root))
+
+  /** The number of nodes reachable from root */
+  def nodeCount: Long = manager.nodeCount(root)
+
+  /**
+   * The number of models over the variables 1..vars, counted on the manager's nodes
+   * @param vars The number of variables of the original formula
+   */
+  def countModels(vars: Int): BigInt = BigInt(new DNNFCounter(manager, root, vars).countModels)
+}
+
+/**
+ * A d-DNNF stored in a DNNFManager with a DNNFCounter for repeated queries
+ * (e.g. re-evaluation after each change of the weights)
+ * The variables of the dnnf are numbered by ids, i.e. the weight arrays of counter
+ * are indexed by ids(name)
+ *
+ * @param dnnf The d-DNNF
+ */
+class WeightedCounter(dnnf: DNNF) {
+  private val manager = new DNNFManager
+  private val variables = collection.mutable.LinkedHashMap[String, Int]()
+  private val root = DNNF.toManager(dnnf, manager, variables)
+
+  /** Variable name -> number (1..ids.size) */
+  val ids: Map[String, Int] = variables.toMap
+
+  /** The counter, queries take weight arrays indexed by variable number */
+  val counter = new DNNFCounter(manager, root, ids.size)
+
+  private val pos = new Array[Double](ids.size + 1)
+  private val neg = new Array[Double](ids.size + 1)
+
+  private def setWeights(weight: (String, Boolean) => Double) {
+    for ((name, v) <- variables) {
+      pos(v) = weight(name, true)
+      neg(v) = weight(name, false)
+    }
+  }
+
+  /** The weighted model count, see DNNF.weightedModelCount */
+  def weightedModelCount(weight: (String, Boolean) => Double): Double = synchronized {
+    setWeights(weight)
+    counter.count(pos, neg)
+  }
+
+  /** The weighted model counts of the models containing each literal, see DNNF.marginals */
+  def marginals(weight: (String, Boolean) => Double): Map[(String, Boolean), Double] = synchronized {
+    setWeights(weight)
+    val m = counter.marginals(pos, neg)
+    variables.toMap.flatMap(e =>
+      List((e._1, true) -> m(CNFSolver.var2lit(e._2, true)), (e._1, false) -> m(CNFSolver.var2lit(e._2, false))))
+  }
+}
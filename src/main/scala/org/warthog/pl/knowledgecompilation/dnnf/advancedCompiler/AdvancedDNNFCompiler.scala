@@ -1,107 +1,174 @@
 package org.warthog.pl.knowledgecompilation.dnnf.advancedCompiler
 
-import de.stzoit.prover.dnnf.DNNFOperations
+import de.stzoit.prover.dnnf.{ComponentCache, ConcurrentComponentCache, DNNFManager, DNNFOperations}
 import org.warthog.pl.knowledgecompilation.dnnf._
 import org.warthog.pl.knowledgecompilation.dnnf.advancedCompiler.dtree._
 import de.stzoit.prover.cnf.{Clause, CNFSolver}
 import scala.collection.JavaConverters._
-import collection.mutable.{WeakHashMap, HashMap => MutableHashMap}
+import java.util.concurrent.{ForkJoinPool, ForkJoinTask, RecursiveTask}
+
+
+/**
+ * Compiler for d-DNNF guided by a dtree, see cnf2dnnf
+ *
+ * The nodes are built in a DNNFManager (getManager), i.e. structurally equal nodes are created once and compile
+ * returns the ID of the root node; cnf2dnnf rebuilds the case class DNNF from it.
+ *
+ * With parallelism > 1 the compilation runs on a fork/join pool: if the separator of a dtree node
+ * is fully instantiated, its right child (if it has at least parallelThreshold variables) is
+ * compiled by a forked task on a clone of the solver state while the left child is compiled
+ * by the current thread. A clone is a fresh compiler whose solver holds the clauses of the
+ * child and the current assignment of its variables as units, the component cache is shared
+ * (see ConcurrentComponentCache) as is the manager, whose nodes are created under its lock. If a
+ * clone refutes its child, the child is compiled again by the current thread: FALSE has to be
+ * explained by a conflict of the forking solver, otherwise compile would consult the assertion
+ * level and conflict-driven clause of an earlier, unrelated conflict.
+ *
+ * @param numClauses The number of clauses contained in the dtree
+ * @param numVariables The number of variables contained in the dtree
+ */
+class AdvancedDNNFCompiler private (numClauses: Int, numVariables: Int,
+                                    cache: ConcurrentComponentCache[Integer], pool: ForkJoinPool, manager: DNNFManager) {
 
+  /**
+   * @param cacheBudget The byte budget of the component cache
+   * @param parallelism The number of threads compiling independent subtrees, 1 for a sequential compilation
+   */
+  def this(numClauses: Int, numVariables: Int, cacheBudget: Long = AdvancedDNNFCompiler.DefaultCacheBudget,
+           parallelism: Int = 1) =
+    this(numClauses, numVariables,
+      new ConcurrentComponentCache[Integer](cacheBudget, if (parallelism > 1) 4 * parallelism else 1),
+      if (parallelism > 1) new ForkJoinPool(parallelism) else null, new DNNFManager)
 
-class AdvancedDNNFCompiler(numClauses: Int, numVariables: Int) {
   private val operations = new DNNFOperations
 
-  private val andUnique = MutableHashMap[Set[DNNF], DNNF]()
-  private val orUnique = MutableHashMap[Set[DNNF], DNNF]()
-  private val termUnique = MutableHashMap[Set[DNNF], DNNF]()
+  /* Clause id->literals, shared with the clones */
+  private var clauses = Array[Array[Int]]()
+
+  /** Minimal number of variables of a subtree which is compiled by a forked task */
+  var parallelThreshold = 32
+
+  /**
+   * Score separator variables by VSADS (activity * VSADSActivityWeight + occurrences * VSADSOccurrenceWeight,
+   * cf. Sang, Beame, Kautz: "Heuristics for Fast Exact Model Counting") instead of by their unsubsumed occurrences
+   */
+  var vsads = false
+
+  private def score(v: Int): Double =
+    if (vsads)
+      AdvancedDNNFCompiler.VSADSActivityWeight * operations.activity(v) +
+        AdvancedDNNFCompiler.VSADSOccurrenceWeight * operations.unsubsumedOccurrences(v)
+    else
+      operations.unsubsumedOccurrences(v)
+
+  /* variables assigned by a clone's initial units, these literals belong to the forking compiler's terms */
+  private val base = new Array[Boolean](numVariables + 1)
+
+  /* number of nodes created so far (including those of joined clones), charged to the cache entries */
+  private var created = 0L
+
+  /* the manager is shared with the clones, the nodes new to it are counted */
+  private def node(create: => Int): Int = manager.synchronized {
+    val before = manager.size
+    val n = create
+    created += manager.size - before
+    n
+  }
 
-  private val cache = new WeakHashMap[BitVec, DNNF]()
+  private def lookupAnd(args: Int*): Int = node(manager.and(args: _*))
 
-  private def lookupAnd(args: DNNF*): DNNF =
-    andUnique.getOrElseUpdate(args.toSet, And(args:_*))
+  private def lookupOr(args: Int*): Int = node(manager.or(args: _*))
 
-  private def lookupOr(args: DNNF*) =
-    orUnique.getOrElseUpdate(args.toSet, Or(args:_*))
+  private def lookupTerm(term: Set[Int]): Int = node(manager.and(term.toSeq.map(manager.literalNode(_)): _*))
 
-  private def lookupTerm(term: Set[DNNF]) =
-    termUnique.getOrElseUpdate(term, And(term.toSeq:_*))
+  private def lookupLit(lit: Int): Int = node(manager.literalNode(lit))
 
   private def pos(v: Int) = CNFSolver.var2lit(v, true)
   private def neg(v: Int) = CNFSolver.var2lit(v, false)
-  private def neg(l: Lit) = Lit(l.variable, !l.phase)
+
+  /** The manager holding the nodes of compile */
+  def getManager: DNNFManager = manager
+
+  /**
+   * Compiles t like compile and rebuilds the result as a case class DNNF
+   * @param t The dtree
+   * @return The d-DNNF
+   */
+  def cnf2dnnf(t: DTree): DNNF = DNNF.fromManager(manager, compile(t))
 
   /**
    * Compilation routine according to A. Darwiche: "New Advances in Compiling
    * CNF to Decomposable Negation Normal Form"
+   * @param t The dtree
+   * @return The ID of the d-DNNF in getManager
    */
-  def cnf2dnnf(t: DTree): DNNF = {
+  def compile(t: DTree): Int = {
+    if (pool != null && !ForkJoinTask.inForkJoinPool)
+      return pool.invoke(new RecursiveTask[Integer] { def compute(): Integer = Int.box(compile(t)) }).intValue
     trackRecursiveCall
 
-    val sep = t.currentSeparator(operations).toList
+    val sep = t.currentSeparator(operations)
     val term = terms(t.varSet)
 
     if (sep.isEmpty)
       t match {
         case DTreeLeaf(id, clause) =>
           conjoin(term, cnfAux(t))
+        case DTreeNode(left, right: DTreeNode) if pool != null && right.varSet.size >= parallelThreshold =>
+          conjoin(term, cnfAux(left), fork(right))
         case DTreeNode(left, right) =>
           conjoin(term, cnfAux(left), cnfAux(right))
       }
     else {
-      /* Choose the variable which appears in the largest number of unsubsumed clauses */
-      /* TODO: Improve method countUnsubsumedOccirrences (current implementation is far too inefficient, especially on hard cnfs)
-      val occ = t.countUnsubsumedOccurrences(operations, sep.toArray)
-      val v = sep(occ.indexWhere(_ == occ.max))
-      */
-      val v = sep.head
+      /*
+       * Choose the variable which appears in the largest number of unsubsumed clauses,
+       * the counts are maintained by the solver, thus this takes O(|sep|)
+       */
+      val v = sep.maxBy(score)
 
       /* positive branch */
-      var p: DNNF = False
+      var p = DNNFManager.FALSE
 
       if (operations.decide(pos(v)))
-        p = cnf2dnnf(t)
+        p = compile(t)
       operations.undoDecide(v)
-      if (p == False) {
+      if (p == DNNFManager.FALSE) {
         if (operations.atAssertionLevel() && operations.assertCdLiteral())
-          return cnf2dnnf(t) /* try again */
+          return compile(t) /* try again */
         else
-          return False /* backtracking */
+          return DNNFManager.FALSE /* backtracking */
       }
 
       /* negative branch */
-      var n: DNNF = False
+      var n = DNNFManager.FALSE
 
       if (operations.decide(neg(v)))
-        n = cnf2dnnf(t)
+        n = compile(t)
       operations.undoDecide(v)
-      if (n == False) {
+      if (n == DNNFManager.FALSE) {
         if (operations.atAssertionLevel() && operations.assertCdLiteral())
-          return cnf2dnnf(t) /* try again */
+          return compile(t) /* try again */
         else
-          return False /* backtracking */
+          return DNNFManager.FALSE /* backtracking */
       }
 
-      conjoin(term, disjoin(conjoin(Lit(v, true), p), conjoin(Lit(v, false), n)))
+      conjoin(term, disjoin(conjoin(lookupLit(pos(v)), p), conjoin(lookupLit(neg(v)), n)))
     }
   }
 
-  private def conjoin(term: Set[DNNF], shannonExpansion: DNNF): DNNF = {
-    val termAnd = lookupTerm(term)
-
-    if (termAnd == And() || termAnd == True)
-      shannonExpansion
-    else if (termAnd == False || shannonExpansion == False)
-      False
+  /* an empty term is TRUE, which and() drops */
+  private def conjoin(term: Set[Int], shannonExpansion: Int): Int =
+    if (shannonExpansion == DNNFManager.FALSE)
+      DNNFManager.FALSE
     else
-      lookupAnd(termAnd, shannonExpansion)
-  }
+      lookupAnd(lookupTerm(term), shannonExpansion)
 
   /*
    * This method will conjoin term (all newly implied literals) and left and right DNNF
    * Note that left and right are call-by-name parameters, so they will only be evaluated if necessary
    * This is strongly required, since otherwise backtracking will cause errors
    */
-  private def conjoin(term: Set[DNNF], left: => DNNF, right: => DNNF): DNNF = {
+  private def conjoin(term: Set[Int], left: => Int, right: => Int): Int = {
     val termsAnd = lookupTerm(term)
     lazy val leftDnnf = left    // left and right should be evaluated only once
     lazy val rightDnnf = {
@@ -109,25 +176,105 @@ class AdvancedDNNFCompiler(numClauses: Int, numVariables: Int) {
       right
     }
 
-    if (termsAnd == False || leftDnnf == False || rightDnnf == False)
-      False
+    if (leftDnnf == DNNFManager.FALSE || rightDnnf == DNNFManager.FALSE)
+      DNNFManager.FALSE
     else
       lookupAnd(termsAnd, leftDnnf, rightDnnf)
   }
 
-  private def conjoin(lit: DNNF, fm: DNNF): DNNF = lookupAnd(lit, fm)
+  /*
+   * like conjoin(term, left, right), but right is compiled by a forked task, which is cancelled if not needed,
+   * a refuted right child is compiled again on this solver to derive the conflict here
+   */
+  private def conjoin(term: Set[Int], left: => Int, right: Fork): Int = {
+    val termsAnd = lookupTerm(term)
+    lazy val leftDnnf = left
+
+    if (leftDnnf == DNNFManager.FALSE) {
+      right.cancel(false)
+      DNNFManager.FALSE
+    } else {
+      terms(Set[Int]())
+      val forked = right.join().intValue
+      recursiveCalls += right.recursiveCalls
+      created += right.created
+      val rightDnnf = if (forked == DNNFManager.FALSE) cnfAux(right.t) else forked
+      if (rightDnnf == DNNFManager.FALSE)
+        DNNFManager.FALSE
+      else
+        lookupAnd(termsAnd, leftDnnf, rightDnnf)
+    }
+  }
 
-  private def disjoin(left: DNNF, right: DNNF): DNNF = lookupOr(left, right)
+  private def conjoin(lit: Int, fm: Int): Int = lookupAnd(lit, fm)
+
+  private def disjoin(left: Int, right: Int): Int = lookupOr(left, right)
 
   /**
    * compute all newly implied literals that intersect with the variable set vs
    *
    * @param vs variable set to compute intersection of unit implied literals with
-   * @return set of newly implied literals
+   * @return set of newly implied literals (CNFSolver encoding)
    */
-  private def terms(vs: Set[Int]): Set[DNNF] =
+  private def terms(vs: Set[Int]): Set[Int] =
     operations.newlyImplied().asScala.toSet.map((x: java.lang.Integer) => x.toInt).
-      filter(x => vs.contains(x / 2)).map((x: Int) => Lit(x / 2, x % 2 == 1))
+      filter(x => vs.contains(x / 2) && !base(x / 2))
+
+  /**
+   * Forked compilation of t on a clone of the current solver state
+   * @param t The dtree, its separator is fully instantiated
+   * @return The started task
+   */
+  private def fork(t: DTree): Fork = {
+    val units = t.vars.filter(operations.var2val(_) != CNFSolver.Val.UNKNOWN).
+      map(v => CNFSolver.var2lit(v, operations.var2val(v) == CNFSolver.Val.TRUE))
+    val task = new Fork(t, units)
+
+    task.fork()
+    task
+  }
+
+  private class Fork(val t: DTree, units: Array[Int]) extends RecursiveTask[Integer] {
+    var recursiveCalls = 0L
+    var created = 0L
+
+    def compute(): Integer = {
+      val compiler = new AdvancedDNNFCompiler(numClauses, numVariables, cache, pool, manager)
+
+      compiler.parallelThreshold = parallelThreshold
+      compiler.vsads = vsads
+      val result = if (compiler.initClone(clauses, t.clauseIds, units)) compiler.cnfAux(t) else DNNFManager.FALSE
+      recursiveCalls = compiler.recursiveCalls
+      created = compiler.created
+      Int.box(result)
+    }
+  }
+
+  /*
+   * solver of a clone: the clauses of the forked subtree (ids) and the assignment of its variables,
+   * the occurrences of the other clauses are not tracked
+   */
+  private def initClone(all: Array[Array[Int]], ids: Array[Int], units: Array[Int]): Boolean = {
+    clauses = all
+    for (lit <- units)
+      base(lit / 2) = true
+    for (i <- 1 to numVariables)
+      operations.newVariable(i.toString)
+    if (!ids.forall(id => pushClause(clauses(id))) || !units.forall(lit => pushClause(Array(lit))))
+      false
+    else {
+      val tracked = Array.fill(clauses.length)(Array[Int]())
+      for (id <- ids)
+        tracked(id) = clauses(id)
+      operations.trackOccurrences(tracked)
+      if (!operations.bcp())
+        false
+      else {
+        operations.newlyImplied() /* the units are part of the forking compiler's terms */
+        true
+      }
+    }
+  }
 
   /**
    * Auxillary method for cnf to dnnf-compilation: generate dnnf for clauses
@@ -136,25 +283,35 @@ class AdvancedDNNFCompiler(numClauses: Int, numVariables: Int) {
    * @param t DTree to compile
    * @return compilation result
    */
-  private def cnfAux(t: DTree): DNNF = t match {
+  private def cnfAux(t: DTree): Int = t match {
     case DTreeLeaf(_, clause) => clauseToDDNNF(clause)
     case _ => // t: DTreeNode
-      val key = computeCacheKey(t.currentClauseIds(operations), t.varSet)
-      cache.get(key) match {
-        case Some(v) => trackHit; v
-        case None =>
-          val r = cnf2dnnf(t)
-          if (r != False)
-            cache.put(key, r)
-          r
+      computeSignature(t)
+      val hi = signatureHi
+      val lo = signatureLo
+      val cached = cache.get(hi, lo)
+      if (cached != null) {
+        trackHit
+        cached.intValue
+      } else {
+        val before = created
+        val r = compile(t)
+        if (r != DNNFManager.FALSE) /* charge the nodes created for r, shared nodes are charged to the entry creating them */
+          cache.put(hi, lo, Int.box(r), (created - before) * AdvancedDNNFCompiler.NodeBytes)
+        r
       }
   }
 
-  var cacheHits: Long = 0L
+  def cacheHits: Long = cache.getHits
+  def cacheMisses: Long = cache.getMisses
+  def cacheEvictions: Long = cache.getEvictions
+  def cacheStatistics: String = cache.toString
+
+  private var hits = 0L
   private def trackHit = {
-    cacheHits += 1
-    if (verbose && (cacheHits < 100000 && cacheHits % 1000 == 0 || cacheHits % 10000 == 0))
-      println("tracked cache hits: " + cacheHits)
+    hits += 1
+    if (verbose && (hits < 100000 && hits % 1000 == 0 || hits % 10000 == 0))
+      println("tracked cache hits: " + hits)
   }
 
   var recursiveCalls = 0L
@@ -164,32 +321,53 @@ class AdvancedDNNFCompiler(numClauses: Int, numVariables: Int) {
       println("recursive calls of cnf2Ddnnf: " + recursiveCalls)
   }
 
+  private var signatureHi = 0L
+  private var signatureLo = 0L
+
   /**
-   * Compute a cache key as described in "New Advances in CNF to Decomposable
-   * Negation Normal Form": Key is made up of a bit vector in which for each
-   * unsubsumed clause and each instantiated variable a binary flag is set.
+   * Compute the cache key as described in "New Advances in CNF to Decomposable
+   * Negation Normal Form": the key stands for the set of unsubsumed clauses and
+   * instantiated variables of t. Instead of a bit vector, the Zobrist codes of
+   * its elements are XORed into a 128 bit signature (signatureHi, signatureLo),
+   * thus a probe neither allocates nor hashes more than the node's elements.
+   * Subsumption is read from the solver's satisfied-clause bitset.
    *
-   * @param clauseIds unsubsumed clauses
-   * @param varSet variable set to scan for instantiated entries
-   * @return generated cache key
+   * @param t dtree node to compute the signature for
    */
-  private def computeCacheKey(clauseIds: Set[Int], varSet: Set[Int]) = {
-    val key = new BitVec(numClauses + numVariables)
-
-    for (cls <- clauseIds)
-      key.set(cls)
-    for (v <- varSet if operations.lit2variable(2 * v).get_value() != CNFSolver.Val.UNKNOWN)
-      key.set(v + numClauses)
-
-    key
+  private def computeSignature(t: DTree) {
+    val ids = t.clauseIds
+    val vars = t.vars
+    val satisfied = operations.satisfiedClauses()
+    var hi = 0L
+    var lo = 0L
+    var i = 0
+
+    while (i < ids.length) {
+      if ((satisfied(ids(i) >>> 6) & (1L << ids(i))) == 0) { /* unsubsumed */
+        hi = ComponentCache.addHi(hi, ids(i))
+        lo = ComponentCache.addLo(lo, ids(i))
+      }
+      i += 1
+    }
+    /* variables are encoded as negative elements to keep them apart from clause ids */
+    i = 0
+    while (i < vars.length) {
+      if (operations.var2val(vars(i)) != CNFSolver.Val.UNKNOWN) {
+        hi = ComponentCache.addHi(hi, -vars(i) - 1)
+        lo = ComponentCache.addLo(lo, -vars(i) - 1)
+      }
+      i += 1
+    }
+    signatureHi = hi
+    signatureLo = lo
   }
 
   /**
    * Transform a single Clause to d-DNNF (i.e. -1 2 -3 gets
-   * (-1 | (2 & 1) | (-3 & 1 & -2))), return True if clause is
+   * (-1 | (2 & 1) | (-3 & 1 & -2))), return TRUE if clause is
    * (unit-) subsumed
    */
-  def clauseToDDNNF(clause: Set[Int]) = {
+  def clauseToDDNNF(clause: Set[Int]): Int = {
     val nonsubsumedClause: Option[List[Int]] = //nonsubsumed(false, List.empty[Int], clause.toList)
       if (clause.exists(operations.lit2val(_) == CNFSolver.Val.TRUE))
         None
@@ -198,12 +376,12 @@ class AdvancedDNNFCompiler(numClauses: Int, numVariables: Int) {
 
     if (nonsubsumedClause.isDefined) {
       //clauseToDDNNFAux(nonsubsumedClause.get, Nil, Nil)
-      val lits = nonsubsumedClause.get.map(l => Lit(l / 2, (l % 2 == 1)))
-      val ands = lits.foldLeft[List[List[Lit]]](List(List()))((as, lit) => as ++ List(as.takeRight(1).head ++ List(neg(lit))))
-      Or(lits.zip(ands).map(t => And((List(t._1) ++ t._2): _*)): _*)
+      val lits = nonsubsumedClause.get
+      val ands = lits.foldLeft[List[List[Int]]](List(List()))((as, lit) => as ++ List(as.takeRight(1).head ++ List(lit ^ 1)))
+      node(manager.or(lits.zip(ands).map(t => manager.and((t._1 :: t._2).map(manager.literalNode(_)): _*)): _*))
     }
     else
-      True
+      DNNFManager.TRUE
   }
 
   /*
@@ -215,17 +393,33 @@ class AdvancedDNNFCompiler(numClauses: Int, numVariables: Int) {
    *     - Build a DTree from the clause set (optionally parse a externaly generated)
    */
   def initSolver(clauses: List[Set[Int]]): Boolean = {
+    this.clauses = clauses.map(_.toArray).toArray
     for (i <- 1 to numVariables)
       operations.newVariable(i.toString)
-    for (clause <- clauses) {
-      val solverClause = new Clause(operations)
-
-      for (lit <- clause)
-        solverClause.push((if (lit % 2 == 1) "" else "-") + (lit / 2))
-
-      if (!operations.pushClause(solverClause))
+    for (clause <- clauses)
+      if (!pushClause(clause))
         return false
-    }
+    operations.trackOccurrences(this.clauses)
     operations.bcp()
   }
-}
\ No newline at end of file
+
+  private def pushClause(clause: Traversable[Int]): Boolean = {
+    val solverClause = new Clause(operations)
+
+    for (lit <- clause)
+      solverClause.push((if (lit % 2 == 1) "" else "-") + (lit / 2))
+    operations.pushClause(solverClause)
+  }
+}
+
+object AdvancedDNNFCompiler {
+  /** Default byte budget of the component cache */
+  val DefaultCacheBudget: Long = 256L * 1024 * 1024
+
+  /** Estimated bytes of a created node in the manager: kind, offset, count, edges and unique table slot */
+  val NodeBytes: Long = 32L
+
+  /** Weights of the VSADS score (values of Sang, Beame, Kautz) */
+  val VSADSActivityWeight = 1.0
+  val VSADSOccurrenceWeight = 0.5
+}
@@ -1,11 +1,16 @@
 package org.warthog.pl.knowledgecompilation.dnnf.advancedCompiler.dtree
 
 import de.stzoit.prover.cnf.CNFSolver
+import de.stzoit.prover.dnnf.DNNFOperations
 
 /**
  * Trait for a Decomposition Tree (DTree) for the AdvancedCompiler
  * This is either a DTreeNode or a DTreeLeaf
  *
+ * The static clause ids and variables of each dtree are precomputed as sorted arrays, the current
+ * (unsubsumed) subsets are derived from them using the solver's satisfied-clause bitset and occurrence
+ * lists (see DNNFOperations.trackOccurrences, the tracked clause ids have to be the ids of the leaves)
+ *
  * Author: hildebrandt
  * Date:
  */
@@ -14,29 +19,37 @@ sealed trait DTree {
   /** All variables of this DTree */
   val varSet: Set[Int]
 
+  /** All variables of this DTree, sorted */
+  val vars: Array[Int]
+
+  /** The ids of all clauses of this DTree, sorted */
+  val clauseIds: Array[Int]
+
   /**
    * Computes the current variable set of this dtree
    * The current variable set includes all variables which:
    *  - are not yet assigned and
    *  - occur in clauses that are currently not subsumed
-   * @param solver The CNFSolver which knows the current variable assignment
+   * @param solver The DNNFOperations which know the current variable assignment
    * @return The current variable set of this dtree
    */
-  def currentVarSet(solver: CNFSolver): Set[Int]
+  def currentVarSet(solver: DNNFOperations): Set[Int] =
+    vars.filter(v => solver.var2val(v) == CNFSolver.Val.UNKNOWN && DTree.occursUnsubsumed(this, v, solver)).toSet
 
   /**
    * The current separator of this dtree
-   * @param solver The CNFSolver which knows the current variable assignment
-   * @return The current separator of this dtree
+   * @param solver The DNNFOperations which know the current variable assignment
+   * @return The current separator of this dtree, sorted
    */
-  def currentSeparator(solver: CNFSolver): Set[Int]
+  def currentSeparator(solver: DNNFOperations): Array[Int]
 
   /**
    * The ids of all non-subsumed clauses in this dtree
-   * @param solver The CNFSolver which knows the current variable assignment
+   * @param solver The DNNFOperations which know the current variable assignment
    * @return The current clause ids
    */
-  def currentClauseIds(solver: CNFSolver): Set[Int]
+  def currentClauseIds(solver: DNNFOperations): Set[Int] =
+    clauseIds.filterNot(solver.isSatisfied(_)).toSet
 
   /**
    * Counts the number of unsubsumed occurrences for each variable in vars
@@ -55,15 +68,21 @@ sealed trait DTree {
  */
 case class DTreeNode(val left: DTree, val right: DTree) extends DTree {
   lazy val varSet = left.varSet union right.varSet
+  lazy val vars = DTree.union(left.vars, right.vars)
+  lazy val clauseIds = DTree.union(left.clauseIds, right.clauseIds)
 
-  override def toString() = "Node(" + left + "," + right + ")"
-
-  def currentVarSet(solver: CNFSolver) = left.currentVarSet(solver) union right.currentVarSet(solver)
+  /** The static separator, i.e. the variables shared by the children */
+  lazy val separator = DTree.intersection(left.vars, right.vars)
 
-  /** The separator of a node is defined as the intersection of the variables sets of its children */
-  def currentSeparator(solver: CNFSolver) = left.currentVarSet(solver) intersect right.currentVarSet(solver)
+  override def toString() = "Node(" + left + "," + right + ")"
 
-  def currentClauseIds(solver: CNFSolver) = left.currentClauseIds(solver) union right.currentClauseIds(solver)
+  /**
+   * The separator of a node is defined as the intersection of the variables sets of its children,
+   * i.e. the unassigned variables of the static separator occurring in unsubsumed clauses of both children
+   */
+  def currentSeparator(solver: DNNFOperations) =
+    separator.filter(v => solver.var2val(v) == CNFSolver.Val.UNKNOWN &&
+      DTree.occursUnsubsumed(left, v, solver) && DTree.occursUnsubsumed(right, v, solver))
 
   def countUnsubsumedOccurrences(solver: CNFSolver, vars: Array[Int]) = {
     val l = left.countUnsubsumedOccurrences(solver, vars)
@@ -79,6 +98,8 @@ case class DTreeNode(val left: DTree, val right: DTree) extends DTree {
  */
 case class DTreeLeaf(val clauseId: Int, val clause: Set[Int]) extends DTree {
   lazy val varSet = clause.map(_ / 2)
+  lazy val vars = varSet.toArray.sorted
+  lazy val clauseIds = Array(clauseId)
 
   override def toString() = "Leaf(" + clauseId + ",{" + clause.map(l => (if (CNFSolver.sign(l)) "" else "-")+CNFSolver.lit2var(l)).mkString(",") + "})"
 
@@ -86,33 +107,14 @@ case class DTreeLeaf(val clauseId: Int, val clause: Set[Int]) extends DTree {
    * compute current variable set of clause at dtree leaf,
    * \emptyset if clause is satisfied under the current assignment
    */
-  def currentVarSet(solver: CNFSolver) = {
-    def computeCurrentVarSet(cls: Set[Int], currentVS: Set[Int]): Set[Int] =
-      if (cls.isEmpty)
-        currentVS
-      else {
-        val lit = cls.head
-
-        if (solver.lit2val(lit) == CNFSolver.Val.TRUE) {
-          /* clause satisfied */
-          Set.empty[Int]
-        } else if (solver.lit2val(lit) == CNFSolver.Val.FALSE) {
-          computeCurrentVarSet(cls.tail, currentVS)
-        } else
-          computeCurrentVarSet(cls.tail, currentVS + (lit / 2))
-      }
-    computeCurrentVarSet(clause, Set.empty[Int])
-  }
-
-  def currentClauseIds(solver: CNFSolver) = {
-    if (clause.exists(x => CNFSolver.litValue(x) == solver.lit2variable(x).get_value()))
+  override def currentVarSet(solver: DNNFOperations) =
+    if (solver.isSatisfied(clauseId))
       Set.empty[Int]
     else
-      Set(clauseId)
-  }
+      vars.filter(solver.var2val(_) == CNFSolver.Val.UNKNOWN).toSet
 
   /** The separator of a dtree leaf is trivially empty */
-  def currentSeparator(solver: CNFSolver) = Set.empty[Int]
+  def currentSeparator(solver: DNNFOperations) = Array[Int]()
 
   def countUnsubsumedOccurrences(solver: CNFSolver, vars: Array[Int]) =
     if (vars.exists(solver.lit2val(_) == CNFSolver.Val.TRUE))
@@ -124,6 +126,59 @@ case class DTreeLeaf(val clauseId: Int, val clause: Set[Int]) extends DTree {
 
 object DTree {
 
+  /**
+   * Checks whether the unassigned variable v occurs in an unsubsumed clause of dtree,
+   * using the solver's occurrence lists, i.e. in O(occurrences of v * log(clauses of dtree))
+   */
+  private[dtree] def occursUnsubsumed(dtree: DTree, v: Int, solver: DNNFOperations): Boolean = {
+    def occurs(cls: Array[Int]): Boolean = {
+      var i = 0
+      while (i < cls.length) {
+        if (!solver.isSatisfied(cls(i)) && java.util.Arrays.binarySearch(dtree.clauseIds, cls(i)) >= 0)
+          return true
+        i += 1
+      }
+      false
+    }
+    occurs(solver.occurrences(CNFSolver.var2lit(v, true))) || occurs(solver.occurrences(CNFSolver.var2lit(v, false)))
+  }
+
+  /** Union of two sorted arrays */
+  private[dtree] def union(a: Array[Int], b: Array[Int]): Array[Int] = {
+    val r = new Array[Int](a.length + b.length)
+    var i = 0
+    var j = 0
+    var n = 0
+    while (i < a.length || j < b.length) {
+      val x = if (j == b.length || i < a.length && a(i) <= b(j)) a(i) else b(j)
+      if (i < a.length && a(i) == x) i += 1
+      if (j < b.length && b(j) == x) j += 1
+      r(n) = x
+      n += 1
+    }
+    java.util.Arrays.copyOf(r, n)
+  }
+
+  /** Intersection of two sorted arrays */
+  private[dtree] def intersection(a: Array[Int], b: Array[Int]): Array[Int] = {
+    val r = new Array[Int](math.min(a.length, b.length))
+    var i = 0
+    var j = 0
+    var n = 0
+    while (i < a.length && j < b.length)
+      if (a(i) < b(j))
+        i += 1
+      else if (a(i) > b(j))
+        j += 1
+      else {
+        r(n) = a(i)
+        n += 1
+        i += 1
+        j += 1
+      }
+    java.util.Arrays.copyOf(r, n)
+  }
+
   /**
    * Computes the cardinality of all separators in a dtree
    * @param dtree The dtree
@@ -147,4 +202,27 @@ object DTree {
     }
     sepCard(dtree, 100)
   }
-}
\ No newline at end of file
+
+  /**
+   * Computes the width of a dtree, i.e. the size of its largest cluster - 1
+   * (A. Darwiche: "Recursive Conditioning"), where
+   *   cutset(t) = vars(left) intersect vars(right) -- acutset(t)
+   *   context(t) = vars(t) intersect acutset(t)
+   *   cluster(t) = cutset(t) union context(t) (vars(t) for leaves)
+   * and acutset(t) is the union of the cutsets of t's ancestors.
+   * Unlike separatorCardinality (which is the same for all dtrees of a cnf)
+   * the width depends on the shape of the dtree
+   * @param dtree The dtree
+   * @return The width of the dtree
+   */
+  def width(dtree: DTree): Int = {
+    def w(dtree: DTree, acutset: Set[Int]): Int = dtree match {
+      case DTreeLeaf(_, _) => dtree.varSet.size - 1
+      case DTreeNode(left, right) =>
+        val cutset = (left.varSet intersect right.varSet) -- acutset
+        val context = dtree.varSet intersect acutset
+        List(cutset.size + context.size - 1, w(left, acutset ++ cutset), w(right, acutset ++ cutset)).max
+    }
+    w(dtree, Set())
+  }
+}
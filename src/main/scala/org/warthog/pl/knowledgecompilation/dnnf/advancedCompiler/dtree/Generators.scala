@@ -1,6 +1,7 @@
 package org.warthog.pl.knowledgecompilation.dnnf.advancedCompiler.dtree
 
 import de.stzoit.prover.cnf.CNFSolver
+import de.stzoit.prover.dnnf.DTreePartitioner
 import org.warthog.pl.knowledgecompilation.dnnf._
 
 /**
@@ -80,4 +81,31 @@ object Generators {
 
     dTreeTmp.last
   }
+
+  /**
+   * Generates a DTree by recursive hypergraph bisection (like c2d, but without
+   * an external process), see DTreePartitioner. For instances with few variables
+   * a dtree from a min-fill elimination order is built as well and the one of
+   * smaller width is kept.
+   * @param clauses The list of clauses, the clause ids are their positions in this list
+   * @return The dtree
+   */
+  def generateDTreeByPartitioning(clauses: List[Set[Int]]): DTree = {
+    val cls = clauses.toArray
+    val partitioner = new DTreePartitioner(cls.map(_.toArray))
+    val root = partitioner.build()
+
+    val dTreeTmp = new Array[DTree](root + 1)
+    for (i <- 0 to root)
+      dTreeTmp(i) =
+        if (partitioner.isLeaf(i))
+          DTreeLeaf(partitioner.clause(i), cls(partitioner.clause(i)))
+        else
+          DTreeNode(dTreeTmp(partitioner.left(i)), dTreeTmp(partitioner.right(i)))
+
+    if (verbose)
+      println("DTree created: width " + partitioner.getWidth + ", separator cardinality " +
+        partitioner.getSeparatorCardinality + ", cutset cardinality " + partitioner.getCutsetCardinality)
+    dTreeTmp(root)
+  }
 }
@@ -4,10 +4,11 @@ import org.warthog.pl.io.CNFUtil
 import org.warthog.pl.formulas.{PLAtom, PL}
 import collection.immutable.HashMap
 import dnnf.simpleCompiler.dtree.{Generators => SimpleDTreeGenerator}
-import dnnf.advancedCompiler.dtree.{Generators => AdvancedDTreeGenerator}
+import dnnf.advancedCompiler.dtree.{Generators => AdvancedDTreeGenerator, DTree => AdvancedDTree}
 import dnnf.simpleCompiler.SimpleDNNFCompiler
 import dnnf.advancedCompiler.AdvancedDNNFCompiler
 import de.stzoit.prover.cnf.CNFSolver
+import de.stzoit.prover.dnnf.{DNNFManager, DecisionDNNFCompiler}
 import org.warthog.generic.parsers.DIMACSReader
 import org.warthog.generic.formulas.{Xor, Not, Formula}
 import org.warthog.pl.decisionprocedures.satsolver.impl.picosat.Picosat
@@ -18,13 +19,17 @@ import java.io.File
 
 /**
  * Contains various methods for compiling a formula or file into a DNNF
- * The compilation may either be performed by the simple or advanced compiler
+ * The compilation may either be performed by the simple or advanced compiler (both guided by a dtree)
+ * or by the dynamic compiler (decision-DNNF by dynamic decomposition, no dtree)
+ * The advanced and the dynamic compiler build their nodes in a DNNFManager, compileToManager returns them without
+ * case classes
  * For example there are methods for compiling:
  *  - a Formula[PL] into DNNF
  *  - a List[Set[Lit] into DNNF
  *  - a Formula[PL] into a Formula[PL] which is a DNNF
  *  - a dimacs-file into DNNF
  *  - a dimacs-file into DNNF using a specific dtree produced by c2d-compiler
+ *  - a dimacs-file into DNNF using a dtree produced by hypergraph partitioning
  *
  * Author: hildebrandt
  * Date:
@@ -36,15 +41,36 @@ package object dnnf {
    */
   val verbose = true
 
+  /**
+   * Number of threads compiling independent dtree subtrees (simple and advanced compiler), 1 for a sequential compilation
+   */
+  var compilerThreads = 1
+
+  /**
+   * Minimal number of variables of a dtree subtree which is compiled by a forked task (with compilerThreads > 1)
+   */
+  var compilerParallelThreshold = 32
+
+  /**
+   * Build the dtrees of compile by hypergraph partitioning (see generateDTreeByPartitioning) instead of the default generator
+   */
+  var partitionedDTrees = false
+
+  /**
+   * Score the branching variables of the advanced compiler by VSADS instead of by their unsubsumed occurrences
+   */
+  var vsadsHeuristic = false
+
   sealed trait CompilerVersion
   case object Simple extends CompilerVersion
   case object Advanced extends CompilerVersion
+  case object Dynamic extends CompilerVersion
 
   /**
    * Compiles a Formula[PL] into a DNNF
    * Example usage: Compile the formula "a & b | c" into DNNF using the advanced compiler:
    *    compile(Advanced, "a & b | c".pl)
-   * @param version The compiler to use (Simple or Advanced)
+   * @param version The compiler to use (Simple, Advanced or Dynamic)
    * @param formula The formula to compile
    * @return The corresponding d-DNNF
    */
@@ -77,26 +103,79 @@ package object dnnf {
     else
       version match {
       case Simple => {
-        val dtree = SimpleDTreeGenerator.generateDTree(clauses)
-        val compiler = new SimpleDNNFCompiler(clauses.size, dtree.varSet.size)
+        val dtree =
+          if (partitionedDTrees) SimpleDTreeGenerator.generateDTreeByPartitioning(clauses) else SimpleDTreeGenerator.generateDTree(clauses)
+        val compiler = new SimpleDNNFCompiler(clauses.size, dtree.varSet.size, compilerThreads)
+        compiler.parallelThreshold = compilerParallelThreshold
         val result = DNNF.simplify(compiler.cnf2Ddnnf(dtree))
         if (verbose) {println("---\nRecursive Calls: " + compiler.recursiveCalls + "\nCache Hits: " + compiler.cacheHits)}
         result
       }
-      case Advanced => {
-        val solverClauses = clauses map (_.map(v => CNFSolver.var2lit(v.variable, v.phase)))
-        val dtree = AdvancedDTreeGenerator.generateDTree(solverClauses)
-        val compiler = new AdvancedDNNFCompiler(clauses.size, dtree.varSet.size)
-
-        if (!compiler.initSolver(solverClauses))
-          False
-        else {
-          val result = DNNF.simplify(compiler.cnf2dnnf(dtree))
-          if (verbose) {println("---\nRecursive Calls: " + compiler.recursiveCalls + "\nCache Hits: " + compiler.cacheHits)}
-          result
-        }
+      case Advanced =>
+        compileToManager(Advanced, clauses).toDNNF
+      case Dynamic =>
+        compileDynamic(clauses map (_.map(v => CNFSolver.var2lit(v.variable, v.phase))))
+  }
 
-      }
+  /**
+   * Compiles a List[Set[Lit]] into a DNNF stored in a DNNFManager
+   * The advanced and the dynamic compiler build the nodes there, the results of the simple compiler are stored after
+   * compilation
+   * @param version The compiler to use (Simple, Advanced or Dynamic)
+   * @param clauses The clauses
+   * @return The manager and the root node, literals are CNFSolver literals over the variables of clauses
+   */
+  def compileToManager(version: CompilerVersion, clauses: List[Set[Lit]]): ManagedDNNF = version match {
+    case Advanced if clauses.nonEmpty =>
+      val solverClauses = clauses map (_.map(v => CNFSolver.var2lit(v.variable, v.phase)))
+      compileAdvanced(if (partitionedDTrees) AdvancedDTreeGenerator.generateDTreeByPartitioning(solverClauses)
+                      else AdvancedDTreeGenerator.generateDTree(solverClauses), solverClauses)
+    case Dynamic if clauses.nonEmpty =>
+      compileDynamicToManager(clauses map (_.map(v => CNFSolver.var2lit(v.variable, v.phase))))
+    case _ =>
+      val manager = new DNNFManager
+      ManagedDNNF(manager, DNNF.toManager(compile(version, clauses), manager))
+  }
+
+  /*
+   * the advanced compiler on dtree, FALSE if solverClauses are refuted by unit propagation,
+   * the solver has the variables up to the largest one (which need not be consecutive)
+   */
+  private def compileAdvanced(dtree: AdvancedDTree, solverClauses: List[Set[Int]]): ManagedDNNF = {
+    val numVariables = solverClauses.flatten.map(CNFSolver.lit2var(_)).foldLeft(dtree.varSet.size)(math.max(_, _))
+    val compiler = new AdvancedDNNFCompiler(solverClauses.size, numVariables, AdvancedDNNFCompiler.DefaultCacheBudget, compilerThreads)
+    compiler.parallelThreshold = compilerParallelThreshold
+    compiler.vsads = vsadsHeuristic
+
+    if (!compiler.initSolver(solverClauses))
+      ManagedDNNF(compiler.getManager, DNNFManager.FALSE)
+    else {
+      val root = compiler.compile(dtree)
+      if (verbose) {println("---\nRecursive Calls: " + compiler.recursiveCalls + "\nCache Hits: " + compiler.cacheHits + "\n" + compiler.cacheStatistics)}
+      ManagedDNNF(compiler.getManager, root)
+    }
+  }
+
+  /**
+   * Compiles clauses into a decision-DNNF by dynamic decomposition,
+   * i.e. without a dtree (see DecisionDNNFCompiler)
+   * Rebuilds the result as case classes, see compileDynamicToManager
+   * @param solverClauses The clauses in CNFSolver literal encoding
+   * @return The corresponding decision-DNNF
+   */
+  def compileDynamic(solverClauses: List[Set[Int]]): DNNF = compileDynamicToManager(solverClauses).toDNNF
+
+  /**
+   * Compiles clauses into a decision-DNNF by dynamic decomposition like compileDynamic
+   * @param solverClauses The clauses in CNFSolver literal encoding
+   * @return The compiler's manager and the root node of the decision-DNNF
+   */
+  def compileDynamicToManager(solverClauses: List[Set[Int]]): ManagedDNNF = {
+    val numVariables = solverClauses.flatten.map(CNFSolver.lit2var(_)).foldLeft(0)(math.max(_, _))
+    val compiler = new DecisionDNNFCompiler(numVariables, solverClauses.map(_.toArray).toArray)
+    val root = compiler.compile()
+    if (verbose) {println("---\nDecisions: " + compiler.getDecisions + "\nConflicts: " + compiler.getConflicts + "\n" + compiler.getCache)}
+    ManagedDNNF(compiler.getManager, root)
   }
 
   /** Compiles a Formula[PL] into a corresponding Formula[PL] which is a DNNF */
@@ -108,6 +187,10 @@ package object dnnf {
   //def compileDIMACS(version: CompilerVersion, file: String) = compile(version, DIMACSReader.dimacs2Clauses(file).map(_.map(l => Lit(math.abs(l), l > 0))))
   def compileDIMACS(version: CompilerVersion, file: String) = compile(version, DIMACSReader.dimacs2Formula(file))
 
+  /** Compiles a dimacs-file into a DNNF stored in a DNNFManager, the variables are those of the file (see compileToManager) */
+  def compileDIMACSToManager(version: CompilerVersion, file: String) =
+    compileToManager(version, DIMACSReader.dimacs2Clauses(file).map(_.map(v => Lit(math.abs(v), v > 0))))
+
   /**
    * Compiles a cnf from a dimacs-file into a corresponding DNNF
    * using the c2d-compiler to get the dtree.
@@ -118,7 +201,7 @@ package object dnnf {
    * Important note: This method will not be deterministic,
    * since some actions in dtree-generation are randomized.
    * So this method might create different dnnfs with each call!
-   * @param version The compiler to use (Simple or Advanced)
+   * @param version The compiler to use (Simple or Advanced, Dynamic does not use a dtree)
    * @param dimacsFile The path to the dimacs-file
    * @return The corresponding DNNF
    */
@@ -128,22 +211,42 @@ package object dnnf {
     version match {
       case Simple =>
         val dtree = SimpleDTreeGenerator.generateDTreeFromC2D(dimacsFile)
-        val compiler = new SimpleDNNFCompiler(clauses.size, dtree.varSet.size)
+        val compiler = new SimpleDNNFCompiler(clauses.size, dtree.varSet.size, compilerThreads)
         val result = DNNF.simplify(compiler.cnf2Ddnnf(dtree))
         if (verbose) {println("---\nRecursive Calls: " + compiler.recursiveCalls + "\nCache Hits: " + compiler.cacheHits)}
         result
       case Advanced =>
         val solverClauses = clauses map (_.map(v => CNFSolver.var2lit(math.abs(v), v > 0)))
-        val dtree = AdvancedDTreeGenerator.generateDTreeFromC2D(dimacsFile)
-
-        val compiler = new AdvancedDNNFCompiler(clauses.size, dtree.varSet.size)
-        if (!compiler.initSolver(solverClauses))
-          False
-        else {
-          val result = DNNF.simplify(compiler.cnf2dnnf(dtree))
-          if (verbose) {println("---\nRecursive Calls: " + compiler.recursiveCalls + "\nCache Hits: " + compiler.cacheHits)}
-          result
-        }
+        compileAdvanced(AdvancedDTreeGenerator.generateDTreeFromC2D(dimacsFile), solverClauses).toDNNF
+      case Dynamic =>
+        compileDynamic(clauses map (_.map(v => CNFSolver.var2lit(math.abs(v), v > 0))))
+    }
+  }
+
+  /**
+   * Compiles a cnf from a dimacs-file into a corresponding DNNF using a dtree
+   * built by recursive hypergraph bisection within the JVM, i.e. like
+   * compileWithC2DDTree but without the external c2d-compiler.
+   * The dtree generation is seeded, thus the result is deterministic.
+   * @param version The compiler to use (Simple or Advanced, Dynamic does not use a dtree)
+   * @param dimacsFile The path to the dimacs-file
+   * @return The corresponding DNNF
+   */
+  def compileWithPartitionedDTree(version: CompilerVersion, dimacsFile: String) = {
+    val clauses = DIMACSReader.dimacs2Clauses(dimacsFile)
+
+    version match {
+      case Simple =>
+        val dtree = SimpleDTreeGenerator.generateDTreeByPartitioning(clauses.map(_.map(v => Lit(math.abs(v), v > 0))))
+        val compiler = new SimpleDNNFCompiler(clauses.size, dtree.varSet.size, compilerThreads)
+        val result = DNNF.simplify(compiler.cnf2Ddnnf(dtree))
+        if (verbose) {println("---\nRecursive Calls: " + compiler.recursiveCalls + "\nCache Hits: " + compiler.cacheHits)}
+        result
+      case Advanced =>
+        val solverClauses = clauses map (_.map(v => CNFSolver.var2lit(math.abs(v), v > 0)))
+        compileAdvanced(AdvancedDTreeGenerator.generateDTreeByPartitioning(solverClauses), solverClauses).toDNNF
+      case Dynamic =>
+        compileDynamic(clauses map (_.map(v => CNFSolver.var2lit(math.abs(v), v > 0))))
     }
   }
 
@@ -210,7 +313,8 @@ package object dnnf {
    * --------------------------------- */
 
   /* Prints an evaluation of the compilation of the specified cnf to stdout
-   *   version: 0 = all, 1 = Simple Compiler, 2 = Advanced Compiler, 3 = Advanced Compiler with C2DDTree, 5 = Simple Compiler with C2DDTree
+   *   version: 0 = all, 1 = Simple Compiler, 2 = Advanced Compiler, 3 = Advanced Compiler with C2DDTree, 5 = Simple Compiler with C2DDTree,
+   *            4 = Advanced Compiler with partitioned DTree, 6 = Simple Compiler with partitioned DTree, 7 = Dynamic Compiler
    *   (Numbering due to "historical" reasons)
    */
   def evaluation(version: Int, dimacsFile: String, forceCounting: Boolean = false): Unit = version match {
@@ -219,14 +323,26 @@ package object dnnf {
       println("\n--- Advanced ---");evaluation(2, dimacsFile);
       println("\n--- AdvancedWithC2DDTree ---");evaluation(3, dimacsFile);
       println("\n--- SimpleWithC2DDTree ---");evaluation(5, dimacsFile);
+      println("\n--- AdvancedWithPartitionedDTree ---");evaluation(4, dimacsFile);
+      println("\n--- SimpleWithPartitionedDTree ---");evaluation(6, dimacsFile);
+      println("\n--- Dynamic ---");evaluation(7, dimacsFile);
+    case 2 | 7 => /* counted on the compiler's manager */
+      val start = System.currentTimeMillis()
+      val dnnf = compileDIMACSToManager(if (version == 2) Advanced else Dynamic, dimacsFile)
+      val end = System.currentTimeMillis()
+
+      println("Time: " + (end-start) + "ms")
+      println("Nodes: " + dnnf.nodeCount)
+      println("Models: " + dnnf.countModels(DIMACSReader.numberOfVariablesAndClauses(dimacsFile)._1))
     case _ =>
       val start = System.currentTimeMillis()
       val dnnf = version match {
         case 1 => compileDIMACS(Simple, dimacsFile)
-        case 2 => compileDIMACS(Advanced, dimacsFile)
         case 3 => compileWithC2DDTree(Advanced, dimacsFile)
         case 5 => compileWithC2DDTree(Simple, dimacsFile)
-        case _ => throw new Exception("Wrong call of method \"evaluation\": 0 = all, 1 = Simple Compiler, 2 = Advanced Compiler, 3 = Advanced Compiler with C2DDTree, 5 = Simple Compiler with C2DDTree")
+        case 4 => compileWithPartitionedDTree(Advanced, dimacsFile)
+        case 6 => compileWithPartitionedDTree(Simple, dimacsFile)
+        case _ => throw new Exception("Wrong call of method \"evaluation\": 0 = all, 1 = Simple Compiler, 2 = Advanced Compiler, 3 = Advanced Compiler with C2DDTree, 4 = Advanced Compiler with partitioned DTree, 5 = Simple Compiler with C2DDTree, 6 = Simple Compiler with partitioned DTree, 7 = Dynamic Compiler")
       }
       val end = System.currentTimeMillis()
 
@@ -4,6 +4,8 @@ import dtree._
 import org.warthog.pl.knowledgecompilation.dnnf._
 import org.warthog.pl.knowledgecompilation.dnnf.DNNF._
 import collection.mutable.{WeakHashMap, HashMap => MutableHashMap}
+import java.util.concurrent.{ForkJoinPool, ForkJoinTask, RecursiveTask}
+import java.util.concurrent.atomic.AtomicLong
 
 /**
  * A Simple Compiler for d-DNNF (deterministic DNNF) according to the algorithm of
@@ -11,22 +13,33 @@ import collection.mutable.{WeakHashMap, HashMap => MutableHashMap}
  * but with an improved caching implementation as supposed in
  * "New Advances in CNF to Decomposable Negation Normal Form"
  *
+ * With parallelism > 1 the children of a dtree node with an empty separator are compiled
+ * concurrently on a fork/join pool (the right child if it has at least parallelThreshold
+ * variables); as the compilation does not depend on a solver state, only the cache and the
+ * unique tables are shared (and synchronized)
+ *
  * @param numClauses The number of clauses contained in the dtree
  * @param numVariables The number of variables contained in the dtree
+ * @param parallelism The number of threads compiling independent subtrees, 1 for a sequential compilation
  *
  * Author: hildebrandt
  * Date:
  */
-class SimpleDNNFCompiler(numClauses: Int, numVariables: Int) {
+class SimpleDNNFCompiler(numClauses: Int, numVariables: Int, parallelism: Int = 1) {
 
   /* Fields for unique nodes and caching */
   private val andUnique = MutableHashMap[Set[DNNF], DNNF]()
   private val orUnique = MutableHashMap[Set[DNNF], DNNF]()
   private val cache = WeakHashMap[BitVec, DNNF]()
 
+  private val pool = if (parallelism > 1) new ForkJoinPool(parallelism) else null
+
   /* for debugging */
   var cachingEnabled = true
 
+  /** Minimal number of variables of a subtree which is compiled by a forked task */
+  var parallelThreshold = 32
+
   /**
    * Compiles a dtree into a corresponding d-DNNF
    * Implementation according to Adnan Darwiche: "A compiler for deterministic, decomposable negation normal"
@@ -35,6 +48,8 @@ class SimpleDNNFCompiler(numClauses: Int, numVariables: Int) {
    * @return The resulting d-DNNF
    */
   def cnf2Ddnnf(dtree: DTree, omega: Set[Lit] = Set()): DNNF = {
+    if (pool != null && !ForkJoinTask.inForkJoinPool)
+      return pool.invoke(new RecursiveTask[DNNF] { def compute(): DNNF = cnf2Ddnnf(dtree, omega) })
     trackRecursiveCall
     dtree match {
       case DTreeLeaf(_, clause) => clause2dDNNF(clause)
@@ -42,13 +57,13 @@ class SimpleDNNFCompiler(numClauses: Int, numVariables: Int) {
         if (!cachingEnabled) return caseAnalysis(dtree, omega)
 
         val key = computeCacheKey(dtree.currentClauseIDs, dtree.varSet, omega)
-        cache.get(key) match {
+        cache.synchronized { cache.get(key) } match {
           case Some(v) =>
             trackHit
             v
           case None =>
             val result = caseAnalysis(dtree, omega)
-            cache.put(key, result)
+            cache.synchronized { cache.put(key, result) }
             result
         }
     }
@@ -71,7 +86,13 @@ class SimpleDNNFCompiler(numClauses: Int, numVariables: Int) {
     case node: DTreeNode =>
       val sigma = node.currentSeparator.toList
       if (sigma.isEmpty) {
-        conjoin(cnf2Ddnnf(node.lChild, omega), cnf2Ddnnf(node.rChild, omega))
+        if (pool != null && node.rChild.varSet.size >= parallelThreshold) {
+          val right = new RecursiveTask[DNNF] { def compute(): DNNF = cnf2Ddnnf(node.rChild, omega) }
+          right.fork()
+          val left = cnf2Ddnnf(node.lChild, omega)
+          conjoin(left, right.join())
+        } else
+          conjoin(cnf2Ddnnf(node.lChild, omega), cnf2Ddnnf(node.rChild, omega))
       } else {
         val occ = node.countOccurrences(sigma)
         val X = sigma(occ.indexWhere(_ == occ.max))
@@ -179,19 +200,21 @@ class SimpleDNNFCompiler(numClauses: Int, numVariables: Int) {
 
   /* Some methods for conjoining/ disjoining DNNFs */
   private def conjoin(a: Set[Lit], b: DNNF): DNNF = conjoin(a.toList ++ List(b): _*)
-  private def conjoin(args: DNNF*): DNNF = andUnique.getOrElseUpdate(args.toSet, And(args:_*))
-  private def disjoin(args: DNNF*): DNNF = orUnique.getOrElseUpdate(args.toSet, Or(args: _*))
-
-  /* Tracking cache hits and recursive calls */
-  var cacheHits = 0L
-  var recursiveCalls = 0L
+  private def conjoin(args: DNNF*): DNNF = andUnique.synchronized { andUnique.getOrElseUpdate(args.toSet, And(args:_*)) }
+  private def disjoin(args: DNNF*): DNNF = orUnique.synchronized { orUnique.getOrElseUpdate(args.toSet, Or(args: _*)) }
+
+  /* Tracking cache hits and recursive calls (counted by all threads) */
+  private val hits = new AtomicLong
+  private val calls = new AtomicLong
+  def cacheHits = hits.get
+  def recursiveCalls = calls.get
   private def trackHit = {
-    cacheHits += 1
+    val cacheHits = hits.incrementAndGet
     if (verbose && (cacheHits < 100000 && cacheHits % 1000 == 0 || cacheHits % 10000 == 0))
       println("tracked cache hits: " + cacheHits)
   }
   private def trackRecursiveCall = {
-    recursiveCalls += 1
+    val recursiveCalls = calls.incrementAndGet
     if (verbose && (recursiveCalls < 100000 && recursiveCalls % 1000 == 0 || recursiveCalls % 10000 == 0))
       println("recursive calls of cnf2Ddnnf: " + recursiveCalls)
   }
@@ -1,6 +1,8 @@
 package org.warthog.pl.knowledgecompilation.dnnf.simpleCompiler.dtree
 
 import org.warthog.pl.knowledgecompilation.dnnf._
+import de.stzoit.prover.cnf.CNFSolver
+import de.stzoit.prover.dnnf.DTreePartitioner
 
 /**
  * Contains methods for generating DTrees (simple compiler)
@@ -78,4 +80,29 @@ object Generators {
 
     dTreeTmp.last
   }
+
+  /**
+   * Generates a DTree by recursive hypergraph bisection (like c2d, but without
+   * an external process), see DTreePartitioner
+   * @param clauses The list of clauses, the clause ids are their positions in this list
+   * @return The dtree
+   */
+  def generateDTreeByPartitioning(clauses: List[Set[Lit]]): DTree = {
+    val cls = clauses.toArray
+    val partitioner = new DTreePartitioner(cls.map(_.toArray.map(l => CNFSolver.var2lit(l.variable, l.phase))))
+    val root = partitioner.build()
+
+    val dTreeTmp = new Array[DTree](root + 1)
+    for (i <- 0 to root)
+      dTreeTmp(i) =
+        if (partitioner.isLeaf(i))
+          DTreeLeaf(partitioner.clause(i), cls(partitioner.clause(i)))
+        else
+          DTreeNode(dTreeTmp(partitioner.left(i)), dTreeTmp(partitioner.right(i)))
+
+    if (verbose)
+      println("DTree created: width " + partitioner.getWidth + ", separator cardinality " +
+        partitioner.getSeparatorCardinality + ", cutset cardinality " + partitioner.getCutsetCardinality)
+    dTreeTmp(root)
+  }
 }
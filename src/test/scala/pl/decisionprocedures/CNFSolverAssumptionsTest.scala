@@ -0,0 +1,111 @@
+package pl.decisionprocedures
+
+import org.specs2.mutable.Specification
+import de.stzoit.prover.cnf.{MUSExtractor, Clause, CNFSolver}
+import scala.util.Random
+
+/**
+ * Tests for solving under assumptions and MUS extraction of the CNFSolver,
+ * results are compared to brute-force enumeration on small random CNFs (DIMACS literals)
+ *
+ * Author: AK
+ * Date:
+ */
+
+class CNFSolverAssumptionsTest extends Specification {
+
+  args(sequential = true)
+
+  def solver(n: Int, cls: Seq[Seq[Int]]): CNFSolver = {
+    val s = new CNFSolver("test")
+    for (v <- 1 to n)
+      s.newVariable(v.toString)
+    for (c <- cls)
+      s.pushClause(clause(s, c))
+    s
+  }
+
+  def clause(s: CNFSolver, c: Seq[Int]): Clause = {
+    val cl = new Clause(s)
+    c.foreach(l => cl.push(l.toString))
+    cl
+  }
+
+  def lit(l: Int) = CNFSolver.var2lit(math.abs(l), l > 0)
+
+  def dimacs(lit: Int) = if (CNFSolver.sign(lit)) CNFSolver.lit2var(lit) else -CNFSolver.lit2var(lit)
+
+  def bruteForce(n: Int, cls: Seq[Seq[Int]]): Boolean =
+    (0 until (1 << n)).exists(x => cls.forall(_.exists(l => (((x >> (math.abs(l) - 1)) & 1) == 1) == (l > 0))))
+
+  def randomCNF(r: Random, n: Int, m: Int): Seq[Seq[Int]] =
+    Seq.fill(m)(Seq.fill(1 + r.nextInt(3))((1 + r.nextInt(n)) * (if (r.nextBoolean()) 1 else -1)))
+
+  "sat(Array())" should {
+    "propagate units which are pending at level 0" in {
+      solver(10, Seq(Seq(10, -8), Seq(-10), Seq(8))).sat(Array[Int]()) must be equalTo false
+    }
+    "agree with brute force on random CNFs" in {
+      val r = new Random(1)
+      (0 until 300).forall { _ =>
+        val n = 3 + r.nextInt(10)
+        val cls = randomCNF(r, n, (n * (3.5 + r.nextDouble * 1.5)).toInt)
+        solver(n, cls).sat(Array[Int]()) == bruteForce(n, cls)
+      } must be equalTo true
+    }
+  }
+
+  "sat(assumptions)" should {
+    "agree with brute force and return refuting conflict assumptions" in {
+      val r = new Random(2)
+      (0 until 300).forall { _ =>
+        val n = 3 + r.nextInt(10)
+        val cls = randomCNF(r, n, (n * (3.5 + r.nextDouble * 1.5)).toInt)
+        val s = solver(n, cls)
+        val assumed = Seq.fill(1 + r.nextInt(3))((1 + r.nextInt(n)) * (if (r.nextBoolean()) 1 else -1))
+        val res = s.sat(assumed.map(lit).toArray)
+        val conflict = s.getConflictAssumptions.map(dimacs).toSeq
+        val again = Seq((1 + r.nextInt(n)) * (if (r.nextBoolean()) 1 else -1))
+        res == bruteForce(n, cls ++ assumed.map(Seq(_))) &&
+          (res || conflict.forall(assumed.contains(_)) && !bruteForce(n, cls ++ conflict.map(Seq(_)))) &&
+          s.sat(again.map(lit).toArray) == bruteForce(n, cls ++ again.map(Seq(_)))  /* incremental call */
+      } must be equalTo true
+    }
+  }
+
+  "MUSExtractor.extract()" should {
+    "return an unsatisfiable and minimal set of groups, null if all groups are satisfiable" in {
+      val r = new Random(3)
+      (0 until 300).forall { _ =>
+        val n = 3 + r.nextInt(5)
+        val hard = randomCNF(r, n, r.nextInt(4)).map(_.take(2))
+        val groups = (0 until 2 + r.nextInt(5)).map(g => ("g" + g) -> randomCNF(r, n, 1 + r.nextInt(3)).map(_.take(2))).toMap
+        val mx = new MUSExtractor
+        val s = mx.getSolver
+        for (v <- 1 to n)
+          s.newVariable(v.toString)
+        hard.foreach(c => mx.addHardClause(clause(s, c)))
+        for ((g, cls) <- groups; c <- cls)
+          mx.addClause(g, clause(s, c))
+        val mus = mx.extract()
+        def cnf(gs: Iterable[String]) = hard ++ gs.flatMap(groups(_)).filterNot(c => c.exists(l => c.contains(-l)))
+        if (bruteForce(n, cnf(groups.keys)))
+          mus == null
+        else
+          mus != null && !bruteForce(n, cnf(mus.toArray(Array[String]()))) &&
+            mus.toArray(Array[String]()).forall(g => bruteForce(n, cnf(mus.toArray(Array[String]()).filterNot(_ == g))))
+      } must be equalTo true
+    }
+    "return an empty set if the hard clauses are unsatisfiable" in {
+      val mx = new MUSExtractor
+      val s = mx.getSolver
+      for (v <- 1 to 3)
+        s.newVariable(v.toString)
+      mx.addHardClause(clause(s, Seq(1, 2)))
+      mx.addHardClause(clause(s, Seq(-1)))
+      mx.addHardClause(clause(s, Seq(-2)))
+      mx.addClause("a", clause(s, Seq(3)))
+      mx.extract().isEmpty must be equalTo true
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package pl.decisionprocedures
+
+import org.specs2.mutable.Specification
+import de.stzoit.prover.cnf.{Clause, CNFSolver}
+import org.warthog.generic.formulas.{Formula, Not}
+import org.warthog.pl.formulas.{PL, PLAtom}
+import org.warthog.pl.generators.PigeonHoleGenerator
+import org.warthog.pl.generators.cardinality.{BailleuxBoufkhad, BitonicSorting}
+import org.warthog.pl.io.CNFUtil
+import scala.util.Random
+
+/**
+ * Tests for the native cardinality constraints of the CNFSolver: random CNFs (DIMACS literals) with an at-most-k
+ * or at-least-k constraint are solved with the native constraint and with its CNF encoding, also under
+ * assumptions; at-most-one detection has to leave the satisfiability of pigeon hole instances unchanged
+ *
+ * Author: AK
+ * Date:
+ */
+
+class CNFSolverCardinalityTest extends Specification {
+
+  args(sequential = true)
+
+  def solver(n: Int, cls: Seq[Seq[Int]]): CNFSolver = {
+    val s = new CNFSolver("test")
+    for (v <- 1 to n)
+      s.newVariable(v.toString)
+    for (c <- cls) {
+      val cl = new Clause(s)
+      c.foreach(l => cl.push(l.toString))
+      s.pushClause(cl)
+    }
+    s
+  }
+
+  /* clauses of the CNF of fm, variables are created by name */
+  def push(s: CNFSolver, fm: Formula[PL]) {
+    for (c <- CNFUtil.toList(fm)) {
+      val cl = new Clause(s)
+      c.foreach {
+        case Not(PLAtom(n)) => cl.push("-" + n)
+        case PLAtom(n)      => cl.push(n)
+      }
+      s.pushClause(cl)
+    }
+  }
+
+  def lit(l: Int) = CNFSolver.var2lit(math.abs(l), l > 0)
+
+  def trueCount(s: CNFSolver, vars: Seq[Int]) = vars.count(s.var2val(_) == CNFSolver.Val.TRUE)
+
+  def cardinalityT(seed: Int) {
+    val r = new Random(seed)
+    val n = 4 + r.nextInt(5)
+    val cls = Seq.fill(n + r.nextInt(2 * n))(Seq.fill(1 + r.nextInt(3))((1 + r.nextInt(n)) * (if (r.nextBoolean()) 1 else -1)))
+    val vars = r.shuffle((1 to n).toList).take(2 + r.nextInt(math.min(n, 6) - 1))
+    val k = r.nextInt(vars.size + 1)
+    val atMost = r.nextBoolean()
+    val assumed = Seq(Seq[Int](), Seq((1 + r.nextInt(n)) * (if (r.nextBoolean()) 1 else -1)),
+                      Seq.fill(2)((1 + r.nextInt(n)) * (if (r.nextBoolean()) 1 else -1)))
+    val constraint = vars.mkString("+") + (if (atMost) " <= " else " >= ") + k
+    val atoms = vars.map(v => PLAtom(v.toString)).toArray
+
+    ("CNF " + cls.map(_.mkString("(", " ", ")")).mkString + " with " + constraint) should {
+      "be solved alike with a native constraint and with its CNF encodings, models verify" in {
+        val native = solver(n, cls)
+        val encoded = Seq(BailleuxBoufkhad, BitonicSorting).map { enc =>
+          val s = solver(n, cls)
+          push(s, if (atMost) enc.le(atoms, k) else enc.ge(atoms, k))
+          s
+        }
+        if (atMost)
+          native.pushAtMost(vars.map(CNFSolver.var2lit(_, true)).toArray, k)
+        else
+          native.pushAtLeast(vars.map(CNFSolver.var2lit(_, true)).toArray, k)
+
+        /* per assumption set: native result, native model is a model, results of the encodings */
+        val results = assumed.map { a =>
+          val sat = native.sat(a.map(lit).toArray)
+          val model = !sat || native.verify() && (if (atMost) trueCount(native, vars) <= k else trueCount(native, vars) >= k)
+          (sat, model, encoded.map(_.sat(a.map(lit).toArray)))
+        }
+        results must be equalTo results.map { case (_, _, e) => (e.head, true, Seq(e.head, e.head)) }
+      }
+    }
+  }
+
+  for (seed <- 0 until 40)
+    cardinalityT(seed)
+
+  def pigeonHoleT(n: Int, satisfiable: Boolean) {
+    /* without the clause placing pigeon 1, the remaining pigeons fit */
+    val fm = PigeonHoleGenerator.generate(n)
+    val cls = CNFUtil.toList(fm).filterNot(c => satisfiable && c.contains(PLAtom("v1")))
+
+    ("Pigeon hole instance " + (n + 1) + "/" + n + (if (satisfiable) " without pigeon 1" else "")) should {
+      ("be " + (if (satisfiable) "satisfiable" else "unsatisfiable") + " after at-most-one detection") in {
+        val s = new CNFSolver("php")
+        for (c <- cls) {
+          val cl = new Clause(s)
+          c.foreach {
+            case Not(PLAtom(v)) => cl.push("-" + v)
+            case PLAtom(v)      => cl.push(v)
+          }
+          s.pushClause(cl)
+        }
+        val detected = s.detectAtMostOne(3)
+        val sat = s.sat()
+        (detected, sat, !sat || s.verify()) must be equalTo ((if (n >= 2) n else 0), satisfiable, true)
+      }
+    }
+  }
+
+  for (n <- 1 to 6; satisfiable <- List(false, true))
+    pigeonHoleT(n, satisfiable)
+}
@@ -0,0 +1,297 @@
+package pl.decisionprocedures
+
+import org.specs2.mutable.Specification
+import de.stzoit.prover.cnf.{Clause, CNFSolver, ProofWriter}
+import java.io.File
+import scala.collection.mutable.{ArrayBuffer, HashMap, Queue}
+import scala.util.Random
+
+/**
+ * Tests for the DRAT/LRAT proof output of the CNFSolver: proofs of small unsatisfiable random 3-SAT instances
+ * (DIMACS literals, distinct variables per clause) are written as text and checked here, with and without
+ * trail reuse and vivification
+ *
+ *     - DRAT: every deleted clause has to be present, every lemma has to be RUP, the last lemma is empty
+ *     - LRAT: ids increase, every hint refers to a previously added and undeleted clause, the hints of each
+ *       lemma have to be unit (in order) under the negated lemma until one is falsified
+ *
+ * Author: AK
+ * Date:
+ */
+
+class CNFSolverProofTest extends Specification {
+
+  args(sequential = true)
+
+  /* clause database for DRAT with RUP checks by two watched literals (watches survive deletions lazily) */
+  class DratChecker(orig: Seq[Seq[Int]]) {
+    val clauses = new ArrayBuffer[Array[Int]]
+    val active = new ArrayBuffer[Boolean]
+    val watches = new HashMap[Int, ArrayBuffer[Int]]
+    val byLits = new HashMap[Seq[Int], List[Int]]
+    val units = new ArrayBuffer[Int]
+    val value = new HashMap[Int, Int]
+    val queue = new Queue[Int]
+    var empty = false
+    orig.foreach(add)
+
+    def watchers(l: Int) = watches.getOrElseUpdate(l, new ArrayBuffer[Int])
+
+    def add(c: Seq[Int]) {
+      val i = clauses.size
+      clauses += c.toArray
+      active += true
+      byLits(c.sorted) = i :: byLits.getOrElse(c.sorted, Nil)
+      if (c.isEmpty)
+        empty = true
+      else if (c.size == 1)
+        units += i
+      else {
+        watchers(c(0)) += i
+        watchers(c(1)) += i
+      }
+    }
+
+    def delete(c: Seq[Int]): Boolean = byLits.getOrElse(c.sorted, Nil) match {
+      case i :: rest =>
+        active(i) = false
+        byLits(c.sorted) = rest
+        true
+      case Nil => false
+    }
+
+    def valueOf(l: Int) = value.get(math.abs(l)).map(v => if (l > 0) v else -v).getOrElse(0)
+
+    /* false if l is false already */
+    def assign(l: Int): Boolean = valueOf(l) match {
+      case 1  => true
+      case -1 => false
+      case _  =>
+        value(math.abs(l)) = if (l > 0) 1 else -1
+        queue.enqueue(l)
+        true
+    }
+
+    /* unit propagation of the units and the negated lemma yields a conflict */
+    def rup(lemma: Seq[Int]): Boolean = {
+      value.clear()
+      queue.clear()
+      if (empty)
+        return true
+      for (u <- units; if active(u) && !assign(clauses(u)(0)))
+        return true
+      for (l <- lemma; if !assign(-l))
+        return true
+      while (!queue.isEmpty) {
+        val f = -queue.dequeue()
+        val wl = watchers(f)
+        var (i, j, conflict) = (0, 0, false)
+        while (i < wl.size) {
+          val ci = wl(i)
+          i += 1
+          if (active(ci)) {
+            val c = clauses(ci)
+            if (c(0) == f) {
+              c(0) = c(1)
+              c(1) = f
+            }
+            var k = 2
+            while (!conflict && valueOf(c(0)) != 1 && k < c.length && valueOf(c(k)) == -1)
+              k += 1
+            if (!conflict && valueOf(c(0)) != 1 && k < c.length) { /* move the watch */
+              c(1) = c(k)
+              c(k) = f
+              watchers(c(1)) += ci
+            } else {
+              wl(j) = ci
+              j += 1
+              if (!conflict && valueOf(c(0)) != 1 && !assign(c(0)))
+                conflict = true
+            }
+          }
+        }
+        wl.reduceToSize(j)
+        if (conflict)
+          return true
+      }
+      false
+    }
+  }
+
+  def ints(tokens: Seq[String]) = tokens.map(_.toInt)
+
+  /* None if the DRAT proof is accepted, the reason otherwise */
+  def checkDrat(orig: Seq[Seq[Int]], lines: Seq[String]): Option[String] = {
+    val db = new DratChecker(orig)
+    for ((line, n) <- lines.zipWithIndex) {
+      val t = line.trim.split("\\s+").toSeq
+      if (db.empty)
+        return Some("line " + (n + 1) + " after the empty clause")
+      if (t.last != "0")
+        return Some("line " + (n + 1) + " not terminated")
+      if (t.head == "d") {
+        if (!db.delete(ints(t.slice(1, t.size - 1))))
+          return Some("line " + (n + 1) + " deletes an absent clause")
+      } else {
+        val c = ints(t.init)
+        if (!db.rup(c))
+          return Some("lemma in line " + (n + 1) + " is not RUP")
+        db.add(c)
+      }
+    }
+    if (db.empty) None else Some("no empty clause")
+  }
+
+  /* None if the LRAT proof is accepted, the reason otherwise */
+  def checkLrat(orig: Seq[Seq[Int]], lines: Seq[String]): Option[String] = {
+    val db = new HashMap[Long, Seq[Int]]
+    orig.zipWithIndex.foreach { case (c, i) => db(i + 1L) = c }
+    var (last, empty) = (orig.size.toLong, false)
+    for ((line, n) <- lines.zipWithIndex) {
+      val t = line.trim.split("\\s+").toSeq
+      val id = t.head.toLong
+      if (empty)
+        return Some("line " + (n + 1) + " after the empty clause")
+      if (t(1) == "d") {
+        if (id != last)
+          return Some("deletion in line " + (n + 1) + " does not refer to the last lemma")
+        for (d <- t.slice(2, t.size - 1); if db.remove(d.toLong).isEmpty)
+          return Some("line " + (n + 1) + " deletes unknown id " + d)
+      } else {
+        if (id <= last)
+          return Some("id " + id + " in line " + (n + 1) + " does not increase")
+        val z = t.indexOf("0", 1)
+        val lemma = ints(t.slice(1, z))
+        val value = new HashMap[Int, Boolean]
+        lemma.foreach(l => value(math.abs(l)) = l < 0)
+        var conflict = false
+        for (h <- t.slice(z + 1, t.size - 1).map(_.toLong); if !conflict) {
+          val c = db.getOrElse(h, null)
+          if (c == null)
+            return Some("hint " + h + " in line " + (n + 1) + " is unknown or deleted")
+          val open = c.filter(l => !value.contains(math.abs(l)))
+          if (c.exists(l => value.get(math.abs(l)) == Some(l > 0)))
+            return Some("hint " + h + " in line " + (n + 1) + " is satisfied")
+          if (open.isEmpty)
+            conflict = true
+          else if (open.size == 1)
+            value(math.abs(open.head)) = open.head > 0
+          else
+            return Some("hint " + h + " in line " + (n + 1) + " is not unit")
+        }
+        if (!conflict)
+          return Some("hints of line " + (n + 1) + " do not yield a conflict")
+        db(id) = lemma
+        last = id
+        empty = lemma.isEmpty
+      }
+    }
+    if (empty) None else Some("no empty clause")
+  }
+
+  /* proof lines and number of vivified clauses, None if satisfiable */
+  def prove(n: Int, cls: Seq[Seq[Int]], format: ProofWriter.Format, reuse: Boolean, vivify: Boolean): Option[(List[String], Int)] = {
+    val f = File.createTempFile("proof", ".txt")
+    try {
+      val s = new CNFSolver("test")
+      for (v <- 1 to n)
+        s.newVariable(v.toString)
+      val w = new ProofWriter(f, format)
+      s.setProof(w)
+      s.setTrailReuse(reuse)
+      s.setVivification(vivify)
+      for (c <- cls) {
+        val cl = new Clause(s)
+        c.foreach(l => cl.push(l.toString))
+        s.pushClause(cl)
+      }
+      val sat = s.sat()
+      w.close()
+      if (sat)
+        None
+      else {
+        val src = scala.io.Source.fromFile(f)
+        val lines = src.getLines().toList
+        src.close()
+        Some((lines, s.getStatistics.statGetNumVivified))
+      }
+    } finally {
+      f.delete()
+    }
+  }
+
+  def random3SAT(r: Random, n: Int, m: Int): Seq[Seq[Int]] = Seq.fill(m) {
+    val vars = new ArrayBuffer[Int]
+    while (vars.size < 3) {
+      val v = 1 + r.nextInt(n)
+      if (!vars.contains(v))
+        vars += v
+    }
+    vars.map(v => if (r.nextBoolean()) v else -v).toSeq
+  }
+
+  /* check results of DRAT and LRAT proofs per trail reuse setting */
+  def checked(n: Int, cls: Seq[Seq[Int]], vivify: Boolean) =
+    for (reuse <- Seq(true, false); format <- Seq(ProofWriter.Format.DRAT, ProofWriter.Format.LRAT)) yield
+      (format, reuse, prove(n, cls, format, reuse, vivify).flatMap { case (lines, _) =>
+        if (format == ProofWriter.Format.DRAT) checkDrat(cls, lines) else checkLrat(cls, lines)
+      })
+
+  def proofT(seed: Int) {
+    val r = new Random(seed)
+    val n = 20 + r.nextInt(20)
+    val cls = random3SAT(r, n, (n * 5.5).toInt)
+
+    ("Random 3-SAT instance " + seed + " (" + n + " variables)") should {
+      "have DRAT and LRAT proofs which check, with and without trail reuse" in {
+        val results = checked(n, cls, false)
+        results must be equalTo results.map { case (format, reuse, _) => (format, reuse, None) }
+      }
+    }
+  }
+
+  for (seed <- 0 until 20)
+    proofT(seed)
+
+  def vivifiedProofT(seed: Int) {
+    val r = new Random(seed)
+    val n = 150 + r.nextInt(20)
+    val cls = random3SAT(r, n, (n * 4.8).toInt)
+
+    ("Random 3-SAT instance " + seed + " (" + n + " variables) with vivification") should {
+      "vivify learnt clauses in its DRAT runs" in {
+        Seq(true, false).map(reuse => prove(n, cls, ProofWriter.Format.DRAT, reuse, true).map(_._2 > 0)) must be equalTo
+          Seq(Some(true), Some(true))
+      }
+      "have DRAT and LRAT proofs which check, with and without trail reuse" in {
+        val results = checked(n, cls, true)
+        results must be equalTo results.map { case (format, reuse, _) => (format, reuse, None) }
+      }
+    }
+  }
+
+  for (seed <- 1 to 2)
+    vivifiedProofT(seed)
+
+  "Proof output" should {
+    "refute the four clauses over two variables" in {
+      val cls = Seq(Seq(1, 2), Seq(1, -2), Seq(-1, 2), Seq(-1, -2))
+      (prove(2, cls, ProofWriter.Format.DRAT, true, false).map(_._1),
+       prove(2, cls, ProofWriter.Format.LRAT, true, false).map(_._1)) must be equalTo
+        ((Some(List("1 0", "0")), Some(List("5 1 0 1 2 0", "6 0 5 3 4 0"))))
+    }
+    "refute units on level 0 by the empty clause with all reasons as hints" in {
+      val cls = Seq(Seq(1), Seq(-1, 2), Seq(-2))
+      (prove(2, cls, ProofWriter.Format.DRAT, true, false).map(_._1),
+       prove(2, cls, ProofWriter.Format.LRAT, true, false).map(_._1)) must be equalTo
+        ((Some(List("0")), Some(List("4 0 1 2 3 0"))))
+    }
+    "be rejected by the checkers if tampered with" in {
+      val cls = Seq(Seq(1, 2), Seq(1, -2), Seq(-1, 2), Seq(-1, -2))
+      (checkDrat(cls, List("0")), checkDrat(cls, List("d 1 3 0", "1 0", "0")),
+       checkLrat(cls, List("5 1 0 1 2 0", "6 0 5 3 0")), checkLrat(cls, List("5 1 0 1 2 0", "5 d 1 2 0", "6 0 5 1 4 0"))) must be equalTo
+        ((Some("lemma in line 1 is not RUP"), Some("line 1 deletes an absent clause"),
+          Some("hints of line 2 do not yield a conflict"), Some("hint 1 in line 3 is unknown or deleted")))
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package pl.decisionprocedures
+
+import org.specs2.mutable.Specification
+import de.stzoit.prover.cnf.{Clause, CNFSolver}
+import scala.util.Random
+
+/**
+ * Tests for learnt clause vivification: random 3-SAT instances at the threshold (DIMACS literals) are solved
+ * with vivification on and off, with and without trail reuse, also incrementally; results have to agree and
+ * models have to verify
+ *
+ * Author: AK
+ * Date:
+ */
+
+class CNFSolverVivificationTest extends Specification {
+
+  args(sequential = true)
+
+  def solver(n: Int, cls: Seq[Seq[Int]], vivify: Boolean, reuse: Boolean): CNFSolver = {
+    val s = new CNFSolver("test")
+    s.setVivification(vivify)
+    s.setTrailReuse(reuse)
+    for (v <- 1 to n)
+      s.newVariable(v.toString)
+    for (c <- cls) {
+      val cl = new Clause(s)
+      c.foreach(l => cl.push(l.toString))
+      s.pushClause(cl)
+    }
+    s
+  }
+
+  var vivified = 0
+
+  /* sat(), sat() with an additional clause between save() and pop(), sat() after pop(), models verify */
+  def results(s: CNFSolver, extra: Seq[Int]) = {
+    val sat = s.sat()
+    val model = !sat || s.verify()
+    s.save()
+    val cl = new Clause(s)
+    extra.foreach(l => cl.push(l.toString))
+    s.pushClause(cl)
+    val pushed = s.sat()
+    val pushedModel = !pushed || s.verify()
+    s.pop()
+    val popped = s.sat()
+    ((sat, model), (pushed, pushedModel), (popped, !popped || s.verify()))
+  }
+
+  def vivificationT(seed: Int) {
+    val r = new Random(seed)
+    val n = 120 + r.nextInt(30)
+    val cls = Seq.fill((n * 4.26).toInt)(Seq.fill(3)((1 + r.nextInt(n)) * (if (r.nextBoolean()) 1 else -1)))
+    val extra = Seq.fill(2)((1 + r.nextInt(n)) * (if (r.nextBoolean()) 1 else -1))
+
+    ("Random 3-SAT instance " + seed + " (" + n + " variables)") should {
+      "be solved alike with vivification on and off, with and without trail reuse" in {
+        val off = results(solver(n, cls, false, true), extra)
+        val on = Seq(true, false).map { reuse =>
+          val s = solver(n, cls, true, reuse)
+          val rs = results(s, extra)
+          vivified += s.getStatistics.statGetNumVivified
+          rs
+        }
+        on must be equalTo Seq(off, off)
+      }
+    }
+  }
+
+  for (seed <- 0 until 20)
+    vivificationT(seed)
+
+  "Vivification" should {
+    "shorten some learnt clauses of the instances above" in {
+      vivified must be greaterThan 0
+    }
+  }
+}
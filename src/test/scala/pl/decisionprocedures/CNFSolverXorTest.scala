@@ -0,0 +1,113 @@
+package pl.decisionprocedures
+
+import org.specs2.mutable.Specification
+import de.stzoit.prover.cnf.{Clause, CNFSolver}
+import scala.util.Random
+
+/**
+ * Tests for the native XOR constraints of the CNFSolver, propagated by Gauss-Jordan elimination and by watches:
+ * random CNFs (DIMACS literals) with XOR constraints are compared to brute-force enumeration, also under
+ * assumptions, after save()/pop() and after recovering the XOR constraints from their CNF encoding
+ *
+ * Author: AK
+ * Date:
+ */
+
+class CNFSolverXorTest extends Specification {
+
+  args(sequential = true)
+
+  case class Xor(lits: Seq[Int], parity: Boolean)
+
+  def lit(l: Int) = CNFSolver.var2lit(math.abs(l), l > 0)
+
+  def value(x: Int, l: Int) = (((x >> (math.abs(l) - 1)) & 1) == 1) == (l > 0)
+
+  def satisfiable(n: Int, cls: Seq[Seq[Int]], xors: Seq[Xor], assumed: Seq[Int]): Boolean =
+    (0 until (1 << n)).exists(x => assumed.forall(value(x, _)) && cls.forall(_.exists(value(x, _))) &&
+      xors.forall(c => c.lits.count(value(x, _)) % 2 == (if (c.parity) 1 else 0)))
+
+  /* clauses excluding all assignments of lits with the wrong parity (lits over distinct variables) */
+  def encode(c: Xor): Seq[Seq[Int]] =
+    (0 until (1 << c.lits.size)).filter(a => (Integer.bitCount(a) % 2 == 1) != c.parity).map(a =>
+      c.lits.zipWithIndex.map { case (l, j) => if (((a >> j) & 1) == 1) -l else l })
+
+  def solver(n: Int, cls: Seq[Seq[Int]], xors: Seq[Xor], gauss: Boolean): CNFSolver = {
+    val s = new CNFSolver("test")
+    s.setGaussElimination(gauss)
+    for (v <- 1 to n)
+      s.newVariable(v.toString)
+    for (c <- cls) {
+      val cl = new Clause(s)
+      c.foreach(l => cl.push(l.toString))
+      s.pushClause(cl)
+    }
+    xors.foreach(c => s.pushXor(c.lits.map(lit).toArray, c.parity))
+    s
+  }
+
+  def randomLits(r: Random, n: Int, k: Int) = Seq.fill(k)((1 + r.nextInt(n)) * (if (r.nextBoolean()) 1 else -1))
+
+  def xorT(seed: Int, gauss: Boolean) {
+    val r = new Random(seed)
+    val n = 3 + r.nextInt(8)
+    val xors = Seq.fill(r.nextInt(n + 3))(Xor(randomLits(r, n, 1 + r.nextInt(math.min(n, 5))), r.nextBoolean()))
+    val cls = Seq.fill(r.nextInt(n))(randomLits(r, n, 1 + r.nextInt(3)))
+    val assumed = Seq(Seq[Int](), randomLits(r, n, 1), randomLits(r, n, 2))
+    val pushed = Xor(randomLits(r, n, 3), r.nextBoolean())
+    val mode = if (gauss) "Gauss-Jordan elimination" else "watches"
+
+    ("CNF " + cls.map(_.mkString("(", " ", ")")).mkString + " with XORs " +
+      xors.map(c => c.lits.mkString("+") + "=" + (if (c.parity) 1 else 0)).mkString(", ")) should {
+      ("be solved like brute force by " + mode + ", also incrementally") in {
+        val s = solver(n, cls, xors, gauss)
+        val results = assumed.map { a =>
+          val sat = s.sat(a.map(lit).toArray)
+          (sat, !sat || s.verify())
+        }
+        s.save()
+        s.pushXor(pushed.lits.map(lit).toArray, pushed.parity)
+        val withPushed = s.sat()
+        val withPushedModel = !withPushed || s.verify()
+        s.pop()
+        val popped = s.sat()
+        (results, (withPushed, withPushedModel), (popped, !popped || s.verify())) must be equalTo
+          ((assumed.map(a => (satisfiable(n, cls, xors, a), true)), (satisfiable(n, cls, xors :+ pushed, Nil), true),
+            (satisfiable(n, cls, xors, Nil), true)))
+      }
+      ("be solved like brute force by " + mode + " after detecting the XORs in their CNF encoding") in {
+        val distinct = xors.filter(c => c.lits.size >= 3 && c.lits.map(math.abs).distinct.size == c.lits.size)
+        val s = solver(n, cls ++ distinct.flatMap(encode), Nil, gauss)
+        val found = s.detectXors(6)
+        val sat = s.sat()
+        (found >= distinct.map(_.lits.map(math.abs).sorted).distinct.size, sat, !sat || s.verify()) must be equalTo
+          ((true, satisfiable(n, cls, distinct, Nil), true))
+      }
+    }
+  }
+
+  for (seed <- 0 until 40; gauss <- List(true, false))
+    xorT(seed, gauss)
+
+  "Gauss-Jordan elimination" should {
+    "propagate XORs of rows, i.e. x3 = x4 from x1+x2+x3 = 0 and x1+x2+x4 = 0" in {
+      val s = solver(4, Nil, Seq(Xor(Seq(1, 2, 3), false), Xor(Seq(1, 2, 4), false)), true)
+      (s.sat(Array(lit(3), lit(-4))), s.sat(Array(lit(3), lit(4)))) must be equalTo ((false, true))
+    }
+    "refute an odd parity cycle" in {
+      val n = 40
+      val s = solver(n, Nil, (1 until n).map(v => Xor(Seq(v, v + 1), false)) :+ Xor(Seq(1, n), true), true)
+      s.sat() must be equalTo false
+    }
+    "derive the variable shared by a parity cycle" in {
+      /* x_v + x_(v+1) + x21 = 0 for v < 20 and x1 + x20 = 1 sum up to x21 = 1 */
+      val n = 20
+      val s = solver(n + 1, Nil, (1 until n).map(v => Xor(Seq(v, v + 1, n + 1), false)) :+ Xor(Seq(1, n), true), true)
+      (s.sat(Array(lit(-(n + 1)))), s.sat(), s.verify(), s.var2val(n + 1)) must be equalTo ((false, true, true, CNFSolver.Val.TRUE))
+    }
+    "recover a single XOR from its four clauses" in {
+      val s = solver(3, encode(Xor(Seq(1, -2, 3), true)), Nil, true)
+      (s.detectXors(3), s.sat(Array(lit(1), lit(2))), s.var2val(3)) must be equalTo ((1, true, CNFSolver.Val.FALSE))
+    }
+  }
+}
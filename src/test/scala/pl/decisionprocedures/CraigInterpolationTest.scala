@@ -0,0 +1,80 @@
+package pl.decisionprocedures
+
+import org.specs2.mutable.Specification
+import org.warthog.generic.formulas.{And, Falsum, Formula, Or, Verum}
+import org.warthog.pl.algorithms.CraigInterpolation
+import org.warthog.pl.formulas._
+import scala.util.Random
+
+/**
+ * Tests for the interpolants read off resolution refutations: for random unsatisfiable partitions A over
+ * x1..x8 and B over x5..x12, the McMillan and the Pudlak interpolant I has to satisfy A |= I, I /\ B unsat
+ * and vars(I) in {x5..x8}, checked by enumerating all assignments
+ *
+ * Author: AK
+ * Date:
+ */
+
+class CraigInterpolationTest extends Specification {
+
+  args(sequential = true)
+
+  val atoms = (1 to 12).map(v => PLAtom("x" + v))
+
+  def assignment(x: Int) = atoms.zipWithIndex.map { case (a, i) => (a, ((x >> i) & 1) == 1) }.toMap
+
+  /* clauses of 2 or 3 distinct variables out of lo..hi */
+  def random(r: Random, lo: Int, hi: Int, m: Int): Formula[PL] = And(Seq.fill(m) {
+    val k = 2 + r.nextInt(2)
+    val vars = new scala.collection.mutable.ArrayBuffer[Int]
+    while (vars.size < k) {
+      val v = lo + r.nextInt(hi - lo + 1)
+      if (!vars.contains(v))
+        vars += v
+    }
+    Or(vars.map(v => if (r.nextBoolean()) atoms(v - 1) else -atoms(v - 1)): _*)
+  }: _*)
+
+  /* (A |= I, I /\ B unsat, vars(I) shared) */
+  def properties(a: Formula[PL], b: Formula[PL], i: Formula[PL]) = {
+    val models = (0 until (1 << 12)).map(assignment)
+    (models.forall(v => !a.eval(v) || i.eval(v)), models.forall(v => !(i.eval(v) && b.eval(v))),
+      i.vars.forall(x => atoms.slice(4, 8).contains(x)))
+  }
+
+  /* the first pair of partitions drawn which is unsatisfiable */
+  def partitions(r: Random): (Formula[PL], Formula[PL]) = {
+    val (a, b) = (random(r, 1, 8, 12 + r.nextInt(8)), random(r, 5, 12, 12 + r.nextInt(8)))
+    if ((0 until (1 << 12)).exists(x => a.eval(assignment(x)) && b.eval(assignment(x)))) partitions(r) else (a, b)
+  }
+
+  def interpolationT(seed: Int) {
+    val (a, b) = partitions(new Random(seed))
+
+    ("The unsatisfiable partitions " + a + " and " + b) should {
+      "have a McMillan interpolant" in {
+        properties(a, b, CraigInterpolation.interpolate(a, b)) must be equalTo ((true, true, true))
+      }
+      "have a Pudlak interpolant" in {
+        properties(a, b, CraigInterpolation.interpolate(a, b, true)) must be equalTo ((true, true, true))
+      }
+    }
+  }
+
+  for (seed <- 0 until 40)
+    interpolationT(seed)
+
+  "CraigInterpolation.interpolate()" should {
+    val (x, s, y) = (atoms(0), atoms(4), atoms(8))
+    "return the shared variable A propagates into B" in {
+      val i = CraigInterpolation.interpolate(And(x, Or(-x, s)), And(Or(-s, y), -y))
+      Seq(false, true).map(v => i.eval(Map(s -> v))) must be equalTo Seq(false, true)
+    }
+    "return false for an A containing the empty clause" in {
+      CraigInterpolation.interpolate(Falsum(), x) must be equalTo Falsum()
+    }
+    "return true for a B containing the empty clause" in {
+      CraigInterpolation.interpolate(x, Falsum()) must be equalTo Verum()
+    }
+  }
+}
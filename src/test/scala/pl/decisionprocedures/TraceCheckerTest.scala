@@ -0,0 +1,107 @@
+package pl.decisionprocedures
+
+import org.specs2.mutable.Specification
+import de.stzoit.prover.cnf.Clause
+import de.stzoit.prover.cnf.tracing.{ProofTracing, TraceChecker}
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, PrintStream}
+import scala.util.Random
+
+/**
+ * Tests for the TraceCheck proof checker: refutations of random 3-SAT instances (more derived clauses than
+ * one checking task takes) are checked as printed and as loaded from the solver, sequentially and in
+ * parallel; a trace whose empty clause is derived from a single antecedent has to fail at that clause
+ *
+ * Author: AK
+ * Date:
+ */
+
+class TraceCheckerTest extends Specification {
+
+  args(sequential = true)
+
+  def checker(trace: String, parallelism: Int): TraceChecker = {
+    val t = new TraceChecker
+    t.setParallelism(parallelism)
+    t.read(new ByteArrayInputStream(trace.getBytes("US-ASCII")))
+    t
+  }
+
+  /* (result of check(), failed clause) */
+  def check(t: TraceChecker) = {
+    val ok = t.check()
+    val failed = t.getFailedClause
+    t.close()
+    (ok, failed)
+  }
+
+  def refutation(seed: Int): Option[ProofTracing] = {
+    val r = new Random(seed)
+    val n = 60 + r.nextInt(20)
+    val s = new ProofTracing
+    for (v <- 1 to n)
+      s.newVariable(v.toString)
+    for (_ <- 0 until n * 5) {
+      val vars = new scala.collection.mutable.ArrayBuffer[Int]
+      while (vars.size < 3) {
+        val v = 1 + r.nextInt(n)
+        if (!vars.contains(v))
+          vars += v
+      }
+      val cl = new Clause(s, s.getNewOriginalId)
+      vars.foreach(v => cl.push((if (r.nextBoolean()) "" else "-") + v))
+      s.pushClause(cl)
+    }
+    if (s.sat()) None else Some(s)
+  }
+
+  def traceT(seed: Int) {
+    ("The refutation of random 3-SAT instance " + seed) should {
+      val solver = refutation(seed)
+      val trace = solver.map { s =>
+        val out = new ByteArrayOutputStream
+        s.printTraceCheckDerivation(new PrintStream(out))
+        out.toString("US-ASCII")
+      }.getOrElse("")
+      /* the empty clause keeps its first antecedent only */
+      val tokens = trace.split("\n").map(_.trim.split("\\s+")).find(t => t.length > 3 && t(1) == "0").getOrElse(Array("0"))
+      val tampered = trace.split("\n").map(l => if (l.trim.split("\\s+").sameElements(tokens)) tokens(0) + " 0 " + tokens(2) + " 0" else l)
+
+      "exist" in {
+        solver.isDefined must be equalTo true
+      }
+      "check as printed, sequentially and in parallel" in {
+        (check(checker(trace, 1)), check(checker(trace, 4))) must be equalTo ((true, 0L), (true, 0L))
+      }
+      "check as loaded from the solver" in {
+        val t = new TraceChecker
+        solver.foreach(t.load(_))
+        check(t) must be equalTo ((true, 0L))
+      }
+      "fail at the empty clause if it is not derived by its antecedents" in {
+        check(checker(tampered.mkString("\n") + "\n", 4)) must be equalTo ((false, tokens(0).toLong))
+      }
+    }
+  }
+
+  for (seed <- 0 until 12)
+    traceT(seed)
+
+  "TraceChecker" should {
+    val trace = "1 1 2 0 0\n2 -1 2 0 0\n3 1 -2 0 0\n4 -1 -2 0 0\n5 2 0 1 2 0\n6 -2 0 3 4 0\n7 0 5 6 0\n"
+    "accept a resolution proof" in {
+      check(checker(trace, 2)) must be equalTo ((true, 0L))
+    }
+    "reject a clause which neither the chain nor RUP of its antecedents derives" in {
+      check(checker(trace.replace("5 2 0 1 2 0", "5 2 0 1 3 0"), 2)) must be equalTo ((false, 5L))
+    }
+    "reject missing antecedents" in {
+      check(checker(trace.replace("7 0 5 6 0", "7 0 5 8 0"), 2)) must be equalTo ((false, -1L))
+    }
+    "reject proofs without the empty clause" in {
+      check(checker(trace.replace("7 0 5 6 0", "7 -1 0 5 6 0"), 2)) must be equalTo ((false, -1L))
+    }
+    "reject cyclic proofs" in {
+      check(checker(trace.replace("5 2 0 1 2 0", "5 2 0 1 2 7 0"), 2)) must be equalTo ((false, -1L))
+    }
+  }
+}
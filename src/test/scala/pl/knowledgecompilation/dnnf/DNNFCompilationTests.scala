@@ -8,6 +8,8 @@ import pl.F
 import org.specs2.mutable._
 import org.specs2.specification._
 import org.warthog.pl.decisionprocedures.satsolver.impl.picosat.Picosat
+import de.stzoit.prover.cnf.CNFSolver
+import scala.util.Random
 
 
 /**
@@ -23,25 +25,57 @@ class DNNFCompilationTests extends Specification {
 
   args(sequential = true)
 
-  def compileT(f: Formula[PL], dnnf: DNNF): Fragments =
-    "Compilation of " + f should {
-      ("return " + dnnf + " using the Simple Compiler") in {
-        compile(Simple, f) must be equalTo dnnf
-      }
-      ("return " + dnnf + " using the Advanced Compiler") in {
-        compile(Advanced, f) must be equalTo dnnf
+  /* a compiler with its options, which are set for the duration of a test */
+  case class Mode(name: String, version: CompilerVersion, threads: Int = 1, partitioned: Boolean = false, vsads: Boolean = false) {
+    def apply[T](body: => T): T = {
+      compilerThreads = threads
+      compilerParallelThreshold = 1 /* fork every independent subtree */
+      partitionedDTrees = partitioned
+      vsadsHeuristic = vsads
+      try body finally {
+        compilerThreads = 1
+        compilerParallelThreshold = 32
+        partitionedDTrees = false
+        vsadsHeuristic = false
       }
     }
+  }
+
+  /* the advanced compiler branches on unsubsumed occurrences unless VSADS is set */
+  val modes = List(
+    Mode("the Simple Compiler", Simple),
+    Mode("the Advanced Compiler", Advanced),
+    Mode("the Dynamic Compiler", Dynamic),
+    Mode("the parallel Simple Compiler", Simple, threads = 4),
+    Mode("the parallel Advanced Compiler", Advanced, threads = 4),
+    Mode("the Simple Compiler with partitioned dtrees", Simple, partitioned = true),
+    Mode("the Advanced Compiler with partitioned dtrees", Advanced, partitioned = true),
+    Mode("the Advanced Compiler with VSADS", Advanced, vsads = true))
 
-  def picoCheck(f: Formula[PL]): Fragments =
-    "Checking equality of " + f + " and its compiled DNNF using Picosat" should {
-      ("return true using the Simple Compiler") in {
-        checkEquality(f, compile(Simple, f), ps) must be greaterThan 0
+  /* And and Or compare by identity, thus compare the structure with unordered children */
+  def structure(dnnf: DNNF): Any = dnnf match {
+    case And(args@_*) => ("AND", args.map(structure).toSet)
+    case Or(args@_*)  => ("OR", args.map(structure).toSet)
+    case other        => other
+  }
+
+  def compileT(f: Formula[PL], dnnf: DNNF) {
+    for (m <- modes)
+      ("Compilation of " + f + " using " + m.name) should {
+        ("return " + dnnf) in {
+          structure(m(compile(m.version, f))) must be equalTo structure(dnnf)
+        }
       }
-      ("return true using the Advanced Compiler") in {
-        checkEquality(f, compile(Advanced, f), ps) must be greaterThan 0
+  }
+
+  def picoCheck(f: Formula[PL]) {
+    for (m <- modes)
+      ("Checking equality of " + f + " and its compiled DNNF using Picosat and " + m.name) should {
+        "return true" in {
+          checkEquality(f, m(compile(m.version, f)), ps) must be greaterThan 0
+        }
       }
-    }
+  }
 
 
   compileT(F.x.pl, StringLit("x", true))
@@ -63,4 +97,46 @@ class DNNFCompilationTests extends Specification {
   picoCheck(F.nxoyoz.pl)
   picoCheck(F.xyoz_br.pl)
   picoCheck(F.xorequiv1_br.pl)
+
+  /* models of the DNNF of m over the variables 1..n */
+  def models(m: ManagedDNNF, n: Int): Seq[Int] =
+    (0 until (1 << n)).filter(x => m.manager.isSatisfiable(m.manager.condition(m.root, SmallCNFs.assignment(n, x): _*)))
+
+  /* the variables of cls renumbered 1..n in increasing order, as the dtree compilers expect */
+  def compact(cls: Array[Array[Int]]): (Int, Array[Array[Int]]) = {
+    val vars = cls.flatten.map(CNFSolver.lit2var(_)).distinct.sorted
+    (vars.size, cls.map(_.map(l => CNFSolver.var2lit(vars.indexOf(CNFSolver.lit2var(l)) + 1, CNFSolver.sign(l)))))
+  }
+
+  def managerT(seed: Int) {
+    val r = new Random(seed)
+    val n0 = 1 + r.nextInt(8)
+    val (n, cls) = compact(SmallCNFs.random(r, n0, r.nextInt(4 * n0 + 1)).filterNot(c => c.exists(l => c.contains(l ^ 1))))
+    val clauses = cls.map(_.map(l => Lit(CNFSolver.lit2var(l), CNFSolver.sign(l))).toSet).toList
+
+    for (m <- modes)
+      ("CNF " + SmallCNFs.show(cls) + " compiled into a DNNFManager by " + m.name) should {
+        "have the models of the CNF" in {
+          val d = m(compileToManager(m.version, clauses))
+          (d.countModels(n), models(d, n)) must be equalTo ((BigInt(SmallCNFs.models(n, cls).size), SmallCNFs.models(n, cls)))
+        }
+      }
+  }
+
+  for (seed <- 0 until 40)
+    managerT(seed)
+
+  "compileToManager" should {
+    "pass the manager of the Dynamic Compiler through" in {
+      val d = compileToManager(Dynamic, List(Set(Lit(1, true), Lit(2, true)), Set(Lit(1, false))))
+      (d.nodeCount, d.countModels(2), structure(d.toDNNF)) must be equalTo ((3L, BigInt(1), ("AND", Set(Lit(1, false), Lit(2, true)))))
+    }
+    "return true for no clauses" in {
+      modes.map(m => m(compileToManager(m.version, Nil).root)) must be equalTo modes.map(_ => 1)
+    }
+    "return false for clauses refuted by unit propagation in the Advanced and the Dynamic Compiler" in {
+      val managed = modes.filter(_.version != Simple)
+      managed.map(m => m(compileToManager(m.version, List(Set(Lit(1, true)), Set(Lit(1, false)))).root)) must be equalTo managed.map(_ => 0)
+    }
+  }
 }
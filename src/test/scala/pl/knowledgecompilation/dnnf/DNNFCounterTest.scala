@@ -0,0 +1,136 @@
+package pl.knowledgecompilation.dnnf
+
+import org.specs2.mutable.Specification
+import de.stzoit.prover.cnf.CNFSolver
+import de.stzoit.prover.dnnf.{DNNFCounter, DNNFManager, DecisionDNNFCompiler}
+import java.math.{BigDecimal, BigInteger}
+import scala.util.Random
+
+/**
+ * Tests for weighted model counting and marginals on d-DNNFs, the double, log-space and exact modes are
+ * compared to brute-force enumeration on small random CNFs (with variables beyond those of the CNF, which
+ * have to be smoothed in), one example per CNF and weights
+ *
+ * Author: AK
+ * Date:
+ */
+
+class DNNFCounterTest extends Specification {
+
+  args(sequential = true)
+
+  /* weights are multiples of 1/4, thus the weighted counts of small CNFs are exact in double */
+  case class Instance(n: Int, cls: Array[Array[Int]], pos: Array[BigDecimal], neg: Array[BigDecimal]) {
+    val c = new DecisionDNNFCompiler(n, cls)
+    val root = c.compile()
+
+    def counter(numVariables: Int) = new DNNFCounter(c.getManager, root, numVariables)
+
+    def weight(x: Int, numVariables: Int): BigDecimal =
+      (1 to numVariables).foldLeft(BigDecimal.ONE)((w, v) => w.multiply(if (SmallCNFs.value(x, v)) pos(v) else neg(v)))
+
+    /* models over the variables 1..numVariables */
+    def models(numVariables: Int): Seq[Int] = SmallCNFs.models(numVariables, cls)
+
+    def count(numVariables: Int): BigDecimal =
+      models(numVariables).foldLeft(BigDecimal.ZERO)((s, x) => s.add(weight(x, numVariables)))
+
+    def marginal(numVariables: Int, lit: Int): BigDecimal =
+      models(numVariables).filter(SmallCNFs.satisfies(_, lit)).foldLeft(BigDecimal.ZERO)((s, x) => s.add(weight(x, numVariables)))
+  }
+
+  def lits(numVariables: Int) = 2 until 2 * (numVariables + 1)
+
+  def close(a: Double, b: Double) = math.abs(a - b) <= 1e-9 * math.max(1.0, math.abs(b))
+
+  def doubles(a: Array[BigDecimal]) = a.map(x => if (x == null) 0.0 else x.doubleValue)
+
+  def logs(a: Array[BigDecimal]) = doubles(a).map(math.log(_))
+
+  /* numeric comparison, i.e. independent of the scale */
+  def exact(x: BigDecimal) = scala.math.BigDecimal(x)
+
+  def weights(i: Instance, numVariables: Int) =
+    (1 to numVariables).map(v => v + ":" + i.pos(v).toPlainString + "/" + i.neg(v).toPlainString).mkString(" ")
+
+  def counterT(seed: Int) {
+    val r = new Random(seed)
+    val n = 1 + r.nextInt(8)
+    val nv = n + r.nextInt(3)
+    def w = new BigDecimal(r.nextInt(5)).divide(new BigDecimal(4))
+    val i = Instance(n, SmallCNFs.random(r, n, r.nextInt(4 * n + 1)), Array.fill(nv + 1)(w), Array.fill(nv + 1)(w))
+
+    ("CNF " + SmallCNFs.show(i.cls) + " over " + nv + " variables with weights " + weights(i, nv)) should {
+      "have its models counted" in {
+        i.counter(nv).countModels must be equalTo BigInteger.valueOf(i.models(nv).size)
+      }
+      "have its weighted model count computed in double and exact mode" in {
+        val k = i.counter(nv)
+        (k.count(doubles(i.pos), doubles(i.neg)), exact(k.count(i.pos, i.neg))) must be equalTo
+          ((i.count(nv).doubleValue, exact(i.count(nv))))
+      }
+      "have the logarithm of its weighted model count computed in log mode" in {
+        val expected = i.count(nv).doubleValue
+        val log = i.counter(nv).logCount(logs(i.pos), logs(i.neg))
+        if (expected == 0.0) log must be equalTo Double.NegativeInfinity
+        else math.exp(log) must beCloseTo(expected, 1e-9 * math.max(1.0, expected))
+      }
+      "have the marginals of its literals computed in exact mode" in {
+        val e = i.counter(nv).marginals(i.pos, i.neg)
+        lits(nv).map(l => exact(e(l))) must be equalTo lits(nv).map(l => exact(i.marginal(nv, l)))
+      }
+      "have the marginals of its literals computed in double and log mode" in {
+        val k = i.counter(nv)
+        val d = k.marginals(doubles(i.pos), doubles(i.neg))
+        val lg = k.logMarginals(logs(i.pos), logs(i.neg))
+        /* (literal, double, log mode) where one of them is wrong */
+        lits(nv).map(l => (l, d(l), lg(l), i.marginal(nv, l).doubleValue)).filterNot { case (_, dl, ll, m) =>
+          close(dl, m) && (if (m == 0.0) ll == Double.NegativeInfinity else close(math.exp(ll), m))
+        } must be empty
+      }
+    }
+  }
+
+  for (seed <- 0 until 60)
+    counterT(seed)
+
+  def lit(l: Int) = CNFSolver.var2lit(math.abs(l), l > 0)
+
+  "DNNFCounter" should {
+    /* (x1 | x2), P(x1)=1/2, P(x2)=1/4: models 11 (1/8), 10 (3/8), 01 (1/8) */
+    val clause = Instance(2, Array(Array(lit(1), lit(2))), Array(null, new BigDecimal("0.5"), new BigDecimal("0.25")),
+                          Array(null, new BigDecimal("0.5"), new BigDecimal("0.75")))
+    "count a clause over two variables" in {
+      (clause.counter(2).countModels.intValue, clause.counter(2).count(doubles(clause.pos), doubles(clause.neg))) must be equalTo ((3, 0.625))
+    }
+    "return the marginals of a clause over two variables" in {
+      clause.counter(2).marginals(doubles(clause.pos), doubles(clause.neg)).drop(2).toSeq must be equalTo Seq(0.125, 0.5, 0.375, 0.25)
+    }
+    "smooth in variables which do not occur" in {
+      val unit = Instance(1, Array(Array(lit(1))), Array.fill(4)(BigDecimal.ONE), Array.fill(4)(BigDecimal.ONE))
+      Seq(1, 2, 3).map(unit.counter(_).countModels.intValue) must be equalTo Seq(1, 2, 4)
+    }
+    "count beyond the range of double" in {
+      new DNNFCounter(new DNNFManager, DNNFManager.TRUE, 2000).countModels must be equalTo BigInteger.ONE.shiftLeft(2000)
+    }
+    "count beyond the range of double in log mode" in {
+      val zero = Array.fill(2001)(0.0)
+      new DNNFCounter(new DNNFManager, DNNFManager.TRUE, 2000).logCount(zero, zero) must beCloseTo(2000 * math.log(2), 1e-6)
+    }
+    "return consistent results for repeated queries with changing weights" in {
+      val r = new Random(5)
+      val i = Instance(6, SmallCNFs.random(r, 6, 12), Array.fill(7)(BigDecimal.ONE), Array.fill(7)(BigDecimal.ONE))
+      val k = i.counter(6)
+      /* queries whose count or marginals differ from brute force */
+      (0 until 50).filterNot { _ =>
+        for (v <- 1 to 6) {
+          i.pos(v) = new BigDecimal(r.nextInt(5)).divide(new BigDecimal(4))
+          i.neg(v) = new BigDecimal(r.nextInt(5)).divide(new BigDecimal(4))
+        }
+        val d = k.marginals(doubles(i.pos), doubles(i.neg))
+        close(k.count(doubles(i.pos), doubles(i.neg)), i.count(6).doubleValue) &&
+          lits(6).forall(l => close(d(l), i.marginal(6, l).doubleValue))
+      } must be empty
+    }
+  }
+}
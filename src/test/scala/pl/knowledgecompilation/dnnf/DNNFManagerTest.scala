@@ -0,0 +1,94 @@
+package pl.knowledgecompilation.dnnf
+
+import org.specs2.mutable.Specification
+import de.stzoit.prover.cnf.CNFSolver
+import de.stzoit.prover.dnnf.{DNNFCounter, DNNFManager, DecisionDNNFCompiler}
+import scala.util.Random
+
+/**
+ * Tests for the queries and transformations of DNNFManager on compiled d-DNNFs, results are compared to
+ * brute-force enumeration on small random CNFs, one example per CNF and query
+ *
+ * Author: AK
+ * Date:
+ */
+
+class DNNFManagerTest extends Specification {
+
+  args(sequential = true)
+
+  def lit(l: Int) = CNFSolver.var2lit(math.abs(l), l > 0)
+
+  def managerT(seed: Int) {
+    val r = new Random(seed)
+    val n = 1 + r.nextInt(9)
+    val cls = SmallCNFs.random(r, n, r.nextInt(4 * n + 1))
+    /* literals to condition on (complementary pairs dropped), variables to project on */
+    val lits = Array.fill(r.nextInt(3))(CNFSolver.var2lit(1 + r.nextInt(n), r.nextBoolean())).distinct
+    val cond = lits.filterNot(l => lits.contains(l ^ 1))
+    val keep = Array.fill(n + 1)(r.nextBoolean())
+    val c = new DecisionDNNFCompiler(n, cls)
+    val root = c.compile()
+    val m = c.getManager
+    val models = SmallCNFs.models(n, cls)
+
+    ("CNF " + SmallCNFs.show(cls) + " over " + n + " variables") should {
+      ("keep the models agreeing with " + SmallCNFs.show(Array(cond)) + " when conditioned, their variables become free") in {
+        val free = cond.map(CNFSolver.lit2var(_)).distinct.size
+        val agreeing = models.count(x => cond.forall(SmallCNFs.satisfies(x, _)))
+        new DNNFCounter(m, m.condition(root, cond: _*), n).countModels.longValue must be equalTo agreeing.toLong << free
+      }
+      ("keep the projections of its models on the variables " + (1 to n).filter(keep(_)).mkString("{", ",", "}")) in {
+        val kept = (1 to n).filter(keep(_)).map(v => 1 << (v - 1)).sum
+        val p = m.project(root, keep)
+        (0 until (1 << n)).filter(x => (x & ~kept) == 0).filter { x =>
+          val assigned = (1 to n).filter(keep(_)).map(v => CNFSolver.var2lit(v, SmallCNFs.value(x, v)))
+          m.isSatisfiable(m.condition(p, assigned: _*))
+        } must be equalTo models.map(_ & kept).distinct.sorted
+      }
+      "return its satisfiability and the minimum number of negative literals of its models" in {
+        val negatives = models.map(x => n - (1 to n).count(SmallCNFs.value(x, _)))
+        (m.isSatisfiable(root), m.minCardinality(root)) must be equalTo
+          ((!negatives.isEmpty, if (negatives.isEmpty) -1L else negatives.min.toLong))
+      }
+    }
+  }
+
+  for (seed <- 0 until 100)
+    managerT(seed)
+
+  "and() and or()" should {
+    val m = new DNNFManager
+    val x = m.literalNode(1, true)
+    val y = m.literalNode(2, false)
+    "fold neutral and absorbing constants" in {
+      Seq(m.and(x, DNNFManager.TRUE), m.and(x, DNNFManager.FALSE), m.or(x, DNNFManager.TRUE), m.or()) must be equalTo
+        Seq(x, DNNFManager.FALSE, DNNFManager.TRUE, DNNFManager.FALSE)
+    }
+    "merge structurally equal nodes" in {
+      Seq(m.and(y, x, y), m.literalNode(1, true)) must be equalTo Seq(m.and(x, y), x)
+    }
+  }
+
+  "DNNFManager" should {
+    /* x1 xor x2 */
+    val m = new DNNFManager
+    val (x1, n1, x2, n2) = (m.literalNode(lit(1)), m.literalNode(lit(-1)), m.literalNode(lit(2)), m.literalNode(lit(-2)))
+    val xor = m.or(m.and(x1, n2), m.and(n1, x2))
+    "count the nodes and edges reachable from a root" in {
+      (m.nodeCount(xor), m.edgeCount(xor)) must be equalTo ((7, 6L))
+    }
+    "condition on literals, ignoring variables which do not occur" in {
+      Seq(m.condition(xor, lit(1)), m.condition(xor, lit(1), lit(2)), m.condition(xor, lit(3))) must be equalTo
+        Seq(n2, DNNFManager.FALSE, xor)
+    }
+    "project on some, none and all variables" in {
+      Seq(m.project(xor, Array(false, true, false)), m.project(xor, new Array[Boolean](3)), m.project(xor, Array(false, true, true))) must be equalTo
+        Seq(m.or(x1, n1), DNNFManager.TRUE, xor)
+    }
+    "return the minimum number of negative literals of the models" in {
+      Seq(m.minCardinality(xor), m.minCardinality(m.and(n1, n2)), m.minCardinality(DNNFManager.TRUE), m.minCardinality(DNNFManager.FALSE)) must be equalTo
+        Seq(1L, 2L, 0L, -1L)
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package pl.knowledgecompilation.dnnf
+
+import org.specs2.mutable.Specification
+import de.stzoit.prover.cnf.CNFSolver
+import de.stzoit.prover.dnnf.{DNNFCounter, DNNFManager, DecisionDNNFCompiler}
+import scala.util.Random
+
+/**
+ * Tests for the decision-DNNF compiler, model counts and models of the compiled DNNFs are compared to
+ * brute-force enumeration on small random CNFs, one example per CNF
+ *
+ * Author: AK
+ * Date:
+ */
+
+class DecisionDNNFCompilerTest extends Specification {
+
+  args(sequential = true)
+
+  /* (model count, models) of the compiled DNNF over the variables 1..n */
+  def compiled(c: DecisionDNNFCompiler, n: Int) = {
+    val root = c.compile()
+    val m = c.getManager
+    (new DNNFCounter(m, root, n).countModels.longValue,
+      (0 until (1 << n)).filter(x => m.isSatisfiable(m.condition(root, SmallCNFs.assignment(n, x): _*))))
+  }
+
+  def expected(n: Int, cls: Array[Array[Int]]) = (SmallCNFs.models(n, cls).size.toLong, SmallCNFs.models(n, cls))
+
+  def compilerT(seed: Int) {
+    val r = new Random(seed)
+    val n = 1 + r.nextInt(10)
+    val cls = SmallCNFs.random(r, n, r.nextInt(4 * n + 1))
+
+    ("CNF " + SmallCNFs.show(cls) + " over " + n + " variables") should {
+      "be compiled into a DNNF with its models and model count" in {
+        compiled(new DecisionDNNFCompiler(n, cls), n) must be equalTo expected(n, cls)
+      }
+      "be compiled alike with a small cache and other heuristic weights" in {
+        val c = new DecisionDNNFCompiler(n, cls, 1024L)
+        c.setHeuristicWeights(0.0, 1.0)
+        compiled(c, n) must be equalTo expected(n, cls)
+      }
+    }
+  }
+
+  for (seed <- 0 until 100)
+    compilerT(seed)
+
+  def lit(l: Int) = CNFSolver.var2lit(math.abs(l), l > 0)
+
+  "DecisionDNNFCompiler" should {
+    "return false for CNFs which are unsatisfiable at level 0" in {
+      val cls = Array(Array(lit(1)), Array(lit(-1)))
+      new DecisionDNNFCompiler(1, cls).compile() must be equalTo DNNFManager.FALSE
+    }
+    "return false for CNFs which are refuted by search" in {
+      val cls = SmallCNFs.models(3, Array[Array[Int]]()).map(x => SmallCNFs.assignment(3, x).map(_ ^ 1)).toArray
+      new DecisionDNNFCompiler(3, cls).compile() must be equalTo DNNFManager.FALSE
+    }
+    "return true for the empty CNF" in {
+      new DecisionDNNFCompiler(3, Array[Array[Int]]()).compile() must be equalTo DNNFManager.TRUE
+    }
+    "decompose independent clauses into a conjunction of their DNNFs" in {
+      val cls = Array(Array(lit(1), lit(2)), Array(lit(3), lit(4)))
+      val c = new DecisionDNNFCompiler(4, cls)
+      val root = c.compile()
+      (c.getManager.kind(root), c.getManager.numChildren(root), compiled(new DecisionDNNFCompiler(4, cls), 4)._1) must be equalTo
+        ((DNNFManager.AND, 2, 9L))
+    }
+    "count the models of an exactly-one constraint" in {
+      val cls = Array(Array(lit(1), lit(2), lit(3)), Array(lit(-1), lit(-2)), Array(lit(-1), lit(-3)), Array(lit(-2), lit(-3)))
+      compiled(new DecisionDNNFCompiler(3, cls), 3) must be equalTo ((3L, Seq(1, 2, 4)))
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package pl.knowledgecompilation.dnnf
+
+import org.specs2.mutable.Specification
+import de.stzoit.prover.dnnf.{DNNFCounter, DNNFManager, DecisionDNNFCompiler, NNFFormat}
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, File, IOException}
+import scala.util.Random
+
+/**
+ * Tests for reading and writing DNNFs in the c2d text format and its binary variant, compiled DNNFs of small
+ * random CNFs are written and read back through (memory mapped) files and streams, one example per CNF and
+ * format
+ *
+ * Author: AK
+ * Date:
+ */
+
+class NNFFormatTest extends Specification {
+
+  args(sequential = true)
+
+  def stream(s: String) = new ByteArrayInputStream(s.getBytes("US-ASCII"))
+
+  /* root of the DNNF read back into a new manager after writing root of m */
+  def viaFile(m: DNNFManager, root: Int, binary: Boolean, read: DNNFManager): Int = {
+    val f = File.createTempFile("nnf", ".nnf")
+    try {
+      if (binary) NNFFormat.writeBinary(m, root, f) else NNFFormat.write(m, root, f)
+      NNFFormat.read(f, read)
+    } finally {
+      f.delete()
+    }
+  }
+
+  def viaStream(m: DNNFManager, root: Int, binary: Boolean, read: DNNFManager): Int = {
+    val out = new ByteArrayOutputStream
+    if (binary) NNFFormat.writeBinary(m, root, out) else NNFFormat.write(m, root, out)
+    NNFFormat.read(new ByteArrayInputStream(out.toByteArray), read)
+  }
+
+  def formatT(seed: Int) {
+    val r = new Random(seed)
+    val n = 1 + r.nextInt(12)
+    val cls = SmallCNFs.random(r, n, r.nextInt(4 * n + 1))
+    val c = new DecisionDNNFCompiler(n, cls)
+    val (m, root) = (c.getManager, c.compile())
+
+    for (binary <- List(false, true); file <- List(true, false))
+      ("The DNNF of CNF " + SmallCNFs.show(cls) + " over " + n + " variables in the " + (if (binary) "binary" else "text") +
+        " format through " + (if (file) "files" else "streams")) should {
+        "keep its models and size" in {
+          val read = new DNNFManager
+          val back = if (file) viaFile(m, root, binary, read) else viaStream(m, root, binary, read)
+          (new DNNFCounter(read, back, n).countModels, read.nodeCount(back), read.edgeCount(back)) must be equalTo
+            ((java.math.BigInteger.valueOf(SmallCNFs.models(n, cls).size), m.nodeCount(root), m.edgeCount(root)))
+        }
+      }
+  }
+
+  for (seed <- 0 until 50)
+    formatT(seed)
+
+  "Writing DNNFs" should {
+    "declare the largest variable of a single literal" in {
+      val m = new DNNFManager
+      val out = new ByteArrayOutputStream
+      NNFFormat.write(m, m.literalNode(3, false), out)
+      out.toString("US-ASCII") must be equalTo "nnf 1 0 3\nL -3\n"
+    }
+    "keep the constants in the binary format" in {
+      val m = new DNNFManager
+      Seq(DNNFManager.FALSE, DNNFManager.TRUE).map(viaStream(m, _, true, new DNNFManager)) must be equalTo
+        Seq(DNNFManager.FALSE, DNNFManager.TRUE)
+    }
+  }
+
+  "Reading the text format" should {
+    val xor = "c x xor -y\nnnf 7 6 2\nL 1\nL -2\nA 2 0 1\nL -1\nL 2\nA 2 3 4\nO 1 2 2 5\n"
+    "read c2d files with comments" in {
+      val m = new DNNFManager
+      new DNNFCounter(m, NNFFormat.read(stream(xor), m), 2).countModels.intValue must be equalTo 2
+    }
+    "write what it has read, without comments and decision variables" in {
+      val m = new DNNFManager
+      val out = new ByteArrayOutputStream
+      NNFFormat.write(m, NNFFormat.read(stream(xor), m), out)
+      out.toString("US-ASCII") must be equalTo "nnf 7 6 2\nL 1\nL -2\nA 2 0 1\nL -1\nL 2\nA 2 3 4\nO 0 2 2 5\n"
+    }
+    "read the constants, also with CRLF line breaks" in {
+      val m = new DNNFManager
+      Seq(NNFFormat.read(stream("nnf 1 0 0\nA 0\n"), m), NNFFormat.read(stream("nnf 1 0 0\r\nO 0 0\r\n"), m)) must be equalTo
+        Seq(DNNFManager.TRUE, DNNFManager.FALSE)
+    }
+    "reject children which do not precede their parents" in {
+      NNFFormat.read(stream("nnf 2 1 1\nL 1\nA 1 1\n"), new DNNFManager) must throwA[IOException]
+    }
+    "reject more nodes than declared" in {
+      NNFFormat.read(stream("nnf 1 0 1\nL 1\nL -1\n"), new DNNFManager) must throwA[IOException]
+    }
+    "reject unknown node types" in {
+      NNFFormat.read(stream("nnf 1 0 1\nX 1\n"), new DNNFManager) must throwA[IOException]
+    }
+  }
+}
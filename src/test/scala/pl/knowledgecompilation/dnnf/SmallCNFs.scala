@@ -0,0 +1,33 @@
+package pl.knowledgecompilation.dnnf
+
+import scala.util.Random
+import de.stzoit.prover.cnf.CNFSolver
+
+/**
+ * Small random CNFs (CNFSolver literal encoding) and their models by brute-force enumeration,
+ * a model x over the variables 1..n assigns bit v-1 of x to variable v
+ *
+ * Author: AK
+ * Date:
+ */
+
+object SmallCNFs {
+
+  def random(r: Random, n: Int, m: Int): Array[Array[Int]] =
+    Array.fill(m)(Array.fill(1 + r.nextInt(3))(CNFSolver.var2lit(1 + r.nextInt(n), r.nextBoolean())))
+
+  def value(x: Int, v: Int): Boolean = ((x >> (v - 1)) & 1) == 1
+
+  def satisfies(x: Int, lit: Int): Boolean = value(x, CNFSolver.lit2var(lit)) == CNFSolver.sign(lit)
+
+  def models(n: Int, cls: Array[Array[Int]]): Seq[Int] =
+    (0 until (1 << n)).filter(x => cls.forall(_.exists(satisfies(x, _))))
+
+  /* DIMACS notation, e.g. "(1 -2)(3)", to name an instance */
+  def show(cls: Array[Array[Int]]): String =
+    cls.map(_.map(l => if (CNFSolver.sign(l)) CNFSolver.lit2var(l) else -CNFSolver.lit2var(l)).mkString("(", " ", ")")).mkString
+
+  /* the literals of model x */
+  def assignment(n: Int, x: Int): Array[Int] =
+    (1 to n).map(v => CNFSolver.var2lit(v, value(x, v))).toArray
+}